@@ -0,0 +1,114 @@
+
+package info.freelibrary.sodbox.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.Storage;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Base class of benchmarks working with a temporary database file.
+ */
+public abstract class AbstractStorageBenchmark {
+
+    /**
+     * Page pool size used by the benchmarks.
+     */
+    protected static final long PAGE_POOL_SIZE = 64L * 1024 * 1024;
+
+    protected Storage myStorage;
+
+    protected File myFile;
+
+    /**
+     * Persistent object used by the benchmarks.
+     */
+    public static class Record extends Persistent {
+
+        long myKey;
+
+        String myName;
+
+        int[] myValues;
+
+        public Record() {
+        }
+
+        public Record(final long aKey, final int aPayloadSize) {
+            myKey = aKey;
+            myName = "record-" + aKey;
+            myValues = new int[aPayloadSize];
+
+            for (int index = 0; index < aPayloadSize; index++) {
+                myValues[index] = (int) aKey + index;
+            }
+        }
+    }
+
+    /**
+     * Create temporary database file and open storage.
+     *
+     * @param aProperties Storage properties
+     * @return Opened storage
+     * @throws IOException If temporary file can not be created
+     */
+    protected Storage openStorage(final Properties aProperties) throws IOException {
+        myFile = File.createTempFile("sodbox-benchmark", ".dbs");
+        myStorage = StorageFactory.getInstance().createStorage();
+        myStorage.setProperties(aProperties);
+        myStorage.open(myFile.getPath(), PAGE_POOL_SIZE);
+        return myStorage;
+    }
+
+    /**
+     * Open storage with default properties.
+     *
+     * @return Opened storage
+     * @throws IOException If temporary file can not be created
+     */
+    protected Storage openStorage() throws IOException {
+        return openStorage(new Properties());
+    }
+
+    /**
+     * Close storage and remove the database file.
+     */
+    protected void closeStorage() {
+        if (myStorage != null) {
+            myStorage.close();
+            myStorage = null;
+        }
+
+        if (myFile != null) {
+            myFile.delete();
+            myFile = null;
+        }
+    }
+
+    /**
+     * Scramble the number, so that sequential counters produce keys spread over the whole key range. Numbers from 0
+     * to aRange - 1 are mapped to different keys, unless the range is a multiple of the prime multiplier.
+     *
+     * @param aNumber Sequential number
+     * @param aRange Number of keys
+     * @return Key in the range [0, aRange)
+     */
+    protected static long scramble(final long aNumber, final long aRange) {
+        return aNumber % aRange * 1000003L % aRange;
+    }
+
+    /**
+     * Discard changes made by the benchmark. Objects referenced by the benchmark are invalidated by rollback, so root
+     * object should be fetched from the storage once again.
+     *
+     * @return Root object of the storage
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> T rollback() {
+        myStorage.rollback();
+        return (T) myStorage.getRoot();
+    }
+}
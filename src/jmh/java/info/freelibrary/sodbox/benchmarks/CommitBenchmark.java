@@ -0,0 +1,101 @@
+
+package info.freelibrary.sodbox.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import info.freelibrary.sodbox.FieldIndex;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.Storage;
+
+/**
+ * Measures latency of transactions updating a number of objects and committed either by switching shadow object index
+ * ("shadow") or by appending a record to the redo log ("redo").
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CommitBenchmark extends AbstractStorageBenchmark {
+
+    /**
+     * Number of objects in the database.
+     */
+    static final int OBJECTS = 10000;
+
+    @Param({ "shadow", "redo" })
+    public String mode;
+
+    @Param({ "1", "100" })
+    public int objectsPerTransaction;
+
+    private Record[] myRecords;
+
+    private int myCounter;
+
+    private File myLogFile;
+
+    /**
+     * Root object of the benchmark database.
+     */
+    public static class Root extends Persistent {
+
+        FieldIndex<Record> myIndex;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        final Properties properties = new Properties();
+
+        if ("redo".equals(mode)) {
+            myLogFile = File.createTempFile("sodbox-benchmark", ".log");
+            properties.setProperty("sodbox.redo.log.file", myLogFile.getPath());
+        }
+
+        final Storage storage = openStorage(properties);
+        final Root root = new Root();
+
+        root.myIndex = storage.createFieldIndex(Record.class, "myKey", true);
+        storage.setRoot(root);
+        myRecords = new Record[OBJECTS];
+
+        for (int index = 0; index < OBJECTS; index++) {
+            myRecords[index] = new Record(index, 4);
+            root.myIndex.put(myRecords[index]);
+        }
+
+        storage.commit();
+    }
+
+    @TearDown
+    public void tearDown() {
+        closeStorage();
+
+        if (myLogFile != null) {
+            myLogFile.delete();
+        }
+    }
+
+    @Benchmark
+    public void commit() {
+        for (int index = 0; index < objectsPerTransaction; index++) {
+            final Record record = myRecords[(int) scramble(myCounter++, OBJECTS)];
+
+            record.myValues[0] += 1;
+            record.modify();
+        }
+
+        myStorage.commit();
+    }
+}
@@ -0,0 +1,102 @@
+
+package info.freelibrary.sodbox.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import info.freelibrary.sodbox.Storage;
+import info.freelibrary.sodbox.fulltext.FullTextIndex;
+import info.freelibrary.sodbox.fulltext.FullTextSearchResult;
+
+/**
+ * Measures indexing and searching of documents in the full text index (<code>FullTextIndexImpl</code>). Documents
+ * consist of words of a synthetic vocabulary, documents added by the benchmark are discarded by rollback after each
+ * iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FullTextBenchmark extends AbstractStorageBenchmark {
+
+    static final int VOCABULARY_SIZE = 10000;
+
+    static final int WORDS_PER_DOCUMENT = 100;
+
+    static final String LANGUAGE = "en";
+
+    @Param({ "1000", "10000" })
+    public int documents;
+
+    private FullTextIndex myIndex;
+
+    private long myCounter;
+
+    private long myAdded;
+
+    @Setup
+    public void setup() throws IOException {
+        final Storage storage = openStorage();
+
+        myIndex = storage.createFullTextIndex();
+        storage.setRoot(myIndex);
+
+        for (int index = 0; index < documents; index++) {
+            myIndex.add(new Record(index, 0), new StringReader(getText(index)), LANGUAGE);
+        }
+
+        storage.commit();
+    }
+
+    @TearDown(Level.Iteration)
+    public void discardChanges() {
+        if (myAdded != 0) {
+            myIndex = rollback();
+            myAdded = 0;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        closeStorage();
+    }
+
+    @Benchmark
+    public void index() {
+        final long number = documents + myAdded++;
+        myIndex.add(new Record(number, 0), new StringReader(getText(number)), LANGUAGE);
+    }
+
+    @Benchmark
+    public FullTextSearchResult search() {
+        final long number = myCounter++;
+        final String query = getWord(number) + " " + getWord(number + 1);
+
+        return myIndex.search(query, LANGUAGE, 10, Integer.MAX_VALUE);
+    }
+
+    private static String getWord(final long aNumber) {
+        return "w" + Long.toString(scramble(aNumber, VOCABULARY_SIZE), Character.MAX_RADIX);
+    }
+
+    private static String getText(final long aDocument) {
+        final StringBuilder text = new StringBuilder();
+
+        for (int index = 0; index < WORDS_PER_DOCUMENT; index++) {
+            text.append(getWord(aDocument * WORDS_PER_DOCUMENT + index)).append(' ');
+        }
+
+        return text.toString();
+    }
+}
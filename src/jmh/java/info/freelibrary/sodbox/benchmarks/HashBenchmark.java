@@ -0,0 +1,76 @@
+
+package info.freelibrary.sodbox.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import info.freelibrary.sodbox.IPersistentHash;
+import info.freelibrary.sodbox.Storage;
+
+/**
+ * Measures put and get of the persistent hash table (<code>PersistentHashImpl</code>). Keys put by the benchmark are
+ * not present in the table and are discarded by rollback after each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HashBenchmark extends AbstractStorageBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int size;
+
+    private IPersistentHash<Long, Record> myHash;
+
+    private long myCounter;
+
+    private long myInserted;
+
+    @Setup
+    public void setup() throws IOException {
+        final Storage storage = openStorage();
+
+        myHash = storage.createHash();
+        storage.setRoot(myHash);
+
+        for (long key = 0; key < size; key++) {
+            myHash.put(key, new Record(key, 4));
+        }
+
+        storage.commit();
+    }
+
+    @TearDown(Level.Iteration)
+    public void discardChanges() {
+        if (myInserted != 0) {
+            myHash = rollback();
+            myInserted = 0;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        closeStorage();
+    }
+
+    @Benchmark
+    public Record put() {
+        final long key = size + myInserted++;
+        return myHash.put(key, new Record(key, 4));
+    }
+
+    @Benchmark
+    public Record get() {
+        return myHash.get(scramble(myCounter++, size));
+    }
+}
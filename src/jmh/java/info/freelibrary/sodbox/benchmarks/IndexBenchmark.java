@@ -0,0 +1,107 @@
+
+package info.freelibrary.sodbox.benchmarks;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import info.freelibrary.sodbox.GenericIndex;
+import info.freelibrary.sodbox.Index;
+import info.freelibrary.sodbox.Key;
+import info.freelibrary.sodbox.Storage;
+
+/**
+ * Measures insert, search and range scan of B-Tree indices: <code>Btree</code> ("btree"), <code>AltBtree</code>
+ * ("alt") and <code>RndBtree</code> ("random"). The index contains even keys from 0 to 2 * size, inserted keys are
+ * odd and are discarded by rollback after each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IndexBenchmark extends AbstractStorageBenchmark {
+
+    /**
+     * Number of keys visited by range scan.
+     */
+    static final int RANGE = 100;
+
+    @Param({ "btree", "alt", "random" })
+    public String kind;
+
+    @Param({ "10000", "1000000" })
+    public int size;
+
+    private Index<Record> myIndex;
+
+    private long myCounter;
+
+    private long myInserted;
+
+    @Setup
+    public void setup() throws IOException {
+        final Properties properties = new Properties();
+
+        properties.setProperty("sodbox.alternative.btree", Boolean.toString("alt".equals(kind)));
+
+        final Storage storage = openStorage(properties);
+
+        myIndex = "random".equals(kind) ? storage.<Record>createRandomAccessIndex(long.class, true) : storage
+                .<Record>createIndex(long.class, true);
+        storage.setRoot(myIndex);
+
+        for (int index = 0; index < size; index++) {
+            final long key = scramble(index, size) * 2;
+            myIndex.put(new Key(key), new Record(key, 4));
+        }
+
+        storage.commit();
+    }
+
+    @TearDown(Level.Iteration)
+    public void discardChanges() {
+        if (myInserted != 0) {
+            myIndex = rollback();
+            myInserted = 0;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        closeStorage();
+    }
+
+    @Benchmark
+    public boolean insert() {
+        final long key = scramble(myInserted++, size) * 2 + 1;
+        return myIndex.put(new Key(key), new Record(key, 4));
+    }
+
+    @Benchmark
+    public Record search() {
+        return myIndex.get(new Key(scramble(myCounter++, size) * 2));
+    }
+
+    @Benchmark
+    public int rangeScan() {
+        final long from = scramble(myCounter++, size) * 2;
+        int count = 0;
+
+        for (final Record record : myIndex.iterator(new Key(from), new Key(from + RANGE * 2),
+                GenericIndex.ASCENT_ORDER)) {
+            count += record != null ? 1 : 0;
+        }
+
+        return count;
+    }
+}
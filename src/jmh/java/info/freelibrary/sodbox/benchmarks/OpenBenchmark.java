@@ -0,0 +1,74 @@
+
+package info.freelibrary.sodbox.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import info.freelibrary.sodbox.FieldIndex;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.Storage;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Measures time of opening and closing existing database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OpenBenchmark extends AbstractStorageBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    /**
+     * Root object of the benchmark database.
+     */
+    public static class Root extends Persistent {
+
+        FieldIndex<Record> myIndex;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        final Storage storage = openStorage();
+        final Root root = new Root();
+
+        root.myIndex = storage.createFieldIndex(Record.class, "myKey", true);
+        storage.setRoot(root);
+
+        for (int index = 0; index < size; index++) {
+            root.myIndex.put(new Record(index, 4));
+        }
+
+        storage.commit();
+        storage.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        myStorage = null;
+        closeStorage();
+    }
+
+    @Benchmark
+    public Object open() {
+        final Storage storage = StorageFactory.getInstance().createStorage();
+
+        storage.open(myFile.getPath(), PAGE_POOL_SIZE);
+
+        final Object root = storage.getRoot();
+
+        storage.close();
+        return root;
+    }
+}
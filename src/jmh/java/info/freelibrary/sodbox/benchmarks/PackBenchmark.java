@@ -0,0 +1,59 @@
+
+package info.freelibrary.sodbox.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import info.freelibrary.sodbox.Storage;
+
+/**
+ * Measures storing and loading of an object, which are performed by packing and unpacking of the object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PackBenchmark extends AbstractStorageBenchmark {
+
+    @Param({ "4", "256" })
+    public int payloadSize;
+
+    private Record myRecord;
+
+    @Setup
+    public void setup() throws IOException {
+        final Storage storage = openStorage();
+
+        myRecord = new Record(1, payloadSize);
+        storage.setRoot(myRecord);
+        storage.commit();
+    }
+
+    @TearDown
+    public void tearDown() {
+        closeStorage();
+    }
+
+    @Benchmark
+    public Record store() {
+        myRecord.modify();
+        myRecord.store();
+        return myRecord;
+    }
+
+    @Benchmark
+    public Record load() {
+        myRecord.invalidate();
+        myRecord.load();
+        return myRecord;
+    }
+}
@@ -0,0 +1,105 @@
+
+package info.freelibrary.sodbox.benchmarks;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.Storage;
+
+/**
+ * Compares storing and loading of an object with fields serialized through method handles ("true") and by reflection
+ * ("false").
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializerBenchmark extends AbstractStorageBenchmark {
+
+    @Param({ "true", "false" })
+    public boolean methodHandles;
+
+    private Fields myFields;
+
+    /**
+     * Object with the fields which can be serialized through method handles.
+     */
+    public static class Fields extends Persistent {
+
+        boolean myFlag;
+
+        byte myByte;
+
+        char myChar;
+
+        short myShort;
+
+        int myInt;
+
+        long myLong;
+
+        float myFloat;
+
+        double myDouble;
+
+        int myCount;
+
+        long myTime;
+
+        String myName;
+
+        Date myDate;
+
+        Fields myNext;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        final Properties properties = new Properties();
+
+        properties.setProperty("sodbox.method.handles", Boolean.toString(methodHandles));
+
+        final Storage storage = openStorage(properties);
+
+        myFields = new Fields();
+        myFields.myInt = 1;
+        myFields.myLong = 2;
+        myFields.myDouble = 3;
+        myFields.myName = "fields";
+        myFields.myDate = new Date();
+        myFields.myNext = new Fields();
+        storage.setRoot(myFields);
+        storage.commit();
+    }
+
+    @TearDown
+    public void tearDown() {
+        closeStorage();
+    }
+
+    @Benchmark
+    public Fields store() {
+        myFields.modify();
+        myFields.store();
+        return myFields;
+    }
+
+    @Benchmark
+    public Fields load() {
+        myFields.invalidate();
+        myFields.load();
+        return myFields;
+    }
+}
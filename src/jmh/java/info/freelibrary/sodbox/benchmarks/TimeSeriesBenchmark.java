@@ -0,0 +1,131 @@
+
+package info.freelibrary.sodbox.benchmarks;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import info.freelibrary.sodbox.Storage;
+import info.freelibrary.sodbox.TimeSeries;
+
+/**
+ * Measures appending ticks to the time series (<code>TimeSeriesImpl</code>) and scanning intervals of the time series.
+ * Ticks appended by the benchmark are discarded by rollback after each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimeSeriesBenchmark extends AbstractStorageBenchmark {
+
+    static final int BLOCK_SIZE = 100;
+
+    static final int SCAN_INTERVAL = 1000;
+
+    @Param({ "10000", "1000000" })
+    public int size;
+
+    private TimeSeries<Quote> myTimeSeries;
+
+    private long myCounter;
+
+    private long myAppended;
+
+    /**
+     * Element of the time series.
+     */
+    public static class Quote implements TimeSeries.Tick {
+
+        long myTime;
+
+        double myValue;
+
+        @Override
+        public long getTime() {
+            return myTime;
+        }
+    }
+
+    /**
+     * Block of the time series.
+     */
+    public static class QuoteBlock extends TimeSeries.Block {
+
+        private Quote[] myQuotes;
+
+        @Override
+        public TimeSeries.Tick[] getTicks() {
+            if (myQuotes == null) {
+                myQuotes = new Quote[BLOCK_SIZE];
+
+                for (int index = 0; index < BLOCK_SIZE; index++) {
+                    myQuotes[index] = new Quote();
+                }
+            }
+
+            return myQuotes;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        final Storage storage = openStorage();
+
+        myTimeSeries = storage.createTimeSeries(QuoteBlock.class, BLOCK_SIZE * 2L);
+        storage.setRoot(myTimeSeries);
+
+        for (int index = 0; index < size; index++) {
+            myTimeSeries.add(createQuote(index));
+        }
+
+        storage.commit();
+    }
+
+    @TearDown(Level.Iteration)
+    public void discardChanges() {
+        if (myAppended != 0) {
+            myTimeSeries = rollback();
+            myAppended = 0;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        closeStorage();
+    }
+
+    @Benchmark
+    public boolean append() {
+        return myTimeSeries.add(createQuote(size + myAppended++));
+    }
+
+    @Benchmark
+    public double scan() {
+        final long from = scramble(myCounter++, size - SCAN_INTERVAL);
+        double sum = 0;
+
+        for (final Quote quote : myTimeSeries.iterator(new Date(from), new Date(from + SCAN_INTERVAL - 1))) {
+            sum += quote.myValue;
+        }
+
+        return sum;
+    }
+
+    private static Quote createQuote(final long aTime) {
+        final Quote quote = new Quote();
+
+        quote.myTime = aTime;
+        quote.myValue = aTime * 0.5;
+        return quote;
+    }
+}
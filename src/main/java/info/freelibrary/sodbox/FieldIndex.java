@@ -2,6 +2,7 @@
 package info.freelibrary.sodbox;
 
 import java.lang.reflect.Field;
+import java.util.Iterator;
 
 /**
  * Interface of indexed field. Index is used to provide fast access to the object by the value of indexed field.
@@ -24,6 +25,22 @@ public interface FieldIndex<T> extends GenericIndex<T> {
      */
     public void append(T obj);
 
+    /**
+     * Load objects sorted by the indexed fields in the empty index. Unlike insertion of the objects one by one, pages
+     * of the index are filled from left to right and never split, so the load is much faster and produces more compact
+     * index. This method can be used for initial load of the index or to rebuild the index after <code>clear()</code>.
+     * If the load fails, the transaction should be rolled back. Indices which are not based on B-Tree pages insert
+     * the objects one by one and ignore the fill factor.
+     *
+     * @param members objects in ascending order of the indexed fields. Objects can be not yet persistent, in this case
+     *        they are forced to become persistent by assigning OID to them.
+     * @param fillFactor part of the index page filled by the loaded objects, from 0.5 to 1. Smaller values leave space
+     *        for the following insertions.
+     * @exception StorageError(StorageError.INVALID_OPERATION) if the index is not empty or objects are not sorted, or
+     *            StorageError(StorageError.KEY_NOT_UNIQUE) if index is unique and there are duplicate keys
+     */
+    public void bulkLoadMembers(Iterator<? extends T> members, float fillFactor);
+
     /**
      * Check if index contains specified object instance.
      *
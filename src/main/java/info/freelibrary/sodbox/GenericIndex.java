@@ -16,6 +16,37 @@ public interface GenericIndex<T> extends IPersistent, IResource, Collection<T> {
 
     static final int DESCENT_ORDER = 1;
 
+    /**
+     * Get number of index entries with key belonging to the specified range. Only pages of the index are accessed:
+     * referenced objects are not loaded. Random access indices count entries in logarithmic time.
+     *
+     * @param from low boundary. If <code>null</code> then low boundary is not specified. Low boundary can be
+     *        inclusive or exclusive.
+     * @param till high boundary. If <code>null</code> then high boundary is not specified. High boundary can be
+     *        inclusive or exclusive.
+     * @return number of entries in the range
+     */
+    public int countRange(Key from, Key till);
+
+    /**
+     * Get cursor for traversing all entries of the index.
+     *
+     * @return index cursor, not positioned
+     */
+    public IndexCursor<T> cursor();
+
+    /**
+     * Get cursor for traversing index entries with key belonging to the specified range. Cursor is positioned only
+     * at entries of this range, so it can be used to scan the range in both directions without materializing it.
+     *
+     * @param from low boundary. If <code>null</code> then low boundary is not specified. Low boundary can be
+     *        inclusive or exclusive.
+     * @param till high boundary. If <code>null</code> then high boundary is not specified. High boundary can be
+     *        inclusive or exclusive.
+     * @return index cursor, not positioned
+     */
+    public IndexCursor<T> cursor(Key from, Key till);
+
     /**
      * Remove all objects from the index and deallocate them. This method is equivalent to the following peace of
      * code: <code>
@@ -148,6 +179,18 @@ public interface GenericIndex<T> extends IPersistent, IResource, Collection<T> {
      */
     public Class[] getKeyTypes();
 
+    /**
+     * Get keys of index entries belonging to the specified range without loading the referenced objects. Key of each
+     * entry is included, so the same key value is repeated for all entries with this key in non-unique index.
+     *
+     * @param from low boundary. If <code>null</code> then low boundary is not specified. Low boundary can be
+     *        inclusive or exclusive.
+     * @param till high boundary. If <code>null</code> then high boundary is not specified. High boundary can be
+     *        inclusive or exclusive.
+     * @return array of keys ordered by key value
+     */
+    public Object[] getKeys(Key from, Key till);
+
     /**
      * Get objects which key value belongs to the specified range. Either from boundary, either till boundary either
      * both of them can be <code>null</code>. In last case the method returns all objects from the index.
@@ -170,6 +213,18 @@ public interface GenericIndex<T> extends IPersistent, IResource, Collection<T> {
      */
     public ArrayList<T> getList(Object from, Object till);
 
+    /**
+     * Get OIDs of objects which key value belongs to the specified range. Objects are not loaded, so this method can
+     * be used to combine results of several index searches or to check presence of objects in the range cheaply.
+     *
+     * @param from low boundary. If <code>null</code> then low boundary is not specified. Low boundary can be
+     *        inclusive or exclusive.
+     * @param till high boundary. If <code>null</code> then high boundary is not specified. High boundary can be
+     *        inclusive or exclusive.
+     * @return array of OIDs of objects ordered by key value
+     */
+    public int[] getOids(Key from, Key till);
+
     /**
      * Get objects with objects with key started with specified prefix, i.e. getPrefix("abc") will return "abc",
      * "abcd", "abcdef", ... but not "ab".
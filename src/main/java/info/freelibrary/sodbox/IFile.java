@@ -39,6 +39,15 @@ public interface IFile {
      */
     void sync();
 
+    /**
+     * Truncate the file. Implementation can ignore this request if it is not able to release space of the file, so
+     * by default nothing is done.
+     *
+     * @param size new length of the file
+     */
+    default void truncate(final long size) {
+    }
+
     /**
      * Try lock file.
      *
@@ -1,6 +1,9 @@
 
 package info.freelibrary.sodbox;
 
+import java.util.Iterator;
+import java.util.Map;
+
 /**
  * Interface of object index. Index is used to provide fast access to the object by key. Object in the index are
  * stored ordered by key value. It is possible to select object using exact value of the key or select set of objects
@@ -9,6 +12,23 @@ package info.freelibrary.sodbox;
  */
 public interface Index<T> extends GenericIndex<T> {
 
+    /**
+     * Load entries sorted by key in the empty index. Unlike insertion of the entries one by one, pages of the index
+     * are filled from left to right and never split, so the load is much faster and produces more compact index. This
+     * method can be used for initial load of the index or to rebuild the index after <code>clear()</code>. If the
+     * load fails, the transaction should be rolled back. Indices which are not based on B-Tree pages insert the
+     * entries one by one and ignore the fill factor.
+     *
+     * @param entries entries of the index in ascending key order. Entry key is <code>Key</code> or packed key.
+     *        Objects can be not yet persistent, in this case they are forced to become persistent by assigning OID to
+     *        them.
+     * @param fillFactor part of the index page filled by the loaded entries, from 0.5 to 1. Smaller values leave space
+     *        for the following insertions.
+     * @exception StorageError(StorageError.INVALID_OPERATION) if the index is not empty or keys are not sorted, or
+     *            StorageError(StorageError.KEY_NOT_UNIQUE) if index is unique and there are duplicate keys
+     */
+    public void bulkLoad(Iterator<? extends Map.Entry<?, ? extends T>> entries, float fillFactor);
+
     /**
      * Put new object in the index.
      *
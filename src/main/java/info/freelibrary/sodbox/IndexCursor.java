@@ -0,0 +1,101 @@
+
+package info.freelibrary.sodbox;
+
+/**
+ * Cursor over the entries of an index. Unlike iterators, cursor can be moved in both directions and repositioned to
+ * the specified key, and it provides access to the key and OID of the current entry without loading the referenced
+ * object. Cursor of B-Tree keeps only the position in the current leaf page and the path to it, so scanning a range
+ * of any size requires constant memory. Newly created cursor is not positioned: <code>next()</code> moves it to the first entry
+ * and <code>prev()</code> to the last entry of the selected range, and when the cursor is moved beyond the range it
+ * is not positioned again. So all entries of the range can be traversed in the following way: <code>
+ * try (IndexCursor&lt;T&gt; cursor = index.cursor(from, till)) {
+ *   while (cursor.next()) {
+ *     process(cursor.getKey(), cursor.getOid());
+ *   }
+ * }
+ * </code> Cursor doesn't keep pages pinned in the page pool between the calls of its methods, so a cursor which is not
+ * closed holds no resources of the storage. Index should not be updated while the cursor is used: in this case the
+ * next operation with the cursor throws <code>ConcurrentModificationException</code>.
+ */
+public interface IndexCursor<T> extends AutoCloseable {
+
+    /**
+     * Release resources held by the cursor. After closing, the cursor is not positioned and can be used again.
+     */
+    @Override
+    public void close();
+
+    /**
+     * Position the cursor at the first entry of the selected range.
+     *
+     * @return <code>true</code> if the cursor is positioned, <code>false</code> if the range is empty
+     */
+    public boolean first();
+
+    /**
+     * Get key of the current entry. Key is returned in the same form as by <code>Map.Entry.getKey()</code> of the
+     * entry iterator of the index.
+     *
+     * @return key of the current entry
+     * @exception java.util.NoSuchElementException if the cursor is not positioned
+     */
+    public Object getKey();
+
+    /**
+     * Get OID of the object referenced by the current entry. The object itself is not loaded.
+     *
+     * @return OID of the current object
+     * @exception java.util.NoSuchElementException if the cursor is not positioned
+     */
+    public int getOid();
+
+    /**
+     * Get object referenced by the current entry.
+     *
+     * @return current object
+     * @exception java.util.NoSuchElementException if the cursor is not positioned
+     */
+    public T getValue();
+
+    /**
+     * Check if the cursor is positioned at some entry.
+     *
+     * @return <code>true</code> if the cursor is positioned
+     */
+    public boolean isPositioned();
+
+    /**
+     * Position the cursor at the last entry of the selected range.
+     *
+     * @return <code>true</code> if the cursor is positioned, <code>false</code> if the range is empty
+     */
+    public boolean last();
+
+    /**
+     * Move the cursor to the next entry. If the cursor is not positioned, it is moved to the first entry of the
+     * selected range.
+     *
+     * @return <code>true</code> if the cursor is positioned, <code>false</code> if there are no more entries in the
+     *         range
+     */
+    public boolean next();
+
+    /**
+     * Move the cursor to the previous entry. If the cursor is not positioned, it is moved to the last entry of the
+     * selected range.
+     *
+     * @return <code>true</code> if the cursor is positioned, <code>false</code> if there are no more entries in the
+     *         range
+     */
+    public boolean prev();
+
+    /**
+     * Position the cursor at the first entry of the selected range with key greater than or equal to the specified
+     * key (or greater than the key if it is exclusive).
+     *
+     * @param key searched key
+     * @return <code>true</code> if the cursor is positioned, <code>false</code> if there is no such entry in the
+     *         range
+     */
+    public boolean seek(Key key);
+}
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Properties;
@@ -138,6 +139,17 @@ public interface Storage {
      */
     void commit();
 
+    /**
+     * Shrink the database file online. Objects located after the space needed to hold all allocated objects are moved
+     * to the free space before it by a sequence of small transactions, so other threads can work with the storage
+     * between them, and then the unused tail of the file is truncated. The current transaction is committed by this
+     * method. Progress is reported by <code>StorageListener.compactionProgress</code>. Objects of classes with custom
+     * allocators and the object index are not moved.
+     *
+     * @return number of bytes by which the size of the database file was reduced
+     */
+    long compact();
+
     /**
      * Commit serializable transaction. This call is equivalent to <code>endThreadTransaction</code> but it checks that
      * serializable transaction was previously started using <code>beginSerializableTransaction()</code> method.
@@ -611,7 +623,8 @@ public interface Storage {
      *        force other threads to commit their cooperative transactions when this timeout is expired. It will only
      *        block new cooperative transactions to make it possible to current transaction to complete their work. If
      *        <code>maxDelay</code> is 0, current thread will be blocked until all other cooperative transaction are
-     *        also finished and changes will be committed to the database.
+     *        also finished and changes will be committed to the database. In group commit mode (see
+     *        "sodbox.group.commit.window" property) this delay limits the group commit window for the transaction.
      */
     void endThreadTransaction(int aMaxDelay);
 
@@ -694,6 +707,20 @@ public interface Storage {
      */
     int getOid(Object aObj);
 
+    /**
+     * Get number of page requests satisfied from the page pool since the storage was opened.
+     *
+     * @return Number of page pool hits
+     */
+    long getPagePoolHits();
+
+    /**
+     * Get number of page requests which caused a page to be read from the database file since the storage was opened.
+     *
+     * @return Number of page pool misses
+     */
+    long getPagePoolMisses();
+
     /**
      * Get all set properties.
      *
@@ -757,7 +784,7 @@ public interface Storage {
 
     /**
      * Join results of several index searches. This method efficiently join selections without loading objects
-     * themselves
+     * themselves: OIDs are collected in a sorted array and objects are returned in the order of OIDs.
      *
      * @param aSelections Selections to be merged
      * @return Iterator through joined result
@@ -798,7 +825,8 @@ public interface Storage {
 
     /**
      * Merge results of several index searches. This method efficiently merge selections without loading objects
-     * themselves
+     * themselves: OIDs of each selection are collected in a sorted array and the arrays are intersected. Objects are
+     * returned in the order of OIDs.
      *
      * @param aSelections selections to be merged
      * @return Iterator through merged result
@@ -990,6 +1018,14 @@ public interface Storage {
      * after loading there will be N instances in memory.</TD>
      * </TR>
      * <TR>
+     * <TD><code>sodbox.method.handles</code></TD>
+     * <TD>Boolean</TD>
+     * <TD>true</TD>
+     * <TD>Pack and unpack fields of scalar, string, date, enum and reference types through method handles built once
+     * per class. When this property is false all fields are serialized by reflection. The format of the stored
+     * objects is the same in both cases.</TD>
+     * </TR>
+     * <TR>
      * <TD><code>sodbox.object.cache.init.size</code></TD>
      * <TD>Integer</TD>
      * <TD>1319</TD>
@@ -999,7 +1035,8 @@ public interface Storage {
      * <TD><code>sodbox.object.cache.kind</code></TD>
      * <TD>String</TD>
      * <TD>"lru"</TD>
-     * <TD>Kind of object cache. The following values are supported: "strong", "weak", "soft", "pinned", "lru".
+     * <TD>Kind of object cache. The following values are supported: "strong", "weak", "soft", "pinned", "lru",
+     * "concurrent".
      * <B>Strong</B> cache uses strong (normal) references to refer persistent objects. Thus none of loaded persistent
      * objects can be deallocated by GC. <B>Weak</B> cache use a weak references and soft cache - <B>soft</B>
      * references. The main difference between soft and weak references is that garbage collector is not required to
@@ -1015,7 +1052,11 @@ public interface Storage {
      * kind of cache eliminate need in finalization mechanism - all modified objects are kept in memory and are flushed
      * to the disk only at the end of transaction. So the size of transaction is limited by amount of main memory.
      * Non-modified objects are accessed only through weak references so them are not protected from GC and can be
-     * thrown away.</TD>
+     * thrown away.<br>
+     * <B>Concurrent</B> cache pins modified objects like pinned cache and recently used objects like lru cache, but it
+     * is split into independently locked segments and uses CLOCK approximation of LRU, so that threads accessing
+     * the cache at the same time don't contend on the single lock. Number of pinned recently used objects is
+     * determined by <code>sodbox.object.index.init.size</code> parameter.</TD>
      * </TR>
      * <TR>
      * <TD><code>sodbox.object.index.init.size</code></TD>
@@ -1033,6 +1074,14 @@ public interface Storage {
      * smaller than 64Kb.</TD>
      * </TR>
      * <TR>
+     * <TD><code>sodbox.extent.allocator</code></TD>
+     * <TD>Boolean</TD>
+     * <TD>false</TD>
+     * <TD>Allocate memory using in-memory map of free extents with size class lists instead of scanning bitmap. The
+     * map is built from the bitmap when the database is opened and takes memory proportional to the number of holes in
+     * the database file. Bitmap is scanned only when there is no large enough extent and the database is extended.</TD>
+     * </TR>
+     * <TR>
      * <TD><code>sodbox.gc.threshold</code></TD>
      * <TD>Long</TD>
      * <TD>Long.MAX_VALUE</TD>
@@ -1041,6 +1090,14 @@ public interface Storage {
      * threshold OR after reaching end of allocation bitmap in allocator.</TD>
      * </TR>
      * <TR>
+     * <TD><code>sodbox.gc.threads</code></TD>
+     * <TD>Integer</TD>
+     * <TD>1</TD>
+     * <TD>Number of threads performing garbage collection. If it is greater than 1, objects are marked by a pool of
+     * threads stealing work from each other, and unreachable objects are searched in parallel by ranges of the object
+     * index.</TD>
+     * </TR>
+     * <TR>
      * <TD><code>sodbox.lock.file</code></TD>
      * <TD>Boolean</TD>
      * <TD>false</TD>
@@ -1063,6 +1120,31 @@ public interface Storage {
      * is stored in OS file buffers and sooner or later them will be written to the disk)</TD>
      * </TR>
      * <TR>
+     * <TD><code>sodbox.file.kind</code></TD>
+     * <TD>String</TD>
+     * <TD>"os"</TD>
+     * <TD>Implementation of the database file used by <code>Storage.open(String filePath)</code>. "os" file seeks
+     * before each read or write, so all file operations are serialized. "channel" file uses positional
+     * <code>FileChannel</code> I/O through direct buffers and data-only sync, so page pool segments (see
+     * "sodbox.page.pool.segments") can read pages from the file in parallel. "mmap" file maps the database on
+     * virtual memory by chunks, so page misses are served from the OS page cache without system calls and pages can
+     * be read in parallel as well.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.file.mmap.chunk.size</code></TD>
+     * <TD>Long</TD>
+     * <TD>64Mb</TD>
+     * <TD>Size of the chunk of "mmap" file (see "sodbox.file.kind"). The file is mapped and extended by chunks, so
+     * growing database doesn't cause remapping of the whole file.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.file.mmap.preload</code></TD>
+     * <TD>Boolean</TD>
+     * <TD>false</TD>
+     * <TD>Load all chunks of existing "mmap" file in physical memory when the storage is opened, to avoid page faults
+     * when the database is accessed for the first time.</TD>
+     * </TR>
+     * <TR>
      * <TD><code>sodbox.alternative.btree</code></TD>
      * <TD>Boolean</TD>
      * <TD>false</TD>
@@ -1081,6 +1163,42 @@ public interface Storage {
      * <TD>Perform garbage collection in separate thread without blocking the main application.</TD>
      * </TR>
      * <TR>
+     * <TD><code>sodbox.compact.string.keys</code></TD>
+     * <TD>Boolean</TD>
+     * <TD>false</TD>
+     * <TD>Store keys of B-Tree indices with string keys created while this property is set in compact form: characters
+     * are encoded like in UTF-8 and compared byte by byte, and keys separating leaf pages are truncated to their
+     * shortest distinguishing prefix. The order of keys is not changed. This property is not used by the alternative
+     * B-Tree and case insensitive indices.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.incremental.gc</code></TD>
+     * <TD>Boolean</TD>
+     * <TD>false</TD>
+     * <TD>Perform garbage collection in separate thread by small steps interleaved with transactions. Unlike background
+     * GC, which blocks commits until all objects are marked, incremental GC blocks them only for the duration of one
+     * step, and objects modified by the committed transactions are handled by the write barrier.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.gc.pause.budget</code></TD>
+     * <TD>Integer</TD>
+     * <TD>2</TD>
+     * <TD>Maximal duration of one step of incremental GC in milliseconds.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.compaction.step</code></TD>
+     * <TD>Long</TD>
+     * <TD>1048576</TD>
+     * <TD>Maximal total size of objects moved by one transaction of <code>Storage.compact</code>.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.compaction.pause</code></TD>
+     * <TD>Integer</TD>
+     * <TD>10</TD>
+     * <TD>Pause in milliseconds between transactions of <code>Storage.compact</code>, which lets other threads access
+     * the storage and limits the I/O load caused by the compaction.</TD>
+     * </TR>
+     * <TR>
      * <TD><code>sodbox.string.encoding</code></TD>
      * <TD>String</TD>
      * <TD>null</TD>
@@ -1144,6 +1262,90 @@ public interface Storage {
      * page pool.</TD>
      * </TR>
      * <TR>
+     * <TD><code>sodbox.page.pool.segments</code></TD>
+     * <TD>Integer</TD>
+     * <TD>0</TD>
+     * <TD>Number of independently locked segments of the page pool (rounded up to power of two). By default the whole
+     * page pool is protected by one lock, so threads concurrently reading the database are serialized on each page
+     * access. When this parameter is greater than one, pages are distributed between segments by page number and each
+     * segment has its own hash table and LRU list. The number of segments is reduced if each segment would contain
+     * less than 64 pages.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.page.size</code></TD>
+     * <TD>Integer</TD>
+     * <TD>4096</TD>
+     * <TD>Size of the database page, power of two from 4096 to 65536. It is used only when a new database is created:
+     * page size is recorded in the database header and an existing database is always opened with its own page size,
+     * so storages with different page sizes can be used at the same time. Larger pages reduce height of B-Tree
+     * indices and number of I/O operations for sequential scans. Compressed and replicated databases support only
+     * pages of the default size.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.page.pool.policy</code></TD>
+     * <TD>String</TD>
+     * <TD>"lru"</TD>
+     * <TD>Page replacement policy of the page pool. Supported values are "lru" (least recently used page is replaced),
+     * "2q" (pages referenced only once are kept in a separate FIFO queue, so sequential scans do not flush frequently
+     * used pages) and "arc" (adaptive replacement cache balancing recently and frequently used pages by means of
+     * history of evicted pages). Hit and miss counters returned by <code>Storage.getPagePoolHits</code> and
+     * <code>Storage.getPagePoolMisses</code> can be used to compare policies for a particular workload. The policy is
+     * ignored for infinite page pool.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.page.pool.write.behind</code></TD>
+     * <TD>Integer</TD>
+     * <TD>0</TD>
+     * <TD>Number of dirty pages in the page pool after which a background thread starts writing unused dirty pages to
+     * the file, so that commit of a large transaction has less pages to write before the final sync. Adjacent dirty
+     * pages are merged in large gathering writes both by the background writer and by commit. Works only with
+     * "channel" file (see "sodbox.file.kind"), 0 disables background writing.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.page.pool.offheap.size</code></TD>
+     * <TD>Long</TD>
+     * <TD>0</TD>
+     * <TD>Size of the second level page cache located in direct buffers outside of Java heap. Pages replaced in the
+     * page pool are moved to this cache and moved back when they are accessed again, so a large cache can be used
+     * with a small page pool without increasing Java heap size. Direct memory available to the JVM is limited by
+     * <code>-XX:MaxDirectMemorySize</code>. Not used with infinite page pool, 0 disables the cache.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.group.commit.window</code></TD>
+     * <TD>Integer</TD>
+     * <TD>0</TD>
+     * <TD>Group commit window in milliseconds for exclusive and cooperative thread transactions. If it is positive,
+     * <code>endThreadTransaction</code> doesn't return until changes of the transaction are committed, but the commit
+     * is delayed until the window is expired and there are no active transactions, so all transactions ended within
+     * the window share one header switch and one pair of file syncs. When the window is expired, new transactions are
+     * blocked until the commit is completed.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.group.commit.batch</code></TD>
+     * <TD>Integer</TD>
+     * <TD>0</TD>
+     * <TD>Maximal number of transactions committed together in group commit mode. When this number of transactions
+     * is ended, they are committed without waiting for the group commit window to expire. 0 means no limit.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.redo.log.file</code></TD>
+     * <TD>String</TD>
+     * <TD>null</TD>
+     * <TD>Path to the redo log file. When it is specified, transaction commit doesn't write modified pages to the
+     * database file and doesn't switch database header: it appends images of all modified pages to the redo log and
+     * syncs only the log, replacing random writes with sequential ones. The database file is updated by background
+     * checkpoint when the size of the log exceeds "sodbox.redo.log.checkpoint" and when the storage is closed. If the
+     * storage was not closed normally, the log is applied to the database file when the storage is opened. Redo log
+     * is not used in multiclient and read-only modes.</TD>
+     * </TR>
+     * <TR>
+     * <TD><code>sodbox.redo.log.checkpoint</code></TD>
+     * <TD>Long</TD>
+     * <TD>64Mb</TD>
+     * <TD>Size of the redo log after which all pages of committed transactions are written to the database file and
+     * the log is truncated.</TD>
+     * </TR>
+     * <TR>
      * <TD><code>sodbox.multiclient.support</code></TD>
      * <TD>Boolean</TD>
      * <TD>false</TD>
@@ -1255,6 +1457,29 @@ public interface Storage {
      */
     void store(Object aObj);
 
+    /**
+     * Store collection of objects in storage. Objects which are not persistent yet are made persistent and stored in
+     * one pass: they are assigned OIDs, preferably from one range, and are written one after another to space allocated
+     * for all of them at once, so storing of many small objects results mostly in sequential writes. Objects which are
+     * already persistent are stored as by the <code>store</code> method.
+     *
+     * @param aObjects objects to store
+     */
+    void storeAll(Collection<?> aObjects);
+
+    /**
+     * Store object in storage placing it close to the anchor object, preferably in the same page, so that objects
+     * which are accessed together, like an owner and its components or members of a collection, are read by a few page
+     * reads. The space is searched in the page of the anchor and the pages following it, and if there is no free space
+     * there, it is allocated as usual. Placement of the object is changed only when space for it is allocated: when the
+     * object is stored for the first time or first time in the transaction. Objects larger than a page and objects of
+     * classes with custom allocators are stored as by the <code>store</code> method.
+     *
+     * @param aObj An object to store
+     * @param aAnchor An object near which the stored object should be placed
+     */
+    void storeNear(Object aObj, Object aAnchor);
+
     /**
      * Store object in storage.
      *
@@ -1269,6 +1494,16 @@ public interface Storage {
      */
     void storeObject(Object aObj);
 
+    /**
+     * Subtract results of index searches from the result of another search. Like <code>merge</code>, this method
+     * combines sorted arrays of OIDs without loading objects themselves.
+     *
+     * @param aSelection selection from which objects are removed
+     * @param aExclusions selections of objects to be removed
+     * @return Iterator through objects of the selection not present in any of the exclusions
+     */
+    Iterator<?> subtract(Iterator<?> aSelection, Iterator<?>[] aExclusions);
+
     /**
      * Throw object.
      *
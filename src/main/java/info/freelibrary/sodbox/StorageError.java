@@ -80,6 +80,10 @@ public class StorageError extends RuntimeException {
 
     public static final int STORAGE_CANNOT_BE_CREATED = 37;
 
+    public static final int INCOMPATIBLE_PAGE_SIZE = 38;
+
+    public static final int TRANSACTION_ABORTED = 39;
+
     private static final long serialVersionUID = -1077039779052096595L;
 
     private static final String[] MESSAGE_TEXT = { "", "Storage not opened", "Storage already opened",
@@ -93,7 +97,8 @@ public class StorageError extends RuntimeException {
         "Invalid replication node port", "Connection failure", "Too much objects",
         "Failed to insert document in full text index", "Index key is null", "Invalid operation",
         "Database is opened in read-only mode", "Not within serializable transaction context",
-        "Wrong cipher key for the encrypted database", "Storage cannot be created" };
+        "Wrong cipher key for the encrypted database", "Storage cannot be created",
+        "Database was created with different page size", "Transaction was aborted" };
 
     private final int myErrorCode;
 
@@ -7,6 +7,23 @@ package info.freelibrary.sodbox;
  */
 public abstract class StorageListener {
 
+    /**
+     * This method is called when compaction of the database file is completed.
+     *
+     * @param aFileSize size of the database file after compaction
+     */
+    public void compactionCompleted(final long aFileSize) {
+    }
+
+    /**
+     * This method is called by <code>Storage.compact()</code> after each committed step of compaction.
+     *
+     * @param aRelocatedCount number of objects moved so far
+     * @param aRemainingCount number of objects which are still to be checked
+     */
+    public void compactionProgress(final int aRelocatedCount, final int aRemainingCount) {
+    }
+
     /**
      * This method is called during database open when database was not close normally and has to be recovered.
      */
@@ -0,0 +1,154 @@
+package info.freelibrary.sodbox.impl;
+
+/**
+ * ARC replacement policy (N. Megiddo, D. Modha). Pages referenced once are kept in LRU list T1 and pages referenced at
+ * least twice in LRU list T2. Addresses of pages replaced from these lists are remembered in ghost lists B1 and B2.
+ * Misses on addresses from B1 or B2 adapt the target size of T1, so the policy balances between recency and frequency
+ * and is resistant to sequential scans.
+ */
+class AdaptiveReplacementPolicy implements PageReplacementPolicy {
+
+    static final int T1 = 1;
+
+    static final int T2 = 2;
+
+    final LRU t1 = new LRU();
+
+    final LRU t2 = new LRU();
+
+    final GhostList b1;
+
+    final GhostList b2;
+
+    final int capacity;
+
+    int t1Size;
+
+    int t2Size;
+
+    int target;
+
+    long adaptedAddr = -1;
+
+    int adaptedGhost;
+
+    AdaptiveReplacementPolicy(final int poolSize) {
+        capacity = Math.max(poolSize, 1);
+        b1 = new GhostList(capacity);
+        b2 = new GhostList(capacity);
+    }
+
+    @Override
+    public void fix(final Page pg) {
+        pg.unlink();
+
+        if (pg.queue == T1) {
+            pg.queue = T2;
+            t1Size -= 1;
+            t2Size += 1;
+        }
+
+        t2.link(pg);
+    }
+
+    @Override
+    public void load(final Page pg) {
+        int ghost;
+
+        if (pg.offs == adaptedAddr) {
+            ghost = adaptedGhost;
+            adaptedAddr = -1;
+        } else {
+            ghost = adapt(pg.offs);
+        }
+
+        if (ghost != 0) {
+            pg.queue = T2;
+            t2.link(pg);
+            t2Size += 1;
+        } else {
+            pg.queue = T1;
+            t1.link(pg);
+            t1Size += 1;
+        }
+    }
+
+    @Override
+    public void unfix(final Page pg, final boolean keep) {
+        if (!keep) {
+            pg.unlink();
+            (pg.queue == T2 ? t2 : t1).prev.link(pg);
+        }
+    }
+
+    @Override
+    public Page victim(final long addr) {
+        final int ghost = adapt(addr);
+        Page pg = null;
+
+        adaptedAddr = addr;
+        adaptedGhost = ghost;
+
+        if (t1Size > 0 && (t1Size > target || ghost == T2 && t1Size == target)) {
+            pg = takeT1();
+        }
+
+        if (pg == null) {
+            pg = TwoQueuePolicy.take(t2);
+
+            if (pg != null) {
+                t2Size -= 1;
+
+                if (t2Size + b2.size() >= capacity) {
+                    b2.removeOldest();
+                }
+
+                b2.add(pg.offs);
+            }
+        }
+
+        if (pg == null) {
+            pg = takeT1();
+        }
+
+        return pg;
+    }
+
+    /**
+     * Check if address is present in one of ghost lists and adapt target size of T1 list.
+     *
+     * @return list which contained the address (T1 for B1, T2 for B2) or 0 if address was not found
+     */
+    private int adapt(final long addr) {
+        final int n1 = b1.size();
+        final int n2 = b2.size();
+
+        if (b1.remove(addr)) {
+            target = Math.min(capacity, target + Math.max(n2 / n1, 1));
+            return T1;
+        }
+
+        if (b2.remove(addr)) {
+            target = Math.max(0, target - Math.max(n1 / n2, 1));
+            return T2;
+        }
+
+        return 0;
+    }
+
+    private Page takeT1() {
+        final Page pg = TwoQueuePolicy.take(t1);
+
+        if (pg != null) {
+            t1Size -= 1;
+
+            if (t1Size + b1.size() >= capacity) {
+                b1.removeOldest();
+            }
+
+            b1.add(pg.offs);
+        }
+
+        return pg;
+    }
+}
@@ -6,12 +6,14 @@ import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
 import info.freelibrary.sodbox.Assert;
 import info.freelibrary.sodbox.IValue;
 import info.freelibrary.sodbox.Index;
+import info.freelibrary.sodbox.IndexCursor;
 import info.freelibrary.sodbox.IterableIterator;
 import info.freelibrary.sodbox.Key;
 import info.freelibrary.sodbox.Link;
@@ -23,6 +25,226 @@ import info.freelibrary.sodbox.StorageError;
 
 class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
 
+    /**
+     * Cursor of the B-Tree. It keeps the stacks of pages and positions in them leading to the current leaf page, so
+     * moving the cursor within the leaf page doesn't access other pages.
+     */
+    class BtreeCursor implements IndexCursor<T> {
+
+        final Key from;
+
+        final Key till;
+
+        BtreePage[] pageStack;
+
+        int[] posStack;
+
+        BtreePage leaf;
+
+        int pos;
+
+        int counter;
+
+        BtreeCursor(final Key from, final Key till) {
+            this.from = from;
+            this.till = till;
+        }
+
+        @Override
+        public void close() {
+            leaf = null;
+        }
+
+        @Override
+        public boolean first() {
+            return locate(from, true) && checkTill();
+        }
+
+        @Override
+        public Object getKey() {
+            check();
+            return leaf.getKeyValue(pos);
+        }
+
+        @Override
+        public int getOid() {
+            check();
+            return getStorage().getOid(leaf.items.getRaw(pos));
+        }
+
+        @Override
+        public T getValue() {
+            check();
+            return (T) leaf.items.get(pos);
+        }
+
+        @Override
+        public boolean isPositioned() {
+            return leaf != null;
+        }
+
+        @Override
+        public boolean last() {
+            return locate(till, false) && checkFrom();
+        }
+
+        @Override
+        public boolean next() {
+            if (leaf == null) {
+                return first();
+            }
+
+            check();
+
+            if (++pos == leaf.nItems && !gotoLeaf(true)) {
+                return false;
+            }
+
+            return checkTill();
+        }
+
+        @Override
+        public boolean prev() {
+            if (leaf == null) {
+                return last();
+            }
+
+            check();
+
+            if (--pos < 0 && !gotoLeaf(false)) {
+                return false;
+            }
+
+            return checkFrom();
+        }
+
+        @Override
+        public boolean seek(final Key key) {
+            if (!locate(checkCursorKey(key), true)) {
+                return false;
+            }
+
+            if (from != null && leaf.compare(from, pos) >= from.inclusion) {
+                return first();
+            }
+
+            return checkTill();
+        }
+
+        private void check() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+
+            if (counter != updateCounter) {
+                leaf = null;
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        private boolean checkFrom() {
+            if (from != null && leaf.compare(from, pos) >= from.inclusion) {
+                leaf = null;
+                return false;
+            }
+
+            return true;
+        }
+
+        private boolean checkTill() {
+            if (till != null && -leaf.compare(till, pos) >= till.inclusion) {
+                leaf = null;
+                return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Move to the first item of the next leaf page or to the last item of the previous one.
+         */
+        private boolean gotoLeaf(final boolean forward) {
+            int sp = height - 1;
+
+            leaf = null;
+
+            while (--sp >= 0) {
+                BtreePage pg = pageStack[sp];
+                final int i = posStack[sp] + (forward ? 1 : -1);
+
+                if (i >= 0 && i <= pg.nItems) {
+                    posStack[sp] = i;
+                    pg = (BtreePage) pg.items.get(i);
+
+                    while (++sp < height - 1) {
+                        pageStack[sp] = pg;
+                        posStack[sp] = forward ? 0 : pg.nItems;
+                        pg = (BtreePage) pg.items.get(posStack[sp]);
+                    }
+
+                    leaf = pg;
+                    pos = forward ? 0 : pg.nItems - 1;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Descend to the leaf page containing the first item with key greater than or equal to the specified key
+         * (when <code>forward</code> is <code>true</code>) or the last item with key less than or equal to it.
+         */
+        private boolean locate(final Key key, final boolean forward) {
+            leaf = null;
+
+            if (height == 0) {
+                return false;
+            }
+
+            if (pageStack == null || pageStack.length != height - 1) {
+                pageStack = new BtreePage[height - 1];
+                posStack = new int[height - 1];
+            }
+
+            counter = updateCounter;
+
+            BtreePage pg = root;
+
+            for (int sp = 0;; sp++) {
+                final int n = pg.nItems;
+                int l = 0;
+                int r = n;
+
+                if (key == null) {
+                    l = forward ? 0 : n;
+                } else {
+                    final int inclusion = forward ? key.inclusion : 1 - key.inclusion;
+
+                    while (l < r) {
+                        final int i = l + r >> 1;
+
+                        if (pg.compare(key, i) >= inclusion) {
+                            l = i + 1;
+                        } else {
+                            r = i;
+                        }
+                    }
+                }
+
+                if (sp == height - 1) {
+                    leaf = pg;
+                    pos = forward ? l : l - 1;
+                    return pos >= 0 && pos < n || gotoLeaf(forward);
+                }
+
+                pageStack[sp] = pg;
+                posStack[sp] = l;
+                pg = (BtreePage) pg.items.get(l);
+            }
+        }
+    }
+
     static class BtreeEntry<T> implements Map.Entry<Object, T> {
 
         private final int pos;
@@ -108,9 +330,75 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
         }
     }
 
+    /**
+     * Loader of the sorted entries in the empty B-Tree.
+     */
+    class BtreeLoader extends BulkLoader {
+
+        BtreeLoader(final float fillFactor) {
+            super(createPage().items.size(), fillFactor, AltBtree.this.unique);
+
+            if (root != null) {
+                throw new StorageError(StorageError.INVALID_OPERATION, "bulk load of not empty index");
+            }
+        }
+
+        @Override
+        int compare(final Key key1, final Key key2) {
+            if (type == ClassDescriptor.tpString || type == ClassDescriptor.tpValue) {
+                return ((Comparable) key1.oval).compareTo(key2.oval);
+            } else {
+                return compareScalars(key1, key2);
+            }
+        }
+
+        @Override
+        void purgePage(final Object page, final int height) {
+            // pages are not persistent until they are stored with the tree
+        }
+
+        void put(final Key key, final Object obj) {
+            add(checkKey(key), obj);
+        }
+
+        @Override
+        int weight(final Key key) {
+            return 1;
+        }
+
+        @Override
+        Object writePage(final List<Entry> entries, final boolean leaf) {
+            final BtreePage pg = createPage();
+            final int nItems = leaf ? entries.size() : entries.size() - 1;
+
+            for (int i = 0; i < nItems; i++) {
+                final Entry e = entries.get(i);
+                pg.insert(new BtreeKey(e.key, e.node), i);
+            }
+
+            if (!leaf) {
+                pg.items.setObject(nItems, entries.get(nItems).node);
+            }
+
+            pg.nItems = nItems;
+            return pg;
+        }
+
+    }
+
     static abstract class BtreePage extends Persistent {
 
-        static final int BTREE_PAGE_SIZE = Page.pageSize - ObjectHeader.sizeof - 4 * 3;
+        /**
+         * Gets maximal number of items in the page. Pages are sized by the page size of the storage in which they
+         * are created, so a page of an existing index keeps its capacity (the size of its <code>items</code> link).
+         *
+         * @param s storage in which the page is created
+         * @param itemSize size of the item (key and reference)
+         * @return maximal number of items in the page
+         */
+        static int getMaxItems(final Storage s, final int itemSize) {
+            return (((StorageImpl) s).myPageSize - ObjectHeader.sizeof - 4 * 3) / itemSize;
+        }
 
         static void memcpy(final BtreePage dst_pg, final int dst_idx, final BtreePage src_pg, final int src_idx,
                 final int len) {
@@ -513,16 +801,14 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfByte extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 1);
-
         byte[] data;
 
         BtreePageOfByte() {
         }
 
         BtreePageOfByte(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new byte[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 1));
+            data = new byte[items.size()];
         }
 
         @Override
@@ -560,16 +846,14 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfChar extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 2);
-
         char[] data;
 
         BtreePageOfChar() {
         }
 
         BtreePageOfChar(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new char[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 2));
+            data = new char[items.size()];
         }
 
         @Override
@@ -607,16 +891,14 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfDouble extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 8);
-
         double[] data;
 
         BtreePageOfDouble() {
         }
 
         BtreePageOfDouble(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new double[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 8));
+            data = new double[items.size()];
         }
 
         @Override
@@ -654,16 +936,14 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfFloat extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4);
-
         float[] data;
 
         BtreePageOfFloat() {
         }
 
         BtreePageOfFloat(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new float[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 4));
+            data = new float[items.size()];
         }
 
         @Override
@@ -701,16 +981,14 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfInt extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4);
-
         int[] data;
 
         BtreePageOfInt() {
         }
 
         BtreePageOfInt(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new int[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 4));
+            data = new int[items.size()];
         }
 
         @Override
@@ -748,16 +1026,14 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfLong extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 8);
-
         long[] data;
 
         BtreePageOfLong() {
         }
 
         BtreePageOfLong(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new long[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 8));
+            data = new long[items.size()];
         }
 
         @Override
@@ -795,17 +1071,15 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfObject extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4);
-
         Link data;
 
         BtreePageOfObject() {
         }
 
         BtreePageOfObject(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = s.createLink(MAX_ITEMS);
-            data.setSize(MAX_ITEMS);
+            super(s, getMaxItems(s, 4 + 4));
+            data = s.createLink(items.size());
+            data.setSize(items.size());
         }
 
         @Override
@@ -845,16 +1119,14 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfShort extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 2);
-
         short[] data;
 
         BtreePageOfShort() {
         }
 
         BtreePageOfShort(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new short[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 2));
+            data = new short[items.size()];
         }
 
         @Override
@@ -1507,84 +1779,148 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
     }
 
     final void allocateRootPage(final BtreeKey ins) {
+        final BtreePage newRoot = createPage();
+
+        newRoot.insert(ins, 0);
+        newRoot.items.setObject(1, root);
+        newRoot.nItems = 1;
+        root = newRoot;
+    }
+
+    @Override
+    public void bulkLoad(final Iterator<? extends Map.Entry<?, ? extends T>> entries, final float fillFactor) {
+        final BtreeLoader loader = new BtreeLoader(fillFactor);
+
+        try {
+            while (entries.hasNext()) {
+                final Map.Entry<?, ? extends T> entry = entries.next();
+                loader.put(loadKey(entry.getKey()), entry.getValue());
+            }
+
+            completeLoad(loader);
+        } catch (final RuntimeException x) {
+            loader.abort();
+            throw x;
+        }
+    }
+
+    /**
+     * Convert key passed to the cursor of the index to the form stored in the B-Tree.
+     */
+    Key checkCursorKey(final Key key) {
+        return checkKey(key);
+    }
+
+    Key checkKey(Key key) {
+        if (key != null) {
+            if (key.type != type) {
+                throw new StorageError(StorageError.INCOMPATIBLE_KEY_TYPE);
+            }
+
+            if (type == ClassDescriptor.tpObject && key.ival == 0 && key.oval != null) {
+                final Object obj = key.oval;
+                key = new Key(obj, getStorage().makePersistent(obj), key.inclusion != 0);
+            }
+
+            if (key.oval instanceof char[]) {
+                key = new Key(new String((char[]) key.oval), key.inclusion != 0);
+            }
+        }
+
+        return key;
+    }
+
+    @Override
+    public void clear() {
+        if (root != null) {
+            root.purge(height);
+            root = null;
+            nElems = 0;
+            height = 0;
+            updateCounter += 1;
+            modify();
+        }
+    }
+
+    final void completeLoad(final BtreeLoader loader) {
+        final Object page = loader.finish();
+
+        if (page != null) {
+            root = (BtreePage) page;
+            height = loader.height;
+            nElems = loader.nElems;
+            updateCounter += 1;
+            modify();
+        }
+    }
+
+    final BtreePage createPage() {
         final Storage s = getStorage();
-        BtreePage newRoot = null;
+        BtreePage newPage = null;
 
         switch (type) {
             case ClassDescriptor.tpByte:
-                newRoot = new BtreePageOfByte(s);
+                newPage = new BtreePageOfByte(s);
                 break;
             case ClassDescriptor.tpShort:
-                newRoot = new BtreePageOfShort(s);
+                newPage = new BtreePageOfShort(s);
                 break;
             case ClassDescriptor.tpChar:
-                newRoot = new BtreePageOfChar(s);
+                newPage = new BtreePageOfChar(s);
                 break;
             case ClassDescriptor.tpBoolean:
-                newRoot = new BtreePageOfBoolean(s);
+                newPage = new BtreePageOfBoolean(s);
                 break;
             case ClassDescriptor.tpInt:
             case ClassDescriptor.tpEnum:
-                newRoot = new BtreePageOfInt(s);
+                newPage = new BtreePageOfInt(s);
                 break;
             case ClassDescriptor.tpLong:
             case ClassDescriptor.tpDate:
-                newRoot = new BtreePageOfLong(s);
+                newPage = new BtreePageOfLong(s);
                 break;
             case ClassDescriptor.tpFloat:
-                newRoot = new BtreePageOfFloat(s);
+                newPage = new BtreePageOfFloat(s);
                 break;
             case ClassDescriptor.tpDouble:
-                newRoot = new BtreePageOfDouble(s);
+                newPage = new BtreePageOfDouble(s);
                 break;
             case ClassDescriptor.tpObject:
-                newRoot = new BtreePageOfObject(s);
+                newPage = new BtreePageOfObject(s);
                 break;
             case ClassDescriptor.tpString:
-                newRoot = new BtreePageOfString(s);
+                newPage = new BtreePageOfString(s);
                 break;
             case ClassDescriptor.tpValue:
-                newRoot = new BtreePageOfValue(s);
+                newPage = new BtreePageOfValue(s);
                 break;
             default:
                 Assert.failed("Invalid type");
         }
 
-        newRoot.insert(ins, 0);
-        newRoot.items.setObject(1, root);
-        newRoot.nItems = 1;
-        root = newRoot;
+        return newPage;
     }
 
-    Key checkKey(Key key) {
-        if (key != null) {
-            if (key.type != type) {
-                throw new StorageError(StorageError.INCOMPATIBLE_KEY_TYPE);
-            }
-
-            if (type == ClassDescriptor.tpObject && key.ival == 0 && key.oval != null) {
-                final Object obj = key.oval;
-                key = new Key(obj, getStorage().makePersistent(obj), key.inclusion != 0);
-            }
+    @Override
+    public int countRange(final Key from, final Key till) {
+        final IndexCursor<T> cursor = cursor(from, till);
+        int count = 0;
 
-            if (key.oval instanceof char[]) {
-                key = new Key(new String((char[]) key.oval), key.inclusion != 0);
-            }
+        while (cursor.next()) {
+            count += 1;
         }
 
-        return key;
+        return count;
     }
 
     @Override
-    public void clear() {
-        if (root != null) {
-            root.purge(height);
-            root = null;
-            nElems = 0;
-            height = 0;
-            updateCounter += 1;
-            modify();
-        }
+    public IndexCursor<T> cursor() {
+        return new BtreeCursor(null, null);
+    }
+
+    @Override
+    public IndexCursor<T> cursor(final Key from, final Key till) {
+        return new BtreeCursor(checkCursorKey(from), checkCursorKey(till));
     }
 
     @Override
@@ -1691,6 +2027,11 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
         return new Class[] { getKeyType() };
     }
 
+    @Override
+    public Object[] getKeys(final Key from, final Key till) {
+        return Btree.collectKeys(cursor(from, till));
+    }
+
     @Override
     public ArrayList<T> getList(final Key from, final Key till) {
         final ArrayList<T> list = new ArrayList<T>();
@@ -1707,6 +2048,11 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
         return getList(Btree.getKeyFromObject(type, from), Btree.getKeyFromObject(type, till));
     }
 
+    @Override
+    public int[] getOids(final Key from, final Key till) {
+        return Btree.collectOids(cursor(from, till));
+    }
+
     @Override
     public Object[] getPrefix(final String prefix) {
         return get(new Key(prefix, true), new Key(prefix + Character.MAX_VALUE, false));
@@ -1774,6 +2120,13 @@ class AltBtree<T> extends PersistentCollection<T> implements Index<T> {
                 .getKeyFromObject(type, till)), order);
     }
 
+    /**
+     * Convert key of the entry passed to <code>bulkLoad</code> to the key of the index.
+     */
+    Key loadKey(final Object key) {
+        return key instanceof Key ? (Key) key : Btree.getKeyFromObject(type, key);
+    }
+
     @Override
     public IterableIterator<T> prefixIterator(final String prefix) {
         return prefixIterator(prefix, ASCENT_ORDER);
@@ -75,6 +75,11 @@ class AltBtreeCompoundIndex<T> extends AltBtree<T> implements Index<T> {
         }
     }
 
+    @Override
+    Key checkCursorKey(final Key key) {
+        return checkKey(convertKey(key));
+    }
+
     private Key convertKey(final Key key) {
         return convertKey(key, true);
     }
@@ -138,6 +143,11 @@ class AltBtreeCompoundIndex<T> extends AltBtree<T> implements Index<T> {
         return super.iterator(convertKey(from), convertKey(till), order);
     }
 
+    @Override
+    Key loadKey(final Object key) {
+        return convertKey(key instanceof Key ? (Key) key : new Key((Object[]) key), false);
+    }
+
     @Override
     public boolean put(final Key key, final T obj) {
         return super.put(convertKey(key, false), obj);
@@ -106,6 +106,24 @@ class AltBtreeFieldIndex<T> extends AltBtree<T> implements FieldIndex<T> {
         super.insert(key, obj, false);
     }
 
+    @Override
+    public void bulkLoadMembers(final Iterator<? extends T> members, final float fillFactor) {
+        final BtreeLoader loader = new BtreeLoader(fillFactor);
+        try {
+            while (members.hasNext()) {
+                final T obj = members.next();
+                final Key key = extractKey(obj);
+                if (key != null) {
+                    loader.put(key, obj);
+                }
+            }
+            completeLoad(loader);
+        } catch (final RuntimeException x) {
+            loader.abort();
+            throw x;
+        }
+    }
+
     @Override
     public boolean contains(final Object obj) {
         final Key key = extractKey(obj);
@@ -123,6 +123,26 @@ class AltBtreeMultiFieldIndex<T> extends AltBtree<T> implements FieldIndex<T> {
         throw new StorageError(StorageError.UNSUPPORTED_INDEX_TYPE);
     }
 
+    @Override
+    public void bulkLoadMembers(final Iterator<? extends T> members, final float fillFactor) {
+        final BtreeLoader loader = new BtreeLoader(fillFactor);
+        try {
+            while (members.hasNext()) {
+                final T obj = members.next();
+                loader.put(extractKey(obj), obj);
+            }
+            completeLoad(loader);
+        } catch (final RuntimeException x) {
+            loader.abort();
+            throw x;
+        }
+    }
+
+    @Override
+    Key checkCursorKey(final Key key) {
+        return checkKey(convertKey(key));
+    }
+
     @Override
     public boolean contains(final Object obj) {
         final Key key = extractKey(obj);
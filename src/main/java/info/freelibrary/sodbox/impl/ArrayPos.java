@@ -0,0 +1,20 @@
+package info.freelibrary.sodbox.impl;
+
+class ArrayPos {
+
+    byte[] body;
+
+    int offs;
+
+    int end; // end of the body of the object containing the data
+
+    ArrayPos(final byte[] body, final int offs) {
+        this(body, offs, body.length);
+    }
+
+    ArrayPos(final byte[] body, final int offs, final int end) {
+        this.body = body;
+        this.offs = offs;
+        this.end = end;
+    }
+}
@@ -3,15 +3,18 @@ package info.freelibrary.sodbox.impl;
 
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
 import info.freelibrary.sodbox.Assert;
 import info.freelibrary.sodbox.IValue;
 import info.freelibrary.sodbox.Index;
+import info.freelibrary.sodbox.IndexCursor;
 import info.freelibrary.sodbox.IterableIterator;
 import info.freelibrary.sodbox.Key;
 import info.freelibrary.sodbox.PersistentCollection;
@@ -20,6 +23,302 @@ import info.freelibrary.sodbox.StorageError;
 
 class Btree<T> extends PersistentCollection<T> implements Index<T> {
 
+    /**
+     * Cursor of the paged B-Tree. It keeps the stacks of inner pages and positions in them leading to the current
+     * leaf page and the identifier of the leaf page, which is fixed in the page pool only while a method of the cursor
+     * is executed, as in the iterators of the B-Tree, so a cursor which is not closed doesn't keep any page pinned.
+     */
+    class BtreeCursor implements IndexCursor<T> {
+
+        final Key from;
+
+        final Key till;
+
+        int[] pageStack;
+
+        int[] posStack;
+
+        int leafId; // 0 if the cursor is not positioned
+
+        int nItems;
+
+        int pos;
+
+        int counter;
+
+        BtreeCursor(final Key from, final Key till) {
+            this.from = from;
+            this.till = till;
+        }
+
+        @Override
+        public void close() {
+            leafId = 0;
+        }
+
+        @Override
+        public boolean first() {
+            return locate(from, true) && checkTill();
+        }
+
+        @Override
+        public Object getKey() {
+            check();
+
+            final StorageImpl db = (StorageImpl) getStorage();
+            final Page leaf = db.getPage(leafId);
+
+            try {
+                switch (type) {
+                    case ClassDescriptor.tpString:
+                        return unpackStrKey(leaf, pos);
+                    case ClassDescriptor.tpArrayOfByte:
+                        return unpackByteArrayKey(leaf, pos);
+                    default:
+                        return unpackKey(db, leaf, pos);
+                }
+            } finally {
+                db.myPagePool.unfix(leaf);
+            }
+        }
+
+        @Override
+        public int getOid() {
+            check();
+
+            final StorageImpl db = (StorageImpl) getStorage();
+            final Page leaf = db.getPage(leafId);
+
+            try {
+                return getItem(leaf, pos);
+            } finally {
+                db.myPagePool.unfix(leaf);
+            }
+        }
+
+        @Override
+        public T getValue() {
+            return (T) ((StorageImpl) getStorage()).lookupObject(getOid(), null);
+        }
+
+        @Override
+        public boolean isPositioned() {
+            return leafId != 0;
+        }
+
+        @Override
+        public boolean last() {
+            return locate(till, false) && checkFrom();
+        }
+
+        @Override
+        public boolean next() {
+            if (leafId == 0) {
+                return first();
+            }
+
+            check();
+
+            if (++pos == nItems && !gotoLeaf(true)) {
+                return false;
+            }
+
+            return checkTill();
+        }
+
+        @Override
+        public boolean prev() {
+            if (leafId == 0) {
+                return last();
+            }
+
+            check();
+
+            if (--pos < 0 && !gotoLeaf(false)) {
+                return false;
+            }
+
+            return checkFrom();
+        }
+
+        @Override
+        public boolean seek(final Key key) {
+            if (!locate(checkCursorKey(key), true)) {
+                return false;
+            }
+
+            if (from != null && compare(from) >= from.inclusion) {
+                return first();
+            }
+
+            return checkTill();
+        }
+
+        private void check() {
+            if (leafId == 0) {
+                throw new NoSuchElementException();
+            }
+
+            if (counter != updateCounter) {
+                close();
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        private boolean checkFrom() {
+            if (from != null && compare(from) >= from.inclusion) {
+                close();
+                return false;
+            }
+
+            return true;
+        }
+
+        private boolean checkTill() {
+            if (till != null && -compare(till) >= till.inclusion) {
+                close();
+                return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Compare the key with the key of the current item.
+         */
+        private int compare(final Key key) {
+            final StorageImpl db = (StorageImpl) getStorage();
+            final Page leaf = db.getPage(leafId);
+
+            try {
+                return compare(key, leaf, pos);
+            } finally {
+                db.myPagePool.unfix(leaf);
+            }
+        }
+
+        private int compare(final Key key, final Page pg, final int i) {
+            switch (type) {
+                case ClassDescriptor.tpString:
+                    return BtreePage.compareStr(key, pg, i);
+                case ClassDescriptor.tpArrayOfByte:
+                    return compareByteArrays(key, pg, i);
+                default:
+                    return BtreePage.compare(key, pg, i);
+            }
+        }
+
+        private int getItem(final Page pg, final int i) {
+            return type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte ? BtreePage
+                    .getKeyStrOid(pg, i) : BtreePage.getReference(pg, BtreePage.getMaxItems(pg) - 1 - i);
+        }
+
+        /**
+         * Move to the first item of the next leaf page or to the last item of the previous one.
+         */
+        private boolean gotoLeaf(final boolean forward) {
+            final StorageImpl db = (StorageImpl) getStorage();
+            int sp = height - 1;
+
+            while (--sp >= 0) {
+                Page pg = db.getPage(pageStack[sp]);
+                final int i = posStack[sp] + (forward ? 1 : -1);
+
+                if (i >= 0 && i <= BtreePage.getnItems(pg)) {
+                    int pageId = getItem(pg, i);
+
+                    posStack[sp] = i;
+
+                    while (true) {
+                        db.myPagePool.unfix(pg);
+                        pg = db.getPage(pageId);
+
+                        if (++sp == height - 1) {
+                            leafId = pageId;
+                            nItems = BtreePage.getnItems(pg);
+                            pos = forward ? 0 : nItems - 1;
+                            db.myPagePool.unfix(pg);
+                            return true;
+                        }
+
+                        pageStack[sp] = pageId;
+                        posStack[sp] = forward ? 0 : BtreePage.getnItems(pg);
+                        pageId = getItem(pg, posStack[sp]);
+                    }
+                }
+
+                db.myPagePool.unfix(pg);
+            }
+
+            close();
+            return false;
+        }
+
+        /**
+         * Descend to the leaf page containing the first item with key greater than or equal to the specified key
+         * (when <code>forward</code> is <code>true</code>) or the last item with key less than or equal to it.
+         */
+        private boolean locate(final Key key, final boolean forward) {
+            close();
+
+            if (height == 0) {
+                return false;
+            }
+
+            final StorageImpl db = (StorageImpl) getStorage();
+
+            if (db == null) {
+                throw new StorageError(StorageError.DELETED_OBJECT);
+            }
+
+            if (pageStack == null || pageStack.length != height - 1) {
+                pageStack = new int[height - 1];
+                posStack = new int[height - 1];
+            }
+
+            counter = updateCounter;
+
+            int pageId = root;
+
+            for (int sp = 0;; sp++) {
+                final Page pg = db.getPage(pageId);
+                final int n = BtreePage.getnItems(pg);
+                int l = 0;
+                int r = n;
+
+                if (key == null) {
+                    l = forward ? 0 : n;
+                } else {
+                    final int inclusion = forward ? key.inclusion : 1 - key.inclusion;
+
+                    while (l < r) {
+                        final int i = l + r >> 1;
+
+                        if (compare(key, pg, i) >= inclusion) {
+                            l = i + 1;
+                        } else {
+                            r = i;
+                        }
+                    }
+                }
+
+                if (sp == height - 1) {
+                    db.myPagePool.unfix(pg);
+                    leafId = pageId;
+                    nItems = n;
+                    pos = forward ? l : l - 1;
+
+                    return pos >= 0 && pos < n || gotoLeaf(forward);
+                }
+
+                pageStack[sp] = pageId;
+                posStack[sp] = l;
+                pageId = getItem(pg, l);
+                db.myPagePool.unfix(pg);
+            }
+        }
+    }
+
     static class BtreeEntry<T> implements Map.Entry<Object, T> {
 
         private final Object key;
@@ -94,6 +393,78 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
 
     }
 
+    /**
+     * Loader of the sorted entries in the empty B-Tree.
+     */
+    class BtreeLoader extends BulkLoader {
+
+        final StorageImpl db;
+
+        BtreeLoader(final float fillFactor) {
+            super(getLoaderCapacity(), fillFactor, Btree.this.unique);
+
+            db = (StorageImpl) getStorage();
+
+            if (db == null) {
+                throw new StorageError(StorageError.DELETED_OBJECT);
+            }
+
+            if (root != 0) {
+                throw new StorageError(StorageError.INVALID_OPERATION, "bulk load of not empty index");
+            }
+        }
+
+        @Override
+        int compare(final Key key1, final Key key2) {
+            if (type == ClassDescriptor.tpString) {
+                final char[] s1 = (char[]) key1.oval;
+                final char[] s2 = (char[]) key2.oval;
+                final int n = s1.length < s2.length ? s1.length : s2.length;
+
+                for (int i = 0; i < n; i++) {
+                    final int diff = s1[i] - s2[i];
+
+                    if (diff != 0) {
+                        return diff;
+                    }
+                }
+
+                return s1.length - s2.length;
+            } else if (type == ClassDescriptor.tpArrayOfByte) {
+                final byte[] item = (byte[]) key2.oval;
+                return compareByteArrays((byte[]) key1.oval, item, 0, item.length);
+            } else {
+                return compareScalars(key1, key2);
+            }
+        }
+
+        @Override
+        void purgePage(final Object page, final int height) {
+            BtreePage.purge(db, (Integer) page, type, height);
+        }
+
+        void put(final Key key, final Object obj) {
+            add(checkKey(key), db.makePersistent(obj));
+        }
+
+        @Override
+        int weight(final Key key) {
+            if (type == ClassDescriptor.tpString) {
+                return BtreePage.strKeySize + ((char[]) key.oval).length * 2;
+            } else if (type == ClassDescriptor.tpArrayOfByte) {
+                return BtreePage.strKeySize + ((byte[]) key.oval).length;
+            } else {
+                return 1;
+            }
+        }
+
+        @Override
+        Object writePage(final List<Entry> entries, final boolean leaf) {
+            return BtreePage.allocate(db, type, entries, leaf);
+        }
+
+    }
+
     class BtreeSelectionEntryIterator extends BtreeSelectionIterator<Map.Entry<Object, T>> {
 
         BtreeSelectionEntryIterator(final Key from, final Key till, final int order) {
@@ -111,7 +482,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
                     return new BtreeEntry<T>(db, unpackByteArrayKey(pg, pos), BtreePage.getKeyStrOid(pg, pos));
                 default:
                     return new BtreeEntry<T>(db, unpackKey(db, pg, pos), BtreePage.getReference(pg,
-                            BtreePage.maxItems - 1 - pos));
+                            BtreePage.getMaxItems(pg) - 1 - pos));
             }
         }
     }
@@ -167,7 +538,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
                     key.getByteArray(pg, pos);
                     break;
                 default:
-                    key = new BtreeKey(null, BtreePage.getReference(pg, BtreePage.maxItems - 1 - pos));
+                    key = new BtreeKey(null, BtreePage.getReference(pg, BtreePage.getMaxItems(pg) - 1 - pos));
                     key.extract(pg, BtreePage.firstKeyOffs + pos * ClassDescriptor.sizeof[type], type);
             }
 
@@ -176,7 +547,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
 
         private int getReference(final Page pg, final int pos) {
             return type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte ? BtreePage.getKeyStrOid(
-                    pg, pos) : BtreePage.getReference(pg, BtreePage.maxItems - 1 - pos);
+                    pg, pos) : BtreePage.getReference(pg, BtreePage.getMaxItems(pg) - 1 - pos);
         }
 
         protected final void gotoNextItem(Page pg, int pos) {
@@ -316,7 +687,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
                                 posStack[sp - 1] = pos;
 
                                 do {
-                                    final int pageId = BtreePage.getReference(pg, BtreePage.maxItems - 1 - pos);
+                                    final int pageId = BtreePage.getReference(pg, BtreePage.getMaxItems(pg) - 1 - pos);
 
                                     db.myPagePool.unfix(pg);
                                     pg = db.getPage(pageId);
@@ -345,7 +716,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
                                 posStack[sp - 1] = pos;
 
                                 do {
-                                    final int pageId = BtreePage.getReference(pg, BtreePage.maxItems - 1 - pos);
+                                    final int pageId = BtreePage.getReference(pg, BtreePage.getMaxItems(pg) - 1 - pos);
 
                                     db.myPagePool.unfix(pg);
                                     pg = db.getPage(pageId);
@@ -456,8 +827,8 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
                         final int pos = posStack[sp - 1];
                         final Page pg = db.getPage(pageStack[sp - 1]);
                         final int oid = type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte
-                                ? BtreePage.getKeyStrOid(pg, pos) : BtreePage.getReference(pg, BtreePage.maxItems -
-                                        1 - pos);
+                                ? BtreePage.getKeyStrOid(pg, pos) : BtreePage.getReference(pg, BtreePage
+                                        .getMaxItems(pg) - 1 - pos);
 
                         if (oid != next) {
                             gotoNextItem(pg, pos);
@@ -844,7 +1215,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
                             pageStack[sp] = pageId;
 
                             final Page pg = db.getPage(pageId);
-                            pageId = BtreePage.getReference(pg, BtreePage.maxItems - 1);
+                            pageId = BtreePage.getReference(pg, BtreePage.getMaxItems(pg) - 1);
                             end = BtreePage.getnItems(pg);
                             db.myPagePool.unfix(pg);
                             sp += 1;
@@ -870,7 +1241,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
                             Assert.that(r == l);
 
                             posStack[sp] = r;
-                            pageId = BtreePage.getReference(pg, BtreePage.maxItems - 1 - r);
+                            pageId = BtreePage.getReference(pg, BtreePage.getMaxItems(pg) - 1 - r);
                             db.myPagePool.unfix(pg);
                             sp += 1;
                         }
@@ -918,7 +1289,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
 
                             final Page pg = db.getPage(pageId);
                             posStack[sp] = BtreePage.getnItems(pg);
-                            pageId = BtreePage.getReference(pg, BtreePage.maxItems - 1 - posStack[sp]);
+                            pageId = BtreePage.getReference(pg, BtreePage.getMaxItems(pg) - 1 - posStack[sp]);
                             db.myPagePool.unfix(pg);
                             sp += 1;
                         }
@@ -949,7 +1320,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
                             Assert.that(r == l);
 
                             posStack[sp] = r;
-                            pageId = BtreePage.getReference(pg, BtreePage.maxItems - 1 - r);
+                            pageId = BtreePage.getReference(pg, BtreePage.getMaxItems(pg) - 1 - r);
                             db.myPagePool.unfix(pg);
                             sp += 1;
                         }
@@ -1054,7 +1425,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
             case ClassDescriptor.tpEnum:
                 return new Key((Enum) o);
             case ClassDescriptor.tpArrayOfByte:
-                return new Key((byte[]) o);
+                return o instanceof byte[] ? new Key((byte[]) o) : getKeyFromObject(o);
             default:
                 throw new StorageError(StorageError.UNSUPPORTED_INDEX_TYPE);
         }
@@ -1180,6 +1551,30 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
         this.unique = unique;
     }
 
+    @Override
+    public void bulkLoad(final Iterator<? extends Map.Entry<?, ? extends T>> entries, final float fillFactor) {
+        final BtreeLoader loader = new BtreeLoader(fillFactor);
+
+        try {
+            while (entries.hasNext()) {
+                final Map.Entry<?, ? extends T> entry = entries.next();
+                loader.put(loadKey(entry.getKey()), entry.getValue());
+            }
+
+            completeLoad(loader);
+        } catch (final RuntimeException x) {
+            loader.abort();
+            throw x;
+        }
+    }
+
+    /**
+     * Convert key passed to the cursor of the index to the form stored in the B-Tree.
+     */
+    Key checkCursorKey(final Key key) {
+        return checkKey(key);
+    }
+
     Key checkKey(Key key) {
         if (key != null) {
             if (key.type != type) {
@@ -1212,6 +1607,37 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
         }
     }
 
+    /**
+     * Collect keys of the remaining entries of the cursor.
+     */
+    static Object[] collectKeys(final IndexCursor<?> cursor) {
+        final ArrayList<Object> keys = new ArrayList<Object>();
+
+        while (cursor.next()) {
+            keys.add(cursor.getKey());
+        }
+
+        return keys.toArray();
+    }
+
+    /**
+     * Collect OIDs of the remaining entries of the cursor.
+     */
+    static int[] collectOids(final IndexCursor<?> cursor) {
+        int[] oids = new int[16];
+        int n = 0;
+
+        while (cursor.next()) {
+            if (n == oids.length) {
+                oids = Arrays.copyOf(oids, n * 2);
+            }
+
+            oids[n++] = cursor.getOid();
+        }
+
+        return Arrays.copyOf(oids, n);
+    }
+
     int compareByteArrays(final byte[] key, final byte[] item, final int offs, final int length) {
         final int n = key.length >= length ? length : key.length;
 
@@ -1231,6 +1657,40 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
                 BtreePage.getKeyStrSize(pg, i));
     }
 
+    final void completeLoad(final BtreeLoader loader) {
+        final Object page = loader.finish();
+
+        if (page != null) {
+            root = (Integer) page;
+            height = loader.height;
+            nElems = loader.nElems;
+            updateCounter += 1;
+            modify();
+        }
+    }
+
+    @Override
+    public int countRange(final Key from, final Key till) {
+        final IndexCursor<T> cursor = cursor(from, till);
+        int count = 0;
+
+        while (cursor.next()) {
+            count += 1;
+        }
+
+        return count;
+    }
+
+    @Override
+    public IndexCursor<T> cursor() {
+        return new BtreeCursor(null, null);
+    }
+
+    @Override
+    public IndexCursor<T> cursor(final Key from, final Key till) {
+        return new BtreeCursor(checkCursorKey(from), checkCursorKey(till));
+    }
+
     @Override
     public void deallocate() {
         if (root != 0) {
@@ -1340,6 +1800,30 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
         return new Class[] { getKeyType() };
     }
 
+    @Override
+    public Object[] getKeys(final Key from, final Key till) {
+        return collectKeys(cursor(from, till));
+    }
+
+    /**
+     * Gets capacity of the B-Tree page used by the bulk loader: key space of the page for string keys and maximal
+     * number of items for scalar keys. It depends on the page size of the storage.
+     *
+     * @return Capacity of the page
+     */
+    final int getLoaderCapacity() {
+        final StorageImpl db = (StorageImpl) getStorage();
+
+        if (db == null) {
+            throw new StorageError(StorageError.DELETED_OBJECT);
+        }
+
+        final int keySpace = db.myPageSize - BtreePage.firstKeyOffs;
+
+        return type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte ? keySpace : keySpace / (4
+                + ClassDescriptor.sizeof[type]);
+    }
+
     @Override
     public ArrayList<T> getList(final Key from, final Key till) {
         final ArrayList<T> list = new ArrayList<T>();
@@ -1356,6 +1840,11 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
         return getList(getKeyFromObject(type, from), getKeyFromObject(type, till));
     }
 
+    @Override
+    public int[] getOids(final Key from, final Key till) {
+        return collectOids(cursor(from, till));
+    }
+
     @Override
     public Object[] getPrefix(final String prefix) {
         return get(new Key(prefix, true), new Key(prefix + Character.MAX_VALUE, false));
@@ -1396,6 +1885,10 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
             final int result = BtreePage.insert(db, root, this, ins, height, unique, overwrite);
 
             if (result == op_overflow) {
+                if (height == 1 && truncatesSeparators()) {
+                    BtreePage.truncateSeparator(db, ins, root);
+                }
+
                 root = BtreePage.allocate(db, root, type, ins);
                 height += 1;
             } else if (result == op_duplicate) {
@@ -1433,6 +1926,13 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
                 till)), order);
     }
 
+    /**
+     * Convert key of the entry passed to <code>bulkLoad</code> to the key of the index.
+     */
+    Key loadKey(final Object key) {
+        return key instanceof Key ? (Key) key : getKeyFromObject(type, key);
+    }
+
     public int markTree() {
         if (root != 0) {
             return BtreePage.markPage((StorageImpl) getStorage(), root, type, height);
@@ -1544,7 +2044,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
 
                 if (height != 1) {
                     newRoot = type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte ? BtreePage
-                            .getKeyStrOid(pg, 0) : BtreePage.getReference(pg, BtreePage.maxItems - 1);
+                            .getKeyStrOid(pg, 0) : BtreePage.getReference(pg, BtreePage.getMaxItems(pg) - 1);
                 }
 
                 db.freePage(root);
@@ -1589,6 +2089,14 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
         return nElems;
     }
 
+    /**
+     * Check if keys separating leaf pages may be truncated. This is possible only for the byte array keys compared
+     * byte by byte, where a prefix of the key precedes the key itself.
+     */
+    boolean truncatesSeparators() {
+        return false;
+    }
+
     @Override
     public Object[] toArray() {
         final Object[] arr = new Object[nElems];
@@ -0,0 +1,62 @@
+package info.freelibrary.sodbox.impl;
+
+import java.util.ArrayList;
+
+import info.freelibrary.sodbox.Key;
+import info.freelibrary.sodbox.StorageError;
+
+/**
+ * Field index with string keys stored in compact form, see {@link BtreeCompactStringIndex}.
+ */
+class BtreeCompactStringFieldIndex<T> extends BtreeFieldIndex<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    BtreeCompactStringFieldIndex() {
+    }
+
+    BtreeCompactStringFieldIndex(final Class<?> cls, final String fieldName, final boolean unique) {
+        super(cls, fieldName, unique);
+        type = ClassDescriptor.tpArrayOfByte;
+    }
+
+    @Override
+    Key checkKey(final Key key) {
+        return super.checkKey(BtreeCompactStringIndex.packKey(key));
+    }
+
+    @Override
+    int compareByteArrays(final byte[] key, final byte[] item, final int offs, final int length) {
+        return BtreeCompactStringIndex.compareKeys(key, item, offs, length);
+    }
+
+    @Override
+    Key extractKey(final Object obj) {
+        try {
+            final Object val = fld.get(obj);
+            return val != null ? new Key((String) val) : null;
+        } catch (final Exception x) {
+            throw new StorageError(StorageError.ACCESS_VIOLATION, x);
+        }
+    }
+
+    @Override
+    public Class<?> getKeyType() {
+        return String.class;
+    }
+
+    @Override
+    public ArrayList<T> prefixSearchList(final String key) {
+        return BtreeCompactStringIndex.prefixSearchList(this, key);
+    }
+
+    @Override
+    boolean truncatesSeparators() {
+        return true;
+    }
+
+    @Override
+    Object unpackByteArrayKey(final Page pg, final int pos) {
+        return BtreeCompactStringIndex.unpackKey(pg, pos);
+    }
+}
@@ -0,0 +1,171 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+
+import info.freelibrary.sodbox.GenericIndex;
+import info.freelibrary.sodbox.Key;
+
+/**
+ * B-Tree with string keys stored in compact form. Each character of the key is encoded like in UTF-8, using one byte
+ * for ASCII characters, so keys are stored in the pages of byte array keys and compared byte by byte, while the order
+ * of keys remains the same as the order of strings. Keys separating leaf pages are truncated to the shortest prefix
+ * which still separates them, which increases the fan-out of the tree for the keys with long common prefixes.
+ */
+class BtreeCompactStringIndex<T> extends Btree<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    static int compareKeys(final byte[] key, final byte[] item, final int offs, final int length) {
+        final int n = key.length >= length ? length : key.length;
+
+        for (int i = 0; i < n; i++) {
+            final int diff = (key[i] & 0xFF) - (item[i + offs] & 0xFF);
+
+            if (diff != 0) {
+                return diff;
+            }
+        }
+
+        return key.length - length;
+    }
+
+    static Key packKey(final Key key) {
+        if (key == null || key.type != ClassDescriptor.tpString) {
+            return key;
+        }
+
+        final char[] chars = key.oval instanceof String ? ((String) key.oval).toCharArray() : (char[]) key.oval;
+        int size = 0;
+
+        for (final char ch : chars) {
+            size += ch < 0x80 ? 1 : ch < 0x800 ? 2 : 3;
+        }
+
+        final byte[] bytes = new byte[size];
+        int offs = 0;
+
+        for (final char ch : chars) {
+            if (ch < 0x80) {
+                bytes[offs++] = (byte) ch;
+            } else if (ch < 0x800) {
+                bytes[offs++] = (byte) (0xC0 | ch >>> 6);
+                bytes[offs++] = (byte) (0x80 | ch & 0x3F);
+            } else {
+                bytes[offs++] = (byte) (0xE0 | ch >>> 12);
+                bytes[offs++] = (byte) (0x80 | ch >>> 6 & 0x3F);
+                bytes[offs++] = (byte) (0x80 | ch & 0x3F);
+            }
+        }
+
+        return new Key(bytes, key.inclusion != 0);
+    }
+
+    /**
+     * Finds objects with keys which are prefixes of the specified word. Such keys are not adjacent in the tree, so each
+     * of them is located by the search of the greatest key not greater than the longest prefix which can still match.
+     */
+    static <T> ArrayList<T> prefixSearchList(final Btree<T> tree, final String key) {
+        final ArrayList<T> list = new ArrayList<>();
+        String bound = key;
+
+        while (bound.length() != 0) {
+            final Iterator<Map.Entry<Object, T>> iterator = tree.entryIterator(null, new Key(bound),
+                    GenericIndex.DESCENT_ORDER);
+
+            if (!iterator.hasNext()) {
+                break;
+            }
+
+            Map.Entry<Object, T> entry = iterator.next();
+            final String found = (String) entry.getKey();
+            int n = 0;
+
+            while (n < found.length() && found.charAt(n) == key.charAt(n)) {
+                n += 1;
+            }
+
+            if (n == found.length()) {
+                while (true) {
+                    list.add(entry.getValue());
+
+                    if (!iterator.hasNext() || !found.equals((entry = iterator.next()).getKey())) {
+                        break;
+                    }
+                }
+
+                n -= 1;
+            }
+
+            bound = key.substring(0, n);
+        }
+
+        Collections.reverse(list);
+        return list;
+    }
+
+    static String unpackKey(final byte[] data, int offs, final int size) {
+        final char[] chars = new char[size];
+        final int end = offs + size;
+        int n = 0;
+
+        while (offs < end) {
+            final int b = data[offs++] & 0xFF;
+
+            if (b < 0x80) {
+                chars[n++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[n++] = (char) ((b & 0x1F) << 6 | data[offs++] & 0x3F);
+            } else {
+                chars[n++] = (char) ((b & 0x0F) << 12 | (data[offs++] & 0x3F) << 6 | data[offs++] & 0x3F);
+            }
+        }
+
+        return new String(chars, 0, n);
+    }
+
+    static String unpackKey(final Page pg, final int pos) {
+        return unpackKey(pg.data, BtreePage.firstKeyOffs + BtreePage.getKeyStrOffs(pg, pos), BtreePage.getKeyStrSize(
+                pg, pos));
+    }
+
+    BtreeCompactStringIndex() {
+    }
+
+    BtreeCompactStringIndex(final boolean unique) {
+        super(ClassDescriptor.tpArrayOfByte, unique);
+    }
+
+    @Override
+    Key checkKey(final Key key) {
+        return super.checkKey(packKey(key));
+    }
+
+    @Override
+    int compareByteArrays(final byte[] key, final byte[] item, final int offs, final int length) {
+        return compareKeys(key, item, offs, length);
+    }
+
+    @Override
+    public Class<?> getKeyType() {
+        return String.class;
+    }
+
+    @Override
+    public ArrayList<T> prefixSearchList(final String key) {
+        return prefixSearchList(this, key);
+    }
+
+    @Override
+    boolean truncatesSeparators() {
+        return true;
+    }
+
+    @Override
+    Object unpackByteArrayKey(final Page pg, final int pos) {
+        return unpackKey(pg, pos);
+    }
+}
@@ -63,6 +63,11 @@ class BtreeCompoundIndex<T> extends Btree<T> implements Index<T> {
         this.unique = unique;
     }
 
+    @Override
+    Key checkCursorKey(final Key key) {
+        return checkKey(convertKey(key));
+    }
+
     @Override
     int compareByteArrays(final byte[] key, final byte[] item, final int offs, final int lengtn) {
         int o1 = 0;
@@ -307,6 +312,11 @@ class BtreeCompoundIndex<T> extends Btree<T> implements Index<T> {
         return super.iterator(convertKey(from), convertKey(till), order);
     }
 
+    @Override
+    Key loadKey(final Object key) {
+        return convertKey(key instanceof Key ? (Key) key : new Key((Object[]) key), false);
+    }
+
     @Override
     public boolean put(final Key key, final T obj) {
         return super.put(convertKey(key, false), obj);
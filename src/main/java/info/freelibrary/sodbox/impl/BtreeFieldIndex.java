@@ -120,6 +120,24 @@ class BtreeFieldIndex<T> extends Btree<T> implements FieldIndex<T> {
         super.insert(key, obj, false);
     }
 
+    @Override
+    public void bulkLoadMembers(final Iterator<? extends T> members, final float fillFactor) {
+        final BtreeLoader loader = new BtreeLoader(fillFactor);
+        try {
+            while (members.hasNext()) {
+                final T obj = members.next();
+                final Key key = extractKey(obj);
+                if (key != null) {
+                    loader.put(key, obj);
+                }
+            }
+            completeLoad(loader);
+        } catch (final RuntimeException x) {
+            loader.abort();
+            throw x;
+        }
+    }
+
     @Override
     public boolean contains(final Object obj) {
         final Key key = extractKey(obj);
@@ -158,7 +176,7 @@ class BtreeFieldIndex<T> extends Btree<T> implements FieldIndex<T> {
         }
     }
 
-    private Key extractKey(final Object obj) {
+    Key extractKey(final Object obj) {
         try {
             final Field f = fld;
             Key key = null;
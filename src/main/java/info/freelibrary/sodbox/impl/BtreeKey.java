@@ -101,6 +101,6 @@ class BtreeKey {
             default:
                 Assert.failed("Invalid type");
         }
-        Bytes.pack4(dst, BtreePage.firstKeyOffs + (BtreePage.maxItems - i - 1) * 4, oid);
+        Bytes.pack4(dst, BtreePage.firstKeyOffs + (BtreePage.getMaxItems(pg) - i - 1) * 4, oid);
     }
 }
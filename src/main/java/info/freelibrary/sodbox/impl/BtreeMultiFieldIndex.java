@@ -92,6 +92,26 @@ class BtreeMultiFieldIndex<T> extends Btree<T> implements FieldIndex<T> {
         throw new StorageError(StorageError.UNSUPPORTED_INDEX_TYPE);
     }
 
+    @Override
+    public void bulkLoadMembers(final Iterator<? extends T> members, final float fillFactor) {
+        final BtreeLoader loader = new BtreeLoader(fillFactor);
+        try {
+            while (members.hasNext()) {
+                final T obj = members.next();
+                loader.put(extractKey(obj), obj);
+            }
+            completeLoad(loader);
+        } catch (final RuntimeException x) {
+            loader.abort();
+            throw x;
+        }
+    }
+
+    @Override
+    Key checkCursorKey(final Key key) {
+        return checkKey(convertKey(key));
+    }
+
     @Override
     int compareByteArrays(final byte[] key, final byte[] item, final int offs, final int lengtn) {
         int o1 = 0;
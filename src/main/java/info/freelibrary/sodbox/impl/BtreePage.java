@@ -2,6 +2,7 @@
 package info.freelibrary.sodbox.impl;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import info.freelibrary.sodbox.Assert;
 import info.freelibrary.sodbox.Key;
@@ -10,15 +11,13 @@ class BtreePage {
 
     static final int firstKeyOffs = 4;
 
-    static final int keySpace = Page.pageSize - firstKeyOffs;
-
     static final int strKeySize = 8;
 
-    static final int maxItems = keySpace / 4;
-
     static int allocate(final StorageImpl db, final int root, final int type, final BtreeKey ins) {
         final int pageId = db.allocatePage();
         final Page pg = db.putPage(pageId);
+        final int keySpace = getKeySpace(pg);
+        final int maxItems = getMaxItems(pg);
         setnItems(pg, 1);
         if (type == ClassDescriptor.tpString) {
             final char[] sval = (char[]) ins.key.oval;
@@ -46,7 +45,53 @@ class BtreePage {
         return pageId;
     }
 
+    static int allocate(final StorageImpl db, final int type, final List<BulkLoader.Entry> entries,
+            final boolean leaf) {
+        final int pageId = db.allocatePage();
+        final Page pg = db.putPage(pageId);
+        final int keySpace = getKeySpace(pg);
+        final int maxItems = getMaxItems(pg);
+        final int nItems = leaf ? entries.size() : entries.size() - 1;
+        if (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte) {
+            int size = 0;
+            for (int i = 0; i < nItems; i++) {
+                final BulkLoader.Entry e = entries.get(i);
+                int len;
+                if (type == ClassDescriptor.tpString) {
+                    final char[] sval = (char[]) e.key.oval;
+                    len = sval.length;
+                    size += len * 2;
+                    setKeyStrChars(pg, keySpace - size, sval);
+                } else {
+                    final byte[] bval = (byte[]) e.key.oval;
+                    len = bval.length;
+                    size += len;
+                    setKeyBytes(pg, keySpace - size, bval);
+                }
+                setKeyStrOffs(pg, i, keySpace - size);
+                setKeyStrSize(pg, i, len);
+                setKeyStrOid(pg, i, (Integer) e.node);
+            }
+            if (!leaf) {
+                setKeyStrOid(pg, nItems, (Integer) entries.get(nItems).node);
+            }
+            setSize(pg, size);
+        } else {
+            for (int i = 0; i < nItems; i++) {
+                final BulkLoader.Entry e = entries.get(i);
+                new BtreeKey(e.key, (Integer) e.node).pack(pg, i);
+            }
+            if (!leaf) {
+                setReference(pg, maxItems - nItems - 1, (Integer) entries.get(nItems).node);
+            }
+        }
+        setnItems(pg, nItems);
+        db.myPagePool.unfix(pg);
+        return pageId;
+    }
+
     static int compactifyByteArrays(final Page pg, int m) {
+        final int keySpace = getKeySpace(pg);
         int i, j, offs, len, n = getnItems(pg);
         final int[] size = new int[keySpace + 1];
         final int[] index = new int[keySpace + 1];
@@ -115,6 +160,7 @@ class BtreePage {
     }
 
     static int compactifyStrings(final Page pg, int m) {
+        final int keySpace = getKeySpace(pg);
         int i, j, offs, len, n = getnItems(pg);
         final int[] size = new int[keySpace / 2 + 1];
         final int[] index = new int[keySpace / 2 + 1];
@@ -251,6 +297,7 @@ class BtreePage {
     static void exportPage(final StorageImpl db, final XMLExporter exporter, final int pageId, final int type,
             int height) throws java.io.IOException {
         final Page pg = db.getPage(pageId);
+        final int maxItems = getMaxItems(pg);
         try {
             int i;
             final int n = getnItems(pg);
@@ -286,6 +333,7 @@ class BtreePage {
     static boolean find(final StorageImpl db, final int pageId, final Key firstKey, final Key lastKey,
             final Btree tree, int height, final ArrayList result) {
         final Page pg = db.getPage(pageId);
+        final int maxItems = getMaxItems(pg);
         int l = 0;
         final int n = getnItems(pg);
         int r = n;
@@ -444,8 +492,16 @@ class BtreePage {
         return true;
     }
 
+    /**
+     * Get space available for keys and references in the page. Page size is selected when the database is created, so
+     * it is taken from the page itself.
+     */
+    static int getKeySpace(final Page pg) {
+        return pg.data.length - firstKeyOffs;
+    }
+
     static int getKeyStrOffs(final Page pg, final int index) {
-        return Bytes.unpack2(pg.data, firstKeyOffs + index * 8 + 6);
+        return Bytes.unpack2(pg.data, firstKeyOffs + index * 8 + 6) & 0xFFFF;
     }
 
     static int getKeyStrOid(final Page pg, final int index) {
@@ -453,11 +509,15 @@ class BtreePage {
     }
 
     static int getKeyStrSize(final Page pg, final int index) {
-        return Bytes.unpack2(pg.data, firstKeyOffs + index * 8 + 4);
+        return Bytes.unpack2(pg.data, firstKeyOffs + index * 8 + 4) & 0xFFFF;
+    }
+
+    static int getMaxItems(final Page pg) {
+        return getKeySpace(pg) / 4;
     }
 
     static int getnItems(final Page pg) {
-        return Bytes.unpack2(pg.data, 0);
+        return Bytes.unpack2(pg.data, 0) & 0xFFFF;
     }
 
     static int getReference(final Page pg, final int index) {
@@ -465,11 +525,13 @@ class BtreePage {
     }
 
     static int getSize(final Page pg) {
-        return Bytes.unpack2(pg.data, 2);
+        return Bytes.unpack2(pg.data, 2) & 0xFFFF;
     }
 
     static int handlePageUnderflow(final StorageImpl db, final Page pg, final int r, final int type,
             final BtreeKey rem, final int height) {
+        final int keySpace = getKeySpace(pg);
+        final int maxItems = getMaxItems(pg);
         final int nItems = getnItems(pg);
         if (type == ClassDescriptor.tpString) {
             final Page a = db.putPage(getKeyStrOid(pg, r));
@@ -978,6 +1040,8 @@ class BtreePage {
     static int insert(final StorageImpl db, int pageId, final Btree tree, final BtreeKey ins, int height,
             final boolean unique, final boolean overwrite) {
         Page pg = db.getPage(pageId);
+        final int keySpace = getKeySpace(pg);
+        final int maxItems = getMaxItems(pg);
         int result;
         int l = 0, n = getnItems(pg), r = n;
         final int ahead = unique ? 1 : 0;
@@ -1030,6 +1094,9 @@ class BtreePage {
                     if (result != Btree.op_overflow) {
                         return result;
                     }
+                    if (height == 1 && tree.truncatesSeparators()) {
+                        truncateSeparator(db, ins, getKeyStrOid(pg, r));
+                    }
                 } else if (r < n && tree.compareByteArrays(ins.key, pg, r) == 0) {
                     if (overwrite) {
                         db.myPagePool.unfix(pg);
@@ -1131,6 +1198,7 @@ class BtreePage {
 
     static int insertByteArrayKey(final StorageImpl db, final Page pg, final int r, final BtreeKey ins,
             final int height) {
+        final int keySpace = getKeySpace(pg);
         int nItems = getnItems(pg);
         int size = getSize(pg);
         final int n = height != 0 ? nItems + 1 : nItems;
@@ -1234,6 +1302,7 @@ class BtreePage {
     }
 
     static int insertStrKey(final StorageImpl db, final Page pg, final int r, final BtreeKey ins, final int height) {
+        final int keySpace = getKeySpace(pg);
         int nItems = getnItems(pg);
         int size = getSize(pg);
         final int n = height != 0 ? nItems + 1 : nItems;
@@ -1339,6 +1408,7 @@ class BtreePage {
     static int markPage(final StorageImpl db, final int pageId, final int type, int height) {
         int nPages = 1;
         final Page pg = db.getGCPage(pageId);
+        final int maxItems = getMaxItems(pg);
         try {
             int i;
             final int n = getnItems(pg);
@@ -1422,6 +1492,7 @@ class BtreePage {
     static void purge(final StorageImpl db, final int pageId, final int type, int height) {
         if (--height != 0) {
             final Page pg = db.getPage(pageId);
+            final int maxItems = getMaxItems(pg);
             int n = getnItems(pg) + 1;
             if (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte) { // page of strings
                 while (--n >= 0) {
@@ -1439,6 +1510,8 @@ class BtreePage {
 
     static int remove(final StorageImpl db, final int pageId, final Btree tree, final BtreeKey rem, int height) {
         Page pg = db.getPage(pageId);
+        final int keySpace = getKeySpace(pg);
+        final int maxItems = getMaxItems(pg);
         try {
             int i, n = getnItems(pg), l = 0, r = n;
 
@@ -1580,6 +1653,7 @@ class BtreePage {
     }
 
     static int removeByteArrayKey(final Page pg, final int r) {
+        final int keySpace = getKeySpace(pg);
         final int len = getKeyStrSize(pg, r);
         final int offs = getKeyStrOffs(pg, r);
         int size = getSize(pg);
@@ -1603,6 +1677,7 @@ class BtreePage {
     }
 
     static int removeStrKey(final Page pg, final int r) {
+        final int keySpace = getKeySpace(pg);
         final int len = getKeyStrSize(pg, r) * 2;
         final int offs = getKeyStrOffs(pg, r);
         int size = getSize(pg);
@@ -1674,9 +1749,37 @@ class BtreePage {
         Bytes.pack2(pg.data, 2, (short) size);
     }
 
+    /**
+     * Replace the key separating the leaf page split by insertion from the page containing the rest of its keys with
+     * the shortest prefix of the first key of that page which is greater than the last key of the split off page.
+     *
+     * @param ins key passed to the parent page, the last key of the split off page
+     * @param pageId page following the split off page
+     */
+    static void truncateSeparator(final StorageImpl db, final BtreeKey ins, final int pageId) {
+        final byte[] last = (byte[]) ins.key.oval;
+        final Page pg = db.getPage(pageId);
+        try {
+            final int len = getKeyStrSize(pg, 0);
+            final int offs = firstKeyOffs + getKeyStrOffs(pg, 0);
+            int n = 0;
+            while (n < len && n < last.length && pg.data[offs + n] == last[n]) {
+                n += 1;
+            }
+            if (n + 1 < len && n + 1 < last.length) {
+                final byte[] prefix = new byte[n + 1];
+                System.arraycopy(pg.data, offs, prefix, 0, n + 1);
+                ins.key = new Key(prefix);
+            }
+        } finally {
+            db.myPagePool.unfix(pg);
+        }
+    }
+
     static int traverseForward(final StorageImpl db, final int pageId, final int type, int height,
             final Object[] result, int pos) {
         final Page pg = db.getPage(pageId);
+        final int maxItems = getMaxItems(pg);
         int oid;
         try {
             int i;
@@ -0,0 +1,287 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.freelibrary.sodbox.Assert;
+import info.freelibrary.sodbox.Key;
+import info.freelibrary.sodbox.StorageError;
+
+/**
+ * Builder of B-Tree from the entries sorted by key. Instead of inserting entries one by one, which descends the tree
+ * for each entry and leaves split pages half full, the loader fills pages from left to right up to the specified fill
+ * factor, and the last keys of the filled pages become entries of the parent level. Each level keeps entries which are
+ * not written yet in memory: a page is written only when the rest of the entries doesn't fit in one page, so at the end
+ * of the load the rest of the level is written as one page or divided between two pages, and the last page of the
+ * level is never almost empty. If the load fails, the pages written so far are referenced only by the entries of
+ * the loader, so they are purged by <code>abort</code>. Subclasses define the page format.
+ */
+abstract class BulkLoader {
+
+    static final float MIN_FILL_FACTOR = 0.5f;
+
+    static final class Entry {
+
+        final Key key;
+
+        final Object node;
+
+        final int weight;
+
+        Entry(final Key key, final Object node, final int weight) {
+            this.key = key;
+            this.node = node;
+            this.weight = weight;
+        }
+    }
+
+    static final class Level {
+
+        final ArrayList<Entry> entries = new ArrayList<>();
+
+        int weight;
+    }
+
+    final int capacity;
+
+    final int fill;
+
+    final boolean unique;
+
+    int nElems;
+
+    int height;
+
+    private final ArrayList<Level> levels = new ArrayList<>();
+
+    private Key lastKey;
+
+    /**
+     * Create loader.
+     *
+     * @param capacity capacity of the page: sum of weights of the entries which fit in the page
+     * @param fillFactor part of the page capacity used by the loaded entries
+     * @param unique whether the index is unique
+     */
+    BulkLoader(final int capacity, final float fillFactor, final boolean unique) {
+        if (!(fillFactor >= MIN_FILL_FACTOR && fillFactor <= 1.0f)) {
+            throw new IllegalArgumentException("Fill factor " + fillFactor + " is not in range [" + MIN_FILL_FACTOR +
+                    ", 1]");
+        }
+
+        this.capacity = capacity;
+        this.unique = unique;
+
+        fill = (int) (capacity * fillFactor);
+    }
+
+    /**
+     * Compare keys of scalar types.
+     */
+    static int compareScalars(final Key key1, final Key key2) {
+        switch (key1.type) {
+            case ClassDescriptor.tpBoolean:
+            case ClassDescriptor.tpByte:
+                return (byte) key1.ival - (byte) key2.ival;
+            case ClassDescriptor.tpShort:
+                return (short) key1.ival - (short) key2.ival;
+            case ClassDescriptor.tpChar:
+                return (char) key1.ival - (char) key2.ival;
+            case ClassDescriptor.tpObject:
+            case ClassDescriptor.tpInt:
+            case ClassDescriptor.tpEnum:
+                return key1.ival < key2.ival ? -1 : key1.ival == key2.ival ? 0 : 1;
+            case ClassDescriptor.tpLong:
+            case ClassDescriptor.tpDate:
+                return key1.lval < key2.lval ? -1 : key1.lval == key2.lval ? 0 : 1;
+            case ClassDescriptor.tpFloat:
+            case ClassDescriptor.tpDouble:
+                return key1.dval < key2.dval ? -1 : key1.dval == key2.dval ? 0 : 1;
+            default:
+                Assert.failed("Invalid type");
+                return 0;
+        }
+    }
+
+    /**
+     * Add entry to the leaf level. Keys should be added in ascending order.
+     *
+     * @param key key of the entry
+     * @param node object associated with the key
+     * @exception StorageError(StorageError.INVALID_OPERATION) if key is less than the previous one, or
+     *            StorageError(StorageError.KEY_NOT_UNIQUE) if index is unique and key is equal to the previous one
+     */
+    final void add(final Key key, final Object node) {
+        if (lastKey != null) {
+            final int diff = compare(lastKey, key);
+
+            if (diff > 0) {
+                throw new StorageError(StorageError.INVALID_OPERATION, "keys are not sorted");
+            } else if (diff == 0 && unique) {
+                throw new StorageError(StorageError.KEY_NOT_UNIQUE);
+            }
+        }
+
+        lastKey = key;
+        nElems += 1;
+        add(0, key, node);
+    }
+
+    /**
+     * Deallocate pages written by the failed load. Pages written at each level are referenced by the entries of the
+     * next level.
+     */
+    final void abort() {
+        for (int i = 1; i < levels.size(); i++) {
+            for (final Entry e : levels.get(i).entries) {
+                purgePage(e.node, i);
+            }
+        }
+
+        levels.clear();
+    }
+
+    /**
+     * Write the rest of the entries.
+     *
+     * @return root page of the tree or <code>null</code> if no entries were added
+     */
+    final Object finish() {
+        final Object root = writeLevels();
+
+        levels.clear(); // pages now belong to the tree
+        return root;
+    }
+
+    abstract int compare(Key key1, Key key2);
+
+    /**
+     * Deallocate page of the tree and its subtree.
+     *
+     * @param page reference to the page
+     * @param height height of the subtree, 1 for leaf page
+     */
+    abstract void purgePage(Object page, int height);
+
+    /**
+     * Get part of the page capacity used by the entry.
+     */
+    abstract int weight(Key key);
+
+    /**
+     * Write page of the tree.
+     *
+     * @param entries entries of the page; key of the last entry of the internal page is not stored in the page
+     * @param leaf whether page is leaf page
+     * @return reference to the page
+     */
+    abstract Object writePage(List<Entry> entries, boolean leaf);
+
+    /**
+     * Write the rest of the entries of all levels. Entries of the level are removed when they are written.
+     */
+    private Object writeLevels() {
+        for (int i = 0; i < levels.size(); i++) {
+            final Level level = levels.get(i);
+            final boolean leaf = i == 0;
+            final int n = level.entries.size();
+
+            if (n == 0) {
+                continue;
+            }
+
+            if (i + 1 == levels.size()) {
+                if (n == 1 && !leaf) {
+                    height = i;
+                    return level.entries.get(0).node;
+                } else if (level.weight <= capacity) {
+                    height = i + 1;
+                    return writePage(level.entries, leaf);
+                }
+            }
+
+            if (level.weight <= capacity) {
+                add(i + 1, level.entries.get(n - 1).key, writePage(level.entries, leaf));
+                level.entries.clear();
+            } else {
+                final int m = split(level, leaf ? 1 : 2);
+                final List<Entry> first = level.entries.subList(0, m);
+
+                add(i + 1, level.entries.get(m - 1).key, writePage(first, leaf));
+                first.clear();
+                add(i + 1, level.entries.get(n - m - 1).key, writePage(level.entries, leaf));
+                level.entries.clear();
+            }
+
+            level.weight = 0;
+        }
+
+        return null;
+    }
+
+    private void add(final int i, final Key key, final Object node) {
+        if (i == levels.size()) {
+            levels.add(new Level());
+        }
+
+        final Level level = levels.get(i);
+        final Entry entry = new Entry(key, node, weight(key));
+
+        level.entries.add(entry);
+        level.weight += entry.weight;
+
+        if (level.weight > fill + capacity) {
+            final List<Entry> page = level.entries.subList(0, fillPage(level, i == 0 ? 1 : 2));
+            final Key maxKey = page.get(page.size() - 1).key;
+            final Object pageRef = writePage(page, i == 0);
+
+            for (final Entry e : page) {
+                level.weight -= e.weight;
+            }
+
+            page.clear();
+            add(i + 1, maxKey, pageRef);
+        }
+    }
+
+    /**
+     * Get number of the first entries of the level filling the page up to the fill factor.
+     */
+    private int fillPage(final Level level, final int minEntries) {
+        int weight = 0;
+        int n = 0;
+
+        while (n < level.entries.size() && (n < minEntries || weight + level.entries.get(n).weight <= fill)) {
+            weight += level.entries.get(n++).weight;
+        }
+
+        Assert.that("Entries fit in the B-Tree page", weight <= capacity);
+        return n;
+    }
+
+    /**
+     * Divide entries of the level between two pages of the similar size.
+     *
+     * @return number of entries placed in the first page
+     */
+    private int split(final Level level, final int minEntries) {
+        final int n = level.entries.size();
+        int best = 0;
+        int bestWeight = 0;
+        int weight = 0;
+
+        for (int m = 1; m <= n - minEntries; m++) {
+            weight += level.entries.get(m - 1).weight;
+
+            if (m >= minEntries && weight <= capacity && level.weight - weight <= capacity && (best == 0 || Math.abs(
+                    level.weight - 2 * weight) < Math.abs(level.weight - 2 * bestWeight))) {
+                best = m;
+                bestWeight = weight;
+            }
+        }
+
+        Assert.that("Entries fit in two B-Tree pages", best != 0);
+        return best;
+    }
+}
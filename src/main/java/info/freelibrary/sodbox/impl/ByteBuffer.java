@@ -60,16 +60,27 @@ public class ByteBuffer {
 
     public StorageImpl db;
 
+    ByteBuffer next; // next free buffer in the thread's pool
+
     ByteBuffer() {
         arr = new byte[64];
     }
 
     ByteBuffer(final StorageImpl db, final Object parent, final boolean finalized) {
         this();
+        reset(db, parent, finalized);
+    }
+
+    /**
+     * Prepare the buffer to pack another object. The array is kept, so a reused buffer doesn't allocate memory
+     * unless the object is larger than the objects packed before.
+     */
+    final void reset(final StorageImpl db, final Object parent, final boolean finalized) {
         this.db = db;
         encoding = db.myEncoding;
         this.parent = parent;
         this.finalized = finalized;
+        used = 0;
     }
 
     public final void extend(final int size) {
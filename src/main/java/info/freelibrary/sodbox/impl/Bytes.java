@@ -5,18 +5,6 @@ import java.io.UnsupportedEncodingException;
 
 import info.freelibrary.sodbox.StorageError;
 
-class ArrayPos {
-
-    byte[] body;
-
-    int offs;
-
-    ArrayPos(final byte[] body, final int offs) {
-        this.body = body;
-        this.offs = offs;
-    }
-}
-
 //
 // Class for packing/unpacking data
 //
@@ -0,0 +1,239 @@
+package info.freelibrary.sodbox.impl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import info.freelibrary.sodbox.IFile;
+import info.freelibrary.sodbox.StorageError;
+
+/**
+ * File implementation based on positional <code>FileChannel</code> I/O. Unlike <code>OSFile</code>, which has to seek
+ * before each read or write, this file has no shared position, so it can be accessed by several threads at the same
+ * time and page misses of different threads are processed in parallel. Data can be transferred through per-thread
+ * direct buffers and synchronization uses <code>force(false)</code>, flushing only file data and not file metadata.
+ * <p>
+ * Please notice that interrupting a thread which performs I/O on the file channel closes the channel, so threads
+ * accessing the storage should not be interrupted.
+ * </p>
+ */
+public class ChannelFile implements IFile {
+
+    protected RandomAccessFile file;
+
+    protected FileChannel channel;
+
+    protected boolean noFlush;
+
+    protected boolean directBuffers;
+
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+    private FileLock lck;
+
+    public ChannelFile(final String filePath, final boolean readOnly, final boolean noFlush) {
+        this(filePath, readOnly, noFlush, true);
+    }
+
+    /**
+     * Open the file.
+     *
+     * @param filePath Path to the file
+     * @param readOnly Whether the file is opened in read-only mode
+     * @param noFlush Whether <code>sync</code> should do nothing
+     * @param directBuffers Whether data should be copied through per-thread direct buffers instead of wrapping the
+     *        passed arrays
+     */
+    public ChannelFile(final String filePath, final boolean readOnly, final boolean noFlush,
+            final boolean directBuffers) {
+        this.noFlush = noFlush;
+        this.directBuffers = directBuffers;
+        try {
+            file = new RandomAccessFile(filePath, readOnly ? "r" : "rw");
+            channel = file.getChannel();
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    @Override
+    public long length() {
+        try {
+            return channel.size();
+        } catch (final IOException x) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void lock(final boolean shared) {
+        try {
+            lck = channel.lock(0, Long.MAX_VALUE, shared);
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.LOCK_FAILED, x);
+        }
+    }
+
+    @Override
+    public int read(final long pos, final byte[] buf) {
+        if (!directBuffers) {
+            return read(pos, ByteBuffer.wrap(buf));
+        }
+
+        final ByteBuffer bb = getBuffer(buf.length);
+        final int len = read(pos, bb);
+
+        if (len > 0) {
+            bb.flip();
+            bb.get(buf, 0, len);
+        }
+
+        return len;
+    }
+
+    /**
+     * Read data from the specified position of the file into the remaining part of the buffer. Reading stops when the
+     * buffer is filled or end of file is reached.
+     *
+     * @param pos Position in the file
+     * @param dst Destination buffer
+     * @return Number of read bytes or -1 if position is beyond end of file
+     */
+    public int read(final long pos, final ByteBuffer dst) {
+        int len = 0;
+        try {
+            while (dst.hasRemaining()) {
+                final int rc = channel.read(dst, pos + len);
+
+                if (rc < 0) {
+                    return len == 0 ? -1 : len;
+                }
+
+                len += rc;
+            }
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+        return len;
+    }
+
+    @Override
+    public void sync() {
+        if (!noFlush) {
+            try {
+                channel.force(false);
+            } catch (final IOException x) {
+                throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+            }
+        }
+    }
+
+    @Override
+    public void truncate(final long size) {
+        try {
+            channel.truncate(size);
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    @Override
+    public boolean tryLock(final boolean shared) {
+        try {
+            lck = channel.tryLock(0, Long.MAX_VALUE, shared);
+            return lck != null;
+        } catch (final IOException x) {
+            return true;
+        }
+    }
+
+    @Override
+    public void unlock() {
+        try {
+            lck.release();
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.LOCK_FAILED, x);
+        }
+    }
+
+    @Override
+    public void write(final long pos, final byte[] buf) {
+        if (!directBuffers) {
+            write(pos, ByteBuffer.wrap(buf));
+        } else {
+            final ByteBuffer bb = getBuffer(buf.length);
+            bb.put(buf);
+            bb.flip();
+            write(pos, bb);
+        }
+    }
+
+    /**
+     * Write the remaining part of the buffer at the specified position of the file.
+     *
+     * @param pos Position in the file
+     * @param src Source buffer
+     */
+    public void write(final long pos, final ByteBuffer src) {
+        long offs = pos;
+        try {
+            while (src.hasRemaining()) {
+                offs += channel.write(src, offs);
+            }
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    /**
+     * Write the buffers to the consecutive locations of the file starting from the specified position using one
+     * gathering write. Gathering write uses current position of the channel, so such writes are serialized, but they
+     * can be performed concurrently with positional reads.
+     *
+     * @param pos Position in the file
+     * @param srcs Source buffers
+     */
+    public void write(final long pos, final ByteBuffer[] srcs) {
+        long size = 0;
+        for (final ByteBuffer src : srcs) {
+            size += src.remaining();
+        }
+        try {
+            synchronized (this) {
+                channel.position(pos);
+                while (size > 0) {
+                    size -= channel.write(srcs);
+                }
+            }
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    /**
+     * Get cleared direct buffer of the current thread with limit set to the specified size.
+     */
+    private ByteBuffer getBuffer(final int size) {
+        ByteBuffer bb = buffers.get();
+
+        if (bb == null || bb.capacity() < size) {
+            bb = ByteBuffer.allocateDirect(Math.max(size, Page.pageSize));
+            buffers.set(bb);
+        }
+
+        bb.clear();
+        bb.limit(size);
+        return bb;
+    }
+}
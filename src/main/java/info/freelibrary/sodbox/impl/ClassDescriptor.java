@@ -313,6 +313,10 @@ public final class ClassDescriptor extends Persistent {
 
     transient boolean isMap;
 
+    transient ClassSerializer serializer;
+
+    transient boolean serializerBuilt;
+
     ClassDescriptor() {
     }
 
@@ -429,6 +433,19 @@ public final class ClassDescriptor extends Persistent {
         }
     }
 
+    /**
+     * Get serializer of objects of this class, building it at first access.
+     *
+     * @return serializer or <code>null</code> if objects should be serialized by reflective code
+     */
+    ClassSerializer getSerializer() {
+        if (!serializerBuilt) {
+            serializer = ClassSerializer.build(this);
+            serializerBuilt = true;
+        }
+        return serializer;
+    }
+
     Object newInstance() {
         if (factory != null) {
             return factory.create(this);
@@ -502,6 +519,7 @@ public final class ClassDescriptor extends Persistent {
             }
         }
         locateConstructor();
+        serializerBuilt = false;
         if (s.myClassDescMap.get(cls) == null) {
             s.myClassDescMap.put(cls, this);
         }
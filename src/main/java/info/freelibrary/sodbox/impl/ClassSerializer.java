@@ -0,0 +1,504 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Date;
+
+import info.freelibrary.sodbox.impl.ClassDescriptor.FieldDescriptor;
+
+/**
+ * Serializer of objects of one class. It is built once for the class descriptor: the type of each field is examined
+ * at that time and the field is accessed through method handles, instead of switching on the field type and calling
+ * reflection provider for each field of each packed or unpacked object. Fields which can't be accessed through method
+ * handles, as well as arrays, value and custom serialized fields, are packed and unpacked by the reflective code of
+ * <code>StorageImpl</code>, so the format of the object is the same whichever way its fields are serialized.
+ * <p>
+ * The handles are kept in instance fields, so JIT can't treat them as constants. <code>SerializerBenchmark</code>
+ * compares storing and loading of objects with both ways of serialization, which can be selected by the
+ * <code>sodbox.method.handles</code> property.
+ */
+final class ClassSerializer {
+
+    private final FieldSerializer[] fields;
+
+    private ClassSerializer(final FieldSerializer[] fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Build serializer for the class.
+     *
+     * @param desc descriptor of the class
+     * @return serializer or <code>null</code> if none of the fields can be accessed through method handles, so
+     *         objects of the class should be serialized by reflective code
+     */
+    static ClassSerializer build(final ClassDescriptor desc) {
+        final FieldDescriptor[] all = desc.allFields;
+        final FieldSerializer[] fields = new FieldSerializer[all.length];
+        boolean accelerated = false;
+
+        for (int i = 0; i < all.length; i++) {
+            fields[i] = createFieldSerializer(all[i]);
+            accelerated |= !(fields[i] instanceof ReflectiveField);
+        }
+
+        return accelerated ? new ClassSerializer(fields) : null;
+    }
+
+    private static FieldSerializer createFieldSerializer(final FieldDescriptor fd) {
+        final Field f = fd.field;
+
+        if (f != null) {
+            try {
+                final MethodHandles.Lookup lookup = MethodHandles.lookup();
+                final MethodHandle getter = lookup.unreflectGetter(f);
+                final MethodHandle setter = lookup.unreflectSetter(f);
+
+                switch (fd.type) {
+                    case ClassDescriptor.tpBoolean:
+                        return new BooleanField(getter(getter, boolean.class), setter(setter, boolean.class));
+                    case ClassDescriptor.tpByte:
+                        return new ByteField(getter(getter, byte.class), setter(setter, byte.class));
+                    case ClassDescriptor.tpChar:
+                        return new CharField(getter(getter, char.class), setter(setter, char.class));
+                    case ClassDescriptor.tpShort:
+                        return new ShortField(getter(getter, short.class), setter(setter, short.class));
+                    case ClassDescriptor.tpInt:
+                        return new IntField(getter(getter, int.class), setter(setter, int.class));
+                    case ClassDescriptor.tpLong:
+                        return new LongField(getter(getter, long.class), setter(setter, long.class));
+                    case ClassDescriptor.tpFloat:
+                        return new FloatField(getter(getter, float.class), setter(setter, float.class));
+                    case ClassDescriptor.tpDouble:
+                        return new DoubleField(getter(getter, double.class), setter(setter, double.class));
+                    case ClassDescriptor.tpEnum:
+                        return new EnumField(getter(getter, Object.class), setter(setter, Object.class), f.getType()
+                                .getEnumConstants());
+                    case ClassDescriptor.tpDate:
+                        return new DateField(getter(getter, Object.class), setter(setter, Object.class));
+                    case ClassDescriptor.tpString:
+                        return new StringField(getter(getter, Object.class), setter(setter, Object.class));
+                    case ClassDescriptor.tpObject:
+                        return new ObjectField(getter(getter, Object.class), setter(setter, Object.class), f
+                                .getType());
+                    case ClassDescriptor.tpArrayOfByte:
+                        return new ByteArrayField(getter(getter, Object.class), setter(setter, Object.class));
+                    default:
+                }
+            } catch (final Exception x) {
+                // field is not accessible: leave it to reflection provider
+            }
+        }
+
+        return new ReflectiveField(fd);
+    }
+
+    private static MethodHandle getter(final MethodHandle getter, final Class<?> type) {
+        return getter.asType(MethodType.methodType(type, Object.class));
+    }
+
+    private static MethodHandle setter(final MethodHandle setter, final Class<?> type) {
+        return setter.asType(MethodType.methodType(void.class, Object.class, type));
+    }
+
+    /**
+     * Pack fields of the object.
+     *
+     * @param storage storage
+     * @param obj packed object
+     * @param offs offset in the buffer
+     * @param buf buffer
+     * @return offset in the buffer after the fields of the object
+     */
+    int pack(final StorageImpl storage, final Object obj, int offs, final ByteBuffer buf) throws Exception {
+        try {
+            for (final FieldSerializer field : fields) {
+                offs = field.pack(storage, obj, offs, buf);
+            }
+        } catch (final Exception x) {
+            throw x;
+        } catch (final Error x) {
+            throw x;
+        } catch (final Throwable x) {
+            throw new UndeclaredThrowableException(x);
+        }
+
+        return offs;
+    }
+
+    /**
+     * Unpack fields of the object. Object stored by previous version of the class may be shorter than the class
+     * descriptor: the fields not present in the object body keep their default values.
+     *
+     * @param storage storage
+     * @param obj unpacked object
+     * @param recursiveLoading whether referenced objects should be loaded
+     * @param body object body
+     * @param offs offset in the body
+     * @param end end of the body
+     * @param parent object containing the unpacked one
+     * @return offset in the body after the fields of the object
+     */
+    int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+            int offs, final int end, final Object parent) throws Exception {
+        try {
+            for (int i = 0; i < fields.length && offs < end; i++) {
+                offs = fields[i].unpack(storage, obj, recursiveLoading, body, offs, end, parent);
+            }
+        } catch (final Exception x) {
+            throw x;
+        } catch (final Error x) {
+            throw x;
+        } catch (final Throwable x) {
+            throw new UndeclaredThrowableException(x);
+        }
+
+        return offs;
+    }
+
+    abstract static class FieldSerializer {
+
+        abstract int pack(StorageImpl storage, Object obj, int offs, ByteBuffer buf) throws Throwable;
+
+        abstract int unpack(StorageImpl storage, Object obj, boolean recursiveLoading, byte[] body, int offs,
+                int end, Object parent) throws Throwable;
+    }
+
+    abstract static class HandleField extends FieldSerializer {
+
+        final MethodHandle getter;
+
+        final MethodHandle setter;
+
+        HandleField(final MethodHandle getter, final MethodHandle setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+    static final class ReflectiveField extends FieldSerializer {
+
+        final FieldDescriptor[] field;
+
+        ReflectiveField(final FieldDescriptor fd) {
+            field = new FieldDescriptor[] { fd };
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Exception {
+            return storage.packFields(obj, field, offs, buf);
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Exception {
+            return storage.unpackFields(obj, field, recursiveLoading, body, offs, end, parent);
+        }
+    }
+
+    static final class BooleanField extends HandleField {
+
+        BooleanField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            buf.extend(offs + 1);
+            buf.arr[offs] = (byte) ((boolean) getter.invokeExact(obj) ? 1 : 0);
+            return offs + 1;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            setter.invokeExact(obj, body[offs] != 0);
+            return offs + 1;
+        }
+    }
+
+    static final class ByteField extends HandleField {
+
+        ByteField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            buf.extend(offs + 1);
+            buf.arr[offs] = (byte) getter.invokeExact(obj);
+            return offs + 1;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            setter.invokeExact(obj, body[offs]);
+            return offs + 1;
+        }
+    }
+
+    static final class CharField extends HandleField {
+
+        CharField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            buf.extend(offs + 2);
+            Bytes.pack2(buf.arr, offs, (short) (char) getter.invokeExact(obj));
+            return offs + 2;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            setter.invokeExact(obj, (char) Bytes.unpack2(body, offs));
+            return offs + 2;
+        }
+    }
+
+    static final class ShortField extends HandleField {
+
+        ShortField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            buf.extend(offs + 2);
+            Bytes.pack2(buf.arr, offs, (short) getter.invokeExact(obj));
+            return offs + 2;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            setter.invokeExact(obj, Bytes.unpack2(body, offs));
+            return offs + 2;
+        }
+    }
+
+    static final class IntField extends HandleField {
+
+        IntField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            buf.extend(offs + 4);
+            Bytes.pack4(buf.arr, offs, (int) getter.invokeExact(obj));
+            return offs + 4;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            setter.invokeExact(obj, Bytes.unpack4(body, offs));
+            return offs + 4;
+        }
+    }
+
+    static final class LongField extends HandleField {
+
+        LongField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            buf.extend(offs + 8);
+            Bytes.pack8(buf.arr, offs, (long) getter.invokeExact(obj));
+            return offs + 8;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            setter.invokeExact(obj, Bytes.unpack8(body, offs));
+            return offs + 8;
+        }
+    }
+
+    static final class FloatField extends HandleField {
+
+        FloatField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            buf.extend(offs + 4);
+            Bytes.packF4(buf.arr, offs, (float) getter.invokeExact(obj));
+            return offs + 4;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            setter.invokeExact(obj, Bytes.unpackF4(body, offs));
+            return offs + 4;
+        }
+    }
+
+    static final class DoubleField extends HandleField {
+
+        DoubleField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            buf.extend(offs + 8);
+            Bytes.packF8(buf.arr, offs, (double) getter.invokeExact(obj));
+            return offs + 8;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            setter.invokeExact(obj, Bytes.unpackF8(body, offs));
+            return offs + 8;
+        }
+    }
+
+    static final class EnumField extends HandleField {
+
+        final Object[] constants;
+
+        EnumField(final MethodHandle getter, final MethodHandle setter, final Object[] constants) {
+            super(getter, setter);
+            this.constants = constants;
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            final Enum<?> e = (Enum<?>) (Object) getter.invokeExact(obj);
+            buf.extend(offs + 4);
+            Bytes.pack4(buf.arr, offs, e == null ? -1 : e.ordinal());
+            return offs + 4;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            final int index = Bytes.unpack4(body, offs);
+            setter.invokeExact(obj, index >= 0 ? constants[index] : null);
+            return offs + 4;
+        }
+    }
+
+    static final class DateField extends HandleField {
+
+        DateField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            final Date d = (Date) (Object) getter.invokeExact(obj);
+            buf.extend(offs + 8);
+            Bytes.pack8(buf.arr, offs, d == null ? -1 : d.getTime());
+            return offs + 8;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            final long msec = Bytes.unpack8(body, offs);
+            setter.invokeExact(obj, (Object) (msec >= 0 ? new Date(msec) : null));
+            return offs + 8;
+        }
+    }
+
+    static final class StringField extends HandleField {
+
+        StringField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            return buf.packString(offs, (String) (Object) getter.invokeExact(obj));
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            final ArrayPos pos = new ArrayPos(body, offs);
+            setter.invokeExact(obj, (Object) Bytes.unpackString(pos, storage.myEncoding));
+            return pos.offs;
+        }
+    }
+
+    static final class ObjectField extends HandleField {
+
+        final Class<?> type;
+
+        ObjectField(final MethodHandle getter, final MethodHandle setter, final Class<?> type) {
+            super(getter, setter);
+            this.type = type;
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, final int offs, final ByteBuffer buf) throws Throwable {
+            return storage.swizzle(buf, offs, (Object) getter.invokeExact(obj));
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                final int offs, final int end, final Object parent) throws Throwable {
+            final ArrayPos pos = new ArrayPos(body, offs, end);
+            setter.invokeExact(obj, storage.unswizzle(pos, type, parent, recursiveLoading));
+            return pos.offs;
+        }
+    }
+
+    static final class ByteArrayField extends HandleField {
+
+        ByteArrayField(final MethodHandle getter, final MethodHandle setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        int pack(final StorageImpl storage, final Object obj, int offs, final ByteBuffer buf) throws Throwable {
+            final byte[] arr = (byte[]) (Object) getter.invokeExact(obj);
+
+            if (arr == null) {
+                buf.extend(offs + 4);
+                Bytes.pack4(buf.arr, offs, -1);
+                return offs + 4;
+            }
+
+            final int len = arr.length;
+            buf.extend(offs + 4 + len);
+            Bytes.pack4(buf.arr, offs, len);
+            offs += 4;
+            System.arraycopy(arr, 0, buf.arr, offs, len);
+            return offs + len;
+        }
+
+        @Override
+        int unpack(final StorageImpl storage, final Object obj, final boolean recursiveLoading, final byte[] body,
+                int offs, final int end, final Object parent) throws Throwable {
+            final int len = Bytes.unpack4(body, offs);
+            offs += 4;
+
+            if (len < 0) {
+                setter.invokeExact(obj, (Object) null);
+                return offs;
+            }
+
+            final byte[] arr = new byte[len];
+            System.arraycopy(body, offs, arr, 0, len);
+            setter.invokeExact(obj, (Object) arr);
+            return offs + len;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.util.Arrays;
+
+/**
+ * Online compaction of the database file. The space needed to hold all allocated objects determines the boundary
+ * which the file could be shrunk to. Objects located after the boundary are moved to the holes before it, starting
+ * from the end of the file, by small steps, each of them committed as a separate transaction. Object is moved like
+ * it is moved by the shadow paging when it is modified: the copy is written to the new location and the object index
+ * is updated, so the committed image is released by the commit of the step. Objects modified by the current
+ * transaction are skipped, as well as objects placed in the segments of custom allocators. When all objects are
+ * checked, copies of the object index located after the boundary are moved to the space released by the objects.
+ */
+class Compactor {
+
+    static final long PAGE_OBJECT_KEY = 1L << 62;
+
+    final StorageImpl db;
+
+    int nRelocated;
+
+    private final FreeExtentMap holes = new FreeExtentMap();
+
+    private long boundary;
+
+    // objects to be moved in the order reverse to the order of moving: page objects, which need whole free pages, are
+    // moved before the space is fragmented by small objects, and objects located further from the boundary go first
+    private long[] candidates;
+
+    private int nCandidates;
+
+    Compactor(final StorageImpl db) {
+        this.db = db;
+    }
+
+    /**
+     * Find free space before the boundary and objects after it, called after commit while holding the storage lock.
+     */
+    void start() {
+        final int nPages = db.myHeader.myRootPage[1 - db.myCurrentIndex].myBitmapEnd - StorageImpl.DB_BITMAP_ID;
+        long allocated = 0;
+
+        for (int i = 0; i < nPages; i++) {
+            final Page pg = db.getBitmapPage(i);
+
+            try {
+                for (int j = 0; j < db.myPageSize; j++) {
+                    allocated += Integer.bitCount(pg.data[j] & 0xFF);
+                }
+            } finally {
+                db.myPagePool.unfix(pg);
+            }
+        }
+
+        boundary = (((allocated << StorageImpl.DB_ALLOCATION_QUANTUM_BITS) + db.myPageSize) - 1) & ~(db.myPageSize - 1);
+        db.scanFreeSpace(holes, 0, boundary >>> StorageImpl.DB_ALLOCATION_QUANTUM_BITS);
+
+        candidates = new long[1024];
+
+        for (int oid = 1, n = db.myCommittedIndexSize; oid < n; oid++) {
+            final long pos = db.getPos(oid);
+            final long distance = (pos & ~StorageImpl.DB_FLAGS_MASK) - boundary;
+
+            if (((int) pos & StorageImpl.DB_FREE_HANDLE_FLAG) == 0 && distance >= 0) {
+                if (nCandidates == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, nCandidates * 2);
+                }
+
+                candidates[nCandidates++] = (((int) pos & StorageImpl.DB_PAGE_OBJECT_FLAG) != 0 ? PAGE_OBJECT_KEY : 0)
+                        | ((distance >>> db.myPageSizeLog) << 31) | oid;
+            }
+        }
+
+        Arrays.sort(candidates, 0, nCandidates);
+    }
+
+    /**
+     * Number of objects which are not checked yet.
+     */
+    int getRemaining() {
+        return nCandidates;
+    }
+
+    /**
+     * Move objects located at the end of the file, called while holding the storage lock.
+     *
+     * @param budget maximal total size of the moved objects
+     * @return <code>true</code> if all objects are checked and the object index is moved
+     */
+    boolean step(final long budget) {
+        long moved = 0;
+
+        if (nCandidates == 0) {
+            // space of the objects moved by the previous step is released by its commit
+            return !db.relocateIndex(boundary);
+        }
+
+        while (nCandidates > 0 && moved < budget) {
+            final int oid = (int) candidates[--nCandidates] & 0x7FFFFFFF;
+            final long size = db.relocateObject(oid, boundary, holes);
+
+            if (size != 0) {
+                moved += size;
+                nRelocated += 1;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,426 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+
+/**
+ * Object cache split into independently locked segments, so lookups of different threads rarely contend on the same
+ * monitor. Objects are referenced through weak references. Like in <code>PinWeakHashTable</code>, modified objects are
+ * pinned in memory by <code>setDirty</code> until they are stored. Like in <code>LruObjectCache</code>, most recently
+ * used objects are also pinned, but instead of maintaining exact LRU list each segment uses CLOCK algorithm: an access
+ * only sets the reference bit of the object, and the clock hand gives a second chance to the referenced objects when
+ * it looks for an object to unpin.
+ */
+public class ConcurrentObjectCache implements OidHashTable {
+
+    static final float loadFactor = 0.75f;
+
+    static final int minSegmentSize = 16;
+
+    static class Entry {
+
+        Entry next;
+
+        Reference ref;
+
+        int oid;
+
+        Object pin; // strong reference to the modified object
+
+        Object recent; // strong reference to the recently used object
+
+        int clockSlot = -1;
+
+        boolean referenced;
+
+        Entry(final int oid, final Reference ref, final Entry chain) {
+            next = chain;
+            this.oid = oid;
+            this.ref = ref;
+        }
+
+        void clear() {
+            ref.clear();
+            ref = null;
+            pin = null;
+            next = null;
+        }
+    }
+
+    final Segment[] segments;
+
+    final int segmentMask;
+
+    final int segmentBits;
+
+    final StorageImpl db;
+
+    public ConcurrentObjectCache(final StorageImpl db, final int size) {
+        int nSegments = 1;
+
+        while (nSegments < Runtime.getRuntime().availableProcessors() * 4) {
+            nSegments <<= 1;
+        }
+
+        this.db = db;
+        segments = new Segment[nSegments];
+        segmentMask = nSegments - 1;
+        segmentBits = Integer.bitCount(segmentMask);
+
+        for (int i = 0; i < nSegments; i++) {
+            segments[i] = new Segment(Math.max(size / nSegments, minSegmentSize), (size + nSegments - 1) / nSegments);
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (final Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public void clearDirty(final Object obj) {
+        final int oid = db.getOid(obj);
+        segmentFor(oid).clearDirty(oid);
+    }
+
+    @Override
+    public void flush() {
+        long n;
+
+        do {
+            n = getModificationCount();
+
+            for (final Segment segment : segments) {
+                for (final Object obj : segment.getPinned()) {
+                    db.store(obj);
+                    clearDirty(obj);
+                }
+            }
+        } while (n != getModificationCount());
+
+        for (final Segment segment : segments) {
+            segment.shrink();
+        }
+    }
+
+    @Override
+    public Object get(final int oid) {
+        return segmentFor(oid).get(oid);
+    }
+
+    @Override
+    public void invalidate() {
+        for (final Segment segment : segments) {
+            for (final Object obj : segment.getPinned()) {
+                clearDirty(obj);
+                db.invalidate(obj);
+            }
+        }
+    }
+
+    @Override
+    public void put(final int oid, final Object obj) {
+        segmentFor(oid).put(oid, obj, createReference(obj));
+    }
+
+    @Override
+    public void reload() {
+        for (final Segment segment : segments) {
+            for (final Object obj : segment.getPinned()) {
+                db.invalidate(obj);
+                try {
+                    db.load(obj);
+                } catch (final Exception x) {
+                    // ignore errors caused by attempt to load object which was created in rollbacked transaction
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(final int oid) {
+        return segmentFor(oid).remove(oid);
+    }
+
+    @Override
+    public void setDirty(final Object obj) {
+        final int oid = db.getOid(obj);
+        segmentFor(oid).setDirty(oid, obj);
+    }
+
+    @Override
+    public int size() {
+        int count = 0;
+
+        for (final Segment segment : segments) {
+            count += segment.count;
+        }
+
+        return count;
+    }
+
+    protected Reference createReference(final Object obj) {
+        return new WeakReference(obj);
+    }
+
+    private long getModificationCount() {
+        long n = 0;
+
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                n += segment.nModified;
+            }
+        }
+
+        return n;
+    }
+
+    private Segment segmentFor(final int oid) {
+        return segments[oid & segmentMask];
+    }
+
+    /**
+     * Segment of the cache: hash table of objects with the same low bits of OID.
+     */
+    final class Segment {
+
+        Entry table[];
+
+        int count;
+
+        int threshold;
+
+        long nModified;
+
+        int nPinned;
+
+        final Entry[] clock;
+
+        int hand;
+
+        Segment(final int initialCapacity, final int pinLimit) {
+            threshold = (int) (initialCapacity * loadFactor);
+            table = new Entry[initialCapacity];
+            clock = new Entry[pinLimit];
+        }
+
+        synchronized void clear() {
+            java.util.Arrays.fill(table, null);
+            java.util.Arrays.fill(clock, null);
+            count = 0;
+            nPinned = 0;
+        }
+
+        synchronized void clearDirty(final int oid) {
+            final Entry e = find(oid);
+
+            if (e != null && e.pin != null) {
+                e.pin = null;
+                nPinned -= 1;
+            }
+        }
+
+        synchronized Object get(final int oid) {
+            final Entry e = find(oid);
+
+            if (e == null) {
+                return null;
+            }
+
+            if (e.pin != null) {
+                return e.pin;
+            }
+
+            final Object obj = e.ref.get();
+
+            if (obj != null) {
+                touch(e, obj);
+            }
+
+            return obj;
+        }
+
+        /**
+         * Get modified objects pinned in the segment.
+         */
+        synchronized Object[] getPinned() {
+            final Object[] pinned = new Object[nPinned];
+            int n = 0;
+
+            for (final Entry element : table) {
+                for (Entry e = element; e != null; e = e.next) {
+                    if (e.pin != null) {
+                        pinned[n++] = e.pin;
+                    }
+                }
+            }
+
+            return pinned;
+        }
+
+        synchronized void put(final int oid, final Object obj, final Reference ref) {
+            Entry e = find(oid);
+
+            if (e != null) {
+                e.ref = ref;
+            } else {
+                if (count >= threshold) {
+                    rehash();
+                }
+
+                final int index = (oid >>> segmentBits & 0x7FFFFFFF) % table.length;
+                e = table[index] = new Entry(oid, ref, table[index]);
+                count += 1;
+            }
+
+            touch(e, obj);
+        }
+
+        synchronized boolean remove(final int oid) {
+            final int index = (oid >>> segmentBits & 0x7FFFFFFF) % table.length;
+
+            for (Entry e = table[index], prev = null; e != null; prev = e, e = e.next) {
+                if (e.oid == oid) {
+                    if (prev != null) {
+                        prev.next = e.next;
+                    } else {
+                        table[index] = e.next;
+                    }
+
+                    if (e.pin != null) {
+                        nPinned -= 1;
+                    }
+
+                    unpinRecent(e);
+                    e.clear();
+                    count -= 1;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        synchronized void setDirty(final int oid, final Object obj) {
+            final Entry e = find(oid);
+            nModified += 1;
+
+            if (e != null && e.pin == null) {
+                e.pin = obj;
+                nPinned += 1;
+            }
+        }
+
+        synchronized void shrink() {
+            if (count >= threshold) {
+                rehash();
+            }
+        }
+
+        private Entry find(final int oid) {
+            final Entry tab[] = table;
+            final int index = (oid >>> segmentBits & 0x7FFFFFFF) % tab.length;
+
+            for (Entry e = tab[index]; e != null; e = e.next) {
+                if (e.oid == oid) {
+                    return e;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Mark the object as recently used, placing it in the clock if it is not there yet.
+         */
+        private void touch(final Entry e, final Object obj) {
+            if (e.clockSlot >= 0) {
+                e.recent = obj;
+                e.referenced = true;
+            } else if (clock.length != 0) {
+                while (true) {
+                    final Entry victim = clock[hand];
+
+                    if (victim == null) {
+                        break;
+                    }
+
+                    if (!victim.referenced) {
+                        unpinRecent(victim);
+                        break;
+                    }
+
+                    victim.referenced = false;
+                    hand = hand + 1 == clock.length ? 0 : hand + 1;
+                }
+
+                clock[hand] = e;
+                e.clockSlot = hand;
+                e.recent = obj;
+                e.referenced = false;
+                hand = hand + 1 == clock.length ? 0 : hand + 1;
+            }
+        }
+
+        private void unpinRecent(final Entry e) {
+            if (e.clockSlot >= 0) {
+                clock[e.clockSlot] = null;
+                e.clockSlot = -1;
+                e.recent = null;
+            }
+        }
+
+        private void rehash() {
+            final int oldCapacity = table.length;
+            final Entry oldMap[] = table;
+            int i;
+
+            for (i = oldCapacity; --i >= 0;) {
+                Entry e, next, prev;
+
+                for (prev = null, e = oldMap[i]; e != null; e = next) {
+                    next = e.next;
+                    final Object obj = e.ref.get();
+
+                    if ((obj == null || db.isDeleted(obj)) && e.pin == null) {
+                        count -= 1;
+                        unpinRecent(e);
+                        e.clear();
+
+                        if (prev == null) {
+                            oldMap[i] = next;
+                        } else {
+                            prev.next = next;
+                        }
+                    } else {
+                        prev = e;
+                    }
+                }
+            }
+
+            if (count <= threshold >>> 1) {
+                return;
+            }
+
+            final int newCapacity = oldCapacity * 2 + 1;
+            final Entry newMap[] = new Entry[newCapacity];
+
+            threshold = (int) (newCapacity * loadFactor);
+            table = newMap;
+
+            for (i = oldCapacity; --i >= 0;) {
+                for (Entry old = oldMap[i]; old != null;) {
+                    final Entry e = old;
+                    old = old.next;
+
+                    final int index = (e.oid >>> segmentBits & 0x7FFFFFFF) % newCapacity;
+                    e.next = newMap[index];
+                    newMap[index] = e;
+                }
+            }
+        }
+    }
+}
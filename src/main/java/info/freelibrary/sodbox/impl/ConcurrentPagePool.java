@@ -0,0 +1,321 @@
+package info.freelibrary.sodbox.impl;
+
+import info.freelibrary.sodbox.IFile;
+
+/**
+ * Page pool split into independently locked segments. A page is assigned to the segment selected by the low bits of
+ * its page number, and each segment has its own hash table, replacement policy and free page list, so threads accessing pages of
+ * different segments never contend on the same monitor. Dirty pages of all segments are merged and written in file
+ * order on flush.
+ */
+class ConcurrentPagePool extends PagePool {
+
+    /**
+     * Minimal number of pages in one segment. Each segment should be able to keep all pages which can be fixed at the
+     * same time (B-Tree path, bitmap and index pages), even if all of them belong to the same segment.
+     */
+    static final int MIN_SEGMENT_SIZE = 64;
+
+    final Segment[] segments;
+
+    final int segmentMask;
+
+    Page[] flushQueue;
+
+    ConcurrentPagePool(final int poolSize, final long lruLimit, final String policyKind, final int pageSizeLog,
+            final int nSegments) {
+        super(poolSize, lruLimit, policyKind, pageSizeLog);
+
+        int bits = 0;
+
+        while ((1 << bits) < nSegments) {
+            bits += 1;
+        }
+
+        if (poolSize != 0) {
+            while (bits > 0 && (poolSize >> bits) < MIN_SEGMENT_SIZE) {
+                bits -= 1;
+            }
+        }
+
+        segments = new Segment[1 << bits];
+        segmentMask = segments.length - 1;
+        flushQueue = new Page[INFINITE_POOL_INITIAL_SIZE];
+
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(poolSize >> bits, lruLimit, policyKind, pageSizeLog, pageSizeLog + bits);
+        }
+    }
+
+    @Override
+    void clear() {
+        if (writer != null) {
+            writer.drain();
+        }
+
+        for (final Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    void close() {
+        stopWriter();
+        file.close();
+
+        for (final Segment segment : segments) {
+            segment.release();
+        }
+    }
+
+    @Override
+    int collectDirtyPages(final Page[] batch, int n) {
+        for (final Segment segment : segments) {
+            n = segment.collectDirtyPages(batch, n);
+        }
+
+        return n;
+    }
+
+    @Override
+    Page find(final long addr, final int state) {
+        return segmentFor(addr).find(addr, state);
+    }
+
+    @Override
+    void flush() {
+        int n = 0;
+
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.flushing = true;
+            }
+        }
+
+        if (writer != null) {
+            writer.drain();
+        }
+
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                n += segment.nDirtyPages;
+            }
+        }
+
+        if (n > flushQueue.length) {
+            flushQueue = new Page[Math.max(n, flushQueue.length * 2)];
+        }
+
+        final Page[] queue = flushQueue;
+
+        n = 0;
+
+        for (final Segment segment : segments) {
+            System.arraycopy(segment.dirtyPages, 0, queue, n, segment.nDirtyPages);
+            n += segment.nDirtyPages;
+        }
+
+        java.util.Arrays.sort(queue, 0, n);
+        writePages(queue, n);
+        java.util.Arrays.fill(queue, 0, n, null);
+
+        file.sync();
+
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.nDirtyPages = 0;
+                segment.flushing = false;
+            }
+        }
+    }
+
+    @Override
+    long getHits() {
+        long hits = 0;
+
+        for (final Segment segment : segments) {
+            hits += segment.nHits;
+        }
+
+        return hits;
+    }
+
+    /**
+     * Pinned pages can all belong to the same segment, so the limit is defined by the smallest segment.
+     */
+    @Override
+    int getLoadPinLimit() {
+        int limit = Integer.MAX_VALUE;
+
+        for (final Segment segment : segments) {
+            limit = Math.min(limit, segment.getLoadPinLimit());
+        }
+
+        return limit;
+    }
+
+    @Override
+    long getMisses() {
+        long misses = 0;
+
+        for (final Segment segment : segments) {
+            misses += segment.nMisses;
+        }
+
+        return misses;
+    }
+
+    @Override
+    void modify(final Page pg) {
+        segmentFor(pg.offs).modify(pg);
+    }
+
+    @Override
+    void clearModified(final Page pg) {
+        segmentFor(pg.offs).clearModified(pg);
+    }
+
+    @Override
+    void open(final IFile f) {
+        file = f;
+
+        for (final Segment segment : segments) {
+            segment.trackModified = trackModified;
+            segment.offHeapCacheSize = offHeapCacheSize / segments.length;
+            segment.open(f);
+        }
+
+        if (writeBehindThreshold > 0 && f instanceof ChannelFile) {
+            writer = new PageWriter(this);
+
+            for (final Segment segment : segments) {
+                segment.writer = writer;
+                segment.writeBehindThreshold = Math.max(writeBehindThreshold / segments.length, 1);
+            }
+        }
+    }
+
+    @Override
+    boolean pinDirtyPage(final Page pg) {
+        return segmentFor(pg.offs).pinDirtyPage(pg);
+    }
+
+    @Override
+    void reset() {
+        for (final Segment segment : segments) {
+            segment.reset();
+        }
+    }
+
+    @Override
+    Page[] takeDirtyPages() {
+        final Page[][] parts = new Page[segments.length][];
+        int n = 0;
+
+        for (int i = 0; i < segments.length; i++) {
+            parts[i] = segments[i].takeDirtyPages();
+            n += parts[i].length;
+        }
+
+        final Page[] pages = new Page[n];
+        n = 0;
+
+        for (final Page[] part : parts) {
+            System.arraycopy(part, 0, pages, n, part.length);
+            n += part.length;
+        }
+
+        return pages;
+    }
+
+    @Override
+    long[] takeModifiedPages() {
+        final long[][] parts = new long[segments.length][];
+        int n = 0;
+
+        for (int i = 0; i < segments.length; i++) {
+            parts[i] = segments[i].takeModifiedPages();
+            n += parts[i].length;
+        }
+
+        final long[] pages = new long[n];
+        n = 0;
+
+        for (final long[] part : parts) {
+            System.arraycopy(part, 0, pages, n, part.length);
+            n += part.length;
+        }
+
+        return pages;
+    }
+
+    @Override
+    void unfix(final Page pg) {
+        segmentFor(pg.offs).unfix(pg);
+    }
+
+    @Override
+    void unpinPage(final Page pg, final boolean dirty) {
+        segmentFor(pg.offs).unpinPage(pg, dirty);
+    }
+
+    @Override
+    void writePage(final Page pg) {
+        if (segments[0].serializeIO) {
+            synchronized (file) {
+                super.writePage(pg);
+            }
+        } else {
+            super.writePage(pg);
+        }
+    }
+
+    private Segment segmentFor(final long addr) {
+        return segments[(int) (addr >>> pageSizeLog) & segmentMask];
+    }
+
+    /**
+     * Segment of concurrent page pool. Pages of the segment are hashed by page number with the segment bits stripped,
+     * so pages of the segment are evenly distributed in its hash table. File I/O is serialized because
+     * <code>IFile</code> implementations are not required to support concurrent access, unless the file is a
+     * <code>ChannelFile</code> performing positional I/O or a <code>MappedChunkFile</code>.
+     */
+    static class Segment extends PagePool {
+
+        boolean serializeIO = true;
+
+        Segment(final int poolSize, final long lruLimit, final String policyKind, final int pageSizeLog,
+                final int keyShift) {
+            super(poolSize, lruLimit, policyKind, pageSizeLog);
+            this.keyShift = keyShift;
+        }
+
+        @Override
+        void open(final IFile f) {
+            super.open(f);
+            serializeIO = !(f instanceof ChannelFile || f instanceof MappedChunkFile);
+        }
+
+        @Override
+        void readPage(final Page pg) {
+            if (serializeIO) {
+                synchronized (file) {
+                    super.readPage(pg);
+                }
+            } else {
+                super.readPage(pg);
+            }
+        }
+
+        @Override
+        void writePage(final Page pg) {
+            if (serializeIO) {
+                synchronized (file) {
+                    super.writePage(pg);
+                }
+            } else {
+                super.writePage(pg);
+            }
+        }
+    }
+}
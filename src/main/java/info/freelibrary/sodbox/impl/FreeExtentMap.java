@@ -0,0 +1,219 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory map of free space of the database file used by the extent allocator instead of scanning the allocation
+ * bitmap. Free extents are kept in the tree ordered by position, where adjacent extents are coalesced, and in the
+ * segregated lists of size classes: there is a class for each small size and a class for each power of two of the
+ * larger sizes. The lists are ordered by position, so allocation takes the lowest extent of the smallest class which
+ * has large enough extents, and the rest of the last split extent is tried first by the next allocation, so objects
+ * allocated one after another are placed together. The map is only a hint: space allocated by scanning the bitmap is
+ * not removed from the map, so the storage checks the bitmap before using the extent.
+ */
+class FreeExtentMap {
+
+    static final int EXACT_CLASSES_BITS = 4;
+
+    static final int EXACT_CLASSES = 1 << EXACT_CLASSES_BITS; // number of classes containing extents of one size
+
+    static final int SEARCH_LIMIT = 8; // max number of extents of the size class checked for the fit
+
+    static final int CURSOR_LIMIT = 64 * 1024; // max size of the rest of the split extent used by the next allocation
+
+    int nPages; // number of the bitmap pages scanned to build the map
+
+    boolean scanned; // space was allocated by scanning the bitmap in the current transaction
+
+    private final TreeMap<Long, Long> extents = new TreeMap<>(); // size of the extent by its position
+
+    private final ArrayList<TreeSet<Long>> classes = new ArrayList<>(Long.SIZE);
+
+    private long nonEmpty; // bitmask of the non-empty size classes
+
+    private long cursor; // position of the rest of the last split extent
+
+    private long[] allocated = new long[64]; // positions and sizes of the extents taken by the current transaction
+
+    private int nAllocated;
+
+    FreeExtentMap() {
+        for (int i = 0; i < Long.SIZE; i++) {
+            classes.add(new TreeSet<Long>());
+        }
+    }
+
+    /**
+     * Add free space, merging it with the adjacent extents.
+     *
+     * @param pos position of the space
+     * @param size size of the space aligned on allocation quantum
+     */
+    void add(long pos, long size) {
+        final Map.Entry<Long, Long> prev = extents.floorEntry(pos);
+
+        if (prev != null && prev.getKey() + prev.getValue() >= pos) {
+            if (prev.getKey() + prev.getValue() >= pos + size) {
+                return;
+            }
+
+            remove(prev.getKey(), prev.getValue());
+            size += pos - prev.getKey();
+            pos = prev.getKey();
+        }
+
+        Map.Entry<Long, Long> next;
+
+        while ((next = extents.higherEntry(pos)) != null && next.getKey() <= pos + size) {
+            remove(next.getKey(), next.getValue());
+            size = Math.max(size, next.getKey() + next.getValue() - pos);
+        }
+
+        insert(pos, size);
+    }
+
+    /**
+     * Take space from the map.
+     *
+     * @param size size of the space aligned on allocation quantum
+     * @param alignment alignment of the position of the space
+     * @return position of the space or 0 if there is no large enough extent
+     */
+    long allocate(final long size, final long alignment) {
+        if (cursor != 0) {
+            final Long length = extents.get(cursor);
+
+            if (length != null && length <= CURSOR_LIMIT && fits(cursor, length, size, alignment)) {
+                return take(cursor, length, size, alignment);
+            }
+        }
+
+        long mask = nonEmpty & (-1L << sizeClass(size));
+
+        while (mask != 0) {
+            int n = 0;
+
+            for (final Long pos : classes.get(Long.numberOfTrailingZeros(mask))) {
+                final long length = extents.get(pos);
+
+                if (fits(pos, length, size, alignment)) {
+                    return take(pos, length, size, alignment);
+                }
+
+                if (++n == SEARCH_LIMIT) {
+                    break;
+                }
+            }
+
+            mask &= mask - 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Forget space taken by the committed transaction.
+     */
+    void commit() {
+        nAllocated = 0;
+        scanned = false;
+    }
+
+    /**
+     * Return space taken by the rolled back transaction to the map. If space was allocated by scanning the bitmap,
+     * which could be extended, the map is rebuilt.
+     */
+    void rollback() {
+        if (scanned) {
+            clear();
+        } else {
+            for (int i = 0; i < nAllocated; i += 2) {
+                add(allocated[i], allocated[i + 1]);
+            }
+        }
+
+        commit();
+    }
+
+    void clear() {
+        extents.clear();
+
+        for (final TreeSet<Long> list : classes) {
+            list.clear();
+        }
+
+        nonEmpty = 0;
+        cursor = 0;
+        nPages = 0;
+    }
+
+    private static boolean fits(final long pos, final long length, final long size, final long alignment) {
+        return align(pos, alignment) + size <= pos + length;
+    }
+
+    private static long align(final long pos, final long alignment) {
+        return ((pos + alignment) - 1) & ~(alignment - 1);
+    }
+
+    private static int sizeClass(final long size) {
+        final long quanta = size >>> StorageImpl.DB_ALLOCATION_QUANTUM_BITS;
+
+        if (quanta <= EXACT_CLASSES) {
+            return (int) quanta - 1;
+        }
+
+        return EXACT_CLASSES + Long.SIZE - 1 - Long.numberOfLeadingZeros(quanta) - EXACT_CLASSES_BITS;
+    }
+
+    private long take(final long pos, final long length, final long size, final long alignment) {
+        final long start = align(pos, alignment);
+        final long end = start + size;
+
+        remove(pos, length);
+
+        if (nAllocated == allocated.length) {
+            allocated = Arrays.copyOf(allocated, nAllocated * 2);
+        }
+
+        allocated[nAllocated++] = start;
+        allocated[nAllocated++] = size;
+
+        if (start > pos) {
+            insert(pos, start - pos);
+        }
+
+        if (end < pos + length) {
+            insert(end, pos + length - end);
+            cursor = end;
+        } else {
+            cursor = 0;
+        }
+
+        return start;
+    }
+
+    private void insert(final long pos, final long size) {
+        final int sizeClass = sizeClass(size);
+
+        extents.put(pos, size);
+        classes.get(sizeClass).add(pos);
+        nonEmpty |= 1L << sizeClass;
+    }
+
+    private void remove(final long pos, final long size) {
+        final int sizeClass = sizeClass(size);
+        final TreeSet<Long> list = classes.get(sizeClass);
+
+        extents.remove(pos);
+        list.remove(pos);
+
+        if (list.isEmpty()) {
+            nonEmpty &= ~(1L << sizeClass);
+        }
+    }
+}
@@ -849,6 +849,9 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
 
     protected FullTextSearchHelper helper;
 
+    FullTextIndexImpl() {
+    }
+
     public FullTextIndexImpl(final Storage storage, final FullTextSearchHelper helper) {
         super(storage);
         this.helper = helper;
@@ -0,0 +1,167 @@
+package info.freelibrary.sodbox.impl;
+
+/**
+ * Bounded FIFO list of addresses of recently replaced pages with constant time lookup. It is used by scan resistant
+ * replacement policies to remember history of pages which are not present in the pool any more. When the list is full,
+ * the oldest address is dropped.
+ */
+class GhostList {
+
+    static final int NIL = -1;
+
+    final long[] keys;
+
+    final int[] next;
+
+    final int[] prev;
+
+    final int[] table;
+
+    final int mask;
+
+    int head = NIL; // oldest
+
+    int tail = NIL; // newest
+
+    int free;
+
+    int size;
+
+    GhostList(int capacity) {
+        if (capacity < 1) {
+            capacity = 1;
+        }
+
+        keys = new long[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+
+        for (int i = 0; i < capacity; i++) {
+            next[i] = i + 1 < capacity ? i + 1 : NIL;
+        }
+
+        final int tableSize = Integer.highestOneBit(capacity) << 2;
+        table = new int[tableSize];
+        mask = tableSize - 1;
+
+        for (int i = 0; i < tableSize; i++) {
+            table[i] = NIL;
+        }
+    }
+
+    final void add(final long key) {
+        remove(key);
+
+        if (free == NIL) {
+            removeOldest();
+        }
+
+        final int slot = free;
+        free = next[slot];
+        keys[slot] = key;
+        next[slot] = NIL;
+        prev[slot] = tail;
+
+        if (tail == NIL) {
+            head = slot;
+        } else {
+            next[tail] = slot;
+        }
+
+        tail = slot;
+
+        int i = hash(key);
+
+        while (table[i] != NIL) {
+            i = i + 1 & mask;
+        }
+
+        table[i] = slot;
+        size += 1;
+    }
+
+    final boolean contains(final long key) {
+        return position(key) != NIL;
+    }
+
+    final boolean remove(final long key) {
+        final int pos = position(key);
+
+        if (pos == NIL) {
+            return false;
+        }
+
+        final int slot = table[pos];
+
+        if (prev[slot] == NIL) {
+            head = next[slot];
+        } else {
+            next[prev[slot]] = next[slot];
+        }
+
+        if (next[slot] == NIL) {
+            tail = prev[slot];
+        } else {
+            prev[next[slot]] = prev[slot];
+        }
+
+        next[slot] = free;
+        free = slot;
+        size -= 1;
+        delete(pos);
+        return true;
+    }
+
+    final void removeOldest() {
+        if (head != NIL) {
+            remove(keys[head]);
+        }
+    }
+
+    final int size() {
+        return size;
+    }
+
+    private void delete(int pos) {
+        int j = pos;
+
+        table[pos] = NIL;
+
+        while (true) {
+            j = j + 1 & mask;
+
+            if (table[j] == NIL) {
+                return;
+            }
+
+            final int k = hash(keys[table[j]]);
+
+            if (pos <= j ? pos < k && k <= j : pos < k || k <= j) {
+                continue;
+            }
+
+            table[pos] = table[j];
+            table[j] = NIL;
+            pos = j;
+        }
+    }
+
+    private int hash(final long key) {
+        return (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+    }
+
+    private int position(final long key) {
+        int i = hash(key);
+        int slot;
+
+        while ((slot = table[i]) != NIL) {
+            if (keys[slot] == key) {
+                return i;
+            }
+
+            i = i + 1 & mask;
+        }
+
+        return NIL;
+    }
+}
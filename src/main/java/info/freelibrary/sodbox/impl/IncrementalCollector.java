@@ -0,0 +1,375 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Incremental garbage collector performing the work by small steps, so that transactions are committed between the
+ * steps. The collector marks objects reachable in the snapshot of the database committed at the start of the
+ * collection (snapshot-at-the-beginning). Mark steps read the committed images of the objects, which are not changed
+ * by the current transaction, and commit is the only place where they are replaced. So the write barrier is performed
+ * by the commit: before the images of the modified or deallocated objects are released, the committed images of the
+ * objects not scanned yet are scanned, so references removed by the transaction are not lost. Objects created during
+ * the collection are not collected. B-Tree indices are scanned page by page. The barrier doesn't scan B-Trees: it
+ * only shades the modified B-Tree, starting the scan of its committed root, and retains the committed images of the
+ * modified B-Tree pages not scanned yet, which are scanned by the following mark steps instead of the new images and
+ * are deallocated when marking is completed. Unreachable objects are deallocated by sweep steps.
+ */
+class IncrementalCollector {
+
+    static final int SWEEP_CHECK_INTERVAL = 256; // number of handles checked by sweep between checks of time
+
+    final StorageImpl db;
+
+    int nDeallocated;
+
+    private int snapshotSize;
+
+    private int[] reached;
+
+    private int[] scanned;
+
+    private int[] stack;
+
+    private int sp;
+
+    private TreeScan tree;
+
+    private final ArrayList<TreeScan> shadedTrees = new ArrayList<>();
+
+    private HashMap<Integer, Long> retainedPages = new HashMap<>(); // committed images of the modified pages
+
+    private boolean marking;
+
+    private int sweepCursor;
+
+    IncrementalCollector(final StorageImpl db) {
+        this.db = db;
+    }
+
+    /**
+     * Start the collection, called while commit is blocked.
+     */
+    void start() {
+        snapshotSize = db.myCommittedIndexSize;
+        reached = new int[(snapshotSize >>> 5) + 1];
+        scanned = new int[(snapshotSize >>> 5) + 1];
+        stack = new int[1024];
+        marking = true;
+        sweepCursor = db.myFirstUserId;
+
+        reach(db.myHeader.myRootPage[db.myCurrentIndex].myRootObject);
+
+        // objects stored by the uncommitted transaction are kept alive
+        for (int oid = nextModified(0); oid != 0; oid = nextModified(oid)) {
+            reach(oid);
+        }
+    }
+
+    boolean isMarking() {
+        return marking;
+    }
+
+    /**
+     * Perform mark step.
+     *
+     * @param deadline value of <code>System.nanoTime()</code> at which the step should be finished
+     * @return <code>true</code> if all reachable objects are marked
+     */
+    boolean mark(final long deadline) {
+        do {
+            if (tree == null && !shadedTrees.isEmpty()) {
+                tree = shadedTrees.remove(shadedTrees.size() - 1);
+            }
+
+            if (tree != null) {
+                if (!tree.step()) {
+                    tree = null;
+                }
+            } else {
+                final int oid = pop();
+
+                if (oid == 0) {
+                    marking = false;
+                    return true;
+                }
+
+                if (!isSet(scanned, oid)) {
+                    setBit(scanned, oid);
+                    tree = scan(oid);
+                }
+            }
+        } while (System.nanoTime() < deadline);
+
+        return false;
+    }
+
+    /**
+     * Perform sweep step.
+     *
+     * @param deadline value of <code>System.nanoTime()</code> at which the step should be finished
+     * @return <code>true</code> if all unreachable objects are deallocated
+     */
+    boolean sweep(final long deadline) {
+        releasePages();
+
+        while (sweepCursor < snapshotSize) {
+            final int oid = sweepCursor++;
+
+            if (!isSet(reached, oid) && !isModified(oid) && StorageImpl.isObjectPosition(db.getGCPos(oid)) && db
+                    .deallocateGarbage(oid)) {
+                nDeallocated += 1;
+            }
+
+            if (oid % SWEEP_CHECK_INTERVAL == 0 && System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+
+        return sweepCursor >= snapshotSize;
+    }
+
+    /**
+     * Write barrier called by commit before the committed images of the modified objects are released.
+     */
+    void beforeCommit() {
+        if (!marking) {
+            return;
+        }
+
+        for (int oid = nextModified(0); oid != 0; oid = nextModified(oid)) {
+            if (!isSet(scanned, oid)) {
+                final long pos = db.getGCPos(oid);
+
+                if ((pos & StorageImpl.DB_FREE_HANDLE_FLAG) == 0 && (pos & StorageImpl.DB_PAGE_OBJECT_FLAG) != 0) {
+                    // B-Tree page: the first committed image is retained until the page is scanned
+                    if (!retainedPages.containsKey(oid)) {
+                        retainedPages.put(oid, pos);
+                    }
+                } else {
+                    setBit(scanned, oid);
+
+                    final TreeScan scan = scan(oid);
+
+                    if (scan != null) {
+                        shadedTrees.add(scan);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if the committed image of the page is retained by the collector, so it should not be deallocated by the
+     * commit.
+     *
+     * @param oid OID of the page
+     * @param pos committed position of the page
+     * @return <code>true</code> if the page image is retained
+     */
+    boolean isRetained(final int oid, final long pos) {
+        final Long retained = retainedPages != null ? retainedPages.get(oid) : null;
+        return retained != null && retained == pos;
+    }
+
+    /**
+     * Stop marking and deallocate the retained page images, called before the storage is closed.
+     */
+    void abort() {
+        marking = false;
+        tree = null;
+        shadedTrees.clear();
+        releasePages();
+    }
+
+    /**
+     * Deallocate the committed images of the pages retained while marking.
+     */
+    private void releasePages() {
+        if (retainedPages != null) {
+            for (final long pos : retainedPages.values()) {
+                db.free(pos & ~StorageImpl.DB_FLAGS_MASK, db.myPageSize);
+            }
+
+            retainedPages = null;
+        }
+    }
+
+    /**
+     * Object was allocated with reused OID.
+     */
+    synchronized void allocated(final int oid) {
+        if (oid < snapshotSize) {
+            setBit(reached, oid);
+        }
+    }
+
+    /**
+     * Mark object referenced by the scanned one, called by <code>StorageImpl.markOid</code>.
+     */
+    synchronized void reach(final int oid) {
+        if (oid != 0 && oid < snapshotSize && !isSet(reached, oid)) {
+            setBit(reached, oid);
+
+            if (sp == stack.length) {
+                stack = Arrays.copyOf(stack, sp * 2);
+            }
+
+            stack[sp++] = oid;
+        }
+    }
+
+    private synchronized int pop() {
+        return sp == 0 ? 0 : stack[--sp];
+    }
+
+    /**
+     * Scan committed image of the object.
+     *
+     * @return scan of B-Tree pages if the object is B-Tree
+     */
+    private TreeScan scan(final int oid) {
+        final long pos = db.getGCPos(oid);
+
+        if (!StorageImpl.isObjectPosition(pos)) {
+            return null;
+        }
+
+        final int offs = (int) pos & (db.myPageSize - 1);
+        final Page pg = db.myPagePool.getPage(pos - offs);
+
+        try {
+            final int typeOid = ObjectHeader.getType(pg.data, offs);
+
+            if (typeOid != 0) {
+                final ClassDescriptor desc = db.findClassDescriptor(typeOid);
+
+                if (Btree.class.isAssignableFrom(desc.cls)) {
+                    final Btree btree = new Btree(pg.data, ObjectHeader.sizeof + offs);
+                    return btree.root != 0 ? new TreeScan(oid, btree.root, btree.type, btree.height) : null;
+                } else if (desc.hasReferences) {
+                    db.markObject(db.myPagePool.get(pos), ObjectHeader.sizeof, desc);
+                }
+            }
+        } finally {
+            db.myPagePool.unfix(pg);
+        }
+
+        return null;
+    }
+
+    /**
+     * Find the next object of the snapshot modified by the current transaction. Only the handles in the index pages
+     * modified by the transaction are checked.
+     *
+     * @param oid OID of the previous modified object or 0
+     * @return OID of the modified object or 0 if there are no more modified objects
+     */
+    private int nextModified(final int oid) {
+        final int[] map = db.myDirtyPagesMap;
+        int next = Math.max(oid + 1, db.myFirstUserId);
+
+        while (next < snapshotSize) {
+            final int page = next >>> db.myHandlesPerPageBits;
+
+            if (map[page >>> 5] == 0) {
+                next = (page | 31) + 1 << db.myHandlesPerPageBits;
+            } else if ((map[page >>> 5] & (1 << (page & 31))) == 0) {
+                next = page + 1 << db.myHandlesPerPageBits;
+            } else if (isModified(next)) {
+                return next;
+            } else {
+                next += 1;
+            }
+        }
+
+        return 0;
+    }
+
+    private boolean isModified(final int oid) {
+        return db.getIndexEntry(1 - db.myCurrentIndex, oid) != db.getGCPos(oid);
+    }
+
+    private static boolean isSet(final int[] bitmap, final int oid) {
+        return (bitmap[oid >>> 5] & (1 << (oid & 31))) != 0;
+    }
+
+    private static void setBit(final int[] bitmap, final int oid) {
+        bitmap[oid >>> 5] |= 1 << (oid & 31);
+    }
+
+    /**
+     * Traversal of committed pages of B-Tree, one page per step.
+     */
+    final class TreeScan {
+
+        final int oid;
+
+        private final int type;
+
+        private int[] pages = new int[64];
+
+        private int[] heights = new int[64];
+
+        private int n;
+
+        TreeScan(final int oid, final int root, final int type, final int height) {
+            this.oid = oid;
+            this.type = type;
+            push(root, height);
+        }
+
+        boolean step() {
+            if (n == 0) {
+                return false;
+            }
+
+            n -= 1;
+
+            final int height = heights[n];
+            final int pageOid = pages[n];
+            final Long retained = retainedPages.get(pageOid);
+            final Page pg = retained != null ? db.myPagePool.getPage(retained & ~StorageImpl.DB_FLAGS_MASK) : db
+                    .getGCPage(pageOid);
+
+            if (pageOid < snapshotSize) {
+                setBit(scanned, pageOid);
+            }
+
+            final boolean strings = type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte;
+
+            try {
+                final int nItems = BtreePage.getnItems(pg);
+
+                if (height > 1) {
+                    for (int i = 0; i <= nItems; i++) {
+                        push(strings ? BtreePage.getKeyStrOid(pg, i) : BtreePage.getReference(pg, BtreePage
+                                .getMaxItems(pg) - i - 1), height - 1);
+                    }
+                } else {
+                    for (int i = 0; i < nItems; i++) {
+                        db.markOid(strings ? BtreePage.getKeyStrOid(pg, i) : BtreePage.getReference(pg,
+                                BtreePage.getMaxItems(pg) - 1 - i));
+                    }
+                }
+            } finally {
+                db.myPagePool.unfix(pg);
+            }
+
+            return true;
+        }
+
+        private void push(final int page, final int height) {
+            if (n == pages.length) {
+                pages = Arrays.copyOf(pages, n * 2);
+                heights = Arrays.copyOf(heights, n * 2);
+            }
+
+            pages[n] = page;
+            heights[n] = height;
+            n += 1;
+        }
+    }
+}
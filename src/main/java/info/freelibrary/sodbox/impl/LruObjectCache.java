@@ -3,6 +3,7 @@ package info.freelibrary.sodbox.impl;
 
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 
 public class LruObjectCache implements OidHashTable {
 
@@ -304,28 +305,26 @@ public class LruObjectCache implements OidHashTable {
     }
 
     @Override
-    public synchronized void reload() {
-        disableRehash = true;
-        for (final Entry element : table) {
-            Entry e;
-            for (e = element; e != null; e = e.next) {
-                final Object obj = e.ref.get();
-                if (obj != null) {
-                    db.invalidate(obj);
-                    try {
-                        // System.out.println("Reload object " + db.getOid(obj));
-                        db.load(obj);
-                    } catch (final Exception x) {
-                        // x.printStackTrace();
-                        // ignore errors caused by attempt to load object which was created in rollbacked transaction
+    public void reload() {
+        // objects are loaded outside of the table lock which is needed by threads loading objects
+        final ArrayList<Object> objects = new ArrayList<>();
+        synchronized (this) {
+            for (final Entry element : table) {
+                for (Entry e = element; e != null; e = e.next) {
+                    final Object obj = e.ref.get();
+                    if (obj != null) {
+                        db.invalidate(obj);
+                        objects.add(obj);
                     }
                 }
             }
         }
-        disableRehash = false;
-        if (count >= threshold) {
-            // Rehash the table if the threshold is exceeded
-            rehash();
+        for (final Object obj : objects) {
+            try {
+                db.load(obj);
+            } catch (final Exception x) {
+                // ignore errors caused by attempt to load object which was created in rollbacked transaction
+            }
         }
     }
 
@@ -0,0 +1,35 @@
+package info.freelibrary.sodbox.impl;
+
+/**
+ * Classical LRU replacement: pages are kept in one list ordered by the time they were released, most recently used
+ * first. Pages which are in use stay in the list but are skipped when the victim is chosen.
+ */
+class LruPolicy implements PageReplacementPolicy {
+
+    final LRU lru = new LRU();
+
+    @Override
+    public void fix(final Page pg) {
+    }
+
+    @Override
+    public void load(final Page pg) {
+        lru.link(pg);
+    }
+
+    @Override
+    public void unfix(final Page pg, final boolean keep) {
+        pg.unlink();
+
+        if (keep) {
+            lru.link(pg);
+        } else {
+            lru.prev.link(pg);
+        }
+    }
+
+    @Override
+    public Page victim(final long addr) {
+        return TwoQueuePolicy.take(lru);
+    }
+}
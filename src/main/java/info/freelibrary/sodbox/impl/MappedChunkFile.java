@@ -0,0 +1,285 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import info.freelibrary.sodbox.IFile;
+import info.freelibrary.sodbox.StorageError;
+
+/**
+ * File mapped on virtual memory by chunks. Unlike <code>MappedFile</code>, which maps a single region and has to remap
+ * the whole file when it grows, this file maps chunks of fixed size on demand: extending the file only maps the new
+ * chunks, so the database size is not limited by the maximal size of one mapping. Reads and writes just copy data
+ * between the mapping and page pool without system calls, so the database can be served by the OS page cache with a
+ * small page pool. Chunks are accessed through duplicated buffers without synchronization, so several threads can
+ * access the file at the same time, and only chunks modified since the last sync are forced to the disk. Mapping of
+ * the last chunk extends the file to the chunk boundary, so the file keeps its logical length, which is the end of the
+ * written data, and the file is cut to this length when it is closed or truncated.
+ */
+public class MappedChunkFile implements IFile {
+
+    protected RandomAccessFile file;
+
+    protected FileChannel channel;
+
+    protected boolean readOnly;
+
+    protected boolean noFlush;
+
+    protected final int chunkSizeLog;
+
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    private boolean[] modified = new boolean[0];
+
+    private volatile long length; // logical length of the file
+
+    private FileLock lck;
+
+    /**
+     * Open the file.
+     *
+     * @param filePath Path to the file
+     * @param readOnly Whether the file is opened in read-only mode
+     * @param noFlush Whether <code>sync</code> should do nothing
+     * @param chunkSize Size of the mapped chunk, it is rounded to the power of two not smaller than maximal page size
+     * @param preload Whether all chunks of the existing file should be loaded in physical memory at open (hint
+     *        similar to <code>MADV_WILLNEED</code>)
+     */
+    public MappedChunkFile(final String filePath, final boolean readOnly, final boolean noFlush, final long chunkSize,
+            final boolean preload) {
+        int log = Page.MAX_PAGE_SIZE_LOG;
+
+        while (log < 30 && (1L << log) < chunkSize) {
+            log += 1;
+        }
+
+        this.chunkSizeLog = log;
+        this.readOnly = readOnly;
+        this.noFlush = noFlush;
+
+        try {
+            file = new RandomAccessFile(filePath, readOnly ? "r" : "rw");
+            channel = file.getChannel();
+            length = channel.size();
+
+            if (preload) {
+                final long size = channel.size();
+
+                for (long pos = 0; pos < size; pos += 1L << chunkSizeLog) {
+                    getChunk((int) (pos >>> chunkSizeLog), false).load();
+                }
+            }
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        chunks = new MappedByteBuffer[0];
+
+        try {
+            if (!readOnly && channel.size() > length) {
+                channel.truncate(length);
+            }
+
+            file.close();
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void lock(final boolean shared) {
+        try {
+            lck = channel.lock(0, Long.MAX_VALUE, shared);
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.LOCK_FAILED, x);
+        }
+    }
+
+    @Override
+    public int read(final long pos, final byte[] buf) {
+        final int chunkMask = (1 << chunkSizeLog) - 1;
+        final long end = Math.min(pos + buf.length, length);
+        int len = 0;
+
+        try {
+            while (pos + len < end) {
+                final long offs = pos + len;
+                final MappedByteBuffer chunk = getChunk((int) (offs >>> chunkSizeLog), false);
+
+                if (chunk == null) {
+                    break;
+                }
+
+                final ByteBuffer src = chunk.duplicate();
+                final int start = (int) offs & chunkMask;
+
+                if (start >= src.limit()) {
+                    break;
+                }
+
+                final int n = (int) Math.min(end - offs, src.limit() - start);
+                src.position(start);
+                src.get(buf, len, n);
+                len += n;
+            }
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+
+        return len == 0 && buf.length != 0 ? -1 : len;
+    }
+
+    @Override
+    public synchronized void sync() {
+        final MappedByteBuffer[] mapped = chunks;
+
+        for (int i = 0; i < mapped.length; i++) {
+            if (modified[i]) {
+                modified[i] = false;
+
+                if (!noFlush) {
+                    mapped[i].force();
+                }
+            }
+        }
+    }
+
+    /**
+     * Truncate the file. Chunks which are not entirely below the new length are unmapped, and they are mapped again
+     * when they are accessed.
+     *
+     * @param size new length of the file
+     */
+    @Override
+    public synchronized void truncate(final long size) {
+        final MappedByteBuffer[] mapped = chunks.clone();
+
+        for (int i = (int) (size >>> chunkSizeLog); i < mapped.length; i++) {
+            mapped[i] = null;
+            modified[i] = false;
+        }
+
+        chunks = mapped;
+        length = size;
+
+        try {
+            channel.truncate(size);
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    @Override
+    public boolean tryLock(final boolean shared) {
+        try {
+            lck = channel.tryLock(0, Long.MAX_VALUE, shared);
+            return lck != null;
+        } catch (final IOException x) {
+            return true;
+        }
+    }
+
+    @Override
+    public void unlock() {
+        try {
+            lck.release();
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.LOCK_FAILED, x);
+        }
+    }
+
+    @Override
+    public void write(final long pos, final byte[] buf) {
+        final int chunkMask = (1 << chunkSizeLog) - 1;
+        int len = 0;
+
+        try {
+            while (len < buf.length) {
+                final long offs = pos + len;
+                final int chunkNo = (int) (offs >>> chunkSizeLog);
+                final ByteBuffer dst = getChunk(chunkNo, true).duplicate();
+                final int start = (int) offs & chunkMask;
+                final int n = Math.min(buf.length - len, dst.limit() - start);
+
+                dst.position(start);
+                dst.put(buf, len, n);
+                len += n;
+
+                synchronized (this) {
+                    modified[chunkNo] = true;
+
+                    if (offs + n > length) {
+                        length = offs + n;
+                    }
+                }
+            }
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    /**
+     * Get mapped chunk, mapping it if it is not mapped yet.
+     *
+     * @param chunkNo Number of the chunk
+     * @param extend Whether the file should be extended if the chunk is beyond end of file
+     * @return Mapped chunk or <code>null</code> if the chunk is beyond end of file and the file is not extended
+     */
+    private MappedByteBuffer getChunk(final int chunkNo, final boolean extend) throws IOException {
+        final MappedByteBuffer[] mapped = chunks;
+
+        if (chunkNo < mapped.length && mapped[chunkNo] != null && (!extend || mapped[chunkNo].limit() ==
+                1 << chunkSizeLog)) {
+            return mapped[chunkNo];
+        }
+
+        return mapChunk(chunkNo, extend);
+    }
+
+    private synchronized MappedByteBuffer mapChunk(final int chunkNo, final boolean extend) throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        final long chunkSize = 1L << chunkSizeLog;
+        final long start = (long) chunkNo << chunkSizeLog;
+        final long size = extend ? chunkSize : Math.min(chunkSize, channel.size() - start);
+
+        if (size <= 0) {
+            return null;
+        }
+
+        if (chunkNo < mapped.length && mapped[chunkNo] != null && mapped[chunkNo].limit() >= size) {
+            return mapped[chunkNo];
+        }
+
+        if (chunkNo >= mapped.length) {
+            final int newLength = Math.max(chunkNo + 1, mapped.length * 2);
+            final MappedByteBuffer[] newChunks = new MappedByteBuffer[newLength];
+            final boolean[] newModified = new boolean[newLength];
+
+            System.arraycopy(mapped, 0, newChunks, 0, mapped.length);
+            System.arraycopy(modified, 0, newModified, 0, modified.length);
+            mapped = newChunks;
+            modified = newModified;
+        } else {
+            mapped = mapped.clone();
+        }
+
+        mapped[chunkNo] = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+                start, size);
+        chunks = mapped;
+        return mapped[chunkNo];
+    }
+}
@@ -136,6 +136,13 @@ public class MultiFile implements IFile {
         }
     }
 
+    @Override
+    public void truncate(final long size) {
+        if (size >= fixedSize) {
+            segment[segment.length - 1].f.truncate(size - fixedSize);
+        }
+    }
+
     @Override
     public boolean tryLock(final boolean shared) {
         return segment[0].f.tryLock(shared);
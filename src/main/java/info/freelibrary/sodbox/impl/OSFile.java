@@ -83,6 +83,15 @@ public class OSFile implements IFile {
         }
     }
 
+    @Override
+    public void truncate(final long size) {
+        try {
+            file.setLength(size);
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
     @Override
     public boolean tryLock(final boolean shared) {
         try {
@@ -0,0 +1,165 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Second level page cache located outside of Java heap. Pages replaced in page pool are copied to frames of large
+ * direct buffers (slabs), and page pool looks for a page in this cache before reading it from the file. A page is kept
+ * either in page pool or in this cache, but not in both: when a page is taken from the cache its frame is released,
+ * so the cache never contains stale version of a page modified in page pool. Frames are addressed by index and
+ * located by page address using hash table built from primitive arrays, so the cache doesn't create objects for
+ * cached pages and its size doesn't affect Java heap size and garbage collection. When there are no free frames,
+ * frames are reused in round robin order, which approximates FIFO order of pages replaced in page pool.
+ */
+class OffHeapPageCache {
+
+    static final int SLAB_SIZE_LOG = 26; // 64Mb
+
+    private final int pageSizeLog;
+
+    private final int pageSize;
+
+    private final int framesPerSlabLog;
+
+    private final ByteBuffer[] slabs;
+
+    private final long[] frameAddr; // address of page in the frame or -1 for free frame
+
+    private final int[] hashTable; // index of the first frame in collision chain plus one or 0
+
+    private final int[] next; // index of next frame in collision chain or free list plus one or 0
+
+    private final int nFrames;
+
+    private int freeFrames;
+
+    private int hand;
+
+    OffHeapPageCache(final long size, final int pageSizeLog) {
+        this.pageSizeLog = pageSizeLog;
+        pageSize = 1 << pageSizeLog;
+        framesPerSlabLog = SLAB_SIZE_LOG - pageSizeLog;
+        nFrames = (int) Math.min(size >>> pageSizeLog, Integer.MAX_VALUE);
+        slabs = new ByteBuffer[(nFrames + (1 << framesPerSlabLog) - 1) >>> framesPerSlabLog];
+
+        for (int i = 0; i < slabs.length; i++) {
+            final int slabFrames = Math.min(nFrames - (i << framesPerSlabLog), 1 << framesPerSlabLog);
+            slabs[i] = ByteBuffer.allocateDirect(slabFrames << pageSizeLog);
+        }
+
+        frameAddr = new long[nFrames];
+        hashTable = new int[nFrames];
+        next = new int[nFrames];
+        clear();
+    }
+
+    /**
+     * Remove all pages from the cache.
+     */
+    final synchronized void clear() {
+        java.util.Arrays.fill(hashTable, 0);
+        freeFrames = 0;
+
+        for (int i = nFrames; --i >= 0;) {
+            frameAddr[i] = -1;
+            next[i] = freeFrames;
+            freeFrames = i + 1;
+        }
+
+        hand = 0;
+    }
+
+    /**
+     * Place image of the page replaced in page pool in the cache.
+     *
+     * @param addr page address
+     * @param data page image
+     */
+    synchronized void put(final long addr, final byte[] data) {
+        final int h = hash(addr);
+        int frame;
+
+        for (frame = hashTable[h]; frame != 0 && frameAddr[frame - 1] != addr; frame = next[frame - 1]) {
+        }
+
+        if (frame == 0) {
+            if (freeFrames != 0) {
+                frame = freeFrames;
+                freeFrames = next[frame - 1];
+            } else {
+                frame = hand + 1;
+                hand = frame == nFrames ? 0 : frame;
+                unlink(frame);
+            }
+
+            frameAddr[frame - 1] = addr;
+            next[frame - 1] = hashTable[h];
+            hashTable[h] = frame;
+        }
+
+        final ByteBuffer slab = slabs[frame - 1 >>> framesPerSlabLog];
+        slab.position((frame - 1 & (1 << framesPerSlabLog) - 1) << pageSizeLog);
+        slab.put(data, 0, pageSize);
+    }
+
+    /**
+     * Copy page from the cache and release its frame.
+     *
+     * @param addr page address
+     * @param data array receiving page image
+     * @return <code>true</code> if the page was found in the cache
+     */
+    synchronized boolean take(final long addr, final byte[] data) {
+        int frame;
+
+        for (frame = hashTable[hash(addr)]; frame != 0 && frameAddr[frame - 1] != addr; frame = next[frame - 1]) {
+        }
+
+        if (frame == 0) {
+            return false;
+        }
+
+        final ByteBuffer slab = slabs[frame - 1 >>> framesPerSlabLog];
+        slab.position((frame - 1 & (1 << framesPerSlabLog) - 1) << pageSizeLog);
+        slab.get(data, 0, pageSize);
+
+        unlink(frame);
+        next[frame - 1] = freeFrames;
+        freeFrames = frame;
+        return true;
+    }
+
+    /**
+     * Page number is scrambled, because pages of the segment of concurrent page pool have the same low bits.
+     */
+    private int hash(final long addr) {
+        return (int) (((addr >>> pageSizeLog) * 0x9E3779B97F4A7C15L >>> 33) % nFrames);
+    }
+
+    /**
+     * Exclude frame from hash table collision chain.
+     */
+    private void unlink(final int frame) {
+        final long addr = frameAddr[frame - 1];
+
+        if (addr >= 0) {
+            final int h = hash(addr);
+            int curr = hashTable[h];
+            int prev = 0;
+
+            while (curr != frame) {
+                prev = curr;
+                curr = next[curr - 1];
+            }
+
+            if (prev == 0) {
+                hashTable[h] = next[frame - 1];
+            } else {
+                next[prev - 1] = next[frame - 1];
+            }
+
+            frameAddr[frame - 1] = -1;
+        }
+    }
+}
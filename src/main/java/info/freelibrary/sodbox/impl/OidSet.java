@@ -0,0 +1,108 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.util.Arrays;
+
+import info.freelibrary.sodbox.PersistentIterator;
+
+/**
+ * Set of object identifiers used to combine results of index searches. OIDs are kept in the sorted array without
+ * duplicates, so sets are intersected, united and subtracted by merging the arrays instead of hashing boxed integers,
+ * and the result is iterated in the order of OIDs, which is usually close to the order of objects in the file.
+ */
+class OidSet {
+
+    final int[] oids;
+
+    final int size;
+
+    OidSet(final int[] oids, final int size) {
+        this.oids = oids;
+        this.size = size;
+    }
+
+    /**
+     * Collect OIDs of the selections.
+     *
+     * @param selections iterators implementing <code>PersistentIterator</code>
+     * @return set of OIDs returned by any of the iterators
+     */
+    static OidSet collect(final PersistentIterator... selections) {
+        int[] oids = new int[1024];
+        int n = 0;
+        int prev = 0;
+        boolean sorted = true;
+
+        for (final PersistentIterator iterator : selections) {
+            int oid;
+
+            while ((oid = iterator.nextOid()) != 0) {
+                if (n == oids.length) {
+                    oids = Arrays.copyOf(oids, n * 2);
+                }
+
+                sorted &= oid > prev;
+                oids[n++] = prev = oid;
+            }
+        }
+
+        if (!sorted) {
+            Arrays.sort(oids, 0, n);
+
+            int j = 0;
+
+            for (int i = 0; i < n; i++) {
+                if ((j == 0) || (oids[i] != oids[j - 1])) {
+                    oids[j++] = oids[i];
+                }
+            }
+
+            n = j;
+        }
+
+        return new OidSet(oids, n);
+    }
+
+    /**
+     * Get intersection of the sets.
+     */
+    OidSet and(final OidSet set) {
+        final int[] result = new int[Math.min(size, set.size)];
+        int n = 0;
+
+        for (int i = 0, j = 0; (i < size) && (j < set.size);) {
+            if (oids[i] < set.oids[j]) {
+                i += 1;
+            } else if (oids[i] > set.oids[j]) {
+                j += 1;
+            } else {
+                result[n++] = oids[i];
+                i += 1;
+                j += 1;
+            }
+        }
+
+        return new OidSet(result, n);
+    }
+
+    /**
+     * Get difference of the sets.
+     */
+    OidSet andNot(final OidSet set) {
+        final int[] result = new int[size];
+        int n = 0;
+        int j = 0;
+
+        for (int i = 0; i < size; i++) {
+            while ((j < set.size) && (set.oids[j] < oids[i])) {
+                j += 1;
+            }
+
+            if ((j == set.size) || (set.oids[j] != oids[i])) {
+                result[n++] = oids[i];
+            }
+        }
+
+        return new OidSet(result, n);
+    }
+}
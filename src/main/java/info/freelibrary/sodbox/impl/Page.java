@@ -9,7 +9,18 @@ public class Page extends LRU implements Comparable {
 
     static final int psWait = 0x04;// other thread(s) wait load operation completion
 
-    public static final int pageSizeLog = 12;
+    static final int psModified = 0x08;// page was modified after it was written to the redo log
+
+    static final int DEFAULT_PAGE_SIZE_LOG = 12;
+
+    static final int MAX_PAGE_SIZE_LOG = 16;
+
+    /**
+     * Binary logarithm of the default page size. Page size of the database is selected when the database is created
+     * and recorded in its header, the storage keeps it in <code>StorageImpl.myPageSize</code>. Persistent structures
+     * consisting of objects (T-Tree, R-Tree, lists and blob chunks) are sized by the default page size.
+     */
+    public static final int pageSizeLog = DEFAULT_PAGE_SIZE_LOG;
 
     public static final int pageSize = 1 << pageSizeLog;
 
@@ -21,6 +32,8 @@ public class Page extends LRU implements Comparable {
 
     int state;
 
+    int queue; // replacement policy queue containing the page
+
     long offs;
 
     byte data[];
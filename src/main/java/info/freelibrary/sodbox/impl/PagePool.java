@@ -1,6 +1,8 @@
 
 package info.freelibrary.sodbox.impl;
 
+import java.nio.ByteBuffer;
+
 import info.freelibrary.sodbox.Assert;
 import info.freelibrary.sodbox.IFile;
 
@@ -8,7 +10,15 @@ class PagePool {
 
     static final int INFINITE_POOL_INITIAL_SIZE = 8;
 
-    LRU lru;
+    static final int MAX_WRITE_RUN = 256; // maximal number of adjacent pages written by one gathering write
+
+    final int pageSize;
+
+    final int pageSizeLog;
+
+    PageReplacementPolicy policy;
+
+    String policyKind;
 
     Page freePages;
 
@@ -28,54 +38,90 @@ class PagePool {
 
     boolean flushing;
 
-    PagePool(int poolSize, final long lruLimit) {
+    int keyShift;
+
+    long nHits;
+
+    long nMisses;
+
+    PageWriter writer;
+
+    int writeBehindThreshold;
+
+    boolean trackModified;
+
+    long[] modifiedPages;
+
+    int nModifiedPages;
+
+    long offHeapCacheSize;
+
+    OffHeapPageCache offHeapCache;
+
+    PagePool(int poolSize, final long lruLimit, final String policyKind, final int pageSizeLog) {
         if (poolSize == 0) {
             autoExtended = true;
             poolSize = INFINITE_POOL_INITIAL_SIZE;
         }
+        this.pageSizeLog = pageSizeLog;
+        this.pageSize = 1 << pageSizeLog;
+        this.keyShift = pageSizeLog;
         this.poolSize = poolSize;
         this.lruLimit = lruLimit;
+        this.policyKind = policyKind;
     }
 
-    final void clear() {
+    void clear() {
+        if (writer != null) {
+            writer.drain();
+        }
         Assert.that(nDirtyPages == 0);
         reset();
+        if (offHeapCache != null) {
+            offHeapCache.clear();
+        }
     }
 
-    final synchronized void close() {
+    void close() {
+        stopWriter();
         file.close();
+        release();
+    }
+
+    final synchronized void release() {
         hashTable = null;
         dirtyPages = null;
-        lru = null;
+        policy = null;
         freePages = null;
+        offHeapCache = null;
     }
 
     final synchronized void copy(long dst, long src, long size) {
-        int dstOffs = (int) dst & Page.pageSize - 1;
-        int srcOffs = (int) src & Page.pageSize - 1;
+        int dstOffs = (int) dst & pageSize - 1;
+        int srcOffs = (int) src & pageSize - 1;
         dst -= dstOffs;
         src -= srcOffs;
         Page dstPage = find(dst, Page.psDirty);
         Page srcPage = find(src, 0);
         do {
-            if (dstOffs == Page.pageSize) {
+            if (dstOffs == pageSize) {
                 unfix(dstPage);
-                dst += Page.pageSize;
+                dst += pageSize;
                 dstPage = find(dst, Page.psDirty);
                 dstOffs = 0;
             }
-            if (srcOffs == Page.pageSize) {
+            if (srcOffs == pageSize) {
                 unfix(srcPage);
-                src += Page.pageSize;
+                src += pageSize;
                 srcPage = find(src, 0);
                 srcOffs = 0;
             }
             long len = size;
-            if (len > Page.pageSize - srcOffs) {
-                len = Page.pageSize - srcOffs;
+            if (len > pageSize - srcOffs) {
+                len = pageSize - srcOffs;
             }
-            if (len > Page.pageSize - dstOffs) {
-                len = Page.pageSize - dstOffs;
+            if (len > pageSize - dstOffs) {
+                len = pageSize - dstOffs;
             }
             System.arraycopy(srcPage.data, srcOffs, dstPage.data, dstOffs, (int) len);
             srcOffs += len;
@@ -86,26 +132,27 @@ class PagePool {
         unfix(srcPage);
     }
 
-    final Page find(final long addr, final int state) {
-        // Assert.that((addr & (Page.pageSize-1)) == 0);
+    Page find(final long addr, final int state) {
+        // Assert.that((addr & (pageSize-1)) == 0);
         Page pg;
-        final int pageNo = (int) (addr >>> Page.pageSizeLog);
+        final int pageNo = (int) (addr >>> keyShift);
         int hashCode = pageNo % poolSize;
 
         synchronized (this) {
             for (pg = hashTable[hashCode]; pg != null; pg = pg.collisionChain) {
                 if (pg.offs == addr) {
-                    if (pg.accessCount++ == 0) {
-                        pg.unlink();
-                    }
+                    pg.accessCount += 1;
+                    policy.fix(pg);
+                    nHits += 1;
                     break;
                 }
             }
             if (pg == null) {
+                nMisses += 1;
                 pg = freePages;
                 if (pg != null) {
                     if (pg.data == null) {
-                        pg.data = new byte[Page.pageSize];
+                        pg.data = new byte[pageSize];
                     }
                     freePages = (Page) pg.next;
                 } else if (autoExtended) {
@@ -117,23 +164,25 @@ class PagePool {
                         poolSize = newPoolSize;
                     }
                     pg = new Page();
-                    pg.data = new byte[Page.pageSize];
+                    pg.data = new byte[pageSize];
                     hashCode = pageNo;
                 } else {
-                    Assert.that("unfixed page available", lru.prev != lru);
-                    pg = (Page) lru.prev;
-                    pg.unlink();
+                    pg = policy.victim(addr);
+                    Assert.that("unfixed page available", pg != null);
                     synchronized (pg) {
                         if ((pg.state & Page.psDirty) != 0) {
                             pg.state = 0;
-                            file.write(pg.offs, pg.data);
+                            writePage(pg);
                             if (!flushing) {
                                 dirtyPages[pg.writeQueueIndex] = dirtyPages[--nDirtyPages];
                                 dirtyPages[pg.writeQueueIndex].writeQueueIndex = pg.writeQueueIndex;
                             }
                         }
                     }
-                    final int h = (int) (pg.offs >> Page.pageSizeLog) % poolSize;
+                    if (offHeapCache != null) {
+                        offHeapCache.put(pg.offs, pg.data);
+                    }
+                    final int h = (int) (pg.offs >>> keyShift) % poolSize;
                     Page curr = hashTable[h], prev = null;
                     while (curr != pg) {
                         prev = curr;
@@ -150,23 +199,20 @@ class PagePool {
                 pg.state = Page.psRaw;
                 pg.collisionChain = hashTable[hashCode];
                 hashTable[hashCode] = pg;
+                policy.load(pg);
             }
-            if ((pg.state & Page.psDirty) == 0 && (state & Page.psDirty) != 0) {
-                Assert.that(!flushing);
-                if (nDirtyPages >= dirtyPages.length) {
-                    final Page[] newDirtyPages = new Page[nDirtyPages * 2];
-                    System.arraycopy(dirtyPages, 0, newDirtyPages, 0, dirtyPages.length);
-                    dirtyPages = newDirtyPages;
+            if ((state & Page.psDirty) != 0) {
+                if ((pg.state & Page.psDirty) == 0) {
+                    Assert.that(!flushing);
+                    enqueueDirtyPage(pg);
+                }
+                if (trackModified && (pg.state & Page.psModified) == 0) {
+                    enqueueModifiedPage(pg);
                 }
-                dirtyPages[nDirtyPages] = pg;
-                pg.writeQueueIndex = nDirtyPages++;
-                pg.state |= Page.psDirty;
             }
             if ((pg.state & Page.psRaw) != 0) {
-                if (file.read(pg.offs, pg.data) < Page.pageSize) {
-                    for (int i = 0; i < Page.pageSize; i++) {
-                        pg.data[i] = 0;
-                    }
+                if (offHeapCache == null || !offHeapCache.take(addr, pg.data)) {
+                    readPage(pg);
                 }
                 pg.state &= ~Page.psRaw;
             }
@@ -177,36 +223,113 @@ class PagePool {
     void flush() {
         synchronized (this) {
             flushing = true;
+        }
+        if (writer != null) {
+            writer.drain();
+        }
+        synchronized (this) {
             java.util.Arrays.sort(dirtyPages, 0, nDirtyPages);
         }
-        for (int i = 0; i < nDirtyPages; i++) {
+        writePages(dirtyPages, nDirtyPages);
+        file.sync();
+        nDirtyPages = 0;
+        flushing = false;
+    }
+
+    /**
+     * Take unused dirty pages for the background writer. Taken pages are pinned and excluded from the dirty pages
+     * queue, so if they are modified once again, they will be placed in the queue by the usual way.
+     *
+     * @param batch array receiving taken pages
+     * @param n number of pages already placed in the batch
+     * @return number of pages in the batch
+     */
+    synchronized int collectDirtyPages(final Page[] batch, int n) {
+        if (flushing) {
+            return n;
+        }
+        for (int i = nDirtyPages; --i >= 0 && n < batch.length;) {
             final Page pg = dirtyPages[i];
-            synchronized (pg) {
-                if ((pg.state & Page.psDirty) != 0) {
-                    file.write(pg.offs, pg.data);
-                    pg.state &= ~Page.psDirty;
-                }
+            if (pg.accessCount == 0 && pg.offs != 0) { // header is written only by commit
+                pg.accessCount = 1;
+                pg.state &= ~Page.psDirty;
+                dirtyPages[i] = dirtyPages[--nDirtyPages];
+                dirtyPages[i].writeQueueIndex = i;
+                batch[n++] = pg;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Take all dirty pages for checkpoint. Taken pages are pinned. Pages which are not used are excluded from the
+     * dirty pages queue, pages which are in use (and so can be modified at this moment) remain dirty.
+     */
+    synchronized Page[] takeDirtyPages() {
+        final Page[] pages = new Page[nDirtyPages];
+        int n = 0;
+        for (int i = nDirtyPages; --i >= 0;) {
+            final Page pg = dirtyPages[i];
+            if (pg.accessCount++ == 0) {
+                pg.state &= ~Page.psDirty;
+                dirtyPages[i] = dirtyPages[--nDirtyPages];
+                dirtyPages[i].writeQueueIndex = i;
+            }
+            pages[n++] = pg;
+        }
+        return pages;
+    }
+
+    /**
+     * Write all dirty pages to the file and sync it. Unlike <code>flush</code>, pages can be accessed and modified
+     * while checkpoint is in progress: such pages are written to the file, but remain dirty.
+     */
+    void checkpoint() {
+        final Page[] pages = takeDirtyPages();
+        java.util.Arrays.sort(pages);
+        if (writer != null) {
+            writer.drain();
+        }
+        boolean written = false;
+        try {
+            writePinnedPages(pages, 0, pages.length);
+            written = true;
+        } finally {
+            for (final Page pg : pages) {
+                unpinPage(pg, !written);
             }
         }
         file.sync();
-        nDirtyPages = 0;
-        flushing = false;
+    }
+
+    PageReplacementPolicy createReplacementPolicy() {
+        if (!autoExtended) {
+            if ("2q".equals(policyKind)) {
+                return new TwoQueuePolicy(poolSize);
+            }
+
+            if ("arc".equals(policyKind)) {
+                return new AdaptiveReplacementPolicy(poolSize);
+            }
+        }
+
+        return new LruPolicy();
     }
 
     final byte[] get(long pos) {
         Assert.that(pos != 0);
-        int offs = (int) pos & Page.pageSize - 1;
+        int offs = (int) pos & pageSize - 1;
         Page pg = find(pos - offs, 0);
         int size = ObjectHeader.getSize(pg.data, offs);
         Assert.that(size >= ObjectHeader.sizeof);
         final byte[] obj = new byte[size];
         int dst = 0;
-        while (size > Page.pageSize - offs) {
-            System.arraycopy(pg.data, offs, obj, dst, Page.pageSize - offs);
+        while (size > pageSize - offs) {
+            System.arraycopy(pg.data, offs, obj, dst, pageSize - offs);
             unfix(pg);
-            size -= Page.pageSize - offs;
-            pos += Page.pageSize - offs;
-            dst += Page.pageSize - offs;
+            size -= pageSize - offs;
+            pos += pageSize - offs;
+            dst += pageSize - offs;
             pg = find(pos, 0);
             offs = 0;
         }
@@ -215,28 +338,61 @@ class PagePool {
         return obj;
     }
 
+    long getHits() {
+        return nHits;
+    }
+
+    /**
+     * Get number of pages which can be kept fixed by the threads unpacking objects directly from the pages. The rest
+     * of the pool remains available for replacement even if all loading threads pin their pages.
+     */
+    int getLoadPinLimit() {
+        return autoExtended ? Integer.MAX_VALUE : poolSize / 4;
+    }
+
+    long getMisses() {
+        return nMisses;
+    }
+
     final Page getPage(final long addr) {
         return find(addr, 0);
     }
 
-    final synchronized void modify(final Page pg) {
+    synchronized void modify(final Page pg) {
         Assert.that(pg.accessCount > 0);
         if ((pg.state & Page.psDirty) == 0) {
             Assert.that(!flushing);
-            pg.state |= Page.psDirty;
-            if (nDirtyPages >= dirtyPages.length) {
-                final Page[] newDirtyPages = new Page[nDirtyPages * 2];
-                System.arraycopy(dirtyPages, 0, newDirtyPages, 0, dirtyPages.length);
-                dirtyPages = newDirtyPages;
-            }
-            dirtyPages[nDirtyPages] = pg;
-            pg.writeQueueIndex = nDirtyPages++;
+            enqueueDirtyPage(pg);
+        }
+        if (trackModified && (pg.state & Page.psModified) == 0) {
+            enqueueModifiedPage(pg);
         }
     }
 
-    final void open(final IFile f) {
+    void open(final IFile f) {
         file = f;
         reset();
+        if (offHeapCacheSize >= pageSize && !autoExtended) {
+            offHeapCache = new OffHeapPageCache(offHeapCacheSize, pageSizeLog);
+        }
+        if (writeBehindThreshold > 0 && f instanceof ChannelFile) {
+            writer = new PageWriter(this);
+        }
+    }
+
+    /**
+     * Pin dirty page before it is written by flush and clear its dirty flag. Pinning doesn't affect the replacement
+     * policy.
+     *
+     * @return <code>false</code> if page is not dirty any more
+     */
+    synchronized boolean pinDirtyPage(final Page pg) {
+        if ((pg.state & Page.psDirty) == 0) {
+            return false;
+        }
+        pg.accessCount += 1;
+        pg.state &= ~Page.psDirty;
+        return true;
     }
 
     final void put(final long pos, final byte[] obj) {
@@ -244,15 +400,15 @@ class PagePool {
     }
 
     final void put(long pos, final byte[] obj, int size) {
-        int offs = (int) pos & Page.pageSize - 1;
+        int offs = (int) pos & pageSize - 1;
         Page pg = find(pos - offs, Page.psDirty);
         int src = 0;
-        while (size > Page.pageSize - offs) {
-            System.arraycopy(obj, src, pg.data, offs, Page.pageSize - offs);
+        while (size > pageSize - offs) {
+            System.arraycopy(obj, src, pg.data, offs, pageSize - offs);
             unfix(pg);
-            size -= Page.pageSize - offs;
-            pos += Page.pageSize - offs;
-            src += Page.pageSize - offs;
+            size -= pageSize - offs;
+            pos += pageSize - offs;
+            src += pageSize - offs;
             pg = find(pos, Page.psDirty);
             offs = 0;
         }
@@ -264,8 +420,16 @@ class PagePool {
         return find(addr, Page.psDirty);
     }
 
-    final void reset() {
-        lru = new LRU();
+    void readPage(final Page pg) {
+        if (file.read(pg.offs, pg.data) < pageSize) {
+            for (int i = 0; i < pageSize; i++) {
+                pg.data[i] = 0;
+            }
+        }
+    }
+
+    void reset() {
+        policy = createReplacementPolicy();
         freePages = null;
         hashTable = new Page[poolSize];
         dirtyPages = new Page[poolSize];
@@ -279,28 +443,173 @@ class PagePool {
         }
     }
 
-    final synchronized void unfix(final Page pg) {
+    /**
+     * Release page pinned by <code>pinDirtyPage</code> or <code>collectDirtyPages</code>.
+     *
+     * @param dirty <code>true</code> if page was not written and should be marked as dirty once again
+     */
+    synchronized void unpinPage(final Page pg, final boolean dirty) {
+        if (dirty && (pg.state & Page.psDirty) == 0) {
+            enqueueDirtyPage(pg);
+        }
+        pg.accessCount -= 1;
+    }
+
+    /**
+     * Get addresses of pages modified since the previous invocation of this method. Pages are tracked only if
+     * <code>trackModified</code> is set. The same address can be returned more than once.
+     */
+    synchronized long[] takeModifiedPages() {
+        final long[] pages = new long[nModifiedPages];
+        if (nModifiedPages != 0) {
+            System.arraycopy(modifiedPages, 0, pages, 0, nModifiedPages);
+            nModifiedPages = 0;
+        }
+        return pages;
+    }
+
+    /**
+     * Fix page which was modified and clear its modified flag, so that subsequent modifications of the page are
+     * tracked once again.
+     */
+    Page getModifiedPage(final long addr) {
+        final Page pg = find(addr, 0);
+        clearModified(pg);
+        return pg;
+    }
+
+    synchronized void clearModified(final Page pg) {
+        pg.state &= ~Page.psModified;
+    }
+
+    synchronized void unfix(final Page pg) {
         Assert.that(pg.accessCount > 0);
         if (--pg.accessCount == 0) {
-            if (pg.offs <= lruLimit) {
-                lru.link(pg);
-            } else {
-                lru.prev.link(pg);
+            policy.unfix(pg, pg.offs <= lruLimit);
+        }
+    }
+
+    void writePage(final Page pg) {
+        file.write(pg.offs, pg.data);
+    }
+
+    /**
+     * Write dirty pages sorted by address. If the file supports gathering writes, adjacent pages are pinned and
+     * written by one operation.
+     */
+    final void writePages(final Page[] queue, final int n) {
+        if (!(file instanceof ChannelFile)) {
+            for (int i = 0; i < n; i++) {
+                final Page pg = queue[i];
+                synchronized (pg) {
+                    if ((pg.state & Page.psDirty) != 0) {
+                        writePage(pg);
+                        pg.state &= ~Page.psDirty;
+                    }
+                }
+            }
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            final Page pg = queue[i];
+            if (i > start && (i - start == MAX_WRITE_RUN || pg.offs != queue[i - 1].offs + pageSize)) {
+                writePinnedRun(queue, start, i);
+                start = i;
+            }
+            if (!pinDirtyPage(pg)) {
+                writePinnedRun(queue, start, i);
+                start = i + 1;
+            }
+        }
+        writePinnedRun(queue, start, n);
+    }
+
+    /**
+     * Write pinned pages sorted by address, merging adjacent pages into gathering writes.
+     */
+    final void writePinnedPages(final Page[] pages, final int from, final int to) {
+        int start = from;
+        for (int i = from + 1; i <= to; i++) {
+            if (i == to || i - start == MAX_WRITE_RUN || pages[i].offs != pages[i - 1].offs + pageSize) {
+                if (i - start == 1 || !(file instanceof ChannelFile)) {
+                    for (int j = start; j < i; j++) {
+                        writePage(pages[j]);
+                    }
+                } else {
+                    final ByteBuffer[] buffers = new ByteBuffer[i - start];
+                    for (int j = start; j < i; j++) {
+                        buffers[j - start] = ByteBuffer.wrap(pages[j].data);
+                    }
+                    ((ChannelFile) file).write(pages[start].offs, buffers);
+                }
+                start = i;
             }
         }
     }
 
+    private void writePinnedRun(final Page[] queue, final int from, final int to) {
+        boolean written = false;
+        try {
+            writePinnedPages(queue, from, to);
+            written = true;
+        } finally {
+            for (int i = from; i < to; i++) {
+                unpinPage(queue[i], !written);
+            }
+        }
+    }
+
+    /**
+     * Mark page as dirty and append it to the dirty pages queue. Should be called while holding pool lock.
+     */
+    final void enqueueDirtyPage(final Page pg) {
+        if (nDirtyPages >= dirtyPages.length) {
+            final Page[] newDirtyPages = new Page[nDirtyPages * 2];
+            System.arraycopy(dirtyPages, 0, newDirtyPages, 0, dirtyPages.length);
+            dirtyPages = newDirtyPages;
+        }
+        dirtyPages[nDirtyPages] = pg;
+        pg.writeQueueIndex = nDirtyPages++;
+        pg.state |= Page.psDirty;
+        if (writer != null && nDirtyPages >= writeBehindThreshold && !flushing) {
+            writer.activate();
+        }
+    }
+
+    /**
+     * Remember address of the modified page. Should be called while holding pool lock.
+     */
+    final void enqueueModifiedPage(final Page pg) {
+        if (modifiedPages == null) {
+            modifiedPages = new long[INFINITE_POOL_INITIAL_SIZE];
+        } else if (nModifiedPages == modifiedPages.length) {
+            final long[] newModifiedPages = new long[nModifiedPages * 2];
+            System.arraycopy(modifiedPages, 0, newModifiedPages, 0, nModifiedPages);
+            modifiedPages = newModifiedPages;
+        }
+        modifiedPages[nModifiedPages++] = pg.offs;
+        pg.state |= Page.psModified;
+    }
+
+    final void stopWriter() {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
     final void write(long dstPos, final byte[] src) {
-        Assert.that((dstPos & Page.pageSize - 1) == 0);
-        Assert.that((src.length & Page.pageSize - 1) == 0);
+        Assert.that((dstPos & pageSize - 1) == 0);
+        Assert.that((src.length & pageSize - 1) == 0);
         for (int i = 0; i < src.length;) {
             final Page pg = find(dstPos, Page.psDirty);
             final byte[] dst = pg.data;
-            for (int j = 0; j < Page.pageSize; j++) {
+            for (int j = 0; j < pageSize; j++) {
                 dst[j] = src[i++];
             }
             unfix(pg);
-            dstPos += Page.pageSize;
+            dstPos += pageSize;
         }
     }
 }
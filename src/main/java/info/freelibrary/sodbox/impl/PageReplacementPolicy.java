@@ -0,0 +1,41 @@
+package info.freelibrary.sodbox.impl;
+
+/**
+ * Policy used by page pool to choose the page to be replaced when there are no free pages in the pool. All methods
+ * are invoked by the page pool while holding its lock.
+ */
+interface PageReplacementPolicy {
+
+    /**
+     * Page already present in the pool is accessed. Access counter of the page is already incremented. Pages may also
+     * be pinned by the page pool itself while they are written to the disk, such pinning is not reported to the
+     * policy, so the policy should not rely on the exact value of the access counter.
+     *
+     * @param pg accessed page
+     */
+    void fix(Page pg);
+
+    /**
+     * Page is placed in the pool because of page miss.
+     *
+     * @param pg loaded page
+     */
+    void load(Page pg);
+
+    /**
+     * Page is not used any more and can be selected for replacement.
+     *
+     * @param pg released page
+     * @param keep <code>false</code> if page should be replaced before other pages (it is beyond LRU limit)
+     */
+    void unfix(Page pg, boolean keep);
+
+    /**
+     * Select the page to be replaced and exclude it from the policy structures. Pages with non-zero access counter
+     * should never be selected.
+     *
+     * @param addr address of the page which will be loaded instead of the victim
+     * @return unused page or <code>null</code> if all pages are in use
+     */
+    Page victim(long addr);
+}
@@ -0,0 +1,127 @@
+package info.freelibrary.sodbox.impl;
+
+import info.freelibrary.sodbox.StorageError;
+
+/**
+ * Background writer of dirty pages. When the number of dirty pages in the page pool exceeds the write-behind threshold,
+ * the writer takes unused dirty pages from the pool and writes them to the file merging adjacent pages, so that the
+ * transaction commit has to write and sync only the pages modified since then. Pages being written are pinned, so
+ * they can not be replaced, but they can be accessed and modified: in this case they are marked as dirty once again.
+ */
+class PageWriter extends Thread {
+
+    static final int MAX_BATCH_SIZE = 1024;
+
+    private final PagePool pool;
+
+    private final Page[] batch = new Page[MAX_BATCH_SIZE];
+
+    private boolean go;
+
+    private boolean busy;
+
+    private boolean closed;
+
+    PageWriter(final PagePool pool) {
+        super("sodbox-page-writer");
+        this.pool = pool;
+        setDaemon(true);
+        start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (!go && !closed) {
+                        wait();
+                    }
+
+                    if (closed) {
+                        return;
+                    }
+
+                    go = false;
+                    busy = true;
+                }
+
+                try {
+                    writeBatch();
+                } finally {
+                    synchronized (this) {
+                        busy = false;
+                        notifyAll();
+                    }
+                }
+            }
+        } catch (final InterruptedException x) {
+        }
+    }
+
+    /**
+     * Wake up the writer. Called by the page pool when the number of dirty pages reaches the threshold.
+     */
+    synchronized void activate() {
+        go = true;
+        notify();
+    }
+
+    /**
+     * Stop the writer thread.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notify();
+        }
+
+        try {
+            join();
+        } catch (final InterruptedException x) {
+        }
+    }
+
+    /**
+     * Wait completion of the write in progress. Called by the page pool before flushing dirty pages, after the pool
+     * is switched to the flushing mode in which it doesn't give pages to the writer.
+     */
+    synchronized void drain() {
+        boolean interrupted = false;
+
+        while (busy) {
+            try {
+                wait();
+            } catch (final InterruptedException x) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBatch() {
+        final int n = pool.collectDirtyPages(batch, 0);
+
+        if (n == 0) {
+            return;
+        }
+
+        java.util.Arrays.sort(batch, 0, n);
+        boolean written = false;
+
+        try {
+            pool.writePinnedPages(batch, 0, n);
+            written = true;
+        } catch (final StorageError x) {
+            // pages will be marked as dirty once again and the error is reported by commit
+        } finally {
+            for (int i = 0; i < n; i++) {
+                pool.unpinPage(batch[i], !written);
+                batch[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+
+package info.freelibrary.sodbox.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Phases of the database garbage collector performed by a pool of threads. Instead of scanning grey bitmap until there
+ * are no more grey objects, mark phase keeps reached objects in the stacks of mark tasks. Objects referenced by the
+ * scanned object are pushed to the stack of the task which scanned it, and when other threads of the fork-join pool
+ * are idle, the task forks half of its stack, so the work is spread between threads by work stealing. Object is
+ * considered reached when its bit in the black bitmap is set; bitmap words are updated under striped locks. Sweep
+ * phase scans ranges of the object index pages in parallel to find unreachable objects, which are then deallocated by
+ * the thread performing garbage collection.
+ */
+class ParallelCollector {
+
+    static final int SPLIT_THRESHOLD = 64; // min number of objects in the stack to fork half of them
+
+    static final int LOCK_STRIPES = 64;
+
+    static final int SWEEP_TASK_PAGES = 16; // number of index pages scanned by one sweep task
+
+    static final int SWEEP_BATCH_PAGES = 1024; // number of index pages scanned before deallocation of found objects
+
+    final StorageImpl db;
+
+    final ForkJoinPool pool;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final ThreadLocal<MarkTask> currentTask = new ThreadLocal<>();
+
+    private final HashMap<Integer, ClassDescriptor> descriptors = new HashMap<>();
+
+    ParallelCollector(final StorageImpl db, final int nThreads) {
+        this.db = db;
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        pool = new ForkJoinPool(nThreads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+            @Override
+            public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("sodbox-gc-" + thread.getPoolIndex());
+                return thread;
+            }
+        }, null, false);
+    }
+
+    /**
+     * Stop threads of the pool.
+     */
+    void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Mark all objects reachable from the root object. Black bitmap of the storage should be allocated.
+     *
+     * @param rootOid OID of the root object
+     */
+    void mark(final int rootOid) {
+        descriptors.clear();
+
+        // storage is locked during GC, so no descriptors can be registered after the snapshot
+        for (ClassDescriptor desc = db.myDescriptorList; desc != null; desc = desc.next) {
+            descriptors.put(desc.getOid(), desc);
+        }
+
+        db.myMarker = this;
+
+        try {
+            pool.invoke(new MarkTask(rootOid));
+        } finally {
+            db.myMarker = null;
+        }
+    }
+
+    /**
+     * Find class descriptor of the marked object without accessing the object cache.
+     *
+     * @param oid OID of the class descriptor
+     * @return class descriptor or <code>null</code> if there is no descriptor with this OID in the descriptor list
+     */
+    ClassDescriptor findClassDescriptor(final int oid) {
+        return descriptors.get(oid);
+    }
+
+    /**
+     * Mark object reached by the mark task of the current thread, called by <code>StorageImpl.markOid</code>.
+     *
+     * @param pos position of the object
+     */
+    void reach(final long pos) {
+        final int bit = (int) (pos >>> StorageImpl.DB_ALLOCATION_QUANTUM_BITS);
+        final int[] bitmap = db.myBlackBitmap;
+
+        synchronized (locks[(bit >>> 5) & (LOCK_STRIPES - 1)]) {
+            if ((bitmap[bit >>> 5] & (1 << (bit & 31))) != 0) {
+                return;
+            }
+
+            bitmap[bit >>> 5] |= 1 << (bit & 31);
+        }
+
+        currentTask.get().push(pos);
+    }
+
+    /**
+     * Find objects not marked by the mark phase.
+     *
+     * @param from first OID of the scanned range
+     * @param till OID following the last OID of the range
+     * @return OIDs of unreachable objects in increasing order
+     */
+    int[] findGarbage(final int from, final int till) {
+        return pool.invoke(new SweepTask(from, till));
+    }
+
+    final class MarkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int rootOid;
+
+        private long[] stack;
+
+        private int sp;
+
+        MarkTask(final int rootOid) {
+            this.rootOid = rootOid;
+            stack = new long[SPLIT_THRESHOLD * 2];
+        }
+
+        MarkTask(final long[] stack) {
+            rootOid = 0;
+            this.stack = stack;
+            sp = stack.length;
+        }
+
+        void push(final long pos) {
+            if (sp == stack.length) {
+                stack = Arrays.copyOf(stack, sp * 2);
+            }
+
+            stack[sp++] = pos;
+        }
+
+        @Override
+        protected void compute() {
+            final MarkTask outer = currentTask.get(); // this thread may execute the task while joining another one
+            final ArrayList<MarkTask> forked = new ArrayList<>();
+
+            currentTask.set(this);
+
+            try {
+                if (rootOid != 0) {
+                    db.markOid(rootOid);
+                }
+
+                while (sp > 0) {
+                    db.scanObject(stack[--sp]);
+
+                    if (sp >= SPLIT_THRESHOLD && getSurplusQueuedTaskCount() == 0) {
+                        final int half = sp >>> 1;
+                        final MarkTask task = new MarkTask(Arrays.copyOfRange(stack, sp - half, sp));
+
+                        sp -= half;
+                        forked.add(task);
+                        task.fork();
+                    }
+                }
+            } finally {
+                currentTask.set(outer);
+            }
+
+            for (final MarkTask task : forked) {
+                task.join();
+            }
+        }
+    }
+
+    final class SweepTask extends RecursiveTask<int[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+
+        private final int till;
+
+        SweepTask(final int from, final int till) {
+            this.from = from;
+            this.till = till;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (till - from > SWEEP_TASK_PAGES * db.myHandlesPerPage) {
+                final int middle = (from + till) >>> 1 & ~(db.myHandlesPerPage - 1);
+                final SweepTask right = new SweepTask(middle, till);
+
+                right.fork();
+
+                final int[] leftGarbage = new SweepTask(from, middle).compute();
+                final int[] rightGarbage = right.join();
+                final int[] garbage = Arrays.copyOf(leftGarbage, leftGarbage.length + rightGarbage.length);
+
+                System.arraycopy(rightGarbage, 0, garbage, leftGarbage.length, rightGarbage.length);
+                return garbage;
+            }
+
+            int[] garbage = new int[16];
+            int n = 0;
+
+            for (int oid = from; oid < till; oid++) {
+                if (db.isGarbage(oid)) {
+                    if (n == garbage.length) {
+                        garbage = Arrays.copyOf(garbage, n * 2);
+                    }
+
+                    garbage[n++] = oid;
+                }
+            }
+
+            return Arrays.copyOf(garbage, n);
+        }
+    }
+}
@@ -101,11 +101,12 @@ public class Rc4File implements IFile {
             state[index2] = temp;
             index1 = (index1 + 1) % key.length;
         }
-        pattern = new byte[Page.pageSize];
+        // pattern covers pages of any size, its prefix doesn't depend on the page size
+        pattern = new byte[1 << Page.MAX_PAGE_SIZE_LOG];
         cipherBuf = new byte[Page.pageSize];
         int x = 0;
         int y = 0;
-        for (int i = 0; i < Page.pageSize; i++) {
+        for (int i = 0; i < pattern.length; i++) {
             x = x + 1 & 0xff;
             y = y + state[x] & 0xff;
             final byte temp = state[x];
@@ -120,6 +121,12 @@ public class Rc4File implements IFile {
         file.sync();
     }
 
+    @Override
+    public void truncate(final long size) {
+        file.truncate(size);
+        length = Math.min(length, size);
+    }
+
     @Override
     public boolean tryLock(final boolean shared) {
         return file.tryLock(shared);
@@ -142,7 +149,10 @@ public class Rc4File implements IFile {
             } while ((length += Page.pageSize) < pos);
         }
         if (pos == length) {
-            length += Page.pageSize;
+            length += buf.length;
+        }
+        if (cipherBuf.length != buf.length) {
+            cipherBuf = new byte[buf.length];
         }
         crypt(buf, cipherBuf);
         file.write(pos, cipherBuf);
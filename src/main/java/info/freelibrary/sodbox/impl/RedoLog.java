@@ -0,0 +1,288 @@
+package info.freelibrary.sodbox.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import info.freelibrary.sodbox.IFile;
+import info.freelibrary.sodbox.StorageError;
+
+/**
+ * Redo log of committed transactions. Instead of writing modified pages to their places in the database file and
+ * switching the database header, commit appends one record containing images of all pages modified by the transaction
+ * (including the header page) to the end of the log and syncs only the log. Pages are written to the database file
+ * later by checkpoint, after which the log is reset. If the database was not checkpointed, committed records of the
+ * log are applied to the database file when the storage is opened.
+ * <p>
+ * Space of the log file is preallocated and reused after checkpoint, so that syncing the log doesn't need to update
+ * file size. Records left in the log from the previous checkpoint are distinguished by transaction identifiers:
+ * identifiers of records written after checkpoint are consecutive.
+ * </p>
+ * <p>
+ * Record format: magic (4 bytes), record size (4 bytes), transaction identifier (8 bytes), number of pages (4 bytes),
+ * pages and CRC32 checksum of all preceding bytes of the record (8 bytes). Each page is stored as page address (8
+ * bytes), length of page image without trailing zeros (4 bytes) and the image itself.
+ * </p>
+ */
+class RedoLog {
+
+    static final int MAGIC = 0x5344424C;
+
+    static final int RECORD_HEADER_SIZE = 20;
+
+    static final int PAGE_HEADER_SIZE = 12;
+
+    static final int CHECKSUM_SIZE = 8;
+
+    static final int ALLOCATION_QUANTUM = 1024 * 1024;
+
+    final String path;
+
+    final int pageSize;
+
+    RandomAccessFile file;
+
+    FileChannel channel;
+
+    long size;
+
+    long allocated;
+
+    byte[] buf;
+
+    int used;
+
+    int nPages;
+
+    final CRC32 crc = new CRC32();
+
+    RedoLog(final String path, final int pageSize) {
+        this.path = path;
+        this.pageSize = pageSize;
+        buf = new byte[pageSize * 4];
+        try {
+            file = new RandomAccessFile(path, "rw");
+            channel = file.getChannel();
+            allocated = channel.size();
+            size = allocated;
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+    }
+
+    /**
+     * Start new commit record.
+     */
+    void begin() {
+        used = RECORD_HEADER_SIZE;
+        nPages = 0;
+    }
+
+    /**
+     * Append page image to the current record.
+     *
+     * @param addr page address
+     * @param data page image
+     */
+    void append(final long addr, final byte[] data) {
+        int len = data.length;
+
+        while (len > 0 && data[len - 1] == 0) {
+            len -= 1;
+        }
+
+        extend(used + PAGE_HEADER_SIZE + len);
+        Bytes.pack8(buf, used, addr);
+        Bytes.pack4(buf, used + 8, len);
+        System.arraycopy(data, 0, buf, used + PAGE_HEADER_SIZE, len);
+        used += PAGE_HEADER_SIZE + len;
+        nPages += 1;
+    }
+
+    /**
+     * Write the current record to the end of the log and sync the log.
+     *
+     * @param transactionId identifier of the committed transaction
+     * @param noFlush whether the log should not be synced
+     */
+    void commit(final long transactionId, final boolean noFlush) {
+        extend(used + CHECKSUM_SIZE);
+        Bytes.pack4(buf, 0, MAGIC);
+        Bytes.pack4(buf, 4, used + CHECKSUM_SIZE);
+        Bytes.pack8(buf, 8, transactionId);
+        Bytes.pack4(buf, 16, nPages);
+        crc.reset();
+        crc.update(buf, 0, used);
+        Bytes.pack8(buf, used, crc.getValue());
+        used += CHECKSUM_SIZE;
+
+        final ByteBuffer bb = ByteBuffer.wrap(buf, 0, used);
+        long pos = size;
+
+        try {
+            if (pos + used > allocated) {
+                allocate(pos + used);
+            }
+
+            while (bb.hasRemaining()) {
+                pos += channel.write(bb, pos);
+            }
+            if (!noFlush) {
+                channel.force(false);
+            }
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+
+        size = pos;
+    }
+
+    /**
+     * Apply committed records of the log to the database file. Incomplete or corrupted record at the end of the log
+     * (left by a crash during commit) and all records following it are ignored, as well as records left from the
+     * previous checkpoint.
+     *
+     * @param db database file
+     * @return number of applied records
+     */
+    int recover(final IFile db) {
+        final byte[] hdr = new byte[RECORD_HEADER_SIZE];
+        final byte[] page = new byte[pageSize];
+        int nRecords = 0;
+        long pos = 0;
+        long transactionId = 0;
+
+        while (read(pos, hdr, RECORD_HEADER_SIZE) && Bytes.unpack4(hdr, 0) == MAGIC) {
+            final int recordSize = Bytes.unpack4(hdr, 4);
+
+            if (recordSize < RECORD_HEADER_SIZE + CHECKSUM_SIZE || pos + recordSize > size || nRecords != 0 &&
+                    Bytes.unpack8(hdr, 8) != transactionId + 1) {
+                break;
+            }
+
+            extend(recordSize);
+
+            if (!read(pos, buf, recordSize)) {
+                break;
+            }
+
+            crc.reset();
+            crc.update(buf, 0, recordSize - CHECKSUM_SIZE);
+
+            if (Bytes.unpack8(buf, recordSize - CHECKSUM_SIZE) != crc.getValue()) {
+                break;
+            }
+
+            int offs = RECORD_HEADER_SIZE;
+
+            for (int i = Bytes.unpack4(buf, 16); --i >= 0;) {
+                final long addr = Bytes.unpack8(buf, offs);
+                final int len = Bytes.unpack4(buf, offs + 8);
+                offs += PAGE_HEADER_SIZE;
+                System.arraycopy(buf, offs, page, 0, len);
+
+                for (int j = len; j < pageSize; j++) {
+                    page[j] = 0;
+                }
+
+                db.write(addr, page);
+                offs += len;
+            }
+
+            transactionId = Bytes.unpack8(buf, 8);
+            pos += recordSize;
+            nRecords += 1;
+        }
+
+        if (nRecords != 0) {
+            db.sync();
+        }
+
+        truncate();
+        return nRecords;
+    }
+
+    /**
+     * Discard all records of the log. Should be called only when all pages of the logged transactions are written to
+     * the database file and the file is synced. The first record is invalidated, and space of the log is reused by
+     * the following records.
+     */
+    void truncate() {
+        try {
+            if (allocated != 0) {
+                final ByteBuffer bb = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+                while (bb.hasRemaining()) {
+                    channel.write(bb, bb.position());
+                }
+                channel.force(false);
+            }
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+
+        size = 0;
+    }
+
+    /**
+     * Close the log.
+     *
+     * @param delete whether the log file should be removed
+     */
+    void close(final boolean delete) {
+        try {
+            file.close();
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+
+        if (delete) {
+            new File(path).delete();
+        }
+    }
+
+    /**
+     * Extend the log file by writing zeros, so that its blocks are allocated before they are used by commit.
+     */
+    private void allocate(final long newSize) throws IOException {
+        final long end = Math.max(newSize, allocated + ALLOCATION_QUANTUM);
+        final ByteBuffer zeros = ByteBuffer.allocate(ALLOCATION_QUANTUM);
+
+        for (long pos = allocated; pos < end; pos += zeros.capacity()) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), end - pos));
+            while (zeros.hasRemaining()) {
+                channel.write(zeros, pos + zeros.position());
+            }
+        }
+
+        channel.force(true);
+        allocated = end;
+    }
+
+    private void extend(final int newSize) {
+        if (newSize > buf.length) {
+            final byte[] newBuf = new byte[Math.max(newSize, buf.length * 2)];
+            System.arraycopy(buf, 0, newBuf, 0, used);
+            buf = newBuf;
+        }
+    }
+
+    private boolean read(final long pos, final byte[] dst, final int len) {
+        final ByteBuffer bb = ByteBuffer.wrap(dst, 0, len);
+
+        try {
+            while (bb.hasRemaining()) {
+                if (channel.read(bb, pos + bb.position()) < 0) {
+                    return false;
+                }
+            }
+        } catch (final IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+
+        return true;
+    }
+}
@@ -509,6 +509,11 @@ public class ReplicationMasterFile implements IFile, Runnable {
         }
     }
 
+    @Override
+    public void truncate(final long size) {
+        file.truncate(size);
+    }
+
     @Override
     public boolean tryLock(final boolean shared) {
         return file.tryLock(shared);
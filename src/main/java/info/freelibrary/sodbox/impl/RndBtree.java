@@ -12,6 +12,7 @@ import java.util.NoSuchElementException;
 import info.freelibrary.sodbox.Assert;
 import info.freelibrary.sodbox.IValue;
 import info.freelibrary.sodbox.Index;
+import info.freelibrary.sodbox.IndexCursor;
 import info.freelibrary.sodbox.IterableIterator;
 import info.freelibrary.sodbox.Key;
 import info.freelibrary.sodbox.Link;
@@ -23,6 +24,226 @@ import info.freelibrary.sodbox.StorageError;
 
 class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
+    /**
+     * Cursor of the B-Tree. It keeps the stacks of pages and positions in them leading to the current leaf page, so
+     * moving the cursor within the leaf page doesn't access other pages.
+     */
+    class BtreeCursor implements IndexCursor<T> {
+
+        final Key from;
+
+        final Key till;
+
+        BtreePage[] pageStack;
+
+        int[] posStack;
+
+        BtreePage leaf;
+
+        int pos;
+
+        int counter;
+
+        BtreeCursor(final Key from, final Key till) {
+            this.from = from;
+            this.till = till;
+        }
+
+        @Override
+        public void close() {
+            leaf = null;
+        }
+
+        @Override
+        public boolean first() {
+            return locate(from, true) && checkTill();
+        }
+
+        @Override
+        public Object getKey() {
+            check();
+            return leaf.getKeyValue(pos);
+        }
+
+        @Override
+        public int getOid() {
+            check();
+            return getStorage().getOid(leaf.items.getRaw(pos));
+        }
+
+        @Override
+        public T getValue() {
+            check();
+            return (T) leaf.items.get(pos);
+        }
+
+        @Override
+        public boolean isPositioned() {
+            return leaf != null;
+        }
+
+        @Override
+        public boolean last() {
+            return locate(till, false) && checkFrom();
+        }
+
+        @Override
+        public boolean next() {
+            if (leaf == null) {
+                return first();
+            }
+
+            check();
+
+            if (++pos == leaf.nItems && !gotoLeaf(true)) {
+                return false;
+            }
+
+            return checkTill();
+        }
+
+        @Override
+        public boolean prev() {
+            if (leaf == null) {
+                return last();
+            }
+
+            check();
+
+            if (--pos < 0 && !gotoLeaf(false)) {
+                return false;
+            }
+
+            return checkFrom();
+        }
+
+        @Override
+        public boolean seek(final Key key) {
+            if (!locate(checkCursorKey(key), true)) {
+                return false;
+            }
+
+            if (from != null && leaf.compare(from, pos) >= from.inclusion) {
+                return first();
+            }
+
+            return checkTill();
+        }
+
+        private void check() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+
+            if (counter != updateCounter) {
+                leaf = null;
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        private boolean checkFrom() {
+            if (from != null && leaf.compare(from, pos) >= from.inclusion) {
+                leaf = null;
+                return false;
+            }
+
+            return true;
+        }
+
+        private boolean checkTill() {
+            if (till != null && -leaf.compare(till, pos) >= till.inclusion) {
+                leaf = null;
+                return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Move to the first item of the next leaf page or to the last item of the previous one.
+         */
+        private boolean gotoLeaf(final boolean forward) {
+            int sp = height - 1;
+
+            leaf = null;
+
+            while (--sp >= 0) {
+                BtreePage pg = pageStack[sp];
+                final int i = posStack[sp] + (forward ? 1 : -1);
+
+                if (i >= 0 && i <= pg.nItems) {
+                    posStack[sp] = i;
+                    pg = (BtreePage) pg.items.get(i);
+
+                    while (++sp < height - 1) {
+                        pageStack[sp] = pg;
+                        posStack[sp] = forward ? 0 : pg.nItems;
+                        pg = (BtreePage) pg.items.get(posStack[sp]);
+                    }
+
+                    leaf = pg;
+                    pos = forward ? 0 : pg.nItems - 1;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Descend to the leaf page containing the first item with key greater than or equal to the specified key
+         * (when <code>forward</code> is <code>true</code>) or the last item with key less than or equal to it.
+         */
+        private boolean locate(final Key key, final boolean forward) {
+            leaf = null;
+
+            if (height == 0) {
+                return false;
+            }
+
+            if (pageStack == null || pageStack.length != height - 1) {
+                pageStack = new BtreePage[height - 1];
+                posStack = new int[height - 1];
+            }
+
+            counter = updateCounter;
+
+            BtreePage pg = root;
+
+            for (int sp = 0;; sp++) {
+                final int n = pg.nItems;
+                int l = 0;
+                int r = n;
+
+                if (key == null) {
+                    l = forward ? 0 : n;
+                } else {
+                    final int inclusion = forward ? key.inclusion : 1 - key.inclusion;
+
+                    while (l < r) {
+                        final int i = l + r >> 1;
+
+                        if (pg.compare(key, i) >= inclusion) {
+                            l = i + 1;
+                        } else {
+                            r = i;
+                        }
+                    }
+                }
+
+                if (sp == height - 1) {
+                    leaf = pg;
+                    pos = forward ? l : l - 1;
+                    return pos >= 0 && pos < n || gotoLeaf(forward);
+                }
+
+                pageStack[sp] = pg;
+                posStack[sp] = l;
+                pg = (BtreePage) pg.items.get(l);
+            }
+        }
+    }
+
     static class BtreeEntry<T> implements Map.Entry<Object, T> {
 
         private final BtreePage pg;
@@ -125,7 +346,17 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static abstract class BtreePage extends Persistent {
 
-        static final int BTREE_PAGE_SIZE = Page.pageSize - ObjectHeader.sizeof - 4 * 4;
+        /**
+         * Gets maximal number of items in the page. Pages are sized by the page size of the storage in which they
+         * are created, so a page of an existing index keeps its capacity (the size of its <code>items</code> link).
+         *
+         * @param s storage in which the page is created
+         * @param itemSize size of the item (key and reference)
+         * @return maximal number of items in the page
+         */
+        static int getMaxItems(final Storage s, final int itemSize) {
+            return (((StorageImpl) s).myPageSize - ObjectHeader.sizeof - 4 * 4) / itemSize;
+        }
 
         static void memcpy(final BtreePage dst_pg, final int dst_idx, final BtreePage src_pg, final int src_idx,
                 final int len) {
@@ -167,6 +398,36 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
         abstract int compare(Key key, int i);
 
+        /**
+         * Count items preceding the key: items <code>i</code> for which <code>compare(key, i) &gt;= inclusion</code>.
+         */
+        int countBefore(final Key key, final int inclusion, int height) {
+            int l = 0;
+            int r = nItems;
+
+            while (l < r) {
+                final int i = l + r >> 1;
+
+                if (compare(key, i) >= inclusion) {
+                    l = i + 1;
+                } else {
+                    r = i;
+                }
+            }
+
+            if (--height == 0) {
+                return r;
+            }
+
+            int count = ((BtreePage) items.get(r)).countBefore(key, inclusion, height);
+
+            while (--r >= 0) {
+                count += nChildren[r];
+            }
+
+            return count;
+        }
+
         private void countChildren(final int i, final int height) {
             nChildren[i] = ((BtreePage) items.get(i)).totalCount(height);
         }
@@ -555,16 +816,14 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfByte extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4 + 1);
-
         byte[] data;
 
         BtreePageOfByte() {
         }
 
         BtreePageOfByte(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new byte[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 4 + 1));
+            data = new byte[items.size()];
         }
 
         @Override
@@ -601,16 +860,14 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfChar extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4 + 2);
-
         char[] data;
 
         BtreePageOfChar() {
         }
 
         BtreePageOfChar(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new char[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 4 + 2));
+            data = new char[items.size()];
         }
 
         @Override
@@ -647,16 +904,14 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfDouble extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4 + 8);
-
         double[] data;
 
         BtreePageOfDouble() {
         }
 
         BtreePageOfDouble(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new double[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 4 + 8));
+            data = new double[items.size()];
         }
 
         @Override
@@ -693,16 +948,14 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfFloat extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4 + 4);
-
         float[] data;
 
         BtreePageOfFloat() {
         }
 
         BtreePageOfFloat(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new float[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 4 + 4));
+            data = new float[items.size()];
         }
 
         @Override
@@ -739,16 +992,14 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfInt extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4 + 4);
-
         int[] data;
 
         BtreePageOfInt() {
         }
 
         BtreePageOfInt(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new int[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 4 + 4));
+            data = new int[items.size()];
         }
 
         @Override
@@ -785,16 +1036,14 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfLong extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4 + 8);
-
         long[] data;
 
         BtreePageOfLong() {
         }
 
         BtreePageOfLong(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new long[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 4 + 8));
+            data = new long[items.size()];
         }
 
         @Override
@@ -831,17 +1080,15 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfObject extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4 + 4);
-
         Link data;
 
         BtreePageOfObject() {
         }
 
         BtreePageOfObject(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = s.createLink(MAX_ITEMS);
-            data.setSize(MAX_ITEMS);
+            super(s, getMaxItems(s, 4 + 4 + 4));
+            data = s.createLink(items.size());
+            data.setSize(items.size());
         }
 
         @Override
@@ -880,16 +1127,14 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
 
     static class BtreePageOfShort extends BtreePage {
 
-        static final int MAX_ITEMS = BTREE_PAGE_SIZE / (4 + 4 + 2);
-
         short[] data;
 
         BtreePageOfShort() {
         }
 
         BtreePageOfShort(final Storage s) {
-            super(s, MAX_ITEMS);
-            data = new short[MAX_ITEMS];
+            super(s, getMaxItems(s, 4 + 4 + 2));
+            data = new short[items.size()];
         }
 
         @Override
@@ -1533,6 +1778,30 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
         root = newRoot;
     }
 
+    @Override
+    public void bulkLoad(final Iterator<? extends Map.Entry<?, ? extends T>> entries, final float fillFactor) {
+        if (nElems != 0) {
+            throw new StorageError(StorageError.INVALID_OPERATION, "bulk load of not empty index");
+        }
+
+        // pages of this tree keep number of the entries in the subtrees, so entries are inserted one by one
+        while (entries.hasNext()) {
+            final Map.Entry<?, ? extends T> entry = entries.next();
+            final Object key = entry.getKey();
+
+            if (!(key instanceof Key ? put((Key) key, entry.getValue()) : put(key, entry.getValue()))) {
+                throw new StorageError(StorageError.KEY_NOT_UNIQUE);
+            }
+        }
+    }
+
+    /**
+     * Convert key passed to the cursor of the index to the form stored in the B-Tree.
+     */
+    Key checkCursorKey(final Key key) {
+        return checkKey(key);
+    }
+
     Key checkKey(Key key) {
         if (key != null) {
             if (key.type != type) {
@@ -1561,6 +1830,31 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
         }
     }
 
+    @Override
+    public int countRange(Key from, Key till) {
+        if (root == null) {
+            return 0;
+        }
+
+        from = checkCursorKey(from);
+        till = checkCursorKey(till);
+
+        final int first = from == null ? 0 : root.countBefore(from, from.inclusion, height);
+        final int last = till == null ? nElems : root.countBefore(till, 1 - till.inclusion, height);
+
+        return last > first ? last - first : 0;
+    }
+
+    @Override
+    public IndexCursor<T> cursor() {
+        return new BtreeCursor(null, null);
+    }
+
+    @Override
+    public IndexCursor<T> cursor(final Key from, final Key till) {
+        return new BtreeCursor(checkCursorKey(from), checkCursorKey(till));
+    }
+
     @Override
     public void deallocate() {
         if (root != null) {
@@ -1642,6 +1936,11 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
         return new Class[] { getKeyType() };
     }
 
+    @Override
+    public Object[] getKeys(final Key from, final Key till) {
+        return Btree.collectKeys(cursor(from, till));
+    }
+
     @Override
     public ArrayList<T> getList(final Key from, final Key till) {
         final ArrayList<T> list = new ArrayList<T>();
@@ -1656,6 +1955,11 @@ class RndBtree<T> extends PersistentCollection<T> implements Index<T> {
         return getList(Btree.getKeyFromObject(type, from), Btree.getKeyFromObject(type, till));
     }
 
+    @Override
+    public int[] getOids(final Key from, final Key till) {
+        return Btree.collectOids(cursor(from, till));
+    }
+
     @Override
     public Object[] getPrefix(final String prefix) {
         return get(new Key(prefix, true), new Key(prefix + Character.MAX_VALUE, false));
@@ -77,6 +77,11 @@ class RndBtreeCompoundIndex<T> extends RndBtree<T> implements Index<T> {
         }
     }
 
+    @Override
+    Key checkCursorKey(final Key key) {
+        return checkKey(convertKey(key));
+    }
+
     private Key convertKey(final Key key) {
         return convertKey(key, true);
     }
@@ -106,6 +106,20 @@ class RndBtreeFieldIndex<T> extends RndBtree<T> implements FieldIndex<T> {
         super.insert(key, obj, false);
     }
 
+    @Override
+    public void bulkLoadMembers(final Iterator<? extends T> members, final float fillFactor) {
+        if (nElems != 0) {
+            throw new StorageError(StorageError.INVALID_OPERATION, "bulk load of not empty index");
+        }
+        while (members.hasNext()) {
+            final T obj = members.next();
+            final Key key = extractKey(obj);
+            if (key != null && super.insert(key, obj, false) != null) {
+                throw new StorageError(StorageError.KEY_NOT_UNIQUE);
+            }
+        }
+    }
+
     @Override
     public boolean contains(final Object obj) {
         final Key key = extractKey(obj);
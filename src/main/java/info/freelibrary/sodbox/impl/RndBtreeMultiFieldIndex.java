@@ -123,6 +123,23 @@ class RndBtreeMultiFieldIndex<T> extends RndBtree<T> implements FieldIndex<T> {
         throw new StorageError(StorageError.UNSUPPORTED_INDEX_TYPE);
     }
 
+    @Override
+    public void bulkLoadMembers(final Iterator<? extends T> members, final float fillFactor) {
+        if (nElems != 0) {
+            throw new StorageError(StorageError.INVALID_OPERATION, "bulk load of not empty index");
+        }
+        while (members.hasNext()) {
+            if (!put(members.next())) {
+                throw new StorageError(StorageError.KEY_NOT_UNIQUE);
+            }
+        }
+    }
+
+    @Override
+    Key checkCursorKey(final Key key) {
+        return checkKey(convertKey(key));
+    }
+
     @Override
     public boolean contains(final Object obj) {
         final Key key = extractKey(obj);
@@ -17,10 +17,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,12 +89,6 @@ public class StorageImpl implements Storage {
 
     static final int DB_DATABASE_OID_BITS = 31; // up to 2 billion objects
 
-    static final int DB_BITMAP_SEGMENT_BITS = Page.pageSizeLog + 3 + DB_ALLOCATION_QUANTUM_BITS;
-
-    static final int DB_BITMAP_PAGES = 1 << (DB_DATABASE_OFFSET_BITS - DB_BITMAP_SEGMENT_BITS);
-
-    static final int DB_BITMAP_SEGMENT_SIZE = 1 << DB_BITMAP_SEGMENT_BITS;
-
     /**
      * Database extension quantum. Memory is allocate by scanning bitmap. If there is no large enough hole, then
      * database is extended by the value of <code>dbDefaultExtensionQuantum</code>. This parameter should not be smaller
@@ -113,11 +109,15 @@ public class StorageImpl implements Storage {
 
     static final long DB_DEFAULT_PAGE_POOL_LRU_LIMIT = 1L << 60;
 
-    static final int DB_HANDLES_PER_PAGE_BITS = Page.pageSizeLog - 3;
-
-    static final int DB_DIRTY_PAGE_BITMAP_SIZE = 1 << (DB_DATABASE_OID_BITS - DB_HANDLES_PER_PAGE_BITS - 3);
+    /**
+     * Default size of redo log after which database is checkpointed.
+     */
+    static final long DB_DEFAULT_REDO_LOG_CHECKPOINT = 64L * 1024 * 1024;
 
-    static final int DB_FIRST_USER_ID = DB_BITMAP_ID + DB_BITMAP_PAGES;
+    /**
+     * Default size of the chunk of memory mapped file.
+     */
+    static final long DB_DEFAULT_MAPPED_CHUNK_SIZE = 64L * 1024 * 1024;
 
     static final int DB_FLAGS_BITS = 3;
 
@@ -125,13 +125,19 @@ public class StorageImpl implements Storage {
 
     static final int DB_FREE_HANDLE_FLAG = 4;
 
-    static final int DB_HANDLES_PER_PAGE = 1 << DB_HANDLES_PER_PAGE_BITS;
-
     static final int DB_INVALID_ID = 0;
 
-    static final int DB_LARGE_DATABASE_OFFSET_BITS = 40; // up to 1 TB
+    static final int DB_LOAD_CONTEXT_REUSE_LIMIT = 64; // max number of objects to reuse load context hash table
+
+    static final int DB_PACK_BUFFER_REUSE_LIMIT = 64 * 1024; // max size of the pooled pack buffer
+
+    static final int DB_BATCH_EXTENT_LIMIT = 256 * 1024; // size of the extent after which batch store writes it
 
-    static final int DB_LARGE_BITMAP_PAGES = 1 << (DB_LARGE_DATABASE_OFFSET_BITS - DB_BITMAP_SEGMENT_BITS);
+    static final int DB_CLUSTERING_WINDOW = 64 * 1024; // size of the space after the anchor page searched by storeNear
+
+    static final int DB_MAX_PINNED_LOAD_PAGES = 8; // max number of pages pinned by the thread unpacking objects
+
+    static final int DB_LARGE_DATABASE_OFFSET_BITS = 40; // up to 1 TB
 
     static final int DB_MAX_OBJECT_OID = (1 << DB_DATABASE_OID_BITS) - 1;
 
@@ -139,36 +145,72 @@ public class StorageImpl implements Storage {
 
     static final int DB_PAGE_OBJECT_FLAG = 1;
 
-    static final int INC = Page.pageSize / DB_ALLOCATION_QUANTUM / 8;
-
-    static final int PAGE_BITS = Page.pageSize * 8;
-
     private static Logger LOGGER = LoggerFactory.getLogger(StorageImpl.class);
 
     protected boolean myAlternativeBtree = false;
 
     protected boolean myBackgroundGc = false;
 
+    protected boolean myCompactStringKeys = false;
+
+    protected int myGcThreads = 1;
+
+    protected boolean myIncrementalGc = false;
+
+    protected long myGcPauseBudget = 2;
+
+    protected long myCompactionStep = 1024 * 1024;
+
+    protected long myCompactionPause = 10;
+
     protected String myCacheKind = "default";
 
     protected int myCompatibilityMode = 0;
 
     protected long myExtensionQuantum = DB_DEFAULT_EXTENSION_QUANTUM;
 
+    protected boolean myExtentAllocator = false;
+
     protected boolean myForceStore = false;
 
     protected int myInitIndexSize = DB_DEFAULT_INIT_INDEX_SIZE;
 
+    protected int myInitPageSize = Page.pageSize;
+
     protected boolean myLockFile = false;
 
+    protected boolean myMethodHandles = true;
+
     protected boolean myMulticlientSupport = false;
 
     protected boolean myNoFlush = false;
 
+    protected String myFileKind = "os";
+
+    protected long myMappedChunkSize = DB_DEFAULT_MAPPED_CHUNK_SIZE;
+
+    protected boolean myMappedPreload;
+
     protected int myObjectCacheInitSize = DB_DEFAULT_OBJECT_CACHE_INIT_SIZE;
 
     protected long myPagePoolLruLimit = DB_DEFAULT_PAGE_POOL_LRU_LIMIT;
 
+    protected int myPagePoolSegments = 0;
+
+    protected String myPagePoolPolicy = "lru";
+
+    protected int myPagePoolWriteBehind = 0;
+
+    protected long myPagePoolOffHeapSize = 0;
+
+    protected int myGroupCommitWindow = 0;
+
+    protected int myGroupCommitBatchSize = 0;
+
+    protected String myRedoLogFile = null;
+
+    protected long myRedoLogCheckpoint = DB_DEFAULT_REDO_LOG_CHECKPOINT;
+
     protected boolean myReadOnly = false;
 
     protected boolean myReloadObjectsOnRollback = false;
@@ -187,13 +229,21 @@ public class StorageImpl implements Storage {
 
     int[] myBitmapPageAvailableSpace;
 
+    FreeExtentMap myFreeExtents; // free space used by the extent allocator
+
     // bitmap of objects marked during GC
     int[] myBlackBitmap;
 
-    HashMap<Class<?>, ClassDescriptor> myClassDescMap;
+    ConcurrentHashMap<Class<?>, ClassDescriptor> myClassDescMap;
 
     CloneNode myCloneList;
 
+    CommitGroup myCommitGroup; // transactions waiting for the group commit
+
+    Object myClusteredObject; // object stored by storeNear
+
+    long myClusteringHint; // position of the anchor of the clustered object
+
     int myCommittedIndexSize;
 
     boolean myConcurrentIterator = false;
@@ -230,8 +280,18 @@ public class StorageImpl implements Storage {
 
     GcThread myGcThread;
 
+    RedoLog myRedoLog;
+
+    CheckpointThread myCheckpointThread;
+
     long myGcThreshold;
 
+    ParallelCollector myGcCollector;
+
+    ParallelCollector myMarker; // collector performing parallel mark
+
+    volatile IncrementalCollector myIncrementalCollector; // collector performing incremental GC
+
     // Bitmap of visited during GC but not yet marked object
     int[] myGreyBitmap;
 
@@ -242,6 +302,22 @@ public class StorageImpl implements Storage {
 
     StorageListener myListener;
 
+    final ThreadLocal<LoadContext> myLoadContext = new ThreadLocal<LoadContext>() {
+
+        @Override
+        protected LoadContext initialValue() {
+            return new LoadContext();
+        }
+    };
+
+    final ConcurrentHashMap<Integer, LoadContext> myLoadingObjects = new ConcurrentHashMap<>();
+
+    final ThreadLocal<ByteBuffer> myPackBuffers = new ThreadLocal<>();
+
+    final AtomicInteger myPinnedLoadPages = new AtomicInteger(); // pages pinned by all threads unpacking objects
+
+    int myLoadPinLimit;
+
     ClassLoader myClassLoader;
 
     HashMap myClassLoaderMap;
@@ -252,6 +328,8 @@ public class StorageImpl implements Storage {
 
     int myCommittedTransactionsCount;
 
+    int myPendingTransactionsCount;
+
     int myNestedTransactionsCount;
 
     OidHashTable myObjectCache;
@@ -260,6 +338,28 @@ public class StorageImpl implements Storage {
 
     PagePool myPagePool;
 
+    int myPageSize; // size of the page of the opened database
+
+    int myPageSizeLog;
+
+    int myPageBits; // number of bits in the bitmap page
+
+    int myPageBitmapBytes; // number of bitmap bytes describing one page
+
+    int myBitmapSegmentBits; // binary logarithm of the space described by one bitmap page
+
+    int myBitmapPages; // number of bitmap pages describing the first 4 GB
+
+    int myLargeBitmapPages; // number of bitmap pages describing the large database
+
+    int myHandlesPerPageBits;
+
+    int myHandlesPerPage;
+
+    int myFirstUserId;
+
+    int myDirtyPageBitmapSize;
+
     Properties myProperties = new Properties();
 
     HashMap myRecursiveLoadingPolicy;
@@ -341,9 +441,9 @@ public class StorageImpl implements Storage {
         final int nObjects = myHeader.myRootPage[curr].myIndexUsed;
         final long indexOffs = myHeader.myRootPage[curr].myIndex;
         int i, j, k;
-        final int nUsedIndexPages = ((nObjects + DB_HANDLES_PER_PAGE) - 1) / DB_HANDLES_PER_PAGE;
-        final int nIndexPages = ((myHeader.myRootPage[curr].myIndexSize + DB_HANDLES_PER_PAGE) - 1) /
-                DB_HANDLES_PER_PAGE;
+        final int nUsedIndexPages = ((nObjects + myHandlesPerPage) - 1) / myHandlesPerPage;
+        final int nIndexPages = ((myHeader.myRootPage[curr].myIndexSize + myHandlesPerPage) - 1) /
+                myHandlesPerPage;
         long totalRecordsSize = 0;
         long nPagedObjects = 0;
         int bitmapExtent = myHeader.myRootPage[curr].myBitmapExtent;
@@ -355,9 +455,9 @@ public class StorageImpl implements Storage {
         }
 
         for (i = 0, j = 0; i < nUsedIndexPages; i++) {
-            final Page pg = myPagePool.getPage(indexOffs + ((long) i * Page.pageSize));
+            final Page pg = myPagePool.getPage(indexOffs + ((long) i * myPageSize));
 
-            for (k = 0; (k < DB_HANDLES_PER_PAGE) && (j < nObjects); k++, j++) {
+            for (k = 0; (k < myHandlesPerPage) && (j < nObjects); k++, j++) {
                 final long pos = Bytes.unpack8(pg.data, k * 8);
                 index[j] = pos;
                 oids[j] = j;
@@ -366,7 +466,7 @@ public class StorageImpl implements Storage {
                     if ((pos & DB_PAGE_OBJECT_FLAG) != 0) {
                         nPagedObjects += 1;
                     } else if (pos != 0) {
-                        final int offs = (int) pos & (Page.pageSize - 1);
+                        final int offs = (int) pos & (myPageSize - 1);
                         final Page op = myPagePool.getPage(pos - offs);
                         int size = ObjectHeader.getSize(op.data, offs & ~DB_FLAGS_MASK);
 
@@ -385,18 +485,18 @@ public class StorageImpl implements Storage {
         newHeader.myDbIsDirty = false;
         newHeader.myDatabaseFormatVersion = myHeader.myDatabaseFormatVersion;
 
-        long newFileSize = ((nPagedObjects + (nIndexPages * 2) + 1) * Page.pageSize) + totalRecordsSize;
-        newFileSize = ((newFileSize + Page.pageSize) - 1) & ~(Page.pageSize - 1);
+        long newFileSize = ((nPagedObjects + (nIndexPages * 2) + 1) * myPageSize) + totalRecordsSize;
+        newFileSize = ((newFileSize + myPageSize) - 1) & ~(myPageSize - 1);
         newHeader.myRootPage = new RootPage[2];
         newHeader.myRootPage[0] = new RootPage();
         newHeader.myRootPage[1] = new RootPage();
         newHeader.myRootPage[0].mySize = newHeader.myRootPage[1].mySize = newFileSize;
-        newHeader.myRootPage[0].myIndex = newHeader.myRootPage[1].myShadowIndex = Page.pageSize;
-        newHeader.myRootPage[0].myShadowIndex = newHeader.myRootPage[1].myIndex = Page.pageSize + ((long) nIndexPages *
-                Page.pageSize);
+        newHeader.myRootPage[0].myIndex = newHeader.myRootPage[1].myShadowIndex = myPageSize;
+        newHeader.myRootPage[0].myShadowIndex = newHeader.myRootPage[1].myIndex = myPageSize + ((long) nIndexPages *
+                myPageSize);
         newHeader.myRootPage[0].myShadowIndexSize = newHeader.myRootPage[0].myIndexSize =
                 newHeader.myRootPage[1].myShadowIndexSize = newHeader.myRootPage[1].myIndexSize = nIndexPages *
-                        DB_HANDLES_PER_PAGE;
+                        myHandlesPerPage;
         newHeader.myRootPage[0].myIndexUsed = newHeader.myRootPage[1].myIndexUsed = nObjects;
         newHeader.myRootPage[0].myFreeList = newHeader.myRootPage[1].myFreeList = myHeader.myRootPage[curr].myFreeList;
         newHeader.myRootPage[0].myBitmapEnd = newHeader.myRootPage[1].myBitmapEnd =
@@ -409,12 +509,12 @@ public class StorageImpl implements Storage {
         newHeader.myRootPage[0].myBitmapExtent = newHeader.myRootPage[1].myBitmapExtent =
                 myHeader.myRootPage[curr].myBitmapExtent;
 
-        final byte[] page = new byte[Page.pageSize];
+        final byte[] page = new byte[myPageSize];
         newHeader.pack(page);
         out.write(page);
 
-        long pageOffs = (long) ((nIndexPages * 2) + 1) * Page.pageSize;
-        long recOffs = (nPagedObjects + (nIndexPages * 2) + 1) * Page.pageSize;
+        long pageOffs = (long) ((nIndexPages * 2) + 1) * myPageSize;
+        long recOffs = (nPagedObjects + (nIndexPages * 2) + 1) * myPageSize;
 
         GenericSort.sort(new GenericSortArray() {
 
@@ -439,7 +539,7 @@ public class StorageImpl implements Storage {
             }
         });
 
-        final byte[] newIndex = new byte[nIndexPages * DB_HANDLES_PER_PAGE * 8];
+        final byte[] newIndex = new byte[nIndexPages * myHandlesPerPage * 8];
 
         for (i = 0; i < nObjects; i++) {
             final long pos = index[i];
@@ -448,10 +548,10 @@ public class StorageImpl implements Storage {
             if ((pos & DB_FREE_HANDLE_FLAG) == 0) {
                 if ((pos & DB_PAGE_OBJECT_FLAG) != 0) {
                     Bytes.pack8(newIndex, oid * 8, pageOffs | DB_PAGE_OBJECT_FLAG);
-                    pageOffs += Page.pageSize;
+                    pageOffs += myPageSize;
                 } else if (pos != 0) {
                     Bytes.pack8(newIndex, oid * 8, recOffs);
-                    final int offs = (int) pos & (Page.pageSize - 1);
+                    final int offs = (int) pos & (myPageSize - 1);
                     final Page op = myPagePool.getPage(pos - offs);
                     int size = ObjectHeader.getSize(op.data, offs & ~DB_FLAGS_MASK);
 
@@ -471,21 +571,21 @@ public class StorageImpl implements Storage {
             final long pos = index[i];
 
             if (((int) pos & (DB_FREE_HANDLE_FLAG | DB_PAGE_OBJECT_FLAG)) == DB_PAGE_OBJECT_FLAG) {
-                if ((oids[i] < (DB_BITMAP_ID + DB_BITMAP_PAGES)) || ((oids[i] >= bitmapExtent) &&
-                        (oids[i] < ((bitmapExtent + DB_LARGE_BITMAP_PAGES) - DB_BITMAP_PAGES)))) {
-                    final int pageId = oids[i] < (DB_BITMAP_ID + DB_BITMAP_PAGES) ? oids[i] - DB_BITMAP_ID : (oids[i] -
+                if ((oids[i] < (DB_BITMAP_ID + myBitmapPages)) || ((oids[i] >= bitmapExtent) &&
+                        (oids[i] < ((bitmapExtent + myLargeBitmapPages) - myBitmapPages)))) {
+                    final int pageId = oids[i] < (DB_BITMAP_ID + myBitmapPages) ? oids[i] - DB_BITMAP_ID : (oids[i] -
                             bitmapExtent) + myBitmapExtentBase;
-                    final long mappedSpace = (long) pageId * Page.pageSize * 8 * DB_ALLOCATION_QUANTUM;
+                    final long mappedSpace = (long) pageId * myPageSize * 8 * DB_ALLOCATION_QUANTUM;
 
                     if (mappedSpace >= newFileSize) {
                         Arrays.fill(page, (byte) 0);
-                    } else if ((mappedSpace + (Page.pageSize * 8 * DB_ALLOCATION_QUANTUM)) <= newFileSize) {
+                    } else if ((mappedSpace + (myPageSize * 8 * DB_ALLOCATION_QUANTUM)) <= newFileSize) {
                         Arrays.fill(page, (byte) -1);
                     } else {
                         final int nBits = (int) ((newFileSize - mappedSpace) >> DB_ALLOCATION_QUANTUM_BITS);
                         Arrays.fill(page, 0, nBits >> 3, (byte) -1);
                         page[nBits >> 3] = (byte) ((1 << (nBits & 7)) - 1);
-                        Arrays.fill(page, (nBits >> 3) + 1, Page.pageSize, (byte) 0);
+                        Arrays.fill(page, (nBits >> 3) + 1, myPageSize, (byte) 0);
                     }
 
                     out.write(page);
@@ -502,20 +602,20 @@ public class StorageImpl implements Storage {
 
             if ((pos != 0) && (((int) pos & (DB_FREE_HANDLE_FLAG | DB_PAGE_OBJECT_FLAG)) == 0)) {
                 pos &= ~DB_FLAGS_MASK;
-                int offs = (int) pos & (Page.pageSize - 1);
+                int offs = (int) pos & (myPageSize - 1);
                 Page pg = myPagePool.getPage(pos - offs);
                 int size = ObjectHeader.getSize(pg.data, offs);
                 size = ((size + DB_ALLOCATION_QUANTUM) - 1) & ~(DB_ALLOCATION_QUANTUM - 1);
 
                 while (true) {
-                    if ((Page.pageSize - offs) >= size) {
+                    if ((myPageSize - offs) >= size) {
                         out.write(pg.data, offs, size);
                         break;
                     }
 
-                    out.write(pg.data, offs, Page.pageSize - offs);
-                    size -= Page.pageSize - offs;
-                    pos += Page.pageSize - offs;
+                    out.write(pg.data, offs, myPageSize - offs);
+                    size -= myPageSize - offs;
+                    pos += myPageSize - offs;
                     offs = 0;
                     myPagePool.unfix(pg);
                     pg = myPagePool.getPage(pos);
@@ -526,7 +626,7 @@ public class StorageImpl implements Storage {
         }
 
         if (recOffs != newFileSize) {
-            Assert.that((newFileSize - recOffs) < Page.pageSize);
+            Assert.that((newFileSize - recOffs) < myPageSize);
             final int align = (int) (newFileSize - recOffs);
             Arrays.fill(page, 0, align, (byte) 0);
             out.write(page, 0, align);
@@ -592,6 +692,10 @@ public class StorageImpl implements Storage {
                                     }
                                 }
 
+                                if (myFreeExtents != null) {
+                                    myFreeExtents.clear();
+                                }
+
                                 myObjectCache.clear();
                                 myPagePool.clear();
                                 myTransactionId = myHeader.myTransactionId;
@@ -636,6 +740,12 @@ public class StorageImpl implements Storage {
     @Override
     public void close() {
         synchronized (myBackgroundGcMonitor) {
+            final IncrementalCollector collector = myIncrementalCollector;
+
+            if (collector != null) {
+                collector.abort(); // page images retained by the collector are deallocated by the last commit
+            }
+
             commit();
             myOpened = false;
         }
@@ -649,6 +759,20 @@ public class StorageImpl implements Storage {
             }
         }
 
+        if (myGcCollector != null) {
+            myGcCollector.close();
+            myGcCollector = null;
+        }
+
+        if (myCheckpointThread != null) {
+            myCheckpointThread.activate();
+
+            try {
+                myCheckpointThread.join();
+            } catch (final InterruptedException x) {
+            }
+        }
+
         if (isDirty()) {
             final Page pg = myPagePool.putPage(0);
             myHeader.pack(pg.data);
@@ -660,12 +784,19 @@ public class StorageImpl implements Storage {
             myPagePool.flush();
         }
 
+        if (myRedoLog != null) {
+            myRedoLog.truncate();
+            myRedoLog.close(true);
+            myRedoLog = null;
+        }
+
         myPagePool.close();
         // make GC easier
         myPagePool = null;
         myObjectCache = null;
         myClassDescMap = null;
         myBitmapPageAvailableSpace = null;
+        myFreeExtents = null;
         myDirtyPagesMap = null;
         myDescriptorList = null;
     }
@@ -718,6 +849,88 @@ public class StorageImpl implements Storage {
         endThreadTransaction(Integer.MAX_VALUE);
     }
 
+    @Override
+    public long compact() {
+        final Compactor compactor = new Compactor(this);
+        boolean done = false;
+
+        synchronized (myBackgroundGcMonitor) {
+            synchronized (this) {
+                commit();
+
+                synchronized (myObjectCache) {
+                    compactor.start();
+                }
+            }
+        }
+
+        while (!done) {
+            synchronized (myBackgroundGcMonitor) {
+                synchronized (this) {
+                    if (!myOpened) {
+                        throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+                    }
+
+                    synchronized (myObjectCache) {
+                        // shadow copies of the bitmap pages should also be placed at the beginning of the file
+                        myCurrentRecordBitmapPage = myCurrentPageBitmapPage = 0;
+                        myCurrentRecordBitmapOffset = myCurrentPageBitmapOffset = 0;
+                        done = compactor.step(myCompactionStep);
+                    }
+
+                    commit();
+                }
+            }
+
+            if (myListener != null) {
+                myListener.compactionProgress(compactor.nRelocated, compactor.getRemaining());
+            }
+
+            if (!done && (myCompactionPause > 0)) {
+                try {
+                    Thread.sleep(myCompactionPause);
+                } catch (final InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        synchronized (myBackgroundGcMonitor) {
+            synchronized (this) {
+                if (!myOpened) {
+                    throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+                }
+
+                final long length = myFile.length();
+                final long end = getAllocatedSpaceEnd();
+
+                if (end < myHeader.myRootPage[1 - myCurrentIndex].mySize) {
+                    myHeader.myRootPage[1 - myCurrentIndex].mySize = end;
+                    setDirty();
+                    commit();
+                }
+
+                if (myRedoLog != null) {
+                    // pages released by compaction should not be written after truncation
+                    checkpoint();
+                }
+
+                final long size = myHeader.myRootPage[myCurrentIndex].mySize;
+
+                if (size < length) {
+                    myFile.truncate(size);
+                }
+
+                if (myListener != null) {
+                    myListener.compactionCompleted(myFile.length());
+                }
+
+                return Math.max(length - myFile.length(), 0);
+            }
+        }
+    }
+
     @Override
     public synchronized <T> IPersistentSet<T> createBag() {
         if (!myOpened) {
@@ -738,7 +951,7 @@ public class StorageImpl implements Storage {
 
     @Override
     public Blob createBlob() {
-        return new BlobImpl(this, Page.pageSize - BlobImpl.headerSize);
+        return new BlobImpl(this, myPageSize - BlobImpl.headerSize);
     }
 
     @Override
@@ -765,7 +978,11 @@ public class StorageImpl implements Storage {
                                 fieldName, unique) : (FieldIndex<T>) new BtreeCaseInsensitiveFieldIndex<T>(aType,
                                         fieldName, unique) : myAlternativeBtree
                                                 ? (FieldIndex<T>) new AltBtreeFieldIndex<T>(aType, fieldName, unique)
-                                                : (FieldIndex<T>) new BtreeFieldIndex<T>(aType, fieldName, unique);
+                                                : myCompactStringKeys && isStringField(aType, fieldName)
+                                                        ? (FieldIndex<T>) new BtreeCompactStringFieldIndex<T>(aType,
+                                                                fieldName, unique)
+                                                        : (FieldIndex<T>) new BtreeFieldIndex<T>(aType, fieldName,
+                                                                unique);
         index.assignOid(this, 0, false);
         return index;
     }
@@ -822,7 +1039,8 @@ public class StorageImpl implements Storage {
         }
 
         final Index<T> index = myAlternativeBtree ? (Index<T>) new AltBtree<T>(keyType, unique)
-                : (Index<T>) new Btree<T>(keyType, unique);
+                : myCompactStringKeys && keyType == String.class ? (Index<T>) new BtreeCompactStringIndex<T>(unique)
+                        : (Index<T>) new Btree<T>(keyType, unique);
         index.assignOid(this, 0, false);
         return index;
     }
@@ -1156,7 +1374,9 @@ public class StorageImpl implements Storage {
 
                 if (myNestedTransactionsCount != 0) { // may be everything is already
                     // aborted
-                    if (--myNestedTransactionsCount == 0) {
+                    if (myGroupCommitWindow > 0) {
+                        endGroupCommitTransaction(maxDelay);
+                    } else if (--myNestedTransactionsCount == 0) {
                         myCommittedTransactionsCount += 1;
                         commit();
                         myScheduledCommitTime = Long.MAX_VALUE;
@@ -1191,6 +1411,85 @@ public class StorageImpl implements Storage {
         }
     }
 
+    /**
+     * End cooperative or exclusive transaction in group commit mode. Transactions ended within the group commit window
+     * are committed together by the thread which finds the window expired (or the group full) when there are no more
+     * active transactions. All other threads of the group wait until the commit is completed, so changes of the
+     * transaction are durable when this method returns. If the group is not committed because the commit failed or
+     * the transactions were rolled back, waiting threads get <code>StorageError</code>. This method should be called
+     * while holding transaction monitor.
+     */
+    private void endGroupCommitTransaction(final int maxDelay) {
+        if (!myModified) { // nothing to commit
+            myNestedTransactionsCount -= 1;
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long commitTime = now + Math.min(myGroupCommitWindow, maxDelay);
+        final CommitGroup group = myCommitGroup;
+
+        myNestedTransactionsCount -= 1;
+        myPendingTransactionsCount += 1;
+
+        if (commitTime < myScheduledCommitTime) {
+            myScheduledCommitTime = commitTime;
+        }
+
+        if ((myGroupCommitBatchSize > 0) && (myPendingTransactionsCount >= myGroupCommitBatchSize)) {
+            myScheduledCommitTime = now; // block new transactions
+        }
+
+        while (!group.finished) {
+            final long delay = myScheduledCommitTime - System.currentTimeMillis();
+
+            if ((myNestedTransactionsCount == 0) && (delay <= 0)) {
+                boolean committed = false;
+
+                try {
+                    commit();
+                    committed = true;
+                } finally {
+                    finishCommitGroup(committed);
+                }
+
+                return;
+            }
+
+            try {
+                if (myNestedTransactionsCount == 0) {
+                    transactionMonitor.wait(delay);
+                } else {
+                    transactionMonitor.wait();
+                }
+            } catch (final InterruptedException x) {
+            }
+        }
+
+        if (!group.committed) {
+            throw new StorageError(StorageError.TRANSACTION_ABORTED);
+        }
+    }
+
+    /**
+     * Release threads waiting for completion of group commit and unblock new transactions. Only committed group
+     * increments the number of committed transactions. This method should be called while holding transaction monitor.
+     *
+     * @param committed whether changes of the group were committed
+     */
+    private void finishCommitGroup(final boolean committed) {
+        if (committed) {
+            myCommittedTransactionsCount += 1;
+        }
+
+        myCommitGroup.finished = true;
+        myCommitGroup.committed = committed;
+        myCommitGroup = new CommitGroup();
+        myPendingTransactionsCount = 0;
+        myScheduledCommitTime = Long.MAX_VALUE;
+        transactionMonitor.notifyAll();
+    }
+
     @Override
     public synchronized void exportXML(final Writer writer) throws IOException {
         if (!myOpened) {
@@ -1279,7 +1578,7 @@ public class StorageImpl implements Storage {
                                     pos = (((long) i << 5) + j) << DB_ALLOCATION_QUANTUM_BITS;
                                     myGreyBitmap[i] &= ~(1 << j);
                                     myBlackBitmap[i] |= 1 << j;
-                                    final int offs = (int) pos & (Page.pageSize - 1);
+                                    final int offs = (int) pos & (myPageSize - 1);
                                     final Page pg = myPagePool.getPage(pos - offs);
                                     final int typeOid = ObjectHeader.getType(pg.data, offs);
                                     final int objSize = ObjectHeader.getSize(pg.data, offs);
@@ -1297,13 +1596,13 @@ public class StorageImpl implements Storage {
 
                                             if (FieldIndex.class.isAssignableFrom(desc.cls)) {
                                                 fieldIndexUsage.nInstances += 1;
-                                                fieldIndexUsage.totalSize += ((long) nPages * Page.pageSize) + objSize;
-                                                fieldIndexUsage.allocatedSize += ((long) nPages * Page.pageSize) +
+                                                fieldIndexUsage.totalSize += ((long) nPages * myPageSize) + objSize;
+                                                fieldIndexUsage.allocatedSize += ((long) nPages * myPageSize) +
                                                         alignedSize;
                                             } else {
                                                 indexUsage.nInstances += 1;
-                                                indexUsage.totalSize += ((long) nPages * Page.pageSize) + objSize;
-                                                indexUsage.allocatedSize += ((long) nPages * Page.pageSize) +
+                                                indexUsage.totalSize += ((long) nPages * myPageSize) + objSize;
+                                                indexUsage.allocatedSize += ((long) nPages * myPageSize) +
                                                         alignedSize;
                                             }
                                         } else {
@@ -1351,12 +1650,12 @@ public class StorageImpl implements Storage {
                 system.totalSize += myHeader.myRootPage[0].myIndexSize * 8L;
                 system.totalSize += myHeader.myRootPage[1].myIndexSize * 8L;
                 system.totalSize += (long) (myHeader.myRootPage[myCurrentIndex].myBitmapEnd - DB_BITMAP_ID) *
-                        Page.pageSize;
-                system.totalSize += Page.pageSize; // root page
+                        myPageSize;
+                system.totalSize += myPageSize; // root page
 
                 if (myHeader.myRootPage[myCurrentIndex].myBitmapExtent != 0) {
-                    system.allocatedSize = getBitmapUsedSpace(DB_BITMAP_ID, DB_BITMAP_ID + DB_BITMAP_PAGES) +
-                            getBitmapUsedSpace((myHeader.myRootPage[myCurrentIndex].myBitmapExtent + DB_BITMAP_PAGES) -
+                    system.allocatedSize = getBitmapUsedSpace(DB_BITMAP_ID, DB_BITMAP_ID + myBitmapPages) +
+                            getBitmapUsedSpace((myHeader.myRootPage[myCurrentIndex].myBitmapExtent + myBitmapPages) -
                                     myBitmapExtentBase, (myHeader.myRootPage[myCurrentIndex].myBitmapExtent +
                                             myHeader.myRootPage[myCurrentIndex].myBitmapEnd) - DB_BITMAP_ID -
                                             myBitmapExtentBase);
@@ -1374,7 +1673,7 @@ public class StorageImpl implements Storage {
     }
 
     @Override
-    public synchronized Object getObjectByOID(final int oid) {
+    public Object getObjectByOID(final int oid) {
         return oid == 0 ? null : lookupObject(oid, null);
     }
 
@@ -1383,6 +1682,16 @@ public class StorageImpl implements Storage {
         return obj instanceof IPersistent ? ((IPersistent) obj).getOid() : obj == null ? 0 : myObjMap.getOid(obj);
     }
 
+    @Override
+    public long getPagePoolHits() {
+        return myPagePool == null ? 0 : myPagePool.getHits();
+    }
+
+    @Override
+    public long getPagePoolMisses() {
+        return myPagePool == null ? 0 : myPagePool.getMisses();
+    }
+
     @Override
     public Properties getProperties() {
         return myProperties;
@@ -1394,12 +1703,18 @@ public class StorageImpl implements Storage {
     }
 
     @Override
-    public synchronized Object getRoot() {
-        if (!myOpened) {
-            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+    public Object getRoot() {
+        final int rootOid;
+
+        synchronized (this) {
+            if (!myOpened) {
+                throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+            }
+
+            rootOid = myHeader.myRootPage[1 - myCurrentIndex].myRootObject;
         }
 
-        final int rootOid = myHeader.myRootPage[1 - myCurrentIndex].myRootObject;
+        // the root is loaded without the storage monitor which the thread already loading it may need in onLoad
         return rootOid == 0 ? null : lookupObject(rootOid, null);
     }
 
@@ -1454,18 +1769,13 @@ public class StorageImpl implements Storage {
 
     @Override
     public Iterator join(final Iterator[] selections) {
-        final HashSet result = new HashSet();
-
-        for (final Iterator selection : selections) {
-            final PersistentIterator iterator = (PersistentIterator) selection;
-            int oid;
+        final PersistentIterator[] iterators = new PersistentIterator[selections.length];
 
-            while ((oid = iterator.nextOid()) != 0) {
-                result.add(new Integer(oid));
-            }
+        for (int i = 0; i < selections.length; i++) {
+            iterators[i] = (PersistentIterator) selections[i];
         }
 
-        return new HashIterator(result);
+        return new OidSetIterator(OidSet.collect(iterators));
     }
 
     @Override
@@ -1486,9 +1796,9 @@ public class StorageImpl implements Storage {
     }
 
     @Override
-    public/* protected */synchronized void loadObject(final Object obj) {
+    public/* protected */void loadObject(final Object obj) {
         if (isRaw(obj)) {
-            loadStub(getOid(obj), obj, obj.getClass());
+            fetchObject(getOid(obj), obj, obj.getClass(), true);
         }
     }
 
@@ -1541,32 +1851,23 @@ public class StorageImpl implements Storage {
 
     @Override
     public Iterator merge(final Iterator[] selections) {
-        HashSet result = null;
+        OidSet result = null;
 
         for (final Iterator selection : selections) {
-            final PersistentIterator iterator = (PersistentIterator) selection;
-            final HashSet newResult = new HashSet();
-            int oid;
-
-            while ((oid = iterator.nextOid()) != 0) {
-                final Integer oidWrapper = new Integer(oid);
-                if ((result == null) || result.contains(oidWrapper)) {
-                    newResult.add(oidWrapper);
-                }
-            }
+            final OidSet set = OidSet.collect((PersistentIterator) selection);
 
-            result = newResult;
+            result = result == null ? set : result.and(set);
 
-            if (result.size() == 0) {
+            if (result.size == 0) {
                 break;
             }
         }
 
         if (result == null) {
-            result = new HashSet();
+            result = new OidSet(new int[0], 0);
         }
 
-        return new HashIterator(result);
+        return new OidSetIterator(result);
     }
 
     @Override
@@ -1643,6 +1944,16 @@ public class StorageImpl implements Storage {
             beginThreadTransaction(myReadOnly ? READ_ONLY_TRANSACTION : READ_WRITE_TRANSACTION);
         }
 
+        if (myRedoLogFile != null && !myMulticlientSupport && !myReadOnly) {
+            myRedoLog = new RedoLog(myRedoLogFile, myPageSize);
+
+            if (file.length() == 0) { // log can't belong to the new database
+                myRedoLog.truncate();
+            } else if (myRedoLog.recover(file) != 0 && LOGGER.isWarnEnabled()) {
+                LOGGER.warn("Committed transactions were restored from redo log");
+            }
+        }
+
         final byte[] buf = new byte[Header.SIZE];
         final int rc = file.read(0, buf);
         final int corruptionError = (file instanceof Rc4File) || (file instanceof CompressedReadWriteFile)
@@ -1667,24 +1978,25 @@ public class StorageImpl implements Storage {
 
             int indexSize = myInitIndexSize;
 
-            if (indexSize < DB_FIRST_USER_ID) {
-                indexSize = DB_FIRST_USER_ID;
+            if (indexSize < myFirstUserId) {
+                indexSize = myFirstUserId;
             }
 
-            indexSize = ((indexSize + DB_HANDLES_PER_PAGE) - 1) & ~(DB_HANDLES_PER_PAGE - 1);
+            indexSize = ((indexSize + myHandlesPerPage) - 1) & ~(myHandlesPerPage - 1);
 
-            myBitmapExtentBase = DB_BITMAP_PAGES;
+            myBitmapExtentBase = myBitmapPages;
 
+            myHeader.myPageSizeLog = myPageSizeLog;
             myHeader.myCurrentRoot = myCurrentIndex = 0;
-            long used = Page.pageSize;
+            long used = myPageSize;
             myHeader.myRootPage[0].myIndex = used;
             myHeader.myRootPage[0].myIndexSize = indexSize;
-            myHeader.myRootPage[0].myIndexUsed = DB_FIRST_USER_ID;
+            myHeader.myRootPage[0].myIndexUsed = myFirstUserId;
             myHeader.myRootPage[0].myFreeList = 0;
             used += indexSize * 8L;
             myHeader.myRootPage[1].myIndex = used;
             myHeader.myRootPage[1].myIndexSize = indexSize;
-            myHeader.myRootPage[1].myIndexUsed = DB_FIRST_USER_ID;
+            myHeader.myRootPage[1].myIndexUsed = myFirstUserId;
             myHeader.myRootPage[1].myFreeList = 0;
             used += indexSize * 8L;
 
@@ -1693,39 +2005,39 @@ public class StorageImpl implements Storage {
             myHeader.myRootPage[0].myShadowIndexSize = indexSize;
             myHeader.myRootPage[1].myShadowIndexSize = indexSize;
 
-            final int bitmapPages = (int) (((used + (Page.pageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1))) - 1) /
-                    (Page.pageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1)));
-            final long bitmapSize = (long) bitmapPages * Page.pageSize;
+            final int bitmapPages = (int) (((used + (myPageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1))) - 1) /
+                    (myPageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1)));
+            final long bitmapSize = (long) bitmapPages * myPageSize;
             int usedBitmapSize = (int) ((used + bitmapSize) >>> (DB_ALLOCATION_QUANTUM_BITS + 3));
 
             for (i = 0; i < bitmapPages; i++) {
-                pg = myPagePool.putPage(used + ((long) i * Page.pageSize));
+                pg = myPagePool.putPage(used + ((long) i * myPageSize));
 
                 final byte[] bitmap = pg.data;
-                final int n = usedBitmapSize > Page.pageSize ? Page.pageSize : usedBitmapSize;
+                final int n = usedBitmapSize > myPageSize ? myPageSize : usedBitmapSize;
 
                 for (int j = 0; j < n; j++) {
                     bitmap[j] = (byte) 0xFF;
                 }
 
-                usedBitmapSize -= Page.pageSize;
+                usedBitmapSize -= myPageSize;
                 myPagePool.unfix(pg);
             }
 
-            final int bitmapIndexSize = ((((DB_BITMAP_ID + DB_BITMAP_PAGES) * 8) + Page.pageSize) - 1) &
-                    ~(Page.pageSize - 1);
+            final int bitmapIndexSize = ((((DB_BITMAP_ID + myBitmapPages) * 8) + myPageSize) - 1) &
+                    ~(myPageSize - 1);
             final byte[] index = new byte[bitmapIndexSize];
             Bytes.pack8(index, DB_INVALID_ID * 8, DB_FREE_HANDLE_FLAG);
 
             for (i = 0; i < bitmapPages; i++) {
                 Bytes.pack8(index, (DB_BITMAP_ID + i) * 8, used | DB_PAGE_OBJECT_FLAG);
-                used += Page.pageSize;
+                used += myPageSize;
             }
 
             myHeader.myRootPage[0].myBitmapEnd = DB_BITMAP_ID + i;
             myHeader.myRootPage[1].myBitmapEnd = DB_BITMAP_ID + i;
 
-            while (i < DB_BITMAP_PAGES) {
+            while (i < myBitmapPages) {
                 Bytes.pack8(index, (DB_BITMAP_ID + i) * 8, DB_FREE_HANDLE_FLAG);
                 i += 1;
             }
@@ -1733,7 +2045,7 @@ public class StorageImpl implements Storage {
             myHeader.myRootPage[0].mySize = used;
             myHeader.myRootPage[1].mySize = used;
             usedSize = used;
-            myCommittedIndexSize = myCurrentIndexSize = DB_FIRST_USER_ID;
+            myCommittedIndexSize = myCurrentIndexSize = myFirstUserId;
 
             myPagePool.write(myHeader.myRootPage[1].myIndex, index);
             myPagePool.write(myHeader.myRootPage[0].myIndex, index);
@@ -1758,7 +2070,11 @@ public class StorageImpl implements Storage {
                 throw new StorageError(corruptionError);
             }
 
-            myBitmapExtentBase = myHeader.myDatabaseFormatVersion < 2 ? 0 : DB_BITMAP_PAGES;
+            if (myHeader.myPageSizeLog != myPageSizeLog) { // page size was not recognized before recovery
+                throw new StorageError(corruptionError);
+            }
+
+            myBitmapExtentBase = myHeader.myDatabaseFormatVersion < 2 ? 0 : myBitmapPages;
 
             if (isDirty()) {
                 if (myListener != null) {
@@ -1787,7 +2103,7 @@ public class StorageImpl implements Storage {
                 myPagePool.unfix(pg);
 
                 myPagePool.copy(myHeader.myRootPage[1 - curr].myIndex, myHeader.myRootPage[curr].myIndex,
-                        (((myHeader.myRootPage[curr].myIndexUsed * 8L) + Page.pageSize) - 1) & ~(Page.pageSize - 1));
+                        (((myHeader.myRootPage[curr].myIndexUsed * 8L) + myPageSize) - 1) & ~(myPageSize - 1));
 
                 if (myListener != null) {
                     myListener.recoveryCompleted();
@@ -1803,8 +2119,8 @@ public class StorageImpl implements Storage {
             usedSize = myHeader.myRootPage[curr].mySize;
         }
 
-        final int bitmapSize = myHeader.myRootPage[1 - myCurrentIndex].myBitmapExtent == 0 ? DB_BITMAP_PAGES
-                : DB_LARGE_BITMAP_PAGES;
+        final int bitmapSize = myHeader.myRootPage[1 - myCurrentIndex].myBitmapExtent == 0 ? myBitmapPages
+                : myLargeBitmapPages;
 
         myBitmapPageAvailableSpace = new int[bitmapSize];
 
@@ -1814,6 +2130,7 @@ public class StorageImpl implements Storage {
 
         myCurrentRecordBitmapPage = myCurrentPageBitmapPage = 0;
         myCurrentRecordBitmapOffset = myCurrentPageBitmapOffset = 0;
+        myFreeExtents = myExtentAllocator ? new FreeExtentMap() : null;
 
         myOpened = true;
         reloadScheme();
@@ -1834,7 +2151,7 @@ public class StorageImpl implements Storage {
     @Override
     public synchronized void open(final String filePath, final long pagePoolSize) {
         final IFile file = filePath.startsWith("@") ? (IFile) new MultiFile(filePath.substring(1), myReadOnly,
-                myNoFlush) : (IFile) new OSFile(filePath, myReadOnly, myNoFlush);
+                myNoFlush) : createFile(filePath);
 
         try {
             open(file, pagePoolSize);
@@ -1904,12 +2221,14 @@ public class StorageImpl implements Storage {
             rollback0();
             myModified = false;
 
-            if (myReloadObjectsOnRollback) {
-                myObjectCache.reload();
-            } else {
+            if (!myReloadObjectsOnRollback) {
                 myObjectCache.clear();
+                return;
             }
         }
+
+        // objects are reloaded outside of the object cache lock which is needed by threads loading objects
+        myObjectCache.reload();
     }
 
     @Override
@@ -1941,6 +2260,8 @@ public class StorageImpl implements Storage {
             final Map locked = ctx.locked;
 
             synchronized (this) {
+                final ArrayList reloaded = new ArrayList();
+
                 synchronized (myObjectCache) {
                     int i = modified.size();
 
@@ -1954,11 +2275,16 @@ public class StorageImpl implements Storage {
                             freeId(oid);
                             myObjectCache.remove(oid);
                         } else {
-                            loadStub(oid, obj, obj.getClass());
-                            myObjectCache.clearDirty(obj);
+                            reloaded.add(obj);
                         }
                     }
                 }
+
+                // objects are reloaded outside of the object cache lock which is needed by threads loading objects
+                for (final Object obj : reloaded) {
+                    loadObject(obj);
+                    myObjectCache.clearDirty(obj);
+                }
             }
 
             final Iterator iterator = locked.values().iterator();
@@ -1980,7 +2306,9 @@ public class StorageImpl implements Storage {
                 transactionLock.reset();
                 myNestedTransactionsCount = 0;
 
-                if (myBlockedTransactionsCount != 0) {
+                if (myPendingTransactionsCount != 0) {
+                    finishCommitGroup(false);
+                } else if (myBlockedTransactionsCount != 0) {
                     transactionMonitor.notifyAll();
                 }
 
@@ -2026,6 +2354,10 @@ public class StorageImpl implements Storage {
             ClassDescriptor.serializeNonPersistentObjects = getBooleanValue(value);
         }
 
+        if ((value = props.getProperty("sodbox.method.handles")) != null) {
+            myMethodHandles = getBooleanValue(value);
+        }
+
         if ((value = props.getProperty("sodbox.object.cache.init.size")) != null) {
             myObjectCacheInitSize = (int) getIntegerValue(value);
 
@@ -2042,14 +2374,26 @@ public class StorageImpl implements Storage {
             myInitIndexSize = (int) getIntegerValue(value);
         }
 
+        if ((value = props.getProperty("sodbox.page.size")) != null) {
+            myInitPageSize = getPageSizeValue(value);
+        }
+
         if ((value = props.getProperty("sodbox.extension.quantum")) != null) {
             myExtensionQuantum = getIntegerValue(value);
         }
 
+        if ((value = props.getProperty("sodbox.extent.allocator")) != null) {
+            myExtentAllocator = getBooleanValue(value);
+        }
+
         if ((value = props.getProperty("sodbox.gc.threshold")) != null) {
             myGcThreshold = getIntegerValue(value);
         }
 
+        if ((value = props.getProperty("sodbox.gc.threads")) != null) {
+            myGcThreads = (int) getIntegerValue(value);
+        }
+
         if ((value = props.getProperty("sodbox.file.readonly")) != null) {
             myReadOnly = getBooleanValue(value);
         }
@@ -2058,6 +2402,18 @@ public class StorageImpl implements Storage {
             myNoFlush = getBooleanValue(value);
         }
 
+        if ((value = props.getProperty("sodbox.file.kind")) != null) {
+            myFileKind = value;
+        }
+
+        if ((value = props.getProperty("sodbox.file.mmap.chunk.size")) != null) {
+            myMappedChunkSize = getIntegerValue(value);
+        }
+
+        if ((value = props.getProperty("sodbox.file.mmap.preload")) != null) {
+            myMappedPreload = getBooleanValue(value);
+        }
+
         if ((value = props.getProperty("sodbox.alternative.btree")) != null) {
             myAlternativeBtree = getBooleanValue(value);
         }
@@ -2066,6 +2422,26 @@ public class StorageImpl implements Storage {
             myBackgroundGc = getBooleanValue(value);
         }
 
+        if ((value = props.getProperty("sodbox.compact.string.keys")) != null) {
+            myCompactStringKeys = getBooleanValue(value);
+        }
+
+        if ((value = props.getProperty("sodbox.incremental.gc")) != null) {
+            myIncrementalGc = getBooleanValue(value);
+        }
+
+        if ((value = props.getProperty("sodbox.gc.pause.budget")) != null) {
+            myGcPauseBudget = getIntegerValue(value);
+        }
+
+        if ((value = props.getProperty("sodbox.compaction.step")) != null) {
+            myCompactionStep = getIntegerValue(value);
+        }
+
+        if ((value = props.getProperty("sodbox.compaction.pause")) != null) {
+            myCompactionPause = getIntegerValue(value);
+        }
+
         if ((value = props.getProperty("sodbox.string.encoding")) != null) {
             myEncoding = value;
         }
@@ -2094,6 +2470,38 @@ public class StorageImpl implements Storage {
             myPagePoolLruLimit = getIntegerValue(value);
         }
 
+        if ((value = props.getProperty("sodbox.page.pool.segments")) != null) {
+            myPagePoolSegments = (int) getIntegerValue(value);
+        }
+
+        if ((value = props.getProperty("sodbox.page.pool.policy")) != null) {
+            myPagePoolPolicy = value;
+        }
+
+        if ((value = props.getProperty("sodbox.page.pool.write.behind")) != null) {
+            myPagePoolWriteBehind = (int) getIntegerValue(value);
+        }
+
+        if ((value = props.getProperty("sodbox.page.pool.offheap.size")) != null) {
+            myPagePoolOffHeapSize = getIntegerValue(value);
+        }
+
+        if ((value = props.getProperty("sodbox.group.commit.window")) != null) {
+            myGroupCommitWindow = (int) getIntegerValue(value);
+        }
+
+        if ((value = props.getProperty("sodbox.group.commit.batch")) != null) {
+            myGroupCommitBatchSize = (int) getIntegerValue(value);
+        }
+
+        if ((value = props.getProperty("sodbox.redo.log.file")) != null) {
+            myRedoLogFile = value;
+        }
+
+        if ((value = props.getProperty("sodbox.redo.log.checkpoint")) != null) {
+            myRedoLogCheckpoint = getIntegerValue(value);
+        }
+
         if ((value = props.getProperty("sodbox.multiclient.support")) != null) {
             myMulticlientSupport = getBooleanValue(value);
         }
@@ -2117,6 +2525,10 @@ public class StorageImpl implements Storage {
         if (myMulticlientSupport && myBackgroundGc) {
             throw new IllegalArgumentException("In mutliclient access mode bachround GC is not supported");
         }
+
+        if (myMulticlientSupport && myIncrementalGc) {
+            throw new IllegalArgumentException("In multiclient access mode incremental GC is not supported");
+        }
     }
 
     @Override
@@ -2127,6 +2539,8 @@ public class StorageImpl implements Storage {
             ClassDescriptor.treateAnyNonPersistentObjectAsValue = getBooleanValue(value);
         } else if (name.equals("sodbox.serialize.transient.objects")) {
             ClassDescriptor.serializeNonPersistentObjects = getBooleanValue(value);
+        } else if (name.equals("sodbox.method.handles")) {
+            myMethodHandles = getBooleanValue(value);
         } else if (name.equals("sodbox.object.cache.init.size")) {
             myObjectCacheInitSize = (int) getIntegerValue(value);
 
@@ -2137,18 +2551,40 @@ public class StorageImpl implements Storage {
             myCacheKind = (String) value;
         } else if (name.equals("sodbox.object.index.init.size")) {
             myInitIndexSize = (int) getIntegerValue(value);
+        } else if (name.equals("sodbox.page.size")) {
+            myInitPageSize = getPageSizeValue(value);
         } else if (name.equals("sodbox.extension.quantum")) {
             myExtensionQuantum = getIntegerValue(value);
+        } else if (name.equals("sodbox.extent.allocator")) {
+            myExtentAllocator = getBooleanValue(value);
         } else if (name.equals("sodbox.gc.threshold")) {
             myGcThreshold = getIntegerValue(value);
+        } else if (name.equals("sodbox.gc.threads")) {
+            myGcThreads = (int) getIntegerValue(value);
         } else if (name.equals("sodbox.file.readonly")) {
             myReadOnly = getBooleanValue(value);
         } else if (name.equals("sodbox.file.noflush")) {
             myNoFlush = getBooleanValue(value);
+        } else if (name.equals("sodbox.file.kind")) {
+            myFileKind = (String) value;
+        } else if (name.equals("sodbox.file.mmap.chunk.size")) {
+            myMappedChunkSize = getIntegerValue(value);
+        } else if (name.equals("sodbox.file.mmap.preload")) {
+            myMappedPreload = getBooleanValue(value);
         } else if (name.equals("sodbox.alternative.btree")) {
             myAlternativeBtree = getBooleanValue(value);
         } else if (name.equals("sodbox.background.gc")) {
             myBackgroundGc = getBooleanValue(value);
+        } else if (name.equals("sodbox.compact.string.keys")) {
+            myCompactStringKeys = getBooleanValue(value);
+        } else if (name.equals("sodbox.incremental.gc")) {
+            myIncrementalGc = getBooleanValue(value);
+        } else if (name.equals("sodbox.gc.pause.budget")) {
+            myGcPauseBudget = getIntegerValue(value);
+        } else if (name.equals("sodbox.compaction.step")) {
+            myCompactionStep = getIntegerValue(value);
+        } else if (name.equals("sodbox.compaction.pause")) {
+            myCompactionPause = getIntegerValue(value);
         } else if (name.equals("sodbox.string.encoding")) {
             myEncoding = value == null ? null : value.toString();
         } else if (name.equals("sodbox.lock.file")) {
@@ -2163,6 +2599,22 @@ public class StorageImpl implements Storage {
             myForceStore = getBooleanValue(value);
         } else if (name.equals("sodbox.page.pool.lru.limit")) {
             myPagePoolLruLimit = getIntegerValue(value);
+        } else if (name.equals("sodbox.page.pool.segments")) {
+            myPagePoolSegments = (int) getIntegerValue(value);
+        } else if (name.equals("sodbox.page.pool.policy")) {
+            myPagePoolPolicy = (String) value;
+        } else if (name.equals("sodbox.page.pool.write.behind")) {
+            myPagePoolWriteBehind = (int) getIntegerValue(value);
+        } else if (name.equals("sodbox.page.pool.offheap.size")) {
+            myPagePoolOffHeapSize = getIntegerValue(value);
+        } else if (name.equals("sodbox.group.commit.window")) {
+            myGroupCommitWindow = (int) getIntegerValue(value);
+        } else if (name.equals("sodbox.group.commit.batch")) {
+            myGroupCommitBatchSize = (int) getIntegerValue(value);
+        } else if (name.equals("sodbox.redo.log.file")) {
+            myRedoLogFile = (String) value;
+        } else if (name.equals("sodbox.redo.log.checkpoint")) {
+            myRedoLogCheckpoint = getIntegerValue(value);
         } else if (name.equals("sodbox.multiclient.support")) {
             myMulticlientSupport = getBooleanValue(value);
         } else if (name.equals("sodbox.reload.objects.on.rollback")) {
@@ -2245,18 +2697,83 @@ public class StorageImpl implements Storage {
     }
 
     @Override
-    public/* protected */void storeFinalizedObject(final Object obj) {
-        if (myOpened) {
-            synchronized (myObjectCache) {
-                if (getOid(obj) != 0) {
-                    storeObject0(obj, true);
-                }
-            }
-        }
-    }
-
-    @Override
-    public/* protected */synchronized void storeObject(final Object obj) {
+    public synchronized void storeAll(final Collection<?> objects) {
+        if (!myOpened) {
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+
+        if (useSerializableTransactions && (getTransactionContext().nested != 0)) {
+            // Store should not be used in serializable transaction mode
+            throw new StorageError(StorageError.INVALID_OPERATION, "store object");
+        }
+
+        final ArrayList<Object> created = new ArrayList<>();
+        final ArrayList<Object> persistent = new ArrayList<>();
+
+        for (final Object obj : objects) {
+            if (obj != null) {
+                if (getOid(obj) == 0) {
+                    created.add(obj);
+                } else {
+                    persistent.add(obj);
+                }
+            }
+        }
+
+        if (!created.isEmpty()) {
+            synchronized (myObjectCache) {
+                storeBatch(created);
+            }
+        }
+
+        for (final Object obj : persistent) {
+            store(obj);
+        }
+    }
+
+    @Override
+    public synchronized void storeNear(final Object obj, final Object anchor) {
+        if (!myOpened) {
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+
+        if (useSerializableTransactions && (getTransactionContext().nested != 0)) {
+            // Store should not be used in serializable transaction mode
+            throw new StorageError(StorageError.INVALID_OPERATION, "store object");
+        }
+
+        synchronized (myObjectCache) {
+            final int anchorOid = getOid(anchor);
+            final long anchorPos = anchorOid != 0 ? getPos(anchorOid) : 0;
+
+            myClusteredObject = obj;
+            myClusteringHint = isObjectPosition(anchorPos) ? anchorPos & ~DB_FLAGS_MASK : 0;
+
+            try {
+                if ((obj instanceof IPersistent) && (getOid(obj) == 0)) {
+                    storeObject0(obj, false);
+                } else {
+                    store(obj);
+                }
+            } finally {
+                myClusteredObject = null;
+            }
+        }
+    }
+
+    @Override
+    public/* protected */void storeFinalizedObject(final Object obj) {
+        if (myOpened) {
+            synchronized (myObjectCache) {
+                if (getOid(obj) != 0) {
+                    storeObject0(obj, true);
+                }
+            }
+        }
+    }
+
+    @Override
+    public/* protected */synchronized void storeObject(final Object obj) {
         if (!myOpened) {
             throw new StorageError(StorageError.STORAGE_NOT_OPENED);
         }
@@ -2271,6 +2788,17 @@ public class StorageImpl implements Storage {
         }
     }
 
+    @Override
+    public Iterator subtract(final Iterator selection, final Iterator[] exclusions) {
+        OidSet result = OidSet.collect((PersistentIterator) selection);
+
+        for (int i = 0; (i < exclusions.length) && (result.size != 0); i++) {
+            result = result.andNot(OidSet.collect((PersistentIterator) exclusions[i]));
+        }
+
+        return new OidSetIterator(result);
+    }
+
     @Override
     public void throwObject(final Object obj) {
         myObjectCache.remove(getOid(obj));
@@ -2297,10 +2825,43 @@ public class StorageImpl implements Storage {
             return new LruObjectCache(this, objectCacheSize);
         }
 
+        if ("concurrent".equals(kind)) {
+            return new ConcurrentObjectCache(this, objectCacheSize);
+        }
+
         return pagePoolSize == INFINITE_PAGE_POOL ? (OidHashTable) new StrongHashTable(this, objectCacheSize)
                 : (OidHashTable) new LruObjectCache(this, objectCacheSize);
     }
 
+    IFile createFile(final String filePath) {
+        if ("channel".equals(myFileKind)) {
+            return new ChannelFile(filePath, myReadOnly, myNoFlush);
+        }
+
+        if ("mmap".equals(myFileKind)) {
+            return new MappedChunkFile(filePath, myReadOnly, myNoFlush, myMappedChunkSize, myMappedPreload);
+        }
+
+        return new OSFile(filePath, myReadOnly, myNoFlush);
+    }
+
+    PagePool createPagePool(final long pagePoolSize) {
+        final int poolSize = (int) (pagePoolSize / myPageSize);
+        final PagePool pool;
+
+        if (myPagePoolSegments > 1) {
+            pool = new ConcurrentPagePool(poolSize, myPagePoolLruLimit, myPagePoolPolicy, myPageSizeLog,
+                    myPagePoolSegments);
+        } else {
+            pool = new PagePool(poolSize, myPagePoolLruLimit, myPagePoolPolicy, myPageSizeLog);
+        }
+
+        pool.writeBehindThreshold = myPagePoolWriteBehind;
+        pool.offHeapCacheSize = myPagePoolOffHeapSize;
+        pool.trackModified = myRedoLogFile != null && !myMulticlientSupport && !myReadOnly;
+        return pool;
+    }
+
     protected void initialize(final IFile file, final long pagePoolSize) {
         this.myFile = file;
 
@@ -2310,11 +2871,21 @@ public class StorageImpl implements Storage {
             }
         }
 
-        myDirtyPagesMap = new int[(DB_DIRTY_PAGE_BITMAP_SIZE / 4) + 1];
+        setPageSizeLog(readPageSizeLog(file));
+
+        if ((myPageSizeLog != Page.DEFAULT_PAGE_SIZE_LOG) && ((file instanceof CompressedReadWriteFile)
+                || (file instanceof ReplicationMasterFile) || (this instanceof ReplicationSlaveStorageImpl))) {
+            // compressed file and replication protocol use pages of the default size
+            throw new StorageError(StorageError.INCOMPATIBLE_PAGE_SIZE, myPageSize);
+        }
+
+        myDirtyPagesMap = new int[(myDirtyPageBitmapSize / 4) + 1];
         myGcThreshold = Long.MAX_VALUE;
         myBackgroundGcMonitor = new Object();
         myBackgroundGcStartMonitor = new Object();
         myGcThread = null;
+        myRedoLog = null;
+        myCheckpointThread = null;
         myGcActive = false;
         myGcDone = false;
         myAllocatedDelta = 0;
@@ -2326,6 +2897,8 @@ public class StorageImpl implements Storage {
         myNestedTransactionsCount = 0;
         myBlockedTransactionsCount = 0;
         myCommittedTransactionsCount = 0;
+        myPendingTransactionsCount = 0;
+        myCommitGroup = new CommitGroup();
         myScheduledCommitTime = Long.MAX_VALUE;
         transactionMonitor = new Object();
         transactionLock = new PersistentResource();
@@ -2336,15 +2909,16 @@ public class StorageImpl implements Storage {
 
         myObjMap = new ObjectMap(myObjectCacheInitSize);
 
-        myClassDescMap = new HashMap<>();
+        myClassDescMap = new ConcurrentHashMap<>();
         myDescriptorList = null;
 
         myRecursiveLoadingPolicy = new HashMap<>();
         myRecursiveLoadingPolicyDefined = false;
 
         myHeader = new Header();
-        myPagePool = new PagePool((int) (pagePoolSize / Page.pageSize), myPagePoolLruLimit);
+        myPagePool = createPagePool(pagePoolSize);
         myPagePool.open(file);
+        myLoadPinLimit = myPagePool.getLoadPinLimit();
     }
 
     protected boolean isDirty() {
@@ -2374,17 +2948,25 @@ public class StorageImpl implements Storage {
             return lookupObject(oid, cls);
         }
 
-        Object stub = myObjectCache.get(oid);
+        final Object stub = myObjectCache.get(oid);
 
         if (stub != null) {
             return stub;
         }
 
+        return fetchObject(oid, null, cls, false);
+    }
+
+    /**
+     * Create stub of the object and place it in the object cache. Should be called by the thread which claimed the
+     * object.
+     */
+    final Object createStub(final int oid, final Class<?> cls) {
         ClassDescriptor desc;
 
         if ((cls == Object.class) || ((desc = findClassDescriptor(cls)) == null) || desc.hasSubclasses) {
             final long pos = getPos(oid);
-            final int offs = (int) pos & (Page.pageSize - 1);
+            final int offs = (int) pos & (myPageSize - 1);
 
             if ((offs & (DB_FREE_HANDLE_FLAG | DB_PAGE_OBJECT_FLAG)) != 0) {
                 throw new StorageError(StorageError.DELETED_OBJECT);
@@ -2396,7 +2978,7 @@ public class StorageImpl implements Storage {
             desc = findClassDescriptor(typeOid);
         }
 
-        stub = desc.newInstance();
+        final Object stub = desc.newInstance();
         assignOid(stub, oid, true);
         myObjectCache.put(oid, stub);
         return stub;
@@ -2417,7 +2999,7 @@ public class StorageImpl implements Storage {
             Assert.that(objBitSize == (size >> DB_ALLOCATION_QUANTUM_BITS));
             long pos;
             int holeBitSize = 0;
-            final int alignment = (int) size & (Page.pageSize - 1);
+            final int alignment = (int) size & (myPageSize - 1);
             int offs, firstPage, lastPage, i, j;
             int holeBeforeFreePage = 0;
             int freeBitmapPage = 0;
@@ -2427,9 +3009,13 @@ public class StorageImpl implements Storage {
             lastPage = myHeader.myRootPage[curr].myBitmapEnd - DB_BITMAP_ID;
             usedSize += size;
 
+            if ((myFreeExtents != null) && ((pos = allocateExtent(size, oid)) != 0)) {
+                return pos;
+            }
+
             if (alignment == 0) {
                 firstPage = myCurrentPageBitmapPage;
-                offs = ((myCurrentPageBitmapOffset + INC) - 1) & ~(INC - 1);
+                offs = ((myCurrentPageBitmapOffset + myPageBitmapBytes) - 1) & ~(myPageBitmapBytes - 1);
             } else {
                 firstPage = myCurrentRecordBitmapPage;
                 offs = myCurrentRecordBitmapOffset;
@@ -2439,8 +3025,8 @@ public class StorageImpl implements Storage {
                 if (alignment == 0) {
                     // allocate page object
                     for (i = firstPage; i < lastPage; i++) {
-                        final int spaceNeeded = (objBitSize - holeBitSize) < PAGE_BITS ? objBitSize - holeBitSize
-                                : PAGE_BITS;
+                        final int spaceNeeded = (objBitSize - holeBitSize) < myPageBits ? objBitSize - holeBitSize
+                                : myPageBits;
 
                         if (myBitmapPageAvailableSpace[i] <= spaceNeeded) {
                             holeBitSize = 0;
@@ -2451,16 +3037,16 @@ public class StorageImpl implements Storage {
                         pg = getBitmapPage(i);
                         int startOffs = offs;
 
-                        while (offs < Page.pageSize) {
+                        while (offs < myPageSize) {
                             if (pg.data[offs++] != 0) {
-                                offs = ((offs + INC) - 1) & ~(INC - 1);
+                                offs = ((offs + myPageBitmapBytes) - 1) & ~(myPageBitmapBytes - 1);
                                 holeBitSize = 0;
                             } else if ((holeBitSize += 8) == objBitSize) {
-                                pos = (((((long) i * Page.pageSize) + offs) * 8) -
+                                pos = (((((long) i * myPageSize) + offs) * 8) -
                                         holeBitSize) << DB_ALLOCATION_QUANTUM_BITS;
 
                                 if (wasReserved(pos, size)) {
-                                    startOffs = offs = ((offs + INC) - 1) & ~(INC - 1);
+                                    startOffs = offs = ((offs + myPageBitmapBytes) - 1) & ~(myPageBitmapBytes - 1);
                                     holeBitSize = 0;
                                     continue;
                                 }
@@ -2487,12 +3073,12 @@ public class StorageImpl implements Storage {
                                     holeBytes -= offs;
                                     myPagePool.unfix(pg);
                                     pg = putBitmapPage(--i);
-                                    offs = Page.pageSize;
+                                    offs = myPageSize;
                                 }
 
-                                while (holeBytes > Page.pageSize) {
-                                    memset(pg, 0, 0xFF, Page.pageSize);
-                                    holeBytes -= Page.pageSize;
+                                while (holeBytes > myPageSize) {
+                                    memset(pg, 0, 0xFF, myPageSize);
+                                    holeBytes -= myPageSize;
                                     myBitmapPageAvailableSpace[i] = 0;
                                     myPagePool.unfix(pg);
                                     pg = putBitmapPage(--i);
@@ -2515,8 +3101,8 @@ public class StorageImpl implements Storage {
                     }
                 } else {
                     for (i = firstPage; i < lastPage; i++) {
-                        final int spaceNeeded = (objBitSize - holeBitSize) < PAGE_BITS ? objBitSize - holeBitSize
-                                : PAGE_BITS;
+                        final int spaceNeeded = (objBitSize - holeBitSize) < myPageBits ? objBitSize - holeBitSize
+                                : myPageBits;
 
                         if (myBitmapPageAvailableSpace[i] <= spaceNeeded) {
                             holeBitSize = 0;
@@ -2528,11 +3114,11 @@ public class StorageImpl implements Storage {
 
                         int startOffs = offs;
 
-                        while (offs < Page.pageSize) {
+                        while (offs < myPageSize) {
                             final int mask = pg.data[offs] & 0xFF;
 
                             if ((holeBitSize + Bitmap.firstHoleSize[mask]) >= objBitSize) {
-                                pos = (((((long) i * Page.pageSize) + offs) * 8) -
+                                pos = (((((long) i * myPageSize) + offs) * 8) -
                                         holeBitSize) << DB_ALLOCATION_QUANTUM_BITS;
 
                                 if (wasReserved(pos, size)) {
@@ -2564,12 +3150,12 @@ public class StorageImpl implements Storage {
                                         holeBitSize -= offs * 8;
                                         myPagePool.unfix(pg);
                                         pg = putBitmapPage(--i);
-                                        offs = Page.pageSize;
+                                        offs = myPageSize;
                                     }
 
-                                    while (holeBitSize > PAGE_BITS) {
-                                        memset(pg, 0, 0xFF, Page.pageSize);
-                                        holeBitSize -= PAGE_BITS;
+                                    while (holeBitSize > myPageBits) {
+                                        memset(pg, 0, 0xFF, myPageSize);
+                                        holeBitSize -= myPageBits;
                                         myBitmapPageAvailableSpace[i] = 0;
                                         myPagePool.unfix(pg);
                                         pg = putBitmapPage(--i);
@@ -2589,7 +3175,7 @@ public class StorageImpl implements Storage {
                             } else if (Bitmap.maxHoleSize[mask] >= objBitSize) {
                                 final int holeBitOffset = Bitmap.maxHoleOffset[mask];
 
-                                pos = (((((long) i * Page.pageSize) + offs) * 8) +
+                                pos = (((((long) i * myPageSize) + offs) * 8) +
                                         holeBitOffset) << DB_ALLOCATION_QUANTUM_BITS;
 
                                 if (wasReserved(pos, size)) {
@@ -2646,27 +3232,27 @@ public class StorageImpl implements Storage {
                     objBitSize -= holeBitSize;
                     // number of bits reserved for the object and aligned on
                     // page boundary
-                    final int skip = ((objBitSize + (Page.pageSize / DB_ALLOCATION_QUANTUM)) - 1) & ~((Page.pageSize /
+                    final int skip = ((objBitSize + (myPageSize / DB_ALLOCATION_QUANTUM)) - 1) & ~((myPageSize /
                             DB_ALLOCATION_QUANTUM) - 1);
                     // page aligned position after allocated object
-                    pos = ((long) i << DB_BITMAP_SEGMENT_BITS) + ((long) skip << DB_ALLOCATION_QUANTUM_BITS);
+                    pos = ((long) i << myBitmapSegmentBits) + ((long) skip << DB_ALLOCATION_QUANTUM_BITS);
 
                     long extension = size > myExtensionQuantum ? size : myExtensionQuantum;
                     int oldIndexSize = 0;
                     long oldIndex = 0;
-                    int morePages = (int) (((extension + (Page.pageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1))) - 1) /
-                            (Page.pageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1)));
+                    int morePages = (int) (((extension + (myPageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1))) - 1) /
+                            (myPageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1)));
 
-                    if ((i + morePages) > DB_LARGE_BITMAP_PAGES) {
+                    if ((i + morePages) > myLargeBitmapPages) {
                         throw new StorageError(StorageError.NOT_ENOUGH_SPACE);
                     }
 
-                    if ((i <= DB_BITMAP_PAGES) && ((i + morePages) > DB_BITMAP_PAGES)) {
+                    if ((i <= myBitmapPages) && ((i + morePages) > myBitmapPages)) {
                         // We are out of space mapped by memory default
                         // allocation bitmap
                         oldIndexSize = myHeader.myRootPage[curr].myIndexSize;
 
-                        if (oldIndexSize <= ((myCurrentIndexSize + DB_LARGE_BITMAP_PAGES) - DB_BITMAP_PAGES)) {
+                        if (oldIndexSize <= ((myCurrentIndexSize + myLargeBitmapPages) - myBitmapPages)) {
                             int newIndexSize = oldIndexSize;
 
                             oldIndex = myHeader.myRootPage[curr].myIndex;
@@ -2675,27 +3261,27 @@ public class StorageImpl implements Storage {
                                 newIndexSize <<= 1;
 
                                 if (newIndexSize < 0) {
-                                    newIndexSize = Integer.MAX_VALUE & ~(DB_HANDLES_PER_PAGE - 1);
+                                    newIndexSize = Integer.MAX_VALUE & ~(myHandlesPerPage - 1);
 
-                                    if (newIndexSize < ((myCurrentIndexSize + DB_LARGE_BITMAP_PAGES) -
-                                            DB_BITMAP_PAGES)) {
+                                    if (newIndexSize < ((myCurrentIndexSize + myLargeBitmapPages) -
+                                            myBitmapPages)) {
                                         throw new StorageError(StorageError.NOT_ENOUGH_SPACE);
                                     }
 
                                     break;
                                 }
-                            } while (newIndexSize <= ((myCurrentIndexSize + DB_LARGE_BITMAP_PAGES) - DB_BITMAP_PAGES));
+                            } while (newIndexSize <= ((myCurrentIndexSize + myLargeBitmapPages) - myBitmapPages));
 
                             if ((size + (newIndexSize * 8L)) > myExtensionQuantum) {
                                 extension = size + (newIndexSize * 8L);
-                                morePages = (int) (((extension + (Page.pageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1))) -
-                                        1) / (Page.pageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1)));
+                                morePages = (int) (((extension + (myPageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1))) -
+                                        1) / (myPageSize * ((DB_ALLOCATION_QUANTUM * 8) - 1)));
                             }
 
-                            extend(pos + ((long) morePages * Page.pageSize) + (newIndexSize * 8L));
-                            final long newIndex = pos + ((long) morePages * Page.pageSize);
+                            extend(pos + ((long) morePages * myPageSize) + (newIndexSize * 8L));
+                            final long newIndex = pos + ((long) morePages * myPageSize);
 
-                            fillBitmap(pos + (skip >> 3) + ((long) morePages * (Page.pageSize / DB_ALLOCATION_QUANTUM /
+                            fillBitmap(pos + (skip >> 3) + ((long) morePages * (myPageSize / DB_ALLOCATION_QUANTUM /
                                     8)), newIndexSize >>> DB_ALLOCATION_QUANTUM_BITS);
 
                             myPagePool.copy(newIndex, oldIndex, oldIndexSize * 8L);
@@ -2703,39 +3289,39 @@ public class StorageImpl implements Storage {
                             myHeader.myRootPage[curr].myIndexSize = newIndexSize;
                         }
 
-                        final int[] newBitmapPageAvailableSpace = new int[DB_LARGE_BITMAP_PAGES];
+                        final int[] newBitmapPageAvailableSpace = new int[myLargeBitmapPages];
 
                         System.arraycopy(myBitmapPageAvailableSpace, 0, newBitmapPageAvailableSpace, 0,
-                                DB_BITMAP_PAGES);
+                                myBitmapPages);
 
-                        for (j = DB_BITMAP_PAGES; j < DB_LARGE_BITMAP_PAGES; j++) {
+                        for (j = myBitmapPages; j < myLargeBitmapPages; j++) {
                             newBitmapPageAvailableSpace[j] = Integer.MAX_VALUE;
                         }
 
                         myBitmapPageAvailableSpace = newBitmapPageAvailableSpace;
 
-                        for (j = 0; j < (DB_LARGE_BITMAP_PAGES - DB_BITMAP_PAGES); j++) {
+                        for (j = 0; j < (myLargeBitmapPages - myBitmapPages); j++) {
                             setPos(myCurrentIndexSize + j, DB_FREE_HANDLE_FLAG);
                         }
 
                         myHeader.myRootPage[curr].myBitmapExtent = myCurrentIndexSize;
-                        myHeader.myRootPage[curr].myIndexUsed = myCurrentIndexSize += DB_LARGE_BITMAP_PAGES -
-                                DB_BITMAP_PAGES;
+                        myHeader.myRootPage[curr].myIndexUsed = myCurrentIndexSize += myLargeBitmapPages -
+                                myBitmapPages;
                     }
 
-                    extend(pos + ((long) morePages * Page.pageSize));
+                    extend(pos + ((long) morePages * myPageSize));
 
                     long adr = pos;
                     int len = objBitSize >> 3;
 
                     // fill bitmap pages used for allocation of object space
                     // with 0xFF
-                    while (len >= Page.pageSize) {
+                    while (len >= myPageSize) {
                         pg = myPagePool.putPage(adr);
-                        memset(pg, 0, 0xFF, Page.pageSize);
+                        memset(pg, 0, 0xFF, myPageSize);
                         myPagePool.unfix(pg);
-                        adr += Page.pageSize;
-                        len -= Page.pageSize;
+                        adr += myPageSize;
+                        len -= myPageSize;
                     }
 
                     // fill part of last page responsible for allocation of
@@ -2746,17 +3332,17 @@ public class StorageImpl implements Storage {
                     myPagePool.unfix(pg);
 
                     // mark in bitmap newly allocated object
-                    fillBitmap(pos + (skip >> 3), morePages * (Page.pageSize / DB_ALLOCATION_QUANTUM / 8));
+                    fillBitmap(pos + (skip >> 3), morePages * (myPageSize / DB_ALLOCATION_QUANTUM / 8));
 
                     j = i;
 
                     while (--morePages >= 0) {
                         setPos(getBitmapPageId(j++), pos | DB_PAGE_OBJECT_FLAG | DB_MODIFIED_FLAG);
-                        pos += Page.pageSize;
+                        pos += myPageSize;
                     }
 
                     myHeader.myRootPage[curr].myBitmapEnd = j + DB_BITMAP_ID;
-                    j = i + (objBitSize / PAGE_BITS);
+                    j = i + (objBitSize / myPageBits);
 
                     if (alignment != 0) {
                         myCurrentRecordBitmapPage = j;
@@ -2770,7 +3356,7 @@ public class StorageImpl implements Storage {
                         myBitmapPageAvailableSpace[--j] = 0;
                     }
 
-                    pos = (((long) i * Page.pageSize * 8) - holeBitSize) << DB_ALLOCATION_QUANTUM_BITS;
+                    pos = (((long) i * myPageSize * 8) - holeBitSize) << DB_ALLOCATION_QUANTUM_BITS;
 
                     if (oid != 0) {
                         final long prev = getPos(oid);
@@ -2783,16 +3369,16 @@ public class StorageImpl implements Storage {
                     if (holeBitSize != 0) {
                         reserveLocation(pos, size);
 
-                        while (holeBitSize > PAGE_BITS) {
-                            holeBitSize -= PAGE_BITS;
+                        while (holeBitSize > myPageBits) {
+                            holeBitSize -= myPageBits;
                             pg = putBitmapPage(--i);
-                            memset(pg, 0, 0xFF, Page.pageSize);
+                            memset(pg, 0, 0xFF, myPageSize);
                             myBitmapPageAvailableSpace[i] = 0;
                             myPagePool.unfix(pg);
                         }
 
                         pg = putBitmapPage(--i);
-                        offs = Page.pageSize;
+                        offs = myPageSize;
 
                         while ((holeBitSize -= 8) > 0) {
                             pg.data[--offs] = (byte) 0xFF;
@@ -2839,21 +3425,69 @@ public class StorageImpl implements Storage {
             if (myReuseOid && ((oid = myHeader.myRootPage[curr].myFreeList) != 0)) {
                 myHeader.myRootPage[curr].myFreeList = (int) (getPos(oid) >> DB_FLAGS_BITS);
                 Assert.that(myHeader.myRootPage[curr].myFreeList >= 0);
-                myDirtyPagesMap[oid >>> (DB_HANDLES_PER_PAGE_BITS + 5)] |= 1 << ((oid >>> DB_HANDLES_PER_PAGE_BITS) &
+                myDirtyPagesMap[oid >>> (myHandlesPerPageBits + 5)] |= 1 << ((oid >>> myHandlesPerPageBits) &
                         31);
+
+                if (myIncrementalCollector != null) {
+                    myIncrementalCollector.allocated(oid);
+                }
+
                 return oid;
             }
 
-            if (myCurrentIndexSize > DB_MAX_OBJECT_OID) {
+            return allocateIdRange(1);
+        }
+    }
+
+    /**
+     * Allocate OIDs for the batch of objects. Free handles are reused first, and the rest of the OIDs is taken as one
+     * range, so the object index is extended at most once.
+     */
+    int[] allocateIds(final int n) {
+        synchronized (myObjectCache) {
+            final int[] oids = new int[n];
+            int i = 0;
+
+            while (i < n && myReuseOid && myHeader.myRootPage[1 - myCurrentIndex].myFreeList != 0) {
+                oids[i++] = allocateId();
+            }
+
+            if (i < n) {
+                for (int oid = allocateIdRange(n - i); i < n; i++) {
+                    oids[i] = oid++;
+                }
+            }
+
+            return oids;
+        }
+    }
+
+    /**
+     * Allocate range of OIDs following the last used OID, extending the object index if needed.
+     *
+     * @param n number of OIDs
+     * @return the first OID of the range
+     */
+    int allocateIdRange(final int n) {
+        synchronized (myObjectCache) {
+            final int curr = 1 - myCurrentIndex;
+
+            setDirty();
+
+            if ((long) myCurrentIndexSize + n - 1 > DB_MAX_OBJECT_OID) {
                 throw new StorageError(StorageError.TOO_MUCH_OBJECTS);
             }
 
-            if (myCurrentIndexSize >= myHeader.myRootPage[curr].myIndexSize) {
+            while ((long) myCurrentIndexSize + n > myHeader.myRootPage[curr].myIndexSize) {
                 final int oldIndexSize = myHeader.myRootPage[curr].myIndexSize;
                 int newIndexSize = oldIndexSize << 1;
 
+                while (newIndexSize > 0 && newIndexSize < myCurrentIndexSize + n) {
+                    newIndexSize <<= 1;
+                }
+
                 if (newIndexSize < oldIndexSize) {
-                    newIndexSize = Integer.MAX_VALUE & ~(DB_HANDLES_PER_PAGE - 1);
+                    newIndexSize = Integer.MAX_VALUE & ~(myHandlesPerPage - 1);
 
                     if (newIndexSize <= oldIndexSize) {
                         throw new StorageError(StorageError.NOT_ENOUGH_SPACE);
@@ -2862,7 +3496,7 @@ public class StorageImpl implements Storage {
 
                 final long newIndex = allocate(newIndexSize * 8L, 0);
 
-                if (myCurrentIndexSize >= myHeader.myRootPage[curr].myIndexSize) {
+                if (myHeader.myRootPage[curr].myIndexSize == oldIndexSize) {
                     final long oldIndex = myHeader.myRootPage[curr].myIndex;
                     myPagePool.copy(newIndex, oldIndex, myCurrentIndexSize * 8L);
                     myHeader.myRootPage[curr].myIndex = newIndex;
@@ -2874,8 +3508,9 @@ public class StorageImpl implements Storage {
                 }
             }
 
-            oid = myCurrentIndexSize;
-            myHeader.myRootPage[curr].myIndexUsed = ++myCurrentIndexSize;
+            final int oid = myCurrentIndexSize;
+            myCurrentIndexSize += n;
+            myHeader.myRootPage[curr].myIndexUsed = myCurrentIndexSize;
 
             return oid;
         }
@@ -2884,7 +3519,7 @@ public class StorageImpl implements Storage {
     int allocatePage() {
         final int oid = allocateId();
 
-        setPos(oid, allocate(Page.pageSize, 0) | DB_PAGE_OBJECT_FLAG | DB_MODIFIED_FLAG);
+        setPos(oid, allocate(myPageSize, 0) | DB_PAGE_OBJECT_FLAG | DB_MODIFIED_FLAG);
 
         return oid;
     }
@@ -2911,7 +3546,7 @@ public class StorageImpl implements Storage {
     final void cloneBitmap(long pos, long size) {
         synchronized (myObjectCache) {
             if (myInsideCloneBitmap) {
-                Assert.that(size == Page.pageSize);
+                Assert.that(size == myPageSize);
                 myCloneList = new CloneNode(pos, myCloneList);
             } else {
                 myInsideCloneBitmap = true;
@@ -2919,35 +3554,35 @@ public class StorageImpl implements Storage {
                 while (true) {
                     final long quantNo = pos >>> DB_ALLOCATION_QUANTUM_BITS;
                     int objBitSize = (int) (((size + DB_ALLOCATION_QUANTUM) - 1) >>> DB_ALLOCATION_QUANTUM_BITS);
-                    int pageId = (int) (quantNo >>> (Page.pageSizeLog + 3));
-                    int offs = (int) (quantNo & ((Page.pageSize * 8) - 1)) >> 3;
+                    int pageId = (int) (quantNo >>> (myPageSizeLog + 3));
+                    int offs = (int) (quantNo & ((myPageSize * 8) - 1)) >> 3;
                     final int bitOffs = (int) quantNo & 7;
                     int oid = getBitmapPageId(pageId);
                     pos = getPos(oid);
 
                     if ((pos & DB_MODIFIED_FLAG) == 0) {
-                        myDirtyPagesMap[oid >>> (DB_HANDLES_PER_PAGE_BITS + 5)] |=
-                                1 << ((oid >>> DB_HANDLES_PER_PAGE_BITS) & 31);
-                        allocate(Page.pageSize, oid);
-                        cloneBitmap(pos & ~DB_FLAGS_MASK, Page.pageSize);
+                        myDirtyPagesMap[oid >>> (myHandlesPerPageBits + 5)] |=
+                                1 << ((oid >>> myHandlesPerPageBits) & 31);
+                        allocate(myPageSize, oid);
+                        cloneBitmap(pos & ~DB_FLAGS_MASK, myPageSize);
                     }
 
                     if (objBitSize > (8 - bitOffs)) {
                         objBitSize -= 8 - bitOffs;
                         offs += 1;
 
-                        while ((objBitSize + (offs * 8)) > (Page.pageSize * 8)) {
+                        while ((objBitSize + (offs * 8)) > (myPageSize * 8)) {
                             oid = getBitmapPageId(++pageId);
                             pos = getPos(oid);
 
                             if ((pos & DB_MODIFIED_FLAG) == 0) {
-                                myDirtyPagesMap[oid >>> (DB_HANDLES_PER_PAGE_BITS + 5)] |=
-                                        1 << ((oid >>> DB_HANDLES_PER_PAGE_BITS) & 31);
-                                allocate(Page.pageSize, oid);
-                                cloneBitmap(pos & ~DB_FLAGS_MASK, Page.pageSize);
+                                myDirtyPagesMap[oid >>> (myHandlesPerPageBits + 5)] |=
+                                        1 << ((oid >>> myHandlesPerPageBits) & 31);
+                                allocate(myPageSize, oid);
+                                cloneBitmap(pos & ~DB_FLAGS_MASK, myPageSize);
                             }
 
-                            objBitSize -= (Page.pageSize - offs) * 8;
+                            objBitSize -= (myPageSize - offs) * 8;
                             offs = 0;
                         }
                     }
@@ -2957,7 +3592,7 @@ public class StorageImpl implements Storage {
                     }
 
                     pos = myCloneList.pos;
-                    size = Page.pageSize;
+                    size = myPageSize;
                     myCloneList = myCloneList.next;
                 }
 
@@ -2978,18 +3613,18 @@ public class StorageImpl implements Storage {
 
     final void fillBitmap(long adr, int len) {
         while (true) {
-            final int off = (int) adr & (Page.pageSize - 1);
+            final int off = (int) adr & (myPageSize - 1);
             final Page pg = myPagePool.putPage(adr - off);
 
-            if ((Page.pageSize - off) >= len) {
+            if ((myPageSize - off) >= len) {
                 memset(pg, off, 0xFF, len);
                 myPagePool.unfix(pg);
                 break;
             } else {
-                memset(pg, off, 0xFF, Page.pageSize - off);
+                memset(pg, off, 0xFF, myPageSize - off);
                 myPagePool.unfix(pg);
-                adr += Page.pageSize - off;
-                len -= Page.pageSize - off;
+                adr += myPageSize - off;
+                len -= myPageSize - off;
             }
         }
     }
@@ -2999,6 +3634,17 @@ public class StorageImpl implements Storage {
     }
 
     final ClassDescriptor findClassDescriptor(final int oid) {
+        final ParallelCollector marker = myMarker;
+
+        if (marker != null) {
+            // threads of the collector can't access object cache locked by the thread performing GC, all descriptors
+            // are registered in the descriptor list which can't be changed during GC
+            final ClassDescriptor desc = marker.findClassDescriptor(oid);
+
+            Assert.that("class descriptor " + oid + " is not registered", desc != null);
+            return desc;
+        }
+
         return (ClassDescriptor) lookupObject(oid, ClassDescriptor.class);
     }
 
@@ -3007,15 +3653,15 @@ public class StorageImpl implements Storage {
             Assert.that((pos != 0) && ((pos & (DB_ALLOCATION_QUANTUM - 1)) == 0));
             final long quantNo = pos >>> DB_ALLOCATION_QUANTUM_BITS;
             int objBitSize = (int) (((size + DB_ALLOCATION_QUANTUM) - 1) >>> DB_ALLOCATION_QUANTUM_BITS);
-            int pageId = (int) (quantNo >>> (Page.pageSizeLog + 3));
-            int offs = (int) (quantNo & ((Page.pageSize * 8) - 1)) >> 3;
+            int pageId = (int) (quantNo >>> (myPageSizeLog + 3));
+            int offs = (int) (quantNo & ((myPageSize * 8) - 1)) >> 3;
             Page pg = putBitmapPage(pageId);
             final int bitOffs = (int) quantNo & 7;
 
             myAllocatedDelta -= (long) objBitSize << DB_ALLOCATION_QUANTUM_BITS;
             usedSize -= (long) objBitSize << DB_ALLOCATION_QUANTUM_BITS;
 
-            if (((pos & (Page.pageSize - 1)) == 0) && (size >= Page.pageSize)) {
+            if (((pos & (myPageSize - 1)) == 0) && (size >= myPageSize)) {
                 if ((pageId == myCurrentPageBitmapPage) && (offs < myCurrentPageBitmapOffset)) {
                     myCurrentPageBitmapOffset = offs;
                 }
@@ -3027,16 +3673,20 @@ public class StorageImpl implements Storage {
 
             myBitmapPageAvailableSpace[pageId] = Integer.MAX_VALUE;
 
+            if (myFreeExtents != null) {
+                myFreeExtents.add(pos, (long) objBitSize << DB_ALLOCATION_QUANTUM_BITS);
+            }
+
             if (objBitSize > (8 - bitOffs)) {
                 objBitSize -= 8 - bitOffs;
                 pg.data[offs++] &= (1 << bitOffs) - 1;
 
-                while ((objBitSize + (offs * 8)) > (Page.pageSize * 8)) {
-                    memset(pg, offs, 0, Page.pageSize - offs);
+                while ((objBitSize + (offs * 8)) > (myPageSize * 8)) {
+                    memset(pg, offs, 0, myPageSize - offs);
                     myPagePool.unfix(pg);
                     pg = putBitmapPage(++pageId);
                     myBitmapPageAvailableSpace[pageId] = Integer.MAX_VALUE;
-                    objBitSize -= (Page.pageSize - offs) * 8;
+                    objBitSize -= (myPageSize - offs) * 8;
                     offs = 0;
                 }
 
@@ -3067,9 +3717,9 @@ public class StorageImpl implements Storage {
         Assert.that((pos & (DB_FREE_HANDLE_FLAG | DB_PAGE_OBJECT_FLAG)) == DB_PAGE_OBJECT_FLAG);
 
         if ((pos & DB_MODIFIED_FLAG) != 0) {
-            free(pos & ~DB_FLAGS_MASK, Page.pageSize);
+            free(pos & ~DB_FLAGS_MASK, myPageSize);
         } else {
-            cloneBitmap(pos & ~DB_FLAGS_MASK, Page.pageSize);
+            cloneBitmap(pos & ~DB_FLAGS_MASK, myPageSize);
         }
 
         freeId(oid);
@@ -3090,7 +3740,7 @@ public class StorageImpl implements Storage {
     }
 
     final int getBitmapPageId(final int i) {
-        return i < DB_BITMAP_PAGES ? DB_BITMAP_ID + i : (myHeader.myRootPage[1 - myCurrentIndex].myBitmapExtent + i) -
+        return i < myBitmapPages ? DB_BITMAP_ID + i : (myHeader.myRootPage[1 - myCurrentIndex].myBitmapExtent + i) -
                 myBitmapExtentBase;
     }
 
@@ -3100,7 +3750,7 @@ public class StorageImpl implements Storage {
         while (from < till) {
             final Page pg = getGCPage(from);
 
-            for (int j = 0; j < Page.pageSize; j++) {
+            for (int j = 0; j < myPageSize; j++) {
                 int mask = pg.data[j] & 0xFF;
 
                 while (mask != 0) {
@@ -3135,9 +3785,13 @@ public class StorageImpl implements Storage {
     }
 
     final long getGCPos(final int oid) {
-        final Page pg = myPagePool.getPage(myHeader.myRootPage[myCurrentIndex].myIndex +
-                ((long) (oid >>> DB_HANDLES_PER_PAGE_BITS) << Page.pageSizeLog));
-        final long pos = Bytes.unpack8(pg.data, (oid & (DB_HANDLES_PER_PAGE - 1)) << 3);
+        return getIndexEntry(myCurrentIndex, oid);
+    }
+
+    final long getIndexEntry(final int index, final int oid) {
+        final Page pg = myPagePool.getPage(myHeader.myRootPage[index].myIndex +
+                ((long) (oid >>> myHandlesPerPageBits) << myPageSizeLog));
+        final long pos = Bytes.unpack8(pg.data, (oid & (myHandlesPerPage - 1)) << 3);
 
         myPagePool.unfix(pg);
         return pos;
@@ -3163,13 +3817,7 @@ public class StorageImpl implements Storage {
                 throw new StorageError(StorageError.NOT_IN_TRANSACTION);
             }
 
-            final Page pg = myPagePool.getPage(myHeader.myRootPage[1 - myCurrentIndex].myIndex +
-                    ((long) (oid >>> DB_HANDLES_PER_PAGE_BITS) << Page.pageSizeLog));
-            final long pos = Bytes.unpack8(pg.data, (oid & (DB_HANDLES_PER_PAGE - 1)) << 3);
-
-            myPagePool.unfix(pg);
-
-            return pos;
+            return getIndexEntry(1 - myCurrentIndex, oid);
         }
     }
 
@@ -3204,16 +3852,68 @@ public class StorageImpl implements Storage {
                 obj) & PinnedPersistent.RAW) != 0;
     }
 
-    final Object loadStub(final int oid, Object obj, final Class<?> cls) {
+    /**
+     * Reserve one of the pages which can be pinned by the threads unpacking objects directly from the page pool.
+     *
+     * @return <code>false</code> if the pool is under pressure and the object body should be copied
+     */
+    private boolean reserveLoadPin() {
+        if (myPinnedLoadPages.incrementAndGet() > myLoadPinLimit) {
+            myPinnedLoadPages.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Load the object. It stays raw until the load started by the current thread is completed, so other threads
+     * don't access its fields before they and the objects it references are loaded. Object located in one page is
+     * unpacked directly from the page, which remains pinned while the object is unpacked. When the number of pages
+     * pinned by all loading threads reaches the limit defined by the page pool, the body is copied instead.
+     */
+    final Object loadStub(final LoadContext ctx, final int oid, Object obj, final Class<?> cls) {
         final long pos = getPos(oid);
 
         if ((pos & (DB_FREE_HANDLE_FLAG | DB_PAGE_OBJECT_FLAG)) != 0) {
             throw new StorageError(StorageError.DELETED_OBJECT);
         }
 
-        final byte[] body = myPagePool.get(pos & ~DB_FLAGS_MASK);
+        final long addr = pos & ~DB_FLAGS_MASK;
+
+        if (ctx.pinnedPages < DB_MAX_PINNED_LOAD_PAGES && reserveLoadPin()) {
+            try {
+                final int offs = (int) addr & (myPageSize - 1);
+                final Page pg = myPagePool.getPage(addr - offs);
+
+                try {
+                    final int end = offs + ObjectHeader.getSize(pg.data, offs);
+
+                    if (end <= myPageSize) {
+                        ctx.pinnedPages += 1;
+
+                        try {
+                            return loadStub(ctx, oid, obj, cls, pg.data, offs, end);
+                        } finally {
+                            ctx.pinnedPages -= 1;
+                        }
+                    }
+                } finally {
+                    myPagePool.unfix(pg);
+                }
+            } finally {
+                myPinnedLoadPages.decrementAndGet();
+            }
+        }
+
+        final byte[] body = myPagePool.get(addr);
+        return loadStub(ctx, oid, obj, cls, body, 0, body.length);
+    }
+
+    private Object loadStub(final LoadContext ctx, final int oid, Object obj, final Class<?> cls, final byte[] data,
+            final int offs, final int end) {
         ClassDescriptor desc;
-        final int typeOid = ObjectHeader.getType(body, 0);
+        final int typeOid = ObjectHeader.getType(data, offs);
 
         if (typeOid == 0) {
             desc = findClassDescriptor(cls);
@@ -3225,20 +3925,23 @@ public class StorageImpl implements Storage {
         {
             if (obj == null) {
                 obj = desc.customSerializable ? mySerializer.create(desc.cls) : desc.newInstance();
+                assignOid(obj, oid, true);
                 myObjectCache.put(oid, obj);
+            } else {
+                assignOid(obj, oid, true);
             }
 
-            assignOid(obj, oid, false);
+            ctx.objects.put(oid, obj);
 
             try {
                 if (obj instanceof SelfSerializable) {
-                    ((SelfSerializable) obj).unpack(new ByteArrayObjectInputStream(body, ObjectHeader.sizeof, obj,
-                            recursiveLoading(obj), false));
+                    ((SelfSerializable) obj).unpack(new ByteArrayObjectInputStream(data, offs + ObjectHeader.sizeof,
+                            end, obj, recursiveLoading(obj), false));
                 } else if (desc.customSerializable) {
-                    mySerializer.unpack(obj, new ByteArrayObjectInputStream(body, ObjectHeader.sizeof, obj,
-                            recursiveLoading(obj), false));
+                    mySerializer.unpack(obj, new ByteArrayObjectInputStream(data, offs + ObjectHeader.sizeof, end,
+                            obj, recursiveLoading(obj), false));
                 } else {
-                    unpackObject(obj, desc, recursiveLoading(obj), body, ObjectHeader.sizeof, obj);
+                    unpackObject(obj, desc, recursiveLoading(obj), data, offs + ObjectHeader.sizeof, end, obj);
                 }
             } catch (final Exception x) {
                 throw new StorageError(StorageError.ACCESS_VIOLATION, x);
@@ -3256,14 +3959,66 @@ public class StorageImpl implements Storage {
         return obj;
     }
 
-    final synchronized Object lookupObject(final int oid, final Class<?> cls) {
-        Object obj = myObjectCache.get(oid);
+    /**
+     * Get object by OID. Objects found in the object cache are returned without locking the storage, only cache
+     * misses and stubs are loaded by <code>fetchObject</code>.
+     */
+    final Object lookupObject(final int oid, final Class<?> cls) {
+        final Object obj = myObjectCache.get(oid);
 
-        if ((obj == null) || isRaw(obj)) {
-            obj = loadStub(oid, obj, cls);
+        if ((obj != null) && !isRaw(obj)) {
+            return obj;
         }
 
-        return obj;
+        return fetchObject(oid, obj, cls, true);
+    }
+
+    /**
+     * Load object or create its stub. Instead of the storage monitor, the thread claims OIDs of the objects it loads,
+     * including the objects loaded recursively, so threads loading different objects proceed in parallel. When an
+     * object is claimed by another thread, the current thread gives up all its claims and waits until the object is
+     * released, so threads never wait for each other while holding claims. The owner of the claim may however need
+     * the storage or object cache monitor to complete its load: the object cache monitor is taken by the load itself
+     * and the storage monitor by <code>onLoad</code> or unpack methods of the application. So the thread holding
+     * one of these monitors doesn't wait and fails with <code>StorageError.LOCK_FAILED</code> instead of
+     * deadlocking. Loaded objects are marked as loaded when the whole load is completed.
+     *
+     * @param oid object identifier
+     * @param stub stub of the object or <code>null</code>
+     * @param cls expected class of the object
+     * @param load whether the object should be loaded or just its stub is needed
+     * @return loaded object or its stub
+     */
+    final Object fetchObject(final int oid, final Object stub, final Class<?> cls, final boolean load) {
+        final LoadContext ctx = myLoadContext.get();
+
+        if (ctx.active) {
+            return ctx.fetch(oid, stub, cls, load);
+        }
+
+        ctx.active = true;
+
+        try {
+            while (true) {
+                try {
+                    final Object obj = ctx.fetch(oid, stub, cls, load);
+                    ctx.complete();
+                    return obj;
+                } catch (final LoadConflict x) {
+                    ctx.release();
+
+                    if (Thread.holdsLock(this) || Thread.holdsLock(myObjectCache)) {
+                        throw new StorageError(StorageError.LOCK_FAILED, "for object " + x.oid +
+                                " loaded by another thread");
+                    }
+
+                    x.owner.await(x.oid);
+                }
+            }
+        } finally {
+            ctx.release();
+            ctx.active = false;
+        }
     }
 
     final int markObject(final byte[] obj, int offs, final ClassDescriptor desc) {
@@ -3482,6 +4237,11 @@ public class StorageImpl implements Storage {
     }
 
     final void markOid(final int oid) {
+        if (myIncrementalCollector != null && myIncrementalCollector.isMarking()) {
+            myIncrementalCollector.reach(oid);
+            return;
+        }
+
         if (oid != 0) {
             final long pos = getGCPos(oid);
 
@@ -3493,7 +4253,9 @@ public class StorageImpl implements Storage {
                 // object was not allocated by custom allocator
                 final int bit = (int) (pos >>> DB_ALLOCATION_QUANTUM_BITS);
 
-                if ((myBlackBitmap[bit >>> 5] & (1 << (bit & 31))) == 0) {
+                if (myMarker != null) {
+                    myMarker.reach(pos);
+                } else if ((myBlackBitmap[bit >>> 5] & (1 << (bit & 31))) == 0) {
                     myGreyBitmap[bit >>> 5] |= 1 << (bit & 31);
                 }
             }
@@ -3502,6 +4264,14 @@ public class StorageImpl implements Storage {
 
     final byte[] packObject(final Object obj, final boolean finalized) {
         final ByteBuffer buf = new ByteBuffer(this, obj, finalized);
+        packObject(obj, buf);
+        return buf.arr;
+    }
+
+    /**
+     * Pack the object with its header in the buffer.
+     */
+    final void packObject(final Object obj, final ByteBuffer buf) {
         int offs = ObjectHeader.sizeof;
         buf.extend(offs);
         final ClassDescriptor desc = getClassDescriptor(obj.getClass());
@@ -3522,13 +4292,53 @@ public class StorageImpl implements Storage {
 
         ObjectHeader.setSize(buf.arr, 0, offs);
         ObjectHeader.setType(buf.arr, 0, desc.getOid());
-        return buf.arr;
     }
 
-    final int packObject(final Object obj, final ClassDescriptor desc, int offs, final ByteBuffer buf)
+    /**
+     * Take pack buffer from the pool of the current thread. Objects referenced by the packed object can be stored
+     * while it is packed, so the pool contains a buffer for each level of nesting.
+     */
+    final ByteBuffer allocatePackBuffer(final Object obj, final boolean finalized) {
+        final ByteBuffer buf = myPackBuffers.get();
+
+        if (buf == null) {
+            return new ByteBuffer(this, obj, finalized);
+        }
+
+        myPackBuffers.set(buf.next);
+        buf.next = null;
+        buf.reset(this, obj, finalized);
+        return buf;
+    }
+
+    /**
+     * Return pack buffer to the pool of the current thread. Buffers grown by large objects are not kept.
+     */
+    final void releasePackBuffer(final ByteBuffer buf) {
+        if (buf.arr.length <= DB_PACK_BUFFER_REUSE_LIMIT) {
+            buf.parent = null;
+            buf.next = myPackBuffers.get();
+            myPackBuffers.set(buf);
+        }
+    }
+
+    final int packObject(final Object obj, final ClassDescriptor desc, final int offs, final ByteBuffer buf)
             throws Exception {
-        final ClassDescriptor.FieldDescriptor[] flds = desc.allFields;
+        final ClassSerializer serializer = myMethodHandles ? desc.getSerializer() : null;
 
+        if (serializer != null) {
+            return serializer.pack(this, obj, offs, buf);
+        }
+
+        return packFields(obj, desc.allFields, offs, buf);
+    }
+
+    /**
+     * Reflective serialization of the fields of the object, used when there is no serializer for the class and by
+     * the serializer itself for the fields it can't access through method handles.
+     */
+    final int packFields(final Object obj, final FieldDescriptor[] flds, int offs, final ByteBuffer buf)
+            throws Exception {
         for (final FieldDescriptor fd : flds) {
             final Field f = fd.field;
 
@@ -4024,10 +4834,10 @@ public class StorageImpl implements Storage {
             }
 
             if ((pos & DB_MODIFIED_FLAG) == 0) {
-                myDirtyPagesMap[oid >>> (DB_HANDLES_PER_PAGE_BITS + 5)] |= 1 << ((oid >>> DB_HANDLES_PER_PAGE_BITS) &
+                myDirtyPagesMap[oid >>> (myHandlesPerPageBits + 5)] |= 1 << ((oid >>> myHandlesPerPageBits) &
                         31);
-                allocate(Page.pageSize, oid);
-                cloneBitmap(pos & ~DB_FLAGS_MASK, Page.pageSize);
+                allocate(myPageSize, oid);
+                cloneBitmap(pos & ~DB_FLAGS_MASK, myPageSize);
                 pos = getPos(oid);
             }
 
@@ -4121,6 +4931,100 @@ public class StorageImpl implements Storage {
         }
     }
 
+    /**
+     * Move the committed object to the free space before the boundary, called by compaction.
+     *
+     * @param oid OID of the object
+     * @param boundary position after which objects are moved
+     * @param holes map of free space before the boundary
+     * @return size of the moved object or 0 if the object was not moved
+     */
+    final long relocateObject(final int oid, final long boundary, final FreeExtentMap holes) {
+        final long pos = getPos(oid);
+        final int marker = (int) pos & DB_FLAGS_MASK;
+        final long size;
+
+        if ((pos == 0) || ((marker & (DB_FREE_HANDLE_FLAG | DB_MODIFIED_FLAG)) != 0) || ((pos - marker) < boundary)) {
+            return 0;
+        }
+
+        if ((marker & DB_PAGE_OBJECT_FLAG) != 0) {
+            size = myPageSize;
+        } else {
+            final int offs = (int) pos & (myPageSize - 1);
+            final Page pg = myPagePool.getPage(pos - offs);
+
+            try {
+                size = ((ObjectHeader.getSize(pg.data, offs) + DB_ALLOCATION_QUANTUM) - 1) & ~(DB_ALLOCATION_QUANTUM
+                        - 1);
+            } finally {
+                myPagePool.unfix(pg);
+            }
+        }
+
+        if (wasReserved(pos - marker, size)) {
+            return 0; // segment of custom allocator
+        }
+
+        final long alignment = (size & (myPageSize - 1)) == 0 ? myPageSize : DB_ALLOCATION_QUANTUM;
+        long newPos;
+
+        while ((newPos = holes.allocate(size, alignment)) != 0) {
+            if (!wasReserved(newPos, size) && isFreeSpace(newPos, size)) {
+                setDirty();
+                reserveLocation(newPos, size);
+                myPagePool.copy(newPos, pos - marker, size);
+                setPos(oid, newPos | marker | DB_MODIFIED_FLAG);
+                setBitmapBits(newPos, size);
+                commitLocation();
+                cloneBitmap(pos - marker, size);
+                myAllocatedDelta += size;
+                usedSize += size;
+                return size;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Move the copy of the object index which is modified by the current transaction to the first free space, called by
+     * compaction after the space of the moved objects is released. The committed copy becomes modifiable after the
+     * commit, so it is moved by the next step.
+     *
+     * @param boundary position after which the index is moved
+     * @return <code>true</code> if the next step is needed to move the index
+     */
+    final boolean relocateIndex(final long boundary) {
+        synchronized (myObjectCache) {
+            final int curr = 1 - myCurrentIndex;
+            final long pos = myHeader.myRootPage[curr].myIndex;
+            final long size = myHeader.myRootPage[curr].myIndexSize * 8L;
+
+            if (pos + size <= boundary) {
+                if (myHeader.myRootPage[1 - curr].myIndex + (myHeader.myRootPage[1 - curr].myIndexSize * 8L) >
+                        boundary) {
+                    setDirty(); // commit of the step swaps the copies
+                    return true;
+                }
+
+                return false;
+            }
+
+            final long newPos = allocate(size, 0);
+
+            if (newPos > pos) {
+                free(newPos, size);
+                return false;
+            }
+
+            myPagePool.copy(newPos, pos, myCurrentIndexSize * 8L);
+            myHeader.myRootPage[curr].myIndex = newPos;
+            free(pos, size);
+            return true;
+        }
+    }
+
     final void reserveLocation(final long pos, final long size) {
         final Location location = new Location();
 
@@ -4144,10 +5048,10 @@ public class StorageImpl implements Storage {
 
     final void setPos(final int oid, final long pos) {
         synchronized (myObjectCache) {
-            myDirtyPagesMap[oid >>> (DB_HANDLES_PER_PAGE_BITS + 5)] |= 1 << ((oid >>> DB_HANDLES_PER_PAGE_BITS) & 31);
+            myDirtyPagesMap[oid >>> (myHandlesPerPageBits + 5)] |= 1 << ((oid >>> myHandlesPerPageBits) & 31);
             final Page pg = myPagePool.putPage(myHeader.myRootPage[1 - myCurrentIndex].myIndex +
-                    ((long) (oid >>> DB_HANDLES_PER_PAGE_BITS) << Page.pageSizeLog));
-            Bytes.pack8(pg.data, (oid & (DB_HANDLES_PER_PAGE - 1)) << 3, pos);
+                    ((long) (oid >>> myHandlesPerPageBits) << myPageSizeLog));
+            Bytes.pack8(pg.data, (oid & (myHandlesPerPage - 1)) << 3, pos);
             myPagePool.unfix(pg);
         }
     }
@@ -4207,7 +5111,8 @@ public class StorageImpl implements Storage {
                                 offs = skipObjectReference(obj, offs);
                             }
                         } else {
-                            offs = unpackObject(null, findClassDescriptor(typeOid), false, obj, offs, null);
+                            offs = unpackObject(null, findClassDescriptor(typeOid), false, obj, offs, obj.length,
+                                    null);
                         }
                     } else {
                         offs += ClassDescriptor.sizeof[tid];
@@ -4461,9 +5366,29 @@ public class StorageImpl implements Storage {
         }
     }
 
+    /**
+     * Unpack the object which body ends at <code>end</code> offset, so that the object can be unpacked directly from
+     * the page containing it.
+     */
     final int unpackObject(final Object obj, final ClassDescriptor desc, final boolean recursiveLoading,
-            final byte[] body, int offs, final Object parent) throws Exception {
-        final ClassDescriptor.FieldDescriptor[] all = desc.allFields;
+            final byte[] body, final int offs, final int end, final Object parent) throws Exception {
+        if (obj != null && myMethodHandles) {
+            final ClassSerializer serializer = desc.getSerializer();
+
+            if (serializer != null) {
+                return serializer.unpack(this, obj, recursiveLoading, body, offs, end, parent);
+            }
+        }
+
+        return unpackFields(obj, desc.allFields, recursiveLoading, body, offs, end, parent);
+    }
+
+    /**
+     * Reflective deserialization of the fields of the object, when <code>obj</code> is <code>null</code> the fields
+     * are just skipped.
+     */
+    final int unpackFields(final Object obj, final FieldDescriptor[] all, final boolean recursiveLoading,
+            final byte[] body, int offs, final int end, final Object parent) throws Exception {
         final ReflectionProvider provider = ClassDescriptor.getReflectionProvider();
         int len;
 
@@ -4498,7 +5423,7 @@ public class StorageImpl implements Storage {
                         offs = Bytes.skipString(body, offs);
                         continue;
                     case ClassDescriptor.tpValue:
-                        offs = unpackObject(null, fd.valueDesc, recursiveLoading, body, offs, parent);
+                        offs = unpackObject(null, fd.valueDesc, recursiveLoading, body, offs, end, parent);
                         continue;
                     case ClassDescriptor.tpRaw:
                     case ClassDescriptor.tpArrayOfByte:
@@ -4581,13 +5506,13 @@ public class StorageImpl implements Storage {
                             final ClassDescriptor valueDesc = fd.valueDesc;
 
                             for (int j = 0; j < len; j++) {
-                                offs = unpackObject(null, valueDesc, recursiveLoading, body, offs, parent);
+                                offs = unpackObject(null, valueDesc, recursiveLoading, body, offs, end, parent);
                             }
                         }
 
                         continue;
                 }
-            } else if (offs < body.length) {
+            } else if (offs < end) {
                 switch (fd.type) {
                     case ClassDescriptor.tpBoolean:
                         provider.setBoolean(f, obj, body[offs++] != 0);
@@ -4657,14 +5582,14 @@ public class StorageImpl implements Storage {
                         continue;
                     }
                     case ClassDescriptor.tpObject: {
-                        final ArrayPos pos = new ArrayPos(body, offs);
+                        final ArrayPos pos = new ArrayPos(body, offs, end);
                         provider.set(f, obj, unswizzle(pos, f.getType(), parent, recursiveLoading));
                         offs = pos.offs;
                         continue;
                     }
                     case ClassDescriptor.tpValue: {
                         final Object value = fd.valueDesc.newInstance();
-                        offs = unpackObject(value, fd.valueDesc, recursiveLoading, body, offs, parent);
+                        offs = unpackObject(value, fd.valueDesc, recursiveLoading, body, offs, end, parent);
                         provider.set(f, obj, value);
                         continue;
                     }
@@ -4947,7 +5872,7 @@ public class StorageImpl implements Storage {
                         } else {
                             final Class<?> elemType = f.getType().getComponentType();
                             final Object[] arr = (Object[]) Array.newInstance(elemType, len);
-                            final ArrayPos pos = new ArrayPos(body, offs);
+                            final ArrayPos pos = new ArrayPos(body, offs, end);
 
                             for (int j = 0; j < len; j++) {
                                 arr[j] = unswizzle(pos, elemType, parent, recursiveLoading);
@@ -4971,7 +5896,7 @@ public class StorageImpl implements Storage {
 
                             for (int j = 0; j < len; j++) {
                                 final Object value = valueDesc.newInstance();
-                                offs = unpackObject(value, valueDesc, recursiveLoading, body, offs, parent);
+                                offs = unpackObject(value, valueDesc, recursiveLoading, body, offs, end, parent);
                                 arr[j] = value;
                             }
 
@@ -5240,7 +6165,7 @@ public class StorageImpl implements Storage {
 
                             return map;
                         } else {
-                            offs = unpackObject(val, desc, recursiveLoading, body, offs, parent);
+                            offs = unpackObject(val, desc, recursiveLoading, body, offs, obj.end, parent);
                         }
                     } else {
                         throw new StorageError(StorageError.UNSUPPORTED_TYPE);
@@ -5265,13 +6190,26 @@ public class StorageImpl implements Storage {
         return false;
     }
 
-    private final void commit0() {
-        int i, j, n;
-        int curr = myCurrentIndex;
+    /**
+     * Check if the committed image of the page should not be deallocated because it is not scanned yet by the
+     * incremental collector.
+     */
+    private boolean isRetainedByCollector(final int oid, final long pos) {
+        final IncrementalCollector collector = myIncrementalCollector;
+        return collector != null && collector.isRetained(oid, pos);
+    }
+
+    private final void commit0() {
+        if (myIncrementalCollector != null) {
+            myIncrementalCollector.beforeCommit();
+        }
+
+        int i, j, n;
+        int curr = myCurrentIndex;
         final int[] map = myDirtyPagesMap;
         final int oldIndexSize = myHeader.myRootPage[curr].myIndexSize;
         int newIndexSize = myHeader.myRootPage[1 - curr].myIndexSize;
-        final int nPages = myCommittedIndexSize >>> DB_HANDLES_PER_PAGE_BITS;
+        final int nPages = myCommittedIndexSize >>> myHandlesPerPageBits;
         Page pg;
 
         if (newIndexSize > oldIndexSize) {
@@ -5299,19 +6237,21 @@ public class StorageImpl implements Storage {
         for (i = 0; i < nPages; i++) {
             if ((map[i >> 5] & (1 << (i & 31))) != 0) {
                 final Page srcIndex = myPagePool.getPage(myHeader.myRootPage[1 - curr].myIndex + ((long) i *
-                        Page.pageSize));
+                        myPageSize));
                 final Page dstIndex = myPagePool.getPage(myHeader.myRootPage[curr].myIndex + ((long) i *
-                        Page.pageSize));
+                        myPageSize));
 
-                for (j = 0; j < Page.pageSize; j += 8) {
+                for (j = 0; j < myPageSize; j += 8) {
                     final long pos = Bytes.unpack8(dstIndex.data, j);
 
                     if ((Bytes.unpack8(srcIndex.data, j) != pos) && (pos < currSize)) {
                         if ((pos & DB_FREE_HANDLE_FLAG) == 0) {
                             if ((pos & DB_PAGE_OBJECT_FLAG) != 0) {
-                                free(pos & ~DB_FLAGS_MASK, Page.pageSize);
+                                if (!isRetainedByCollector((i << myHandlesPerPageBits) + (j >>> 3), pos)) {
+                                    free(pos & ~DB_FLAGS_MASK, myPageSize);
+                                }
                             } else if (pos != 0) {
-                                final int offs = (int) pos & (Page.pageSize - 1);
+                                final int offs = (int) pos & (myPageSize - 1);
                                 pg = myPagePool.getPage(pos - offs);
                                 free(pos, ObjectHeader.getSize(pg.data, offs));
                                 myPagePool.unfix(pg);
@@ -5325,12 +6265,12 @@ public class StorageImpl implements Storage {
             }
         }
 
-        n = myCommittedIndexSize & (DB_HANDLES_PER_PAGE - 1);
+        n = myCommittedIndexSize & (myHandlesPerPage - 1);
 
         if ((n != 0) && ((map[i >> 5] & (1 << (i & 31))) != 0)) {
             final Page srcIndex = myPagePool.getPage(myHeader.myRootPage[1 - curr].myIndex + ((long) i *
-                    Page.pageSize));
-            final Page dstIndex = myPagePool.getPage(myHeader.myRootPage[curr].myIndex + ((long) i * Page.pageSize));
+                    myPageSize));
+            final Page dstIndex = myPagePool.getPage(myHeader.myRootPage[curr].myIndex + ((long) i * myPageSize));
             j = 0;
 
             do {
@@ -5339,9 +6279,11 @@ public class StorageImpl implements Storage {
                 if ((Bytes.unpack8(srcIndex.data, j) != pos) && (pos < currSize)) {
                     if ((pos & DB_FREE_HANDLE_FLAG) == 0) {
                         if ((pos & DB_PAGE_OBJECT_FLAG) != 0) {
-                            free(pos & ~DB_FLAGS_MASK, Page.pageSize);
+                            if (!isRetainedByCollector((i << myHandlesPerPageBits) + (j >>> 3), pos)) {
+                                free(pos & ~DB_FLAGS_MASK, myPageSize);
+                            }
                         } else if (pos != 0) {
-                            final int offs = (int) pos & (Page.pageSize - 1);
+                            final int offs = (int) pos & (myPageSize - 1);
                             pg = myPagePool.getPage(pos - offs);
                             free(pos, ObjectHeader.getSize(pg.data, offs));
                             myPagePool.unfix(pg);
@@ -5358,9 +6300,9 @@ public class StorageImpl implements Storage {
 
         for (i = 0; i <= nPages; i++) {
             if ((map[i >> 5] & (1 << (i & 31))) != 0) {
-                pg = myPagePool.putPage(myHeader.myRootPage[1 - curr].myIndex + ((long) i * Page.pageSize));
+                pg = myPagePool.putPage(myHeader.myRootPage[1 - curr].myIndex + ((long) i * myPageSize));
 
-                for (j = 0; j < Page.pageSize; j += 8) {
+                for (j = 0; j < myPageSize; j += 8) {
                     Bytes.pack8(pg.data, j, Bytes.unpack8(pg.data, j) & ~DB_MODIFIED_FLAG);
                 }
 
@@ -5369,26 +6311,30 @@ public class StorageImpl implements Storage {
         }
 
         if (myCurrentIndexSize > myCommittedIndexSize) {
-            long page = (myHeader.myRootPage[1 - curr].myIndex + (myCommittedIndexSize * 8L)) & ~(Page.pageSize - 1);
-            final long end = (((myHeader.myRootPage[1 - curr].myIndex + Page.pageSize) - 1) + (myCurrentIndexSize *
-                    8L)) & ~(Page.pageSize - 1);
+            long page = (myHeader.myRootPage[1 - curr].myIndex + (myCommittedIndexSize * 8L)) & ~(myPageSize - 1);
+            final long end = (((myHeader.myRootPage[1 - curr].myIndex + myPageSize) - 1) + (myCurrentIndexSize *
+                    8L)) & ~(myPageSize - 1);
 
             while (page < end) {
                 pg = myPagePool.putPage(page);
 
-                for (j = 0; j < Page.pageSize; j += 8) {
+                for (j = 0; j < myPageSize; j += 8) {
                     Bytes.pack8(pg.data, j, Bytes.unpack8(pg.data, j) & ~DB_MODIFIED_FLAG);
                 }
 
                 myPagePool.unfix(pg);
-                page += Page.pageSize;
+                page += myPageSize;
             }
         }
 
         myHeader.myRootPage[1 - curr].myUsedSize = usedSize;
         pg = myPagePool.putPage(0);
         myHeader.pack(pg.data);
-        myPagePool.flush();
+
+        if (myRedoLog == null) {
+            myPagePool.flush();
+        }
+
         myPagePool.modify(pg);
         Assert.that(myHeader.myTransactionId == myTransactionId);
         myHeader.myTransactionId = ++myTransactionId;
@@ -5396,7 +6342,12 @@ public class StorageImpl implements Storage {
         myHeader.myDbIsDirty = true;
         myHeader.pack(pg.data);
         myPagePool.unfix(pg);
-        myPagePool.flush();
+
+        if (myRedoLog != null) {
+            writeRedoLogRecord();
+        } else {
+            myPagePool.flush();
+        }
         myHeader.myRootPage[1 - curr].mySize = myHeader.myRootPage[curr].mySize;
         myHeader.myRootPage[1 - curr].myIndexUsed = myCurrentIndexSize;
         myHeader.myRootPage[1 - curr].myFreeList = myHeader.myRootPage[curr].myFreeList;
@@ -5412,27 +6363,30 @@ public class StorageImpl implements Storage {
             myHeader.myRootPage[1 - curr].myShadowIndexSize = myHeader.myRootPage[curr].myIndexSize;
             myPagePool.copy(myHeader.myRootPage[1 - curr].myIndex, myHeader.myRootPage[curr].myIndex,
                     myCurrentIndexSize * 8L);
-            i = ((myCurrentIndexSize + (DB_HANDLES_PER_PAGE * 32)) - 1) >>> (DB_HANDLES_PER_PAGE_BITS + 5);
+            i = ((myCurrentIndexSize + (myHandlesPerPage * 32)) - 1) >>> (myHandlesPerPageBits + 5);
 
             while (--i >= 0) {
                 map[i] = 0;
             }
         } else {
+            // the copy could be moved by compaction
+            myHeader.myRootPage[1 - curr].myShadowIndex = myHeader.myRootPage[curr].myIndex;
+
             for (i = 0; i < nPages; i++) {
                 if ((map[i >> 5] & (1 << (i & 31))) != 0) {
                     map[i >> 5] -= 1 << (i & 31);
-                    myPagePool.copy(myHeader.myRootPage[1 - curr].myIndex + ((long) i * Page.pageSize),
-                            myHeader.myRootPage[curr].myIndex + ((long) i * Page.pageSize), Page.pageSize);
+                    myPagePool.copy(myHeader.myRootPage[1 - curr].myIndex + ((long) i * myPageSize),
+                            myHeader.myRootPage[curr].myIndex + ((long) i * myPageSize), myPageSize);
                 }
             }
 
-            if ((myCurrentIndexSize > (i * DB_HANDLES_PER_PAGE)) && (((map[i >> 5] & (1 << (i & 31))) != 0) ||
+            if ((myCurrentIndexSize > (i * myHandlesPerPage)) && (((map[i >> 5] & (1 << (i & 31))) != 0) ||
                     (myCurrentIndexSize != myCommittedIndexSize))) {
-                myPagePool.copy(myHeader.myRootPage[1 - curr].myIndex + ((long) i * Page.pageSize),
-                        myHeader.myRootPage[curr].myIndex + ((long) i * Page.pageSize), (8L * myCurrentIndexSize) -
-                                ((long) i * Page.pageSize));
+                myPagePool.copy(myHeader.myRootPage[1 - curr].myIndex + ((long) i * myPageSize),
+                        myHeader.myRootPage[curr].myIndex + ((long) i * myPageSize), (8L * myCurrentIndexSize) -
+                                ((long) i * myPageSize));
                 j = i >>> 5;
-                n = ((myCurrentIndexSize + (DB_HANDLES_PER_PAGE * 32)) - 1) >>> (DB_HANDLES_PER_PAGE_BITS + 5);
+                n = ((myCurrentIndexSize + (myHandlesPerPage * 32)) - 1) >>> (myHandlesPerPageBits + 5);
 
                 while (j < n) {
                     map[j++] = 0;
@@ -5444,6 +6398,10 @@ public class StorageImpl implements Storage {
         myCurrentIndex = curr;
         myCommittedIndexSize = myCurrentIndexSize;
 
+        if (myFreeExtents != null) {
+            myFreeExtents.commit();
+        }
+
         if (myMulticlientSupport) {
             myPagePool.flush();
             pg = myPagePool.putPage(0);
@@ -5458,6 +6416,88 @@ public class StorageImpl implements Storage {
         }
     }
 
+    /**
+     * Append images of all pages modified by the committed transaction to the redo log. Pages remain dirty in page
+     * pool and are written to the database file by checkpoint (or when they are replaced in page pool).
+     */
+    private void writeRedoLogRecord() {
+        final long[] pages = myPagePool.takeModifiedPages();
+        long prev = -1;
+
+        Arrays.sort(pages);
+        myRedoLog.begin();
+
+        for (final long addr : pages) {
+            if (addr != prev) {
+                final Page pg = myPagePool.getModifiedPage(addr);
+                myRedoLog.append(addr, pg.data);
+                myPagePool.unfix(pg);
+                prev = addr;
+            }
+        }
+
+        myRedoLog.commit(myTransactionId, myNoFlush);
+
+        if (myRedoLog.size >= myRedoLogCheckpoint) {
+            if (myCheckpointThread == null) {
+                myCheckpointThread = new CheckpointThread();
+            }
+
+            myCheckpointThread.activate();
+        }
+    }
+
+    /**
+     * Write all dirty pages to the database file and truncate redo log. Should be called while holding storage lock,
+     * so that no transaction is committed at this moment. Uncommitted changes can be written to the database file,
+     * because shadow objects and object index never overwrite committed data.
+     */
+    final void checkpoint() {
+        myPagePool.checkpoint();
+        myRedoLog.truncate();
+    }
+
+    /**
+     * Get page size of the database before the page pool is created. Page size of the existing database is read from
+     * its header, new database is created with the page size specified by the "sodbox.page.size" property. Header
+     * which looks like a header of the corrupted or encrypted database is ignored, it is left to the checks of the
+     * header read by <code>open</code>.
+     */
+    private int readPageSizeLog(final IFile file) {
+        final byte[] buf = new byte[Header.SIZE];
+
+        if (file.read(0, buf) == Header.SIZE) {
+            final Header header = new Header();
+
+            header.unpack(buf);
+
+            if ((header.myDatabaseFormatVersion > 0) && (header.myDatabaseFormatVersion <= DB_DATABASE_FORMAT_VERSION)
+                    && (header.myPageSizeLog >= Page.DEFAULT_PAGE_SIZE_LOG)
+                    && (header.myPageSizeLog <= Page.MAX_PAGE_SIZE_LOG)) {
+                return header.myPageSizeLog;
+            }
+        }
+
+        return Integer.numberOfTrailingZeros(myInitPageSize);
+    }
+
+    /**
+     * Set page size of the opened database and derive the layout of the bitmap and the object index from it.
+     */
+    private void setPageSizeLog(final int pageSizeLog) {
+        myPageSizeLog = pageSizeLog;
+        myPageSize = 1 << pageSizeLog;
+        myPageBits = myPageSize * 8;
+        myPageBitmapBytes = myPageSize / DB_ALLOCATION_QUANTUM / 8;
+        myBitmapSegmentBits = pageSizeLog + 3 + DB_ALLOCATION_QUANTUM_BITS;
+        myBitmapPages = 1 << (DB_DATABASE_OFFSET_BITS - myBitmapSegmentBits);
+        myLargeBitmapPages = 1 << (DB_LARGE_DATABASE_OFFSET_BITS - myBitmapSegmentBits);
+        myHandlesPerPageBits = pageSizeLog - 3;
+        myHandlesPerPage = 1 << myHandlesPerPageBits;
+        myFirstUserId = DB_BITMAP_ID + myBitmapPages;
+        myDirtyPageBitmapSize = 1 << (DB_DATABASE_OID_BITS - myHandlesPerPageBits - 3);
+    }
+
     private void deallocateObject0(final Object obj) {
         if (myListener != null) {
             myListener.onObjectDelete(obj);
@@ -5466,7 +6506,7 @@ public class StorageImpl implements Storage {
         final int oid = getOid(obj);
         final long pos = getPos(oid);
         myObjectCache.remove(oid);
-        int offs = (int) pos & (Page.pageSize - 1);
+        int offs = (int) pos & (myPageSize - 1);
 
         if ((offs & (DB_FREE_HANDLE_FLAG | DB_PAGE_OBJECT_FLAG)) != 0) {
             throw new StorageError(StorageError.DELETED_OBJECT);
@@ -5504,7 +6544,7 @@ public class StorageImpl implements Storage {
 
             myGcActive = true;
 
-            if (myBackgroundGc) {
+            if (myBackgroundGc || myIncrementalGc) {
                 if (myGcThread == null) {
                     myGcThread = new GcThread();
                 }
@@ -5584,6 +6624,16 @@ public class StorageImpl implements Storage {
         throw new StorageError(StorageError.BAD_PROPERTY_VALUE);
     }
 
+    private int getPageSizeValue(final Object value) {
+        final long size = getIntegerValue(value);
+
+        if ((size < Page.pageSize) || (size > (1 << Page.MAX_PAGE_SIZE_LOG)) || ((size & (size - 1)) != 0)) {
+            throw new StorageError(StorageError.BAD_PROPERTY_VALUE, "sodbox.page.size=" + value);
+        }
+
+        return (int) size;
+    }
+
     private void mark() {
         final int bitmapSize = (int) (myHeader.myRootPage[myCurrentIndex].mySize >>> (DB_ALLOCATION_QUANTUM_BITS + 5)) +
                 1;
@@ -5595,12 +6645,17 @@ public class StorageImpl implements Storage {
             myListener.gcStarted();
         }
 
-        myGreyBitmap = new int[bitmapSize];
         myBlackBitmap = new int[bitmapSize];
 
         final int rootOid = myHeader.myRootPage[myCurrentIndex].myRootObject;
 
         if (rootOid != 0) {
+            if (myGcThreads > 1) {
+                getGcCollector().mark(rootOid);
+                return;
+            }
+
+            myGreyBitmap = new int[bitmapSize];
             markOid(rootOid);
 
             do {
@@ -5614,24 +6669,7 @@ public class StorageImpl implements Storage {
                                 pos = (((long) i << 5) + j) << DB_ALLOCATION_QUANTUM_BITS;
                                 myGreyBitmap[i] &= ~(1 << j);
                                 myBlackBitmap[i] |= 1 << j;
-
-                                final int offs = (int) pos & (Page.pageSize - 1);
-                                final Page pg = myPagePool.getPage(pos - offs);
-                                final int typeOid = ObjectHeader.getType(pg.data, offs);
-
-                                if (typeOid != 0) {
-                                    final ClassDescriptor desc = findClassDescriptor(typeOid);
-
-                                    if (Btree.class.isAssignableFrom(desc.cls)) {
-                                        final Btree btree = new Btree(pg.data, ObjectHeader.sizeof + offs);
-                                        btree.assignOid(this, 0, false);
-                                        btree.markTree();
-                                    } else if (desc.hasReferences) {
-                                        markObject(myPagePool.get(pos), ObjectHeader.sizeof, desc);
-                                    }
-                                }
-
-                                myPagePool.unfix(pg);
+                                scanObject(pos);
                             }
                         }
                     }
@@ -5640,6 +6678,46 @@ public class StorageImpl implements Storage {
         }
     }
 
+    private ParallelCollector getGcCollector() {
+        if (myGcCollector == null || myGcCollector.pool.getParallelism() != myGcThreads) {
+            if (myGcCollector != null) {
+                myGcCollector.close();
+            }
+
+            myGcCollector = new ParallelCollector(this, myGcThreads);
+        }
+
+        return myGcCollector;
+    }
+
+    /**
+     * Mark objects referenced by the marked object.
+     *
+     * @param pos position of the object
+     */
+    final void scanObject(final long pos) {
+        final int offs = (int) pos & (myPageSize - 1);
+        final Page pg = myPagePool.getPage(pos - offs);
+
+        try {
+            final int typeOid = ObjectHeader.getType(pg.data, offs);
+
+            if (typeOid != 0) {
+                final ClassDescriptor desc = findClassDescriptor(typeOid);
+
+                if (Btree.class.isAssignableFrom(desc.cls)) {
+                    final Btree btree = new Btree(pg.data, ObjectHeader.sizeof + offs);
+                    btree.assignOid(this, 0, false);
+                    btree.markTree();
+                } else if (desc.hasReferences) {
+                    markObject(myPagePool.get(pos), ObjectHeader.sizeof, desc);
+                }
+            }
+        } finally {
+            myPagePool.unfix(pg);
+        }
+    }
+
     private final void rollback0() {
         final int curr = myCurrentIndex;
         final int[] map = myDirtyPagesMap;
@@ -5648,17 +6726,17 @@ public class StorageImpl implements Storage {
             myPagePool.copy(myHeader.myRootPage[curr].myShadowIndex, myHeader.myRootPage[curr].myIndex, 8L *
                     myCommittedIndexSize);
         } else {
-            final int nPages = ((myCommittedIndexSize + DB_HANDLES_PER_PAGE) - 1) >>> DB_HANDLES_PER_PAGE_BITS;
+            final int nPages = ((myCommittedIndexSize + myHandlesPerPage) - 1) >>> myHandlesPerPageBits;
 
             for (int i = 0; i < nPages; i++) {
                 if ((map[i >> 5] & (1 << (i & 31))) != 0) {
-                    myPagePool.copy(myHeader.myRootPage[curr].myShadowIndex + ((long) i * Page.pageSize),
-                            myHeader.myRootPage[curr].myIndex + ((long) i * Page.pageSize), Page.pageSize);
+                    myPagePool.copy(myHeader.myRootPage[curr].myShadowIndex + ((long) i * myPageSize),
+                            myHeader.myRootPage[curr].myIndex + ((long) i * myPageSize), myPageSize);
                 }
             }
         }
 
-        for (int j = ((myCurrentIndexSize + (DB_HANDLES_PER_PAGE * 32)) - 1) >>> (DB_HANDLES_PER_PAGE_BITS +
+        for (int j = ((myCurrentIndexSize + (myHandlesPerPage * 32)) - 1) >>> (myHandlesPerPageBits +
                 5); --j >= 0; map[j] = 0) {
             ;
         }
@@ -5676,6 +6754,11 @@ public class StorageImpl implements Storage {
         myCurrentIndexSize = myCommittedIndexSize;
         myCurrentRecordBitmapPage = myCurrentPageBitmapPage = 0;
         myCurrentRecordBitmapOffset = myCurrentPageBitmapOffset = 0;
+
+        if (myFreeExtents != null) {
+            myFreeExtents.rollback();
+        }
+
         reloadScheme();
 
         if (myListener != null) {
@@ -5683,178 +6766,696 @@ public class StorageImpl implements Storage {
         }
     }
 
-    private final void storeObject0(final Object obj, final boolean finalized) {
-        if (obj instanceof IStoreable) {
-            ((IPersistent) obj).onStore();
-        }
+    /**
+     * Allocate space using the map of free extents. The map is built from the bitmap pages not scanned yet, so it is
+     * built when the first space is allocated and extended after allocation has extended the bitmap. The extent taken
+     * from the map is checked against the bitmap and the reserved locations, and if it is not free, the free space of
+     * the extent is put back to the map and the next extent is taken. If there is no large enough extent, space is
+     * allocated by scanning the bitmap.
+     *
+     * @return position of the allocated space or 0 if there is no large enough extent
+     */
+    private long allocateExtent(final long size, final int oid) {
+        final int nPages = myHeader.myRootPage[1 - myCurrentIndex].myBitmapEnd - DB_BITMAP_ID;
+        final long alignment = (size & (myPageSize - 1)) == 0 ? myPageSize : DB_ALLOCATION_QUANTUM;
+        long pos;
 
-        if (myListener != null) {
-            myListener.onObjectStore(obj);
+        if (myFreeExtents.nPages < nPages) {
+            scanFreeSpace(myFreeExtents, (long) myFreeExtents.nPages * myPageBits, (long) nPages * myPageBits);
+            myFreeExtents.nPages = nPages;
         }
 
-        int oid = getOid(obj);
-        boolean newObject = false;
+        while ((pos = myFreeExtents.allocate(size, alignment)) != 0) {
+            if (!wasReserved(pos, size) && isFreeSpace(pos, size)) {
+                reserveLocation(pos, size);
+                extend(pos + size);
 
-        if (oid == 0) {
-            oid = allocateId();
+                if (oid != 0) {
+                    final long prev = getPos(oid);
+                    final int marker = (int) prev & DB_FLAGS_MASK;
 
-            if (!finalized) {
-                myObjectCache.put(oid, obj);
+                    myPagePool.copy(pos, prev - marker, size);
+                    setPos(oid, pos | marker | DB_MODIFIED_FLAG);
+                }
+
+                setBitmapBits(pos, size);
+                commitLocation();
+
+                return pos;
             }
 
-            assignOid(obj, oid, false);
-            newObject = true;
-        } else if (isModified(obj)) {
-            myObjectCache.clearDirty(obj);
+            scanFreeSpace(myFreeExtents, pos >>> DB_ALLOCATION_QUANTUM_BITS, (pos + size) >>> DB_ALLOCATION_QUANTUM_BITS);
         }
 
-        final byte[] data = packObject(obj, finalized);
-        long pos;
-        final int newSize = ObjectHeader.getSize(data, 0);
-        final CustomAllocator allocator = customAllocatorMap != null ? getCustomAllocator(obj.getClass()) : null;
+        myFreeExtents.scanned = true;
+        return 0;
+    }
 
-        if (newObject || ((pos = getPos(oid)) == 0)) {
-            pos = allocator != null ? allocator.allocate(newSize) : allocate(newSize, 0);
-            setPos(oid, pos | DB_MODIFIED_FLAG);
-        } else {
-            final int offs = (int) pos & (Page.pageSize - 1);
+    /**
+     * Allocate space for the object close to the anchor object: in the free space of the anchor page or of the pages
+     * following it. If there is no such space, the space is allocated as usual.
+     *
+     * @param size size of the object
+     * @param hint position of the anchor object or 0
+     * @return position of the allocated space
+     */
+    private long allocateNear(long size, final long hint) {
+        size = ((size + DB_ALLOCATION_QUANTUM) - 1) & ~(DB_ALLOCATION_QUANTUM - 1);
 
-            if ((offs & (DB_FREE_HANDLE_FLAG | DB_PAGE_OBJECT_FLAG)) != 0) {
-                throw new StorageError(StorageError.DELETED_OBJECT);
+        if ((hint == 0) || (size >= myPageSize)) {
+            return allocate(size, 0);
+        }
+
+        if (((myAllocatedDelta + size) > myGcThreshold) && !myInsideCloneBitmap) {
+            gc0();
+        }
+
+        final long from = (hint & ~(myPageSize - 1)) >>> DB_ALLOCATION_QUANTUM_BITS;
+        final long till = Math.min(from + (DB_CLUSTERING_WINDOW >>> DB_ALLOCATION_QUANTUM_BITS), (long) (myHeader
+                .myRootPage[1 - myCurrentIndex].myBitmapEnd - DB_BITMAP_ID) * myPageBits);
+        final long pos = findFreeSpace(from, till, size >>> DB_ALLOCATION_QUANTUM_BITS);
+
+        if ((pos == 0) || wasReserved(pos, size)) {
+            return allocate(size, 0);
+        }
+
+        setDirty();
+        myAllocatedDelta += size;
+        usedSize += size;
+        reserveLocation(pos, size);
+        extend(pos + size);
+        setBitmapBits(pos, size);
+        commitLocation();
+
+        if (myFreeExtents != null) {
+            myFreeExtents.scanned = true;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Find the first hole of the range of the bitmap which is large enough.
+     *
+     * @param from number of the first allocation quantum of the range
+     * @param till number of the allocation quantum following the range
+     * @param nQuanta size of the hole in allocation quanta
+     * @return position of the hole or 0 if there is no large enough hole
+     */
+    private long findFreeSpace(long from, final long till, final long nQuanta) {
+        long start = from; // first quantum of the current hole
+
+        while (from < till) {
+            final Page pg = getBitmapPage((int) (from >>> (myPageSizeLog + 3)));
+
+            try {
+                do {
+                    if ((pg.data[(int) (from & (myPageBits - 1)) >> 3] & (1 << ((int) from & 7))) != 0) {
+                        start = from + 1;
+                    } else if ((from + 1) - start == nQuanta) {
+                        return start << DB_ALLOCATION_QUANTUM_BITS;
+                    }
+
+                    from += 1;
+                } while ((from < till) && ((from & (myPageBits - 1)) != 0));
+            } finally {
+                myPagePool.unfix(pg);
             }
+        }
 
-            final Page pg = myPagePool.getPage(pos - offs);
-            final int size = ObjectHeader.getSize(pg.data, offs & ~DB_FLAGS_MASK);
-            myPagePool.unfix(pg);
+        return 0;
+    }
 
-            if ((pos & DB_MODIFIED_FLAG) == 0) {
-                if (allocator != null) {
-                    allocator.free(pos & ~DB_FLAGS_MASK, size);
-                    pos = allocator.allocate(newSize);
-                } else {
-                    cloneBitmap(pos & ~DB_FLAGS_MASK, size);
-                    pos = allocate(newSize, 0);
+    /**
+     * Add free space to the map of free extents, excluding the reserved locations.
+     */
+    private void addFreeExtent(final FreeExtentMap map, final long pos, final long size) {
+        for (Location location = myReservedChain; location != null; location = location.next) {
+            if ((location.pos < pos + size) && (pos < location.pos + location.size)) {
+                final long start = location.pos & ~(DB_ALLOCATION_QUANTUM - 1);
+
+                if (start > pos) {
+                    addFreeExtent(map, pos, start - pos);
                 }
 
-                setPos(oid, pos | DB_MODIFIED_FLAG);
-            } else {
-                pos &= ~DB_FLAGS_MASK;
+                final long end = (((location.pos + location.size + DB_ALLOCATION_QUANTUM) - 1) & ~(
+                        DB_ALLOCATION_QUANTUM - 1));
 
-                if (newSize != size) {
-                    if (allocator != null) {
-                        final long newPos = allocator.reallocate(pos, size, newSize);
+                if (end < pos + size) {
+                    addFreeExtent(map, end, pos + size - end);
+                }
+
+                return;
+            }
+        }
+
+        map.add(pos, size);
+    }
+
+    /**
+     * Check if the space is not marked in the bitmap.
+     */
+    private boolean isFreeSpace(final long pos, final long size) {
+        long quantNo = pos >>> DB_ALLOCATION_QUANTUM_BITS;
+        final long end = quantNo + (size >>> DB_ALLOCATION_QUANTUM_BITS);
 
-                        if (newPos != pos) {
-                            pos = newPos;
-                            setPos(oid, pos | DB_MODIFIED_FLAG);
-                        } else if (newSize < size) {
-                            ObjectHeader.setSize(data, 0, size);
+        while (quantNo < end) {
+            final Page pg = getBitmapPage((int) (quantNo >>> (myPageSizeLog + 3)));
+
+            try {
+                do {
+                    final int offs = (int) (quantNo & (myPageBits - 1)) >> 3;
+
+                    if (((quantNo & 7) == 0) && (end - quantNo >= 8)) {
+                        if (pg.data[offs] != 0) {
+                            return false;
                         }
+
+                        quantNo += 8;
                     } else {
-                        if ((((newSize + DB_ALLOCATION_QUANTUM) - 1) & ~(DB_ALLOCATION_QUANTUM - 1)) > (((size +
-                                DB_ALLOCATION_QUANTUM) - 1) & ~(DB_ALLOCATION_QUANTUM - 1))) {
-                            final long newPos = allocate(newSize, 0);
-                            cloneBitmap(pos, size);
-                            free(pos, size);
-                            pos = newPos;
-                            setPos(oid, pos | DB_MODIFIED_FLAG);
-                        } else if (newSize < size) {
-                            ObjectHeader.setSize(data, 0, size);
+                        if ((pg.data[offs] & (1 << ((int) quantNo & 7))) != 0) {
+                            return false;
                         }
+
+                        quantNo += 1;
                     }
-                }
+                } while ((quantNo < end) && ((quantNo & (myPageBits - 1)) != 0));
+            } finally {
+                myPagePool.unfix(pg);
             }
         }
 
-        myModified = true;
-        myPagePool.put(pos, data, newSize);
+        return true;
     }
 
-    private int sweep() {
-        int nDeallocated = 0;
-        long pos;
-        myGcDone = true;
-
-        for (int i = DB_FIRST_USER_ID, j = myCommittedIndexSize; i < j; i++) {
-            pos = getGCPos(i);
+    private static boolean isStringField(final Class<?> aType, final String aFieldName) {
+        final Field field = ClassDescriptor.locateField(aType, aFieldName);
+        return (field != null) && (field.getType() == String.class);
+    }
 
-            if ((pos != 0) && (((int) pos & (DB_PAGE_OBJECT_FLAG | DB_FREE_HANDLE_FLAG)) == 0)) {
-                final int bit = (int) (pos >>> DB_ALLOCATION_QUANTUM_BITS);
+    /**
+     * Add free space of the range of the bitmap to the map of free extents.
+     *
+     * @param map map of free extents
+     * @param from number of the first allocation quantum of the range
+     * @param till number of the allocation quantum following the range
+     */
+    final void scanFreeSpace(final FreeExtentMap map, long from, final long till) {
+        long start = -1; // first quantum of the current hole
 
-                if ((myBlackBitmap[bit >>> 5] & (1 << (bit & 31))) == 0) {
-                    // object is not accessible
-                    if (getPos(i) == pos) {
-                        final int offs = (int) pos & (Page.pageSize - 1);
-                        final Page pg = myPagePool.getPage(pos - offs);
-                        final int typeOid = ObjectHeader.getType(pg.data, offs);
+        while (from < till) {
+            final Page pg = getBitmapPage((int) (from >>> (myPageSizeLog + 3)));
 
-                        if (typeOid != 0) {
-                            final ClassDescriptor desc = findClassDescriptor(typeOid);
-                            nDeallocated += 1;
+            try {
+                do {
+                    final int mask = pg.data[(int) (from & (myPageBits - 1)) >> 3] & 0xFF;
 
-                            if (Btree.class.isAssignableFrom(desc.cls)) {
-                                final Btree btree = new Btree(pg.data, ObjectHeader.sizeof + offs);
-                                myPagePool.unfix(pg);
-                                btree.assignOid(this, i, false);
-                                btree.deallocate();
-                            } else {
-                                final int size = ObjectHeader.getSize(pg.data, offs);
-                                myPagePool.unfix(pg);
-                                freeId(i);
-                                myObjectCache.remove(i);
-                                cloneBitmap(pos, size);
+                    if (((from & 7) == 0) && (till - from >= 8) && ((mask == 0) || (mask == 0xFF))) {
+                        if (mask == 0) {
+                            if (start < 0) {
+                                start = from;
                             }
+                        } else if (start >= 0) {
+                            addFreeExtent(map, start << DB_ALLOCATION_QUANTUM_BITS, (from - start) <<
+                                    DB_ALLOCATION_QUANTUM_BITS);
+                            start = -1;
+                        }
 
-                            if (myListener != null) {
-                                myListener.deallocateObject(desc.cls, i);
+                        from += 8;
+                    } else {
+                        if ((mask & (1 << ((int) from & 7))) == 0) {
+                            if (start < 0) {
+                                start = from;
                             }
+                        } else if (start >= 0) {
+                            addFreeExtent(map, start << DB_ALLOCATION_QUANTUM_BITS, (from - start) <<
+                                    DB_ALLOCATION_QUANTUM_BITS);
+                            start = -1;
                         }
+
+                        from += 1;
                     }
-                }
+                } while ((from < till) && ((from & (myPageBits - 1)) != 0));
+            } finally {
+                myPagePool.unfix(pg);
             }
         }
 
-        myGreyBitmap = null;
-        myBlackBitmap = null;
-        myAllocatedDelta = 0;
-        myGcActive = false;
-
-        if (myListener != null) {
-            myListener.gcCompleted(nDeallocated);
+        if (start >= 0) {
+            addFreeExtent(map, start << DB_ALLOCATION_QUANTUM_BITS, (till - start) << DB_ALLOCATION_QUANTUM_BITS);
         }
-
-        return nDeallocated;
     }
 
-    public class AnnotatedPersistentObjectOutputStream extends PersistentObjectOutputStream {
+    /**
+     * Get position following the last allocated quantum of the current bitmap, aligned on page boundary.
+     */
+    private long getAllocatedSpaceEnd() {
+        for (int i = myHeader.myRootPage[1 - myCurrentIndex].myBitmapEnd - DB_BITMAP_ID; --i >= 0;) {
+            final Page pg = getBitmapPage(i);
 
-        AnnotatedPersistentObjectOutputStream(final OutputStream out) throws IOException {
-            super(out);
-        }
+            try {
+                for (int j = myPageSize; --j >= 0;) {
+                    if (pg.data[j] != 0) {
+                        final long quantNo = ((long) i * myPageBits) + (j * 8) + (Integer.SIZE - Integer
+                                .numberOfLeadingZeros(pg.data[j] & 0xFF));
 
-        @Override
-        protected void annotateClass(final Class<?> aClass) throws IOException {
-            final ClassLoader loader = aClass.getClassLoader();
-            writeObject(loader instanceof INamedClassLoader ? ((INamedClassLoader) loader).getName() : null);
+                        return (((quantNo << DB_ALLOCATION_QUANTUM_BITS) + myPageSize) - 1) & ~(myPageSize - 1);
+                    }
+                }
+            } finally {
+                myPagePool.unfix(pg);
+            }
         }
+
+        return myPageSize;
     }
 
-    public class PersistentObjectOutputStream extends ObjectOutputStream {
+    /**
+     * Mark the space in the bitmap.
+     */
+    private void setBitmapBits(final long pos, final long size) {
+        final long quantNo = pos >>> DB_ALLOCATION_QUANTUM_BITS;
+        int objBitSize = (int) (((size + DB_ALLOCATION_QUANTUM) - 1) >>> DB_ALLOCATION_QUANTUM_BITS);
+        int pageId = (int) (quantNo >>> (myPageSizeLog + 3));
+        int offs = (int) (quantNo & ((myPageSize * 8) - 1)) >> 3;
+        Page pg = putBitmapPage(pageId);
+        final int bitOffs = (int) quantNo & 7;
+
+        if (objBitSize > (8 - bitOffs)) {
+            objBitSize -= 8 - bitOffs;
+            pg.data[offs++] |= (byte) ~((1 << bitOffs) - 1);
+
+            while ((objBitSize + (offs * 8)) > (myPageSize * 8)) {
+                memset(pg, offs, 0xFF, myPageSize - offs);
+                myPagePool.unfix(pg);
+                pg = putBitmapPage(++pageId);
+                objBitSize -= (myPageSize - offs) * 8;
+                offs = 0;
+            }
 
-        PersistentObjectOutputStream(final OutputStream out) throws IOException {
-            super(out);
-        }
+            while ((objBitSize -= 8) > 0) {
+                pg.data[offs++] = (byte) 0xFF;
+            }
 
-        public Storage getStorage() {
-            return StorageImpl.this;
+            pg.data[offs] |= (byte) ((1 << (objBitSize + 8)) - 1);
+        } else {
+            pg.data[offs] |= (byte) (((1 << objBitSize) - 1) << bitOffs);
         }
+
+        myPagePool.unfix(pg);
     }
 
-    class ByteArrayObjectInputStream extends SodboxInputStream {
+    /**
+     * Store objects which are not persistent yet. OIDs are assigned to all objects of the batch before they are packed,
+     * so references between them do not cause separate storing of the referenced objects. Packed objects are placed one
+     * after another in the extent buffer, and when the buffer exceeds the limit, space for all of them is allocated at
+     * once and the buffer is copied to the pages sequentially.
+     */
+    private void storeBatch(final ArrayList<Object> objects) {
+        final int[] oids = allocateIds(objects.size());
+        final Object[] batch = new Object[oids.length];
+        int n = 0;
+
+        for (final Object obj : objects) {
+            if (getOid(obj) == 0) { // object may be included in the collection more than once
+                if (obj instanceof IStoreable) {
+                    ((IPersistent) obj).onStore();
+                }
 
-        private final byte[] buf;
+                if (myListener != null) {
+                    myListener.onObjectStore(obj);
+                }
 
-        private final boolean markReferences;
+                myObjectCache.put(oids[n], obj);
+                assignOid(obj, oids[n], false);
+                batch[n++] = obj;
+            }
+        }
+
+        for (int i = n; i < oids.length; i++) {
+            freeId(oids[i]);
+        }
+
+        final int[] offsets = new int[n];
+        byte[] extent = new byte[myPageSize];
+        int extentSize = 0;
+        int first = 0;
+
+        for (int i = 0; i < n; i++) {
+            final Object obj = batch[i];
+            final ByteBuffer buf = allocatePackBuffer(obj, false);
+
+            try {
+                packObject(obj, buf);
+
+                final int size = ObjectHeader.getSize(buf.arr, 0);
+                final CustomAllocator allocator = customAllocatorMap != null ? getCustomAllocator(obj.getClass())
+                        : null;
+
+                if (allocator != null) {
+                    final long pos = allocator.allocate(size);
+
+                    setPos(oids[i], pos | DB_MODIFIED_FLAG);
+                    myPagePool.put(pos, buf.arr, size);
+                    offsets[i] = -1;
+                } else {
+                    final int alignedSize = ((size + DB_ALLOCATION_QUANTUM) - 1) & ~(DB_ALLOCATION_QUANTUM - 1);
+
+                    if (extentSize + alignedSize > extent.length) {
+                        extent = Arrays.copyOf(extent, Math.max(extent.length * 2, extentSize + alignedSize));
+                    }
+
+                    System.arraycopy(buf.arr, 0, extent, extentSize, size);
+                    offsets[i] = extentSize;
+                    extentSize += alignedSize;
+                }
+            } finally {
+                releasePackBuffer(buf);
+            }
+
+            if (extentSize >= DB_BATCH_EXTENT_LIMIT || (i + 1 == n && extentSize != 0)) {
+                final long pos = allocate(extentSize, 0);
+
+                myPagePool.put(pos, extent, extentSize);
+
+                for (int j = first; j <= i; j++) {
+                    if (offsets[j] >= 0) {
+                        setPos(oids[j], (pos + offsets[j]) | DB_MODIFIED_FLAG);
+                    }
+                }
+
+                first = i + 1;
+                extentSize = 0;
+            }
+        }
+
+        myModified = true;
+    }
+
+    private final void storeObject0(final Object obj, final boolean finalized) {
+        if (obj instanceof IStoreable) {
+            ((IPersistent) obj).onStore();
+        }
+
+        if (myListener != null) {
+            myListener.onObjectStore(obj);
+        }
+
+        int oid = getOid(obj);
+        boolean newObject = false;
+
+        if (oid == 0) {
+            oid = allocateId();
+
+            if (!finalized) {
+                myObjectCache.put(oid, obj);
+            }
+
+            assignOid(obj, oid, false);
+            newObject = true;
+        } else if (isModified(obj)) {
+            myObjectCache.clearDirty(obj);
+        }
+
+        final ByteBuffer buf = allocatePackBuffer(obj, finalized);
+
+        try {
+            packObject(obj, buf);
+
+            final byte[] data = buf.arr;
+            long pos;
+            final int newSize = ObjectHeader.getSize(data, 0);
+            final CustomAllocator allocator = customAllocatorMap != null ? getCustomAllocator(obj.getClass()) : null;
+            final long hint = obj == myClusteredObject ? myClusteringHint : 0;
+
+            if (newObject || ((pos = getPos(oid)) == 0)) {
+                pos = allocator != null ? allocator.allocate(newSize) : allocateNear(newSize, hint);
+                setPos(oid, pos | DB_MODIFIED_FLAG);
+            } else {
+                final int offs = (int) pos & (myPageSize - 1);
+
+                if ((offs & (DB_FREE_HANDLE_FLAG | DB_PAGE_OBJECT_FLAG)) != 0) {
+                    throw new StorageError(StorageError.DELETED_OBJECT);
+                }
+
+                final Page pg = myPagePool.getPage(pos - offs);
+                final int size = ObjectHeader.getSize(pg.data, offs & ~DB_FLAGS_MASK);
+                myPagePool.unfix(pg);
+
+                if ((pos & DB_MODIFIED_FLAG) == 0) {
+                    if (allocator != null) {
+                        allocator.free(pos & ~DB_FLAGS_MASK, size);
+                        pos = allocator.allocate(newSize);
+                    } else {
+                        cloneBitmap(pos & ~DB_FLAGS_MASK, size);
+                        pos = allocateNear(newSize, hint);
+                    }
+
+                    setPos(oid, pos | DB_MODIFIED_FLAG);
+                } else {
+                    pos &= ~DB_FLAGS_MASK;
+
+                    if (newSize != size) {
+                        if (allocator != null) {
+                            final long newPos = allocator.reallocate(pos, size, newSize);
+
+                            if (newPos != pos) {
+                                pos = newPos;
+                                setPos(oid, pos | DB_MODIFIED_FLAG);
+                            } else if (newSize < size) {
+                                ObjectHeader.setSize(data, 0, size);
+                            }
+                        } else {
+                            if ((((newSize + DB_ALLOCATION_QUANTUM) - 1) & ~(DB_ALLOCATION_QUANTUM - 1)) > (((size +
+                                    DB_ALLOCATION_QUANTUM) - 1) & ~(DB_ALLOCATION_QUANTUM - 1))) {
+                                final long newPos = allocate(newSize, 0);
+                                cloneBitmap(pos, size);
+                                free(pos, size);
+                                pos = newPos;
+                                setPos(oid, pos | DB_MODIFIED_FLAG);
+                            } else if (newSize < size) {
+                                ObjectHeader.setSize(data, 0, size);
+                            }
+                        }
+                    }
+                }
+            }
+
+            myModified = true;
+            myPagePool.put(pos, data, newSize);
+        } finally {
+            releasePackBuffer(buf);
+        }
+    }
+
+    /**
+     * Perform garbage collection by steps. Mark steps block commits and sweep steps block also other operations with
+     * the storage, but for no longer than the pause budget, and the collector sleeps between the steps.
+     */
+    private void collectIncrementally() throws InterruptedException {
+        final IncrementalCollector collector = new IncrementalCollector(this);
+        final long budget = myGcPauseBudget * 1000000L;
+
+        synchronized (myBackgroundGcMonitor) {
+            synchronized (this) {
+                synchronized (myObjectCache) {
+                    if (!myOpened) {
+                        return;
+                    }
+
+                    if (myListener != null) {
+                        myListener.gcStarted();
+                    }
+
+                    collector.start();
+                    myIncrementalCollector = collector;
+                }
+            }
+        }
+
+        try {
+            while (true) {
+                synchronized (myBackgroundGcMonitor) {
+                    if (!myOpened) {
+                        return;
+                    }
+
+                    if (collector.mark(System.nanoTime() + budget)) {
+                        break;
+                    }
+                }
+
+                Thread.sleep(1);
+            }
+
+            while (true) {
+                synchronized (myBackgroundGcMonitor) {
+                    synchronized (this) {
+                        synchronized (myObjectCache) {
+                            if (!myOpened) {
+                                return;
+                            }
+
+                            if (collector.sweep(System.nanoTime() + budget)) {
+                                myIncrementalCollector = null;
+                                myGcDone = true;
+                                myAllocatedDelta = 0;
+                                myGcActive = false;
+
+                                if (myListener != null) {
+                                    myListener.gcCompleted(collector.nDeallocated);
+                                }
+
+                                return;
+                            }
+                        }
+                    }
+                }
+
+                Thread.sleep(1);
+            }
+        } finally {
+            myIncrementalCollector = null;
+        }
+    }
+
+    private int sweep() {
+        int nDeallocated = 0;
+        myGcDone = true;
+
+        if (myGcThreads > 1) {
+            final int batch = ParallelCollector.SWEEP_BATCH_PAGES * myHandlesPerPage;
+
+            for (int i = myFirstUserId, j = myCommittedIndexSize; i < j; i += batch) {
+                for (final int oid : getGcCollector().findGarbage(i, Math.min(i + batch, j))) {
+                    if (sweepObject(oid)) {
+                        nDeallocated += 1;
+                    }
+                }
+            }
+        } else {
+            for (int i = myFirstUserId, j = myCommittedIndexSize; i < j; i++) {
+                if (sweepObject(i)) {
+                    nDeallocated += 1;
+                }
+            }
+        }
+
+        myGreyBitmap = null;
+        myBlackBitmap = null;
+        myAllocatedDelta = 0;
+        myGcActive = false;
+
+        if (myListener != null) {
+            myListener.gcCompleted(nDeallocated);
+        }
+
+        return nDeallocated;
+    }
+
+    /**
+     * Check if the object index entry contains position of the object rather than page or free handle.
+     */
+    static boolean isObjectPosition(final long pos) {
+        return (pos != 0) && (((int) pos & (DB_PAGE_OBJECT_FLAG | DB_FREE_HANDLE_FLAG)) == 0);
+    }
+
+    /**
+     * Check if the object was not marked by the mark phase of garbage collection. Object index is accessed without
+     * locking, so it can be called by collector threads while the thread performing GC holds the lock.
+     */
+    final boolean isGarbage(final int oid) {
+        final long pos = getGCPos(oid);
+
+        if (isObjectPosition(pos)) {
+            final int bit = (int) (pos >>> DB_ALLOCATION_QUANTUM_BITS);
+
+            // object is not accessible
+            return (myBlackBitmap[bit >>> 5] & (1 << (bit & 31))) == 0 && getIndexEntry(1 - myCurrentIndex,
+                    oid) == pos;
+        }
+
+        return false;
+    }
+
+    /**
+     * Deallocate the object if it was not marked by the mark phase of garbage collection.
+     *
+     * @return <code>true</code> if the object was deallocated
+     */
+    private boolean sweepObject(final int oid) {
+        return isGarbage(oid) && deallocateGarbage(oid);
+    }
+
+    /**
+     * Deallocate unreachable object.
+     *
+     * @return <code>true</code> if the object was deallocated
+     */
+    final boolean deallocateGarbage(final int oid) {
+        final long pos = getGCPos(oid);
+        final int offs = (int) pos & (myPageSize - 1);
+        final Page pg = myPagePool.getPage(pos - offs);
+        final int typeOid = ObjectHeader.getType(pg.data, offs);
+
+        if (typeOid == 0) {
+            myPagePool.unfix(pg);
+            return false;
+        }
+
+        final ClassDescriptor desc = findClassDescriptor(typeOid);
+
+        if (Btree.class.isAssignableFrom(desc.cls)) {
+            final Btree btree = new Btree(pg.data, ObjectHeader.sizeof + offs);
+            myPagePool.unfix(pg);
+            btree.assignOid(this, oid, false);
+            btree.deallocate();
+        } else {
+            final int size = ObjectHeader.getSize(pg.data, offs);
+            myPagePool.unfix(pg);
+            freeId(oid);
+            myObjectCache.remove(oid);
+            cloneBitmap(pos, size);
+        }
+
+        if (myListener != null) {
+            myListener.deallocateObject(desc.cls, oid);
+        }
+
+        return true;
+    }
+
+    public class AnnotatedPersistentObjectOutputStream extends PersistentObjectOutputStream {
+
+        AnnotatedPersistentObjectOutputStream(final OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void annotateClass(final Class<?> aClass) throws IOException {
+            final ClassLoader loader = aClass.getClassLoader();
+            writeObject(loader instanceof INamedClassLoader ? ((INamedClassLoader) loader).getName() : null);
+        }
+    }
+
+    public class PersistentObjectOutputStream extends ObjectOutputStream {
+
+        PersistentObjectOutputStream(final OutputStream out) throws IOException {
+            super(out);
+        }
+
+        public Storage getStorage() {
+            return StorageImpl.this;
+        }
+    }
+
+    class ByteArrayObjectInputStream extends SodboxInputStream {
+
+        private final byte[] buf;
+
+        private final int end;
+
+        private final boolean markReferences;
 
         private final Object parent;
 
@@ -5862,9 +7463,15 @@ public class StorageImpl implements Storage {
 
         ByteArrayObjectInputStream(final byte[] buf, final int offs, final Object parent,
                 final boolean aRecursiveLoading, final boolean aMarkReferences) {
-            super(new ByteArrayInputStream(buf, offs, buf.length - offs));
+            this(buf, offs, buf.length, parent, aRecursiveLoading, aMarkReferences);
+        }
+
+        ByteArrayObjectInputStream(final byte[] buf, final int offs, final int end, final Object parent,
+                final boolean aRecursiveLoading, final boolean aMarkReferences) {
+            super(new ByteArrayInputStream(buf, offs, end - offs));
 
             this.buf = buf;
+            this.end = end;
             this.parent = parent;
 
             recursiveLoading = aRecursiveLoading;
@@ -5880,7 +7487,7 @@ public class StorageImpl implements Storage {
                 offs = markObjectReference(buf, offs) - offs;
             } else {
                 try {
-                    final ArrayPos pos = new ArrayPos(buf, offs);
+                    final ArrayPos pos = new ArrayPos(buf, offs, end);
                     obj = unswizzle(pos, Object.class, parent, recursiveLoading);
                     offs = pos.offs - offs;
                 } catch (final Exception x) {
@@ -5902,7 +7509,7 @@ public class StorageImpl implements Storage {
         }
 
         int getPosition() throws IOException {
-            return buf.length - in.available();
+            return end - in.available();
         }
     }
 
@@ -5918,6 +7525,61 @@ public class StorageImpl implements Storage {
         }
     }
 
+    /**
+     * Transactions committed together in group commit mode.
+     */
+    static class CommitGroup {
+
+        boolean finished;
+
+        boolean committed;
+    }
+
+    class CheckpointThread extends Thread {
+
+        private boolean go;
+
+        CheckpointThread() {
+            setDaemon(true); // checkpoint can be interrupted at any moment without loss of data
+            start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    synchronized (this) {
+                        while (!go && myOpened) {
+                            wait();
+                        }
+
+                        if (!myOpened) {
+                            return;
+                        }
+
+                        go = false;
+                    }
+
+                    synchronized (StorageImpl.this) {
+                        if (!myOpened) {
+                            return;
+                        }
+
+                        if (myRedoLog.size >= myRedoLogCheckpoint) {
+                            checkpoint();
+                        }
+                    }
+                }
+            } catch (final InterruptedException x) {
+            }
+        }
+
+        synchronized void activate() {
+            go = true;
+            notify();
+        }
+    }
+
     class GcThread extends Thread {
 
         private boolean go;
@@ -5942,6 +7604,11 @@ public class StorageImpl implements Storage {
                         go = false;
                     }
 
+                    if (myIncrementalGc) {
+                        collectIncrementally();
+                        continue;
+                    }
+
                     synchronized (myBackgroundGcMonitor) {
                         if (!myOpened) {
                             return;
@@ -5968,28 +7635,33 @@ public class StorageImpl implements Storage {
         }
     }
 
-    class HashIterator implements PersistentIterator, Iterator {
+    class OidSetIterator implements PersistentIterator, Iterator {
+
+        final OidSet set;
 
-        Iterator oids;
+        int i;
 
-        HashIterator(final HashSet result) {
-            oids = result.iterator();
+        OidSetIterator(final OidSet result) {
+            set = result;
         }
 
         @Override
         public boolean hasNext() {
-            return oids.hasNext();
+            return i < set.size;
         }
 
         @Override
         public Object next() {
-            final int oid = ((Integer) oids.next()).intValue();
-            return lookupObject(oid, null);
+            if (i >= set.size) {
+                throw new NoSuchElementException();
+            }
+
+            return lookupObject(set.oids[i++], null);
         }
 
         @Override
         public int nextOid() {
-            return oids.hasNext() ? ((Integer) oids.next()).intValue() : 0;
+            return i < set.size ? set.oids[i++] : 0;
         }
 
         @Override
@@ -5998,6 +7670,136 @@ public class StorageImpl implements Storage {
         }
     }
 
+    /**
+     * Thrown when the object to be loaded is claimed by another thread.
+     */
+    static class LoadConflict extends Error {
+
+        private static final long serialVersionUID = 1L;
+
+        final LoadContext owner;
+
+        final Integer oid;
+
+        LoadConflict(final LoadContext owner, final Integer oid) {
+            this.owner = owner;
+            this.oid = oid;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * Objects loaded by the thread.
+     */
+    class LoadContext {
+
+        HashMap<Integer, Object> objects = new HashMap<>();
+
+        final ArrayList<Integer> claimed = new ArrayList<>();
+
+        boolean active;
+
+        int pinnedPages;
+
+        Object fetch(final int oid, Object obj, final Class<?> cls, final boolean load) {
+            final Integer key = oid;
+            final Object loading = objects.get(key);
+
+            if (loading != null) {
+                return loading;
+            }
+
+            claim(key);
+
+            if (obj == null) {
+                obj = myObjectCache.get(oid);
+
+                if ((obj != null) && (!load || !isRaw(obj))) {
+                    return obj;
+                }
+            } else if (!isRaw(obj)) {
+                return obj;
+            }
+
+            if (!load) {
+                return createStub(oid, cls);
+            }
+
+            return loadStub(this, oid, obj, cls);
+        }
+
+        void claim(final Integer oid) {
+            final LoadContext owner = myLoadingObjects.putIfAbsent(oid, this);
+
+            if (owner == null) {
+                claimed.add(oid);
+            } else if (owner != this) {
+                throw new LoadConflict(owner, oid);
+            }
+        }
+
+        /**
+         * Mark all loaded objects as loaded.
+         */
+        void complete() {
+            for (final Map.Entry<Integer, Object> e : objects.entrySet()) {
+                final Object obj = e.getValue();
+
+                if (obj instanceof IPersistent) {
+                    ((IPersistent) obj).assignOid(StorageImpl.this, e.getKey(), false);
+                } else {
+                    synchronized (myObjMap) {
+                        myObjMap.put(obj).state &= ~PinnedPersistent.RAW;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Release the claimed objects. Objects which were not completely loaded remain raw.
+         */
+        void release() {
+            for (final Integer oid : claimed) {
+                myLoadingObjects.remove(oid, this);
+            }
+
+            claimed.clear();
+
+            if (objects.size() > DB_LOAD_CONTEXT_REUSE_LIMIT) {
+                objects = new HashMap<>();
+            } else {
+                objects.clear();
+            }
+
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wait until the object claimed by this context is released.
+         */
+        synchronized void await(final Integer oid) {
+            boolean interrupted = false;
+
+            while (myLoadingObjects.get(oid) == this) {
+                try {
+                    wait();
+                } catch (final InterruptedException x) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     static class Location {
 
         Location next;
@@ -6050,7 +7852,7 @@ public class StorageImpl implements Storage {
 
 class Header {
 
-    static final int SIZE = 3 + (RootPage.SIZE * 2) + 8;
+    static final int SIZE = 3 + (RootPage.SIZE * 2) + 8 + 1;
 
     int myCurrentRoot;
 
@@ -6058,6 +7860,8 @@ class Header {
 
     boolean myDbIsDirty; // database was not closed normally
 
+    int myPageSizeLog = Page.pageSizeLog; // 0 in databases created before page size was configurable
+
     RootPage myRootPage[];
 
     long myTransactionId;
@@ -6098,6 +7902,7 @@ class Header {
 
         Bytes.pack8(rec, offs, myTransactionId);
         offs += 8;
+        rec[offs++] = (byte) myPageSizeLog;
         Assert.that(offs == SIZE);
     }
 
@@ -6138,6 +7943,12 @@ class Header {
 
         myTransactionId = Bytes.unpack8(rec, offs);
         offs += 8;
+        myPageSizeLog = rec[offs++];
+
+        if (myPageSizeLog == 0) {
+            myPageSizeLog = Page.DEFAULT_PAGE_SIZE_LOG;
+        }
+
         Assert.that(offs == SIZE);
     }
 }
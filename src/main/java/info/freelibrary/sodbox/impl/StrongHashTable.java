@@ -1,6 +1,8 @@
 
 package info.freelibrary.sodbox.impl;
 
+import java.util.ArrayList;
+
 public class StrongHashTable implements OidHashTable {
 
     static class Entry {
@@ -165,23 +167,26 @@ public class StrongHashTable implements OidHashTable {
     }
 
     @Override
-    public synchronized void reload() {
-        disableRehash = true;
-        for (final Entry element : table) {
-            Entry e;
-            for (e = element; e != null; e = e.next) {
-                db.invalidate(e.obj);
-                try {
-                    db.load(e.obj);
-                } catch (final Exception x) {
-                    // ignore errors caused by attempt to load object which was created in rollbacked transaction
+    public void reload() {
+        // objects are loaded outside of the table lock which is needed by threads loading objects
+        final ArrayList<Object> objects = new ArrayList<>();
+        synchronized (this) {
+            for (final Entry element : table) {
+                for (Entry e = element; e != null; e = e.next) {
+                    final Object obj = e.obj;
+                    if (obj != null) {
+                        db.invalidate(obj);
+                        objects.add(obj);
+                    }
                 }
             }
         }
-        disableRehash = false;
-        if (count >= threshold) {
-            // Rehash the table if the threshold is exceeded
-            rehash();
+        for (final Object obj : objects) {
+            try {
+                db.load(obj);
+            } catch (final Exception x) {
+                // ignore errors caused by attempt to load object which was created in rollbacked transaction
+            }
         }
     }
 
@@ -146,6 +146,21 @@ class ThickFieldIndex<T> extends ThickIndex<T> implements FieldIndex<T> {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public void bulkLoadMembers(final Iterator<? extends T> members, final float fillFactor) {
+        if (nElems != 0) {
+            throw new StorageError(StorageError.INVALID_OPERATION, "bulk load of not empty index");
+        }
+        while (members.hasNext()) {
+            put(members.next());
+        }
+    }
+
+    @Override
+    Key checkCursorKey(final Key key) {
+        return transformKey(key);
+    }
+
     @Override
     public boolean contains(final Object obj) {
         final Key key = extractKey(obj);
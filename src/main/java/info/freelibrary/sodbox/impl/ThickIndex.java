@@ -8,9 +8,11 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 
 import info.freelibrary.sodbox.Assert;
+import info.freelibrary.sodbox.GenericIndex;
 import info.freelibrary.sodbox.IPersistent;
 import info.freelibrary.sodbox.IPersistentSet;
 import info.freelibrary.sodbox.Index;
+import info.freelibrary.sodbox.IndexCursor;
 import info.freelibrary.sodbox.IterableIterator;
 import info.freelibrary.sodbox.Key;
 import info.freelibrary.sodbox.PersistentCollection;
@@ -21,6 +23,134 @@ import info.freelibrary.sodbox.StorageError;
 
 class ThickIndex<T> extends PersistentCollection<T> implements Index<T> {
 
+    class ExtendCursor implements IndexCursor<T> {
+
+        private final IndexCursor<Object> outer;
+
+        private IndexCursor<T> inner;
+
+        private Relation<T, ?> relation;
+
+        private int pos;
+
+        ExtendCursor(final IndexCursor<Object> cursor) {
+            outer = cursor;
+        }
+
+        @Override
+        public void close() {
+            outer.close();
+            leave();
+        }
+
+        @Override
+        public boolean first() {
+            return outer.first() && enter(true);
+        }
+
+        @Override
+        public Object getKey() {
+            return outer.getKey();
+        }
+
+        @Override
+        public int getOid() {
+            if (relation != null) {
+                return relation.getStorage().getOid(relation.getRaw(pos));
+            }
+
+            if (inner == null) {
+                throw new NoSuchElementException();
+            }
+
+            return inner.getOid();
+        }
+
+        @Override
+        public T getValue() {
+            if (relation != null) {
+                return relation.get(pos);
+            }
+
+            if (inner == null) {
+                throw new NoSuchElementException();
+            }
+
+            return inner.getValue();
+        }
+
+        @Override
+        public boolean isPositioned() {
+            return outer.isPositioned();
+        }
+
+        @Override
+        public boolean last() {
+            return outer.last() && enter(false);
+        }
+
+        @Override
+        public boolean next() {
+            if (!outer.isPositioned()) {
+                return first();
+            }
+
+            if (relation != null ? ++pos < relation.size() : inner.next()) {
+                return true;
+            }
+
+            leave();
+            return outer.next() && enter(true);
+        }
+
+        @Override
+        public boolean prev() {
+            if (!outer.isPositioned()) {
+                return last();
+            }
+
+            if (relation != null ? --pos >= 0 : inner.prev()) {
+                return true;
+            }
+
+            leave();
+            return outer.prev() && enter(false);
+        }
+
+        @Override
+        public boolean seek(final Key key) {
+            return outer.seek(checkCursorKey(key)) && enter(true);
+        }
+
+        private boolean enter(final boolean forward) {
+            final Object value = outer.getValue();
+
+            leave();
+
+            if (value instanceof Relation) {
+                relation = (Relation<T, ?>) value;
+                pos = forward ? 0 : relation.size() - 1;
+            } else {
+                inner = ((GenericIndex<T>) value).cursor();
+
+                if (!(forward ? inner.first() : inner.last())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private void leave() {
+            if (inner != null) {
+                inner.close();
+                inner = null;
+            }
+
+            relation = null;
+        }
+    }
+
     static class ExtendEntry<E> implements Map.Entry<Object, E> {
 
         private final Object key;
@@ -177,6 +307,31 @@ class ThickIndex<T> extends PersistentCollection<T> implements Index<T> {
         index = db.<Object>createIndex(keyType, true);
     }
 
+    @Override
+    public void bulkLoad(final Iterator<? extends Map.Entry<?, ? extends T>> entries, final float fillFactor) {
+        if (nElems != 0) {
+            throw new StorageError(StorageError.INVALID_OPERATION, "bulk load of not empty index");
+        }
+
+        while (entries.hasNext()) {
+            final Map.Entry<?, ? extends T> entry = entries.next();
+            final Object key = entry.getKey();
+
+            if (key instanceof Key) {
+                put((Key) key, entry.getValue());
+            } else {
+                put(key, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Convert key passed to the cursor of the index to the form stored in the index of keys.
+     */
+    Key checkCursorKey(final Key key) {
+        return key;
+    }
+
     @Override
     public void clear() {
         for (final Object p : index) {
@@ -187,6 +342,28 @@ class ThickIndex<T> extends PersistentCollection<T> implements Index<T> {
         modify();
     }
 
+    @Override
+    public int countRange(final Key from, final Key till) {
+        final IndexCursor<Object> cursor = index.cursor(checkCursorKey(from), checkCursorKey(till));
+        int count = 0;
+
+        while (cursor.next()) {
+            count += ((Collection<?>) cursor.getValue()).size();
+        }
+
+        return count;
+    }
+
+    @Override
+    public IndexCursor<T> cursor() {
+        return new ExtendCursor(index.cursor());
+    }
+
+    @Override
+    public IndexCursor<T> cursor(final Key from, final Key till) {
+        return new ExtendCursor(index.cursor(checkCursorKey(from), checkCursorKey(till)));
+    }
+
     @Override
     public void deallocate() {
         clear();
@@ -299,6 +476,11 @@ class ThickIndex<T> extends PersistentCollection<T> implements Index<T> {
         return new Class[] { getKeyType() };
     }
 
+    @Override
+    public Object[] getKeys(final Key from, final Key till) {
+        return Btree.collectKeys(cursor(from, till));
+    }
+
     @Override
     public ArrayList<T> getList(final Key from, final Key till) {
         return extendList(index.getList(from, till));
@@ -309,6 +491,11 @@ class ThickIndex<T> extends PersistentCollection<T> implements Index<T> {
         return extendList(index.getList(from, till));
     }
 
+    @Override
+    public int[] getOids(final Key from, final Key till) {
+        return Btree.collectOids(cursor(from, till));
+    }
+
     @Override
     public Object[] getPrefix(final String prefix) {
         return extend(index.getPrefix(prefix));
@@ -0,0 +1,103 @@
+package info.freelibrary.sodbox.impl;
+
+/**
+ * 2Q replacement policy (T. Johnson, D. Shasha). Pages accessed for the first time are placed in FIFO queue A1in, and
+ * addresses of pages replaced from this queue are remembered in ghost queue A1out. Only pages which are accessed again
+ * while their address is in A1out are placed in LRU queue Am. So a single sequential scan can not flush frequently
+ * used pages from the pool.
+ */
+class TwoQueuePolicy implements PageReplacementPolicy {
+
+    static final int A1IN = 1;
+
+    static final int AM = 2;
+
+    final LRU a1in = new LRU();
+
+    final LRU am = new LRU();
+
+    final GhostList a1out;
+
+    final int maxA1inSize;
+
+    int a1inSize;
+
+    int amSize;
+
+    TwoQueuePolicy(final int poolSize) {
+        maxA1inSize = Math.max(poolSize / 4, 1);
+        a1out = new GhostList(poolSize / 2);
+    }
+
+    static Page take(final LRU list) {
+        for (LRU l = list.prev; l != list; l = l.prev) {
+            final Page pg = (Page) l;
+
+            if (pg.accessCount == 0) {
+                pg.unlink();
+                return pg;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void fix(final Page pg) {
+        if (pg.queue == AM) {
+            pg.unlink();
+            am.link(pg);
+        }
+    }
+
+    @Override
+    public void load(final Page pg) {
+        if (a1out.remove(pg.offs)) {
+            pg.queue = AM;
+            am.link(pg);
+            amSize += 1;
+        } else {
+            pg.queue = A1IN;
+            a1in.link(pg);
+            a1inSize += 1;
+        }
+    }
+
+    @Override
+    public void unfix(final Page pg, final boolean keep) {
+        if (!keep) {
+            pg.unlink();
+            (pg.queue == AM ? am : a1in).prev.link(pg);
+        }
+    }
+
+    @Override
+    public Page victim(final long addr) {
+        Page pg = null;
+
+        if (a1inSize > maxA1inSize || amSize == 0) {
+            pg = takeA1in();
+        }
+
+        if (pg == null && (pg = take(am)) != null) {
+            amSize -= 1;
+        }
+
+        if (pg == null) {
+            pg = takeA1in();
+        }
+
+        return pg;
+    }
+
+    private Page takeA1in() {
+        final Page pg = take(a1in);
+
+        if (pg != null) {
+            a1inSize -= 1;
+            a1out.add(pg.offs);
+        }
+
+        return pg;
+    }
+}
@@ -23,6 +23,8 @@ public class XMLExporter {
 
     private int[] compoundKeyTypes;
 
+    private boolean compactStringKeys; // keys of the exported index are strings stored as byte arrays
+
     public XMLExporter(final StorageImpl storage, final Writer writer) {
         this.storage = storage;
         this.writer = writer;
@@ -36,6 +38,13 @@ public class XMLExporter {
         }
         if (compoundKeyTypes != null) {
             exportCompoundKey(body, offs, size, type);
+        } else if (compactStringKeys) {
+            writer.write(" key=\"");
+            final String str = BtreeCompactStringIndex.unpackKey(body, offs, size);
+            for (int i = 0; i < str.length(); i++) {
+                exportChar(str.charAt(i));
+            }
+            writer.write("\"");
         } else {
             writer.write(" key=\"");
             exportKey(body, offs, size, type);
@@ -163,6 +172,14 @@ public class XMLExporter {
                                             "info.freelibrary.sodbox.impl.BtreeCaseInsensitiveMultiFieldIndex");
                                 } else if (desc.cls == BtreeCompoundIndex.class) {
                                     exportCompoundIndex(oid, obj);
+                                } else if (desc.cls == BtreeCompactStringIndex.class) {
+                                    compactStringKeys = true;
+                                    exportIndex(oid, obj, "info.freelibrary.sodbox.impl.Btree");
+                                    compactStringKeys = false;
+                                } else if (desc.cls == BtreeCompactStringFieldIndex.class) {
+                                    compactStringKeys = true;
+                                    exportFieldIndex(oid, obj, "info.freelibrary.sodbox.impl.BtreeFieldIndex");
+                                    compactStringKeys = false;
                                 } else {
                                     final String className = exportIdentifier(desc.name);
                                     writer.write(" <" + className + " id=\"" + oid + "\">\n");
@@ -210,7 +227,7 @@ public class XMLExporter {
         final Btree btree = new Btree(data, ObjectHeader.sizeof);
         storage.assignOid(btree, oid, false);
         writer.write(" <" + name + " id=\"" + oid + "\" unique=\"" + (btree.unique ? '1' : '0') + "\" type=\"" +
-                ClassDescriptor.signature[btree.type] + "\">\n");
+                ClassDescriptor.signature[compactStringKeys ? ClassDescriptor.tpString : btree.type] + "\">\n");
         btree.export(this);
         writer.write(" </" + name + ">\n");
     }
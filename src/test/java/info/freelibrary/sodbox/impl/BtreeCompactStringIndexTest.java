@@ -0,0 +1,268 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.FieldIndex;
+import info.freelibrary.sodbox.GenericIndex;
+import info.freelibrary.sodbox.Index;
+import info.freelibrary.sodbox.Key;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests B-Trees with compact string keys and truncated separators.
+ */
+public class BtreeCompactStringIndexTest {
+
+    private static final int ITEMS = 5000;
+
+    private static final String[] SECTIONS = { "books", "music", "m\u00fcsic", "\u4e2d\u6587", "tools" };
+
+    private File myFile;
+
+    private StorageImpl myStorage;
+
+    private final TreeMap<String, Item> myItems = new TreeMap<>();
+
+    @Before
+    public void before() throws IOException {
+        myFile = File.createTempFile("sodbox-compact", ".dbs");
+        myFile.delete();
+        open();
+    }
+
+    @After
+    public void after() {
+        if (myStorage.isOpened()) {
+            myStorage.close();
+        }
+
+        myFile.delete();
+    }
+
+    /**
+     * Splits of the leaf pages in random order of the keys insert truncated separators and removal of the keys merges
+     * and redistributes the pages separated by them.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInsertAndRemove() {
+        Index<Item> index = myStorage.createIndex(String.class, true);
+
+        assertTrue(index instanceof BtreeCompactStringIndex);
+        myStorage.setRoot(index);
+
+        final List<Item> items = createItems(ITEMS);
+
+        for (final Item item : items) {
+            assertTrue(index.put(new Key(item.myKey), item));
+        }
+
+        assertFalse(index.put(new Key(items.get(0).myKey), new Item()));
+        assertTrue(((Btree<?>) index).height > 2);
+        check(index);
+
+        myStorage.commit();
+        myStorage.close();
+        open();
+        index = (Index<Item>) myStorage.getRoot();
+        check(index);
+
+        Collections.shuffle(items, new Random(2));
+
+        for (int i = 0; i < items.size(); i++) {
+            final Item item = items.get(i);
+
+            assertEquals(item.myKey, index.remove(new Key(item.myKey)).myKey);
+            myItems.remove(item.myKey);
+
+            if (i % 500 == 0 || items.size() - i < 50) {
+                check(index);
+            }
+        }
+
+        assertEquals(0, index.size());
+        assertEquals(0, ((Btree<?>) index).height);
+    }
+
+    /**
+     * Keys which are prefixes of the searched word are spread over many leaf pages by the keys which are not.
+     */
+    @Test
+    public void testPrefixSearch() {
+        final Index<Item> index = myStorage.createIndex(String.class, false);
+        final StringBuilder word = new StringBuilder();
+
+        for (int i = 0; i < 200; i++) {
+            word.append((char) ('a' + i % 26));
+        }
+
+        final ArrayList<String> prefixes = new ArrayList<>();
+
+        for (int i = 1; i <= word.length(); i += 10) {
+            final String prefix = word.substring(0, i);
+
+            prefixes.add(prefix);
+            put(index, prefix);
+
+            for (int j = 0; j < 30; j++) {
+                put(index, prefix + "#" + j); // between this prefix and the next one
+            }
+        }
+
+        myStorage.setRoot(index);
+        myStorage.commit();
+        assertTrue(((Btree<?>) index).height > 1);
+
+        final ArrayList<Item> found = index.prefixSearchList(word.toString());
+
+        assertEquals(prefixes.size(), found.size());
+
+        for (int i = 0; i < found.size(); i++) {
+            assertEquals(prefixes.get(i), found.get(i).myKey);
+        }
+
+        assertEquals(0, index.prefixSearchList("b" + word).size());
+        assertEquals(1, index.prefixSearchList("a").size());
+
+        final String prefix = prefixes.get(prefixes.size() / 2);
+
+        assertEquals(myItems.subMap(prefix, prefix + Character.MAX_VALUE).size(), index.getPrefixList(prefix)
+                .size());
+    }
+
+    @Test
+    public void testFieldIndex() {
+        final FieldIndex<Item> index = myStorage.createFieldIndex(Item.class, "myKey", true);
+
+        assertTrue(index instanceof BtreeCompactStringFieldIndex);
+        assertEquals(String.class, index.getKeyType());
+        myStorage.setRoot(index);
+
+        final List<Item> items = createItems(ITEMS);
+
+        for (final Item item : items) {
+            assertTrue(index.put(item));
+        }
+
+        check(index);
+
+        final String prefix = "http://www.example.com/catalog/" + SECTIONS[3] + "/";
+        final ArrayList<Item> found = index.getPrefixList(prefix);
+
+        assertEquals(myItems.subMap(prefix, prefix + Character.MAX_VALUE).size(), found.size());
+
+        for (final Item item : found) {
+            assertTrue(item.myKey.startsWith(prefix));
+        }
+
+        for (int i = 0; i < items.size(); i += 2) {
+            index.remove(items.get(i));
+            myItems.remove(items.get(i).myKey);
+        }
+
+        check(index);
+    }
+
+    private void open() {
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+        myStorage.setProperty("sodbox.compact.string.keys", Boolean.TRUE);
+        myStorage.open(myFile.getPath(), 1024 * 1024);
+    }
+
+    private void put(final Index<Item> index, final String key) {
+        final Item item = new Item();
+
+        item.myKey = key;
+        myItems.put(key, item);
+        index.put(new Key(key), item);
+    }
+
+    /**
+     * Creates items with long common prefixes of the keys in random order.
+     */
+    private List<Item> createItems(final int count) {
+        final List<Item> items = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            final Item item = new Item();
+
+            item.myKey = "http://www.example.com/catalog/" + SECTIONS[i % SECTIONS.length] + "/item-" + (i * 7919 %
+                    count) + "/details";
+            items.add(item);
+            myItems.put(item.myKey, item);
+        }
+
+        Collections.shuffle(items, new Random(1));
+        return items;
+    }
+
+    /**
+     * Compares the index with the expected items, looking up the keys and the missing keys which fall between them.
+     */
+    private void check(final GenericIndex<Item> index) {
+        assertEquals(myItems.size(), index.size());
+
+        final Iterator<Map.Entry<Object, Item>> iterator = index.entryIterator();
+
+        for (final Map.Entry<String, Item> expected : myItems.entrySet()) {
+            final Map.Entry<Object, Item> entry = iterator.next();
+
+            assertEquals(expected.getKey(), entry.getKey());
+            assertEquals(expected.getKey(), entry.getValue().myKey);
+        }
+
+        assertFalse(iterator.hasNext());
+
+        int i = 0;
+
+        for (final String key : myItems.keySet()) {
+            if (i++ % 7 != 0) {
+                continue;
+            }
+
+            assertEquals(key, index.get(new Key(key)).myKey);
+
+            final String before = key.substring(0, key.length() - 1);
+            final String after = key + '\u0000';
+
+            assertNull(index.get(new Key(before)));
+            assertNull(index.get(new Key(after)));
+            assertFirst(myItems.ceilingKey(before), index, before);
+            assertFirst(myItems.higherKey(key), index, after);
+        }
+    }
+
+    private static void assertFirst(final String expected, final GenericIndex<Item> index, final String from) {
+        final Iterator<Item> iterator = index.iterator(new Key(from), null, GenericIndex.ASCENT_ORDER);
+
+        if (expected == null) {
+            assertFalse(iterator.hasNext());
+        } else {
+            assertEquals(expected, iterator.next().myKey);
+        }
+    }
+
+    static class Item extends Persistent {
+
+        String myKey;
+    }
+}
@@ -0,0 +1,155 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.Index;
+import info.freelibrary.sodbox.Key;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.StorageError;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests bulk load of B-Tree indices.
+ */
+public class BulkLoadTest {
+
+    private static final int ITEMS = 10000;
+
+    private File myFile;
+
+    private StorageImpl myStorage;
+
+    @Before
+    public void before() throws IOException {
+        myFile = File.createTempFile("sodbox-bulk", ".dbs");
+        myFile.delete();
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+    }
+
+    @After
+    public void after() {
+        if (myStorage.isOpened()) {
+            myStorage.close();
+        }
+
+        myFile.delete();
+    }
+
+    @Test
+    public void testLoad() {
+        myStorage.open(myFile.getPath(), 1024 * 1024);
+
+        final Index<Item> index = myStorage.createIndex(int.class, true);
+
+        index.bulkLoad(createEntries(ITEMS).iterator(), 0.8f);
+        myStorage.setRoot(index);
+        myStorage.commit();
+
+        assertEquals(ITEMS, index.size());
+        assertEquals(100, index.countRange(new Key(1000), new Key(1198)));
+
+        int key = 0;
+
+        for (final Item item : index) {
+            assertEquals(key, item.myKey);
+            key += 2;
+        }
+    }
+
+    /**
+     * Pages written before the unsorted key is found should be deallocated.
+     */
+    @Test
+    public void testUnsortedInput() {
+        myStorage.open(myFile.getPath(), 1024 * 1024);
+
+        final List<Map.Entry<Object, Item>> entries = createEntries(ITEMS);
+
+        entries.add(entries.get(ITEMS / 2));
+        checkFailedLoad(myStorage.<Item>createIndex(int.class, false), entries, StorageError.INVALID_OPERATION);
+    }
+
+    /**
+     * Pages written before the duplicate key is found should be deallocated.
+     */
+    @Test
+    public void testDuplicateKey() {
+        myStorage.open(myFile.getPath(), 1024 * 1024);
+
+        final List<Map.Entry<Object, Item>> entries = createEntries(ITEMS);
+
+        entries.add(entries.get(ITEMS - 1));
+        checkFailedLoad(myStorage.<Item>createIndex(int.class, true), entries, StorageError.KEY_NOT_UNIQUE);
+    }
+
+    @Test
+    public void testDuplicateKeyInAltBtree() {
+        myStorage.setProperty("sodbox.alternative.btree", Boolean.TRUE);
+        myStorage.open(myFile.getPath(), 1024 * 1024);
+
+        final List<Map.Entry<Object, Item>> entries = createEntries(ITEMS);
+
+        entries.add(entries.get(ITEMS - 1));
+        checkFailedLoad(myStorage.<Item>createIndex(int.class, true), entries, StorageError.KEY_NOT_UNIQUE);
+    }
+
+    private void checkFailedLoad(final Index<Item> index, final List<Map.Entry<Object, Item>> entries,
+            final int errorCode) {
+        myStorage.setRoot(index);
+
+        for (final Map.Entry<Object, Item> entry : entries) {
+            myStorage.makePersistent(entry.getValue());
+        }
+
+        myStorage.commit();
+
+        final long usedSize = myStorage.getUsedSize();
+
+        try {
+            index.bulkLoad(entries.iterator(), 1.0f);
+            fail();
+        } catch (final StorageError x) {
+            assertEquals(errorCode, x.getErrorCode());
+        }
+
+        myStorage.commit();
+
+        assertEquals(usedSize, myStorage.getUsedSize());
+        assertEquals(0, index.size());
+
+        // index is still empty and can be loaded
+        index.bulkLoad(entries.subList(0, ITEMS).iterator(), 1.0f);
+        assertEquals(ITEMS, index.size());
+    }
+
+    private static List<Map.Entry<Object, Item>> createEntries(final int count) {
+        final List<Map.Entry<Object, Item>> entries = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            final Item item = new Item();
+
+            item.myKey = i * 2;
+            entries.add(new AbstractMap.SimpleEntry<Object, Item>(item.myKey, item));
+        }
+
+        return entries;
+    }
+
+    static class Item extends Persistent {
+
+        int myKey;
+    }
+}
@@ -0,0 +1,191 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests that objects serialized through method handles have the same format as objects serialized by reflection.
+ */
+public class ClassSerializerTest {
+
+    private File myFile;
+
+    private StorageImpl myStorage;
+
+    @Before
+    public void before() throws IOException {
+        myFile = File.createTempFile("sodbox-serializer", ".dbs");
+        myFile.delete();
+    }
+
+    @After
+    public void after() {
+        if (myStorage != null && myStorage.isOpened()) {
+            myStorage.close();
+        }
+
+        myFile.delete();
+    }
+
+    @Test
+    public void testSameFormat() {
+        final byte[] handles = store(true, createRecord());
+
+        after();
+
+        final byte[] reflection = store(false, createRecord());
+
+        assertArrayEquals(reflection, handles);
+    }
+
+    @Test
+    public void testSameFormatOfNulls() {
+        final byte[] handles = store(true, new Record());
+
+        after();
+
+        final byte[] reflection = store(false, new Record());
+
+        assertArrayEquals(reflection, handles);
+    }
+
+    @Test
+    public void testLoadByReflection() {
+        store(true, createRecord());
+        myStorage.close();
+        checkRecord(load(false));
+    }
+
+    @Test
+    public void testLoadByHandles() {
+        store(false, createRecord());
+        myStorage.close();
+        checkRecord(load(true));
+    }
+
+    @Test
+    public void testLoadNulls() {
+        store(false, new Record());
+        myStorage.close();
+
+        final Record record = load(true);
+
+        assertNull(record.myString);
+        assertNull(record.myDate);
+        assertNull(record.myColor);
+        assertNull(record.myBytes);
+        assertNull(record.myInts);
+        assertNull(record.myRef);
+    }
+
+    private byte[] store(final boolean methodHandles, final Record record) {
+        open(methodHandles);
+        myStorage.setRoot(record);
+        myStorage.commit();
+
+        assertEquals(methodHandles, myStorage.myMethodHandles);
+        assertNotNull(myStorage.getClassDescriptor(Record.class).getSerializer());
+        return myStorage.get(myStorage.getOid(record));
+    }
+
+    private Record load(final boolean methodHandles) {
+        open(methodHandles);
+        return (Record) myStorage.getRoot();
+    }
+
+    private void open(final boolean methodHandles) {
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+        myStorage.setProperty("sodbox.method.handles", methodHandles);
+        myStorage.open(myFile.getPath(), 1024 * 1024);
+    }
+
+    private static Record createRecord() {
+        final Record record = new Record();
+
+        record.myBoolean = true;
+        record.myByte = -2;
+        record.myChar = '\u20ac';
+        record.myShort = -300;
+        record.myInt = 123456789;
+        record.myLong = -1234567890123L;
+        record.myFloat = 1.5f;
+        record.myDouble = -2.25;
+        record.myString = "record \u00e9";
+        record.myDate = new Date(1000000L);
+        record.myColor = Color.BLUE;
+        record.myBytes = new byte[] { 1, 2, 3 };
+        record.myInts = new int[] { 4, 5 };
+        record.myRef = new Record();
+        record.myRef.myInt = 7;
+
+        return record;
+    }
+
+    private static void checkRecord(final Record record) {
+        assertTrue(record.myBoolean);
+        assertEquals(-2, record.myByte);
+        assertEquals('\u20ac', record.myChar);
+        assertEquals(-300, record.myShort);
+        assertEquals(123456789, record.myInt);
+        assertEquals(-1234567890123L, record.myLong);
+        assertEquals(1.5f, record.myFloat, 0);
+        assertEquals(-2.25, record.myDouble, 0);
+        assertEquals("record \u00e9", record.myString);
+        assertEquals(new Date(1000000L), record.myDate);
+        assertEquals(Color.BLUE, record.myColor);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, record.myBytes);
+        assertArrayEquals(new int[] { 4, 5 }, record.myInts);
+        assertNotNull(record.myRef);
+        assertEquals(7, record.myRef.myInt);
+    }
+
+    enum Color {
+        RED, GREEN, BLUE
+    }
+
+    static class Record extends Persistent {
+
+        boolean myBoolean;
+
+        byte myByte;
+
+        char myChar;
+
+        short myShort;
+
+        int myInt;
+
+        long myLong;
+
+        float myFloat;
+
+        double myDouble;
+
+        String myString;
+
+        Date myDate;
+
+        Color myColor;
+
+        byte[] myBytes;
+
+        int[] myInts; // serialized by reflection
+
+        Record myRef;
+    }
+}
@@ -0,0 +1,189 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.FieldIndex;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.StorageFactory;
+import info.freelibrary.sodbox.StorageListener;
+
+/**
+ * Tests online compaction of the database file.
+ */
+public class CompactionTest {
+
+    private static final int ITEMS = 5000;
+
+    private File myFile;
+
+    private StorageImpl myStorage;
+
+    @Before
+    public void before() throws IOException {
+        myFile = File.createTempFile("sodbox-compaction", ".dbs");
+        myFile.delete();
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+    }
+
+    @After
+    public void after() {
+        if (myStorage.isOpened()) {
+            myStorage.close();
+        }
+
+        myFile.delete();
+    }
+
+    /**
+     * Objects at the end of the file should be moved to the space of the deleted objects and the file should be
+     * truncated.
+     */
+    @Test
+    public void testCompact() {
+        final Listener listener = new Listener();
+        final Root root = open(listener);
+
+        populate(root);
+
+        final long length = myFile.length();
+        final long reduced = myStorage.compact();
+
+        assertTrue(reduced > length / 4);
+        assertEquals(length - reduced, myFile.length());
+        assertEquals(myFile.length(), listener.myFileSize);
+        assertTrue(listener.myRelocatedCount > 0);
+        assertEquals(0, listener.myRemainingCount);
+
+        check(root);
+        myStorage.close();
+
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+        check(open(null));
+        assertEquals(0, myStorage.compact());
+    }
+
+    /**
+     * Compaction made by small steps should have the same result.
+     */
+    @Test
+    public void testCompactBySteps() {
+        final Listener listener = new Listener();
+
+        myStorage.setProperty("sodbox.compaction.step", 64 * 1024);
+        myStorage.setProperty("sodbox.compaction.pause", 0);
+
+        final Root root = open(listener);
+
+        populate(root);
+
+        final long length = myFile.length();
+
+        assertTrue(myStorage.compact() > length / 4);
+        assertTrue(listener.mySteps > 1);
+        check(root);
+    }
+
+    private Root open(final StorageListener listener) {
+        myStorage.setListener(listener);
+        myStorage.open(myFile.getPath(), 1024 * 1024);
+
+        Root root = (Root) myStorage.getRoot();
+
+        if (root == null) {
+            root = new Root();
+            root.myIndex = myStorage.createFieldIndex(Item.class, "myKey", true);
+            myStorage.setRoot(root);
+            myStorage.commit();
+        }
+
+        return root;
+    }
+
+    /**
+     * Insert items and delete most of the items in the beginning of the file.
+     */
+    private void populate(final Root root) {
+        for (int i = 0; i < ITEMS; i++) {
+            root.myIndex.put(new Item(i));
+        }
+
+        myStorage.commit();
+
+        for (int i = 0; i < ITEMS * 3 / 4; i++) {
+            if (i % 10 != 0) {
+                root.myIndex.removeKey(i).deallocate();
+            }
+        }
+
+        myStorage.commit();
+    }
+
+    private void check(final Root root) {
+        int count = 0;
+
+        for (final Item item : root.myIndex) {
+            assertTrue(item.myKey >= ITEMS * 3 / 4 || item.myKey % 10 == 0);
+            assertArrayEquals(new Item(item.myKey).myData, item.myData);
+            count += 1;
+        }
+
+        assertEquals(ITEMS / 4 + ITEMS * 3 / 40, count);
+    }
+
+    static class Listener extends StorageListener {
+
+        long myFileSize;
+
+        int myRelocatedCount;
+
+        int myRemainingCount = -1;
+
+        int mySteps;
+
+        @Override
+        public void compactionCompleted(final long fileSize) {
+            myFileSize = fileSize;
+        }
+
+        @Override
+        public void compactionProgress(final int relocatedCount, final int remainingCount) {
+            myRelocatedCount = relocatedCount;
+            myRemainingCount = remainingCount;
+            mySteps += 1;
+        }
+    }
+
+    static class Root extends Persistent {
+
+        FieldIndex<Item> myIndex;
+    }
+
+    static class Item extends Persistent {
+
+        int myKey;
+
+        byte[] myData;
+
+        Item() {
+        }
+
+        Item(final int key) {
+            myKey = key;
+            myData = new byte[200];
+
+            for (int i = 0; i < myData.length; i++) {
+                myData[i] = (byte) (key + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.FieldIndex;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.Storage;
+import info.freelibrary.sodbox.StorageError;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests group commit of thread transactions.
+ */
+public class GroupCommitTest {
+
+    private static final long TIMEOUT = 10000;
+
+    private File myFile;
+
+    private FailingFile myOSFile;
+
+    private StorageImpl myStorage;
+
+    @Before
+    public void before() throws IOException {
+        myFile = File.createTempFile("sodbox-group", ".dbs");
+        myFile.delete();
+        myOSFile = new FailingFile(myFile.getPath());
+    }
+
+    @After
+    public void after() {
+        myOSFile.myFail = false;
+
+        if (myStorage != null && myStorage.isOpened()) {
+            myStorage.close();
+        }
+
+        myFile.delete();
+    }
+
+    /**
+     * Changes of the transaction should be committed when <code>endThreadTransaction</code> returns.
+     */
+    @Test
+    public void testGroupCommit() throws Exception {
+        final int threads = 4;
+        final int transactions = 50;
+        final Root root = open(20, 0);
+        final Thread[] workers = new Thread[threads];
+        final Result[] results = new Result[threads];
+
+        for (int i = 0; i < threads; i++) {
+            final int start = i * transactions;
+            final Result result = results[i] = new Result();
+
+            workers[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = start; j < start + transactions; j++) {
+                            myStorage.beginThreadTransaction(Storage.EXCLUSIVE_TRANSACTION);
+                            root.myIndex.put(new Item(j));
+                            myStorage.endThreadTransaction();
+                        }
+                    } catch (final RuntimeException x) {
+                        result.myError = x;
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        for (int i = 0; i < threads; i++) {
+            workers[i].join(TIMEOUT);
+            assertFalse(workers[i].isAlive());
+            assertEquals(null, results[i].myError);
+        }
+
+        assertEquals(threads * transactions, countCommitted());
+    }
+
+    /**
+     * Threads waiting for the group should fail when the group is rolled back.
+     */
+    @Test
+    public void testRollbackOfWaitingGroup() throws Exception {
+        final Root root = open(60000, 0);
+        final Result result = new Result();
+        final Thread waiting = startWaitingTransaction(root, result);
+
+        myStorage.beginThreadTransaction(Storage.EXCLUSIVE_TRANSACTION);
+        myStorage.rollbackThreadTransaction();
+
+        waiting.join(TIMEOUT);
+        assertFalse(waiting.isAlive());
+        assertErrorCode(StorageError.TRANSACTION_ABORTED, result.myError);
+        assertEquals(0, countCommitted());
+    }
+
+    /**
+     * When the commit of the group fails, the committing thread should get the error of the commit and other threads
+     * of the group should fail too.
+     */
+    @Test
+    public void testFailedCommit() throws Exception {
+        final Root root = open(60000, 2);
+        final Result result = new Result();
+        final Thread waiting = startWaitingTransaction(root, result);
+
+        myOSFile.myFail = true;
+
+        try {
+            myStorage.beginThreadTransaction(Storage.EXCLUSIVE_TRANSACTION);
+            root.myIndex.put(new Item(2));
+            myStorage.endThreadTransaction(); // group is full, so it is committed by this thread
+            fail();
+        } catch (final StorageError x) {
+            assertEquals(StorageError.FILE_ACCESS_ERROR, x.getErrorCode());
+        }
+
+        waiting.join(TIMEOUT);
+        assertFalse(waiting.isAlive());
+        assertErrorCode(StorageError.TRANSACTION_ABORTED, result.myError);
+
+        // storage can't be used after the failed commit
+        myStorage = null;
+        myOSFile.close();
+    }
+
+    private Root open(final int window, final int batch) {
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+        myStorage.setProperty("sodbox.group.commit.window", window);
+        myStorage.setProperty("sodbox.group.commit.batch", batch);
+        myStorage.open(myOSFile, 1024 * 1024);
+
+        final Root root = new Root();
+
+        root.myIndex = myStorage.createFieldIndex(Item.class, "myKey", true);
+        myStorage.setRoot(root);
+        myStorage.commit();
+
+        return root;
+    }
+
+    /**
+     * Start the thread which ends its transaction and waits for the commit of the group.
+     */
+    private Thread startWaitingTransaction(final Root root, final Result result) {
+        final Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    myStorage.beginThreadTransaction(Storage.EXCLUSIVE_TRANSACTION);
+                    root.myIndex.put(new Item(1));
+                    myStorage.endThreadTransaction();
+                } catch (final RuntimeException x) {
+                    result.myError = x;
+                }
+            }
+        };
+
+        thread.setDaemon(true);
+        thread.start();
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue("Transaction is not waiting for the group", System.currentTimeMillis() < deadline);
+            Thread.yield();
+        }
+
+        return thread;
+    }
+
+    /**
+     * Count items committed to the database file: the copy of the file is opened as after the crash of the
+     * application.
+     */
+    private int countCommitted() throws IOException {
+        final File copy = File.createTempFile("sodbox-group-copy", ".dbs");
+        final Storage storage = StorageFactory.getInstance().createStorage();
+
+        Files.copy(myFile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        storage.open(copy.getPath(), 1024 * 1024);
+
+        try {
+            return ((Root) storage.getRoot()).myIndex.size();
+        } finally {
+            storage.close();
+            copy.delete();
+        }
+    }
+
+    private static void assertErrorCode(final int errorCode, final RuntimeException error) {
+        assertTrue(String.valueOf(error), error instanceof StorageError);
+        assertEquals(errorCode, ((StorageError) error).getErrorCode());
+    }
+
+    static class Result {
+
+        volatile RuntimeException myError;
+    }
+
+    /**
+     * Database file which sync can be made failing.
+     */
+    static class FailingFile extends OSFile {
+
+        volatile boolean myFail;
+
+        FailingFile(final String path) {
+            super(path, false, false);
+        }
+
+        @Override
+        public void sync() {
+            if (myFail) {
+                throw new StorageError(StorageError.FILE_ACCESS_ERROR);
+            }
+
+            super.sync();
+        }
+    }
+
+    static class Root extends Persistent {
+
+        FieldIndex<Item> myIndex;
+    }
+
+    static class Item extends Persistent {
+
+        int myKey;
+
+        Item() {
+        }
+
+        Item(final int key) {
+            myKey = key;
+        }
+    }
+}
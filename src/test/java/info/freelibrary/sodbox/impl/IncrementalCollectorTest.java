@@ -0,0 +1,164 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.FieldIndex;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests the write barrier of the incremental garbage collector.
+ */
+public class IncrementalCollectorTest {
+
+    private static final int ITEMS = 5000;
+
+    private File myFile;
+
+    private StorageImpl myStorage;
+
+    @Before
+    public void before() throws IOException {
+        myFile = File.createTempFile("sodbox-gc", ".dbs");
+        myFile.delete();
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+        myStorage.open(myFile.getPath(), 1024 * 1024);
+    }
+
+    @After
+    public void after() {
+        myStorage.myIncrementalCollector = null;
+
+        if (myStorage.isOpened()) {
+            myStorage.close();
+        }
+
+        myFile.delete();
+    }
+
+    /**
+     * Objects moved by a transaction from the B-Tree being scanned to the already scanned root should be reached
+     * through the committed images of the B-Tree pages retained by the barrier.
+     */
+    @Test
+    public void testMoveFromTreeBeingScanned() {
+        final Root root = createRoot();
+        final IncrementalCollector collector = startCollector();
+
+        // root, index object and the root page of the index
+        for (int i = 0; i < 3; i++) {
+            assertFalse(collector.mark(Long.MIN_VALUE));
+        }
+
+        root.myMoved = root.myIndex.toArray(new Item[ITEMS]);
+
+        root.myIndex.deallocate();
+        root.myIndex = null;
+        root.modify();
+        myStorage.commit();
+
+        assertTrue(collector.isMarking());
+        completeCollection(collector);
+
+        assertEquals(ITEMS, countMoved());
+    }
+
+    /**
+     * Objects moved from a B-Tree which was not scanned yet should be reached through the scan of the B-Tree shaded
+     * by the barrier.
+     */
+    @Test
+    public void testMoveFromUnscannedTree() {
+        final Root root = createRoot();
+        final IncrementalCollector collector = startCollector();
+
+        assertFalse(collector.mark(Long.MIN_VALUE)); // only root is scanned
+
+        root.myMoved = root.myIndex.toArray(new Item[ITEMS]);
+
+        root.myIndex.clear();
+        root.modify();
+        myStorage.commit();
+
+        completeCollection(collector);
+
+        assertEquals(ITEMS, countMoved());
+        assertEquals(0, myStorage.gc());
+    }
+
+    private Root createRoot() {
+        final Root root = new Root();
+
+        root.myIndex = myStorage.createFieldIndex(Item.class, "myKey", true);
+
+        for (int i = 0; i < ITEMS; i++) {
+            final Item item = new Item();
+
+            item.myKey = i;
+            root.myIndex.put(item);
+        }
+
+        myStorage.setRoot(root);
+        myStorage.commit();
+
+        return root;
+    }
+
+    private IncrementalCollector startCollector() {
+        final IncrementalCollector collector = new IncrementalCollector(myStorage);
+
+        collector.start();
+        myStorage.myIncrementalCollector = collector;
+
+        return collector;
+    }
+
+    private void completeCollection(final IncrementalCollector collector) {
+        while (!collector.mark(Long.MIN_VALUE)) {
+            myStorage.commit(); // nothing is modified
+        }
+
+        synchronized (myStorage) {
+            synchronized (myStorage.myObjectCache) {
+                while (!collector.sweep(Long.MAX_VALUE)) {
+                }
+            }
+        }
+
+        myStorage.myIncrementalCollector = null;
+        myStorage.commit();
+        myStorage.clearObjectCache();
+    }
+
+    private int countMoved() {
+        final Item[] moved = ((Root) myStorage.getRoot()).myMoved;
+
+        for (int i = 0; i < moved.length; i++) {
+            assertEquals(i, moved[i].myKey);
+        }
+
+        return moved.length;
+    }
+
+    static class Root extends Persistent {
+
+        FieldIndex<Item> myIndex;
+
+        Item[] myMoved;
+    }
+
+    static class Item extends Persistent {
+
+        int myKey;
+    }
+}
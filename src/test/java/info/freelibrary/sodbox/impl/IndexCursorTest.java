@@ -0,0 +1,146 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ConcurrentModificationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.Index;
+import info.freelibrary.sodbox.IndexCursor;
+import info.freelibrary.sodbox.Key;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests cursors of the paged B-Tree.
+ */
+public class IndexCursorTest {
+
+    private static final int ITEMS = 20000;
+
+    private File myFile;
+
+    private StorageImpl myStorage;
+
+    private Index<Item> myIndex;
+
+    @Before
+    public void before() throws IOException {
+        myFile = File.createTempFile("sodbox-cursor", ".dbs");
+        myFile.delete();
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+        myStorage.open(myFile.getPath(), 16 * Page.pageSize);
+        myIndex = myStorage.createIndex(int.class, true);
+
+        for (int i = 0; i < ITEMS; i++) {
+            final Item item = new Item();
+
+            item.myKey = i * 2;
+            myIndex.put(new Key(item.myKey), item);
+        }
+
+        myStorage.setRoot(myIndex);
+        myStorage.commit();
+    }
+
+    @After
+    public void after() {
+        if (myStorage.isOpened()) {
+            myStorage.close();
+        }
+
+        myFile.delete();
+    }
+
+    @Test
+    public void testNextAndPrev() {
+        try (IndexCursor<Item> cursor = myIndex.cursor(new Key(100), new Key(9000, false))) {
+            int key = 100;
+
+            while (cursor.next()) {
+                assertEquals(key, cursor.getKey());
+                assertEquals(key, cursor.getValue().myKey);
+                key += 2;
+            }
+
+            assertEquals(9000, key);
+            assertFalse(cursor.isPositioned());
+
+            while (cursor.prev()) {
+                key -= 2;
+                assertEquals(key, cursor.getKey());
+            }
+
+            assertEquals(100, key);
+        }
+    }
+
+    @Test
+    public void testSeek() {
+        try (IndexCursor<Item> cursor = myIndex.cursor(new Key(1000), new Key(3000))) {
+            assertTrue(cursor.seek(new Key(2001)));
+            assertEquals(2002, cursor.getKey());
+            assertTrue(cursor.prev());
+            assertEquals(2000, cursor.getKey());
+            assertTrue(cursor.seek(new Key(10)));
+            assertEquals(1000, cursor.getKey());
+            assertFalse(cursor.seek(new Key(3001)));
+            assertTrue(cursor.last());
+            assertEquals(3000, cursor.getKey());
+            assertTrue(cursor.first());
+            assertEquals(1000, cursor.getKey());
+        }
+    }
+
+    /**
+     * Cursors which are not closed shouldn't keep pages of the small page pool pinned.
+     */
+    @Test
+    public void testAbandonedCursors() {
+        for (int i = 0; i < 64; i++) {
+            final IndexCursor<Item> cursor = myIndex.cursor();
+            final int key = i * (ITEMS / 64) * 2; // each cursor is positioned at another leaf
+
+            assertTrue(cursor.seek(new Key(key)));
+            assertEquals(key, cursor.getKey());
+        }
+
+        int count = 0;
+
+        for (final Item item : myIndex) {
+            assertEquals(count * 2, item.myKey);
+            count += 1;
+        }
+
+        assertEquals(ITEMS, count);
+    }
+
+    @Test
+    public void testModificationDuringIteration() {
+        try (IndexCursor<Item> cursor = myIndex.cursor()) {
+            assertTrue(cursor.first());
+            myIndex.remove(new Key(0));
+
+            try {
+                cursor.next();
+                fail();
+            } catch (final ConcurrentModificationException x) {
+                assertFalse(cursor.isPositioned());
+            }
+        }
+    }
+
+    static class Item extends Persistent {
+
+        int myKey;
+    }
+}
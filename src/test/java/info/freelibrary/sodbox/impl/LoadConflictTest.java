@@ -0,0 +1,271 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.ILoadable;
+import info.freelibrary.sodbox.IStoreable;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.SelfSerializable;
+import info.freelibrary.sodbox.SodboxInputStream;
+import info.freelibrary.sodbox.SodboxOutputStream;
+import info.freelibrary.sodbox.Storage;
+import info.freelibrary.sodbox.StorageError;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests threads loading the same objects while holding the storage or object cache monitor.
+ */
+public class LoadConflictTest {
+
+    private static final long TIMEOUT = 10000;
+
+    private File myFile;
+
+    private StorageImpl myStorage;
+
+    private boolean myDeadlock;
+
+    @Before
+    public void before() throws IOException {
+        myFile = File.createTempFile("sodbox-load", ".dbs");
+        myFile.delete();
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+        myStorage.open(myFile.getPath(), Storage.DEFAULT_PAGE_POOL_SIZE);
+    }
+
+    @After
+    public void after() {
+        Root.ourWaiting = null;
+        Target.ourLoading = null;
+        Target.ourStoring = null;
+        Source.ourStoring = null;
+
+        if (myStorage.isOpened() && !myDeadlock) { // deadlocked threads hold the monitors of the storage
+            myStorage.close();
+        }
+
+        myFile.delete();
+    }
+
+    /**
+     * <code>getRoot</code> must not wait for the thread loading the root while holding the storage monitor, which
+     * is needed by <code>onLoad</code> of the root.
+     */
+    @Test
+    public void testGetRootWhileRootIsLoaded() throws Exception {
+        myStorage.setRoot(new Root());
+        myStorage.commit();
+        final int oid = myStorage.getOid(myStorage.getRoot());
+
+        myStorage.clearObjectCache();
+
+        final Result loaded = new Result();
+        final Result waiting = new Result();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final Thread loader = new Thread() {
+
+            @Override
+            public void run() {
+                loaded.myValue = myStorage.getObjectByOID(oid);
+            }
+        };
+        final Thread getter = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    loading.await();
+                    waiting.myValue = myStorage.getRoot();
+                } catch (final InterruptedException x) {
+                    waiting.myValue = x;
+                }
+            }
+        };
+
+        Root.ourLoading = loading;
+        Root.ourWaiting = getter;
+
+        start(loader, getter);
+        join(loader, getter);
+
+        assertNotNull(loaded.myValue);
+        assertSame(loaded.myValue, waiting.myValue);
+        assertNotNull(((Root) loaded.myValue).mySet);
+    }
+
+    /**
+     * The thread storing an object under the object cache monitor must not wait for the thread loading the object
+     * which <code>onStore</code> accesses: the loading thread needs the object cache monitor.
+     */
+    @Test
+    public void testLoadFromOnStore() throws Exception {
+        final Target target = new Target();
+        final Source source = new Source();
+
+        target.myRef = new Source();
+        myStorage.makePersistent(target);
+        myStorage.makePersistent(source);
+        myStorage.commit();
+
+        final int oid = myStorage.getOid(target);
+
+        myStorage.clearObjectCache();
+
+        final Result loaded = new Result();
+        final Result stored = new Result();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch storing = new CountDownLatch(1);
+        final Thread loader = new Thread() {
+
+            @Override
+            public void run() {
+                loaded.myValue = myStorage.getObjectByOID(oid);
+            }
+        };
+        final Thread storer = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    loading.await();
+                    source.myTarget = oid;
+                    myStorage.store(source);
+                    stored.myValue = source;
+                } catch (final InterruptedException x) {
+                    stored.myValue = x;
+                } catch (final StorageError x) {
+                    stored.myValue = x;
+                }
+            }
+        };
+
+        Target.ourLoading = loading;
+        Target.ourStoring = storing;
+        Source.ourStoring = storing;
+
+        start(loader, storer);
+        join(loader, storer);
+
+        assertTrue(loaded.myValue instanceof Target);
+        assertNotNull(((Target) loaded.myValue).myRef);
+        assertTrue(String.valueOf(stored.myValue), stored.myValue instanceof StorageError);
+        assertEquals(StorageError.LOCK_FAILED, ((StorageError) stored.myValue).getErrorCode());
+    }
+
+    private static void start(final Thread... threads) {
+        for (final Thread thread : threads) {
+            thread.setDaemon(true); // deadlocked threads shouldn't prevent the tests from completing
+            thread.start();
+        }
+    }
+
+    private void join(final Thread... threads) throws InterruptedException {
+        for (final Thread thread : threads) {
+            thread.join(TIMEOUT);
+            myDeadlock |= thread.isAlive();
+        }
+
+        assertFalse("Deadlock", myDeadlock);
+    }
+
+    /**
+     * Waits until the thread blocks in the storage or gives up after the timeout.
+     */
+    static void awaitBlocked(final Thread thread) {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (thread.getState() == Thread.State.RUNNABLE || thread.getState() == Thread.State.NEW) {
+            if (System.currentTimeMillis() > deadline) {
+                return;
+            }
+
+            Thread.yield();
+        }
+    }
+
+    static class Result {
+
+        volatile Object myValue;
+    }
+
+    static class Root extends Persistent implements ILoadable {
+
+        static volatile CountDownLatch ourLoading;
+
+        static volatile Thread ourWaiting;
+
+        transient Object mySet;
+
+        @Override
+        public void onLoad() {
+            final Thread waiting = ourWaiting;
+
+            if (waiting != null) {
+                ourLoading.countDown();
+                awaitBlocked(waiting);
+            }
+
+            mySet = getStorage().createSet(); // synchronized on the storage
+        }
+    }
+
+    static class Target extends Persistent implements SelfSerializable {
+
+        static volatile CountDownLatch ourLoading;
+
+        static volatile CountDownLatch ourStoring;
+
+        Object myRef;
+
+        @Override
+        public void pack(final SodboxOutputStream out) throws IOException {
+            out.writeObject(myRef);
+        }
+
+        @Override
+        public void unpack(final SodboxInputStream in) throws IOException {
+            final CountDownLatch loading = ourLoading;
+
+            if (loading != null) {
+                loading.countDown();
+
+                try {
+                    ourStoring.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (final InterruptedException x) {
+                    throw new IOException(x);
+                }
+            }
+
+            myRef = in.readObject(); // loading of the referenced object needs the object cache monitor
+        }
+    }
+
+    static class Source extends Persistent implements IStoreable {
+
+        static volatile CountDownLatch ourStoring;
+
+        int myTarget;
+
+        @Override
+        public void onStore() {
+            if (myTarget != 0) {
+                ourStoring.countDown(); // the object cache monitor is held while the object is stored
+                getStorage().getObjectByOID(myTarget);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests length of the file mapped by chunks.
+ */
+public class MappedChunkFileTest {
+
+    private static final int CHUNK_SIZE = 1 << Page.MAX_PAGE_SIZE_LOG;
+
+    private File myFile;
+
+    @Before
+    public void before() throws IOException {
+        myFile = File.createTempFile("sodbox-mmap", ".dbs");
+        myFile.delete();
+    }
+
+    @After
+    public void after() {
+        myFile.delete();
+    }
+
+    /**
+     * Mapping of the chunk extends the file to the chunk boundary, but the file should keep the length of the written
+     * data.
+     */
+    @Test
+    public void testLength() {
+        final byte[] data = fill(new byte[CHUNK_SIZE + 100], 1);
+        MappedChunkFile file = new MappedChunkFile(myFile.getPath(), false, true, CHUNK_SIZE, false);
+
+        file.write(0, data);
+        assertEquals(data.length, file.length());
+        file.close();
+
+        assertEquals(data.length, myFile.length());
+
+        file = new MappedChunkFile(myFile.getPath(), false, true, CHUNK_SIZE, false);
+
+        final byte[] buf = new byte[data.length + 100];
+
+        assertEquals(data.length, file.length());
+        assertEquals(data.length, file.read(0, buf));
+        assertArrayEquals(data, Arrays.copyOf(buf, data.length));
+        assertEquals(-1, file.read(data.length, new byte[10]));
+        file.close();
+    }
+
+    @Test
+    public void testTruncate() {
+        final byte[] data = fill(new byte[CHUNK_SIZE * 3], 2);
+        final long size = CHUNK_SIZE + CHUNK_SIZE / 2;
+        final MappedChunkFile file = new MappedChunkFile(myFile.getPath(), false, true, CHUNK_SIZE, false);
+
+        file.write(0, data);
+        file.truncate(size);
+
+        assertEquals(size, file.length());
+        assertEquals(size, myFile.length());
+
+        final byte[] buf = new byte[CHUNK_SIZE];
+
+        assertEquals(CHUNK_SIZE / 2, file.read(CHUNK_SIZE, buf));
+        assertArrayEquals(Arrays.copyOfRange(data, CHUNK_SIZE, (int) size), Arrays.copyOf(buf, CHUNK_SIZE / 2));
+
+        // truncated chunk is mapped again when the file grows
+        file.write(size, fill(buf, 3));
+        assertEquals(size + CHUNK_SIZE, file.length());
+        file.close();
+
+        assertEquals(size + CHUNK_SIZE, myFile.length());
+    }
+
+    /**
+     * Compaction of the database stored in the mapped file should release space of the file.
+     */
+    @Test
+    public void testCompaction() {
+        final StorageImpl storage = (StorageImpl) StorageFactory.getInstance().createStorage();
+
+        storage.setProperty("sodbox.file.kind", "mmap");
+        storage.open(myFile.getPath(), 1024 * 1024);
+
+        final Blob[] blobs = new Blob[100];
+
+        for (int i = 0; i < blobs.length; i++) {
+            blobs[i] = new Blob();
+            blobs[i].myData = fill(new byte[10000], i);
+            storage.makePersistent(blobs[i]);
+        }
+
+        final Blob root = blobs[blobs.length - 1];
+
+        storage.setRoot(root);
+        storage.commit();
+
+        for (int i = 0; i < blobs.length - 1; i++) {
+            storage.deallocate(blobs[i]);
+        }
+
+        storage.commit();
+
+        final long length = myFile.length();
+
+        assertTrue(storage.compact() > 0);
+        assertTrue(myFile.length() < length);
+        storage.close();
+
+        assertEquals(myFile.length(), storage.getDatabaseSize());
+        storage.open(myFile.getPath(), 1024 * 1024);
+        assertArrayEquals(root.myData, ((Blob) storage.getRoot()).myData);
+        storage.close();
+    }
+
+    private static byte[] fill(final byte[] buf, final int seed) {
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = (byte) (i * 31 + seed);
+        }
+
+        return buf;
+    }
+
+    static class Blob extends Persistent {
+
+        byte[] myData;
+    }
+}
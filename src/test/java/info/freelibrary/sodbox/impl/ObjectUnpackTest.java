@@ -0,0 +1,223 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.IValue;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.SelfSerializable;
+import info.freelibrary.sodbox.SodboxInputStream;
+import info.freelibrary.sodbox.SodboxOutputStream;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests unpacking of objects directly from the pages of the page pool.
+ */
+public class ObjectUnpackTest {
+
+    private File myFile;
+
+    private StorageImpl myStorage;
+
+    @Before
+    public void before() throws IOException {
+        myFile = File.createTempFile("sodbox-unpack", ".dbs");
+        myFile.delete();
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+    }
+
+    @After
+    public void after() {
+        if (myStorage.isOpened()) {
+            myStorage.close();
+        }
+
+        myFile.delete();
+    }
+
+    /**
+     * Fields which are not present in the body of the object (stored by the previous version of the class) should
+     * keep their default values instead of being read from the next object in the page, also in value fields.
+     */
+    @Test
+    public void testShortObjectInPage() {
+        myStorage.open(myFile.getPath(), 1024 * 1024);
+
+        final Record record = new Record();
+        record.myCount = 1;
+        record.myPoint = new Point(2, 3);
+        record.myText = "name";
+
+        final Record next = new Record(); // following record in the same page
+        next.myCount = 4;
+        next.myPoint = new Point(5, 6);
+
+        myStorage.makePersistent(record);
+        myStorage.makePersistent(next);
+        myStorage.commit();
+
+        final int oid = myStorage.getOid(record);
+        final long pos = myStorage.getPos(oid) & ~StorageImpl.DB_FLAGS_MASK;
+        final int offs = (int) pos & (myStorage.myPageSize - 1);
+        final Page page = myStorage.myPagePool.putPage(pos - offs);
+
+        // fields are stored in the order of their names: cut the body after the first coordinate of the point
+        ObjectHeader.setSize(page.data, offs, ObjectHeader.sizeof + 4 + 4);
+        myStorage.myPagePool.unfix(page);
+        myStorage.clearObjectCache();
+
+        final Record loaded = (Record) myStorage.getObjectByOID(oid);
+
+        assertEquals(1, loaded.myCount);
+        assertEquals(2, loaded.myPoint.myX);
+        assertEquals(0, loaded.myPoint.myY);
+        assertNull(loaded.myText);
+    }
+
+    /**
+     * Threads unpacking objects directly from the pages should leave enough unpinned pages in the pool: all threads
+     * are stopped while their objects are unpacked, so each of them keeps its page pinned.
+     */
+    @Test
+    public void testConcurrentLoadWithSmallPool() throws Exception {
+        final int nThreads = 48;
+
+        myStorage.open(myFile.getPath(), 24 * Page.pageSize);
+
+        final int[] oids = new int[nThreads + 1];
+
+        for (int i = 0; i < oids.length; i++) {
+            final Chunk chunk = new Chunk();
+            final Chunk filler = new Chunk(); // places the next chunk in another page
+
+            chunk.myData = new byte[100];
+            filler.myData = new byte[Page.pageSize + 100];
+            myStorage.makePersistent(chunk);
+            myStorage.makePersistent(filler);
+            oids[i] = myStorage.getOid(chunk);
+        }
+
+        myStorage.commit();
+        myStorage.clearObjectCache();
+
+        // class descriptor is loaded before, otherwise other threads wait for the thread loading it
+        assertEquals(100, ((Chunk) myStorage.getObjectByOID(oids[0])).myData.length);
+
+        final List<Throwable> errors = new ArrayList<>();
+        final Thread[] threads = new Thread[nThreads];
+
+        Chunk.ourLatch = new CountDownLatch(nThreads);
+
+        try {
+            for (int i = 0; i < nThreads; i++) {
+                final int oid = oids[i + 1];
+
+                threads[i] = new Thread() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            assertEquals(100, ((Chunk) myStorage.getObjectByOID(oid)).myData.length);
+                        } catch (final Throwable x) {
+                            synchronized (errors) {
+                                errors.add(x);
+                            }
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            Chunk.ourLatch = null;
+        }
+
+        if (!errors.isEmpty()) {
+            fail(errors.get(0).toString());
+        }
+
+        assertEquals(0, myStorage.myPinnedLoadPages.get());
+    }
+
+    /**
+     * Pages pinned by loading threads can belong to one segment, so the limit is defined by the smallest segment.
+     */
+    @Test
+    public void testLoadPinLimit() {
+        myStorage.setProperty("sodbox.page.pool.segments", 4);
+        myStorage.open(myFile.getPath(), 256 * Page.pageSize);
+
+        assertEquals(64 / 4, myStorage.myLoadPinLimit);
+    }
+
+    static class Point implements IValue {
+
+        int myX;
+
+        int myY;
+
+        Point() {
+        }
+
+        Point(final int x, final int y) {
+            myX = x;
+            myY = y;
+        }
+    }
+
+    static class Record extends Persistent {
+
+        int myCount;
+
+        Point myPoint;
+
+        String myText;
+    }
+
+    static class Chunk extends Persistent implements SelfSerializable {
+
+        static volatile CountDownLatch ourLatch;
+
+        byte[] myData;
+
+        @Override
+        public void pack(final SodboxOutputStream out) throws IOException {
+            out.writeInt(myData.length);
+            out.write(myData);
+        }
+
+        @Override
+        public void unpack(final SodboxInputStream in) throws IOException {
+            final CountDownLatch latch = ourLatch;
+
+            myData = new byte[in.readInt()];
+            in.readFully(myData);
+
+            if (latch != null) {
+                latch.countDown();
+
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException x) {
+                    throw new IOException(x);
+                }
+            }
+        }
+    }
+}
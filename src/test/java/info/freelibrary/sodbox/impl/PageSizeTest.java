@@ -0,0 +1,191 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.FieldIndex;
+import info.freelibrary.sodbox.Index;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.Storage;
+import info.freelibrary.sodbox.StorageError;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests databases with pages larger than the default page.
+ */
+public class PageSizeTest {
+
+    private static final int ITEMS = 10000;
+
+    private File myFile;
+
+    private File myOtherFile;
+
+    private StorageImpl myStorage;
+
+    private StorageImpl myOtherStorage;
+
+    @Before
+    public void before() throws IOException {
+        myFile = createTempFile();
+        myOtherFile = createTempFile();
+    }
+
+    @After
+    public void after() {
+        for (final Storage storage : new Storage[] { myStorage, myOtherStorage }) {
+            if (storage != null && storage.isOpened()) {
+                storage.close();
+            }
+        }
+
+        myFile.delete();
+        myOtherFile.delete();
+    }
+
+    /**
+     * Existing database should be opened with the page size recorded in its header.
+     */
+    @Test
+    public void testLargePages() {
+        myStorage = open(myFile, 65536);
+        assertEquals(65536, myStorage.myPageSize);
+        populate(myStorage);
+        myStorage.close();
+
+        myStorage = open(myFile, 0);
+        assertEquals(65536, myStorage.myPageSize);
+        check(myStorage);
+    }
+
+    /**
+     * Storages with different page sizes should be usable at the same time.
+     */
+    @Test
+    public void testDifferentPageSizes() {
+        myStorage = open(myFile, 16384);
+        myOtherStorage = open(myOtherFile, 0);
+
+        populate(myStorage);
+        populate(myOtherStorage);
+
+        assertEquals(16384, myStorage.myPageSize);
+        assertEquals(Page.pageSize, myOtherStorage.myPageSize);
+        check(myStorage);
+        check(myOtherStorage);
+    }
+
+    @Test
+    public void testBadPageSize() {
+        for (final int pageSize : new int[] { 2048, 12288, 131072 }) {
+            try {
+                StorageFactory.getInstance().createStorage().setProperty("sodbox.page.size", pageSize);
+                fail();
+            } catch (final StorageError x) {
+                assertEquals(StorageError.BAD_PROPERTY_VALUE, x.getErrorCode());
+            }
+        }
+    }
+
+    private static StorageImpl open(final File file, final int pageSize) {
+        final StorageImpl storage = (StorageImpl) StorageFactory.getInstance().createStorage();
+
+        if (pageSize != 0) {
+            storage.setProperty("sodbox.page.size", pageSize);
+        }
+
+        storage.open(file.getPath(), 4 * 1024 * 1024);
+        return storage;
+    }
+
+    /**
+     * Insert items in the order which differs from the order of both indices. Names are long enough to fill more than
+     * 32K of the large B-Tree page.
+     */
+    private static void populate(final Storage storage) {
+        final Root root = new Root();
+
+        root.myKeys = storage.createFieldIndex(Item.class, "myKey", true);
+        root.myNames = storage.createIndex(String.class, true);
+        storage.setRoot(root);
+
+        for (int i = 0; i < ITEMS; i++) {
+            final Item item = new Item(i * 7919 % ITEMS);
+
+            root.myKeys.put(item);
+            root.myNames.put(item.myName, item);
+        }
+
+        storage.commit();
+    }
+
+    private static void check(final Storage storage) {
+        final Root root = (Root) storage.getRoot();
+        int key = 0;
+
+        assertEquals(ITEMS, root.myKeys.size());
+        assertEquals(ITEMS, root.myNames.size());
+
+        for (final Item item : root.myKeys) {
+            assertEquals(key++, item.myKey);
+            assertEquals(dataSize(item.myKey), item.myData.length);
+            assertEquals((byte) item.myKey, item.myData[item.myData.length - 1]);
+        }
+
+        for (int i = 0; i < ITEMS; i += 7) {
+            assertEquals(i, root.myNames.get(name(i)).myKey);
+        }
+    }
+
+    private static String name(final int key) {
+        return "item with a long name to fill the page " + key;
+    }
+
+    /**
+     * Some of the objects are larger than the largest page.
+     */
+    private static int dataSize(final int key) {
+        return key % 1000 == 0 ? 100000 : 1 + key % 500;
+    }
+
+    private static File createTempFile() throws IOException {
+        final File file = File.createTempFile("sodbox-page", ".dbs");
+
+        file.delete();
+        return file;
+    }
+
+    static class Root extends Persistent {
+
+        FieldIndex<Item> myKeys;
+
+        Index<Item> myNames;
+    }
+
+    static class Item extends Persistent {
+
+        int myKey;
+
+        String myName;
+
+        byte[] myData;
+
+        Item() {
+        }
+
+        Item(final int key) {
+            myKey = key;
+            myName = name(key);
+            myData = new byte[dataSize(key)];
+            myData[myData.length - 1] = (byte) key;
+        }
+    }
+}
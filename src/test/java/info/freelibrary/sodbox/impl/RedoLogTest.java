@@ -0,0 +1,191 @@
+
+package info.freelibrary.sodbox.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.sodbox.FieldIndex;
+import info.freelibrary.sodbox.Persistent;
+import info.freelibrary.sodbox.StorageFactory;
+
+/**
+ * Tests recovery of transactions committed to the redo log.
+ */
+public class RedoLogTest {
+
+    private static final int TRANSACTIONS = 100;
+
+    private static final long TIMEOUT = 10000;
+
+    private File myFile;
+
+    private File myLogFile;
+
+    private File myCopy;
+
+    private File myLogCopy;
+
+    private StorageImpl myStorage;
+
+    @Before
+    public void before() throws IOException {
+        myFile = createTempFile(".dbs");
+        myLogFile = createTempFile(".log");
+        myCopy = createTempFile(".dbs");
+        myLogCopy = createTempFile(".log");
+    }
+
+    @After
+    public void after() {
+        if (myStorage != null && myStorage.isOpened()) {
+            myStorage.close();
+        }
+
+        myFile.delete();
+        myLogFile.delete();
+        myCopy.delete();
+        myLogCopy.delete();
+    }
+
+    /**
+     * Transactions which are committed only to the log should be applied to the database file when the storage is
+     * opened after a crash.
+     */
+    @Test
+    public void testRecovery() throws IOException {
+        final Root root = open(myFile, myLogFile, 64L * 1024 * 1024);
+
+        insert(root, 0, TRANSACTIONS);
+        crash();
+
+        assertEquals(TRANSACTIONS, count(myCopy, myLogCopy));
+    }
+
+    /**
+     * The record torn by a crash during commit should be ignored.
+     */
+    @Test
+    public void testTornRecord() throws IOException {
+        final Root root = open(myFile, myLogFile, 64L * 1024 * 1024);
+
+        insert(root, 0, TRANSACTIONS);
+
+        final long size = myStorage.myRedoLog.size;
+
+        crash();
+
+        try (RandomAccessFile log = new RandomAccessFile(myLogCopy, "rw")) {
+            log.seek(size - 1);
+
+            final int b = log.read();
+
+            log.seek(size - 1);
+            log.write(b ^ 0xFF); // checksum of the last record
+        }
+
+        assertEquals(TRANSACTIONS - 1, count(myCopy, myLogCopy));
+    }
+
+    /**
+     * Checkpoint should write committed pages to the database file and let the following transactions reuse space
+     * of the log.
+     */
+    @Test
+    public void testCheckpoint() throws IOException {
+        final long checkpoint = 64 * 1024;
+        final Root root = open(myFile, myLogFile, checkpoint);
+
+        for (int i = 0; i < 10; i++) {
+            insert(root, i * TRANSACTIONS, TRANSACTIONS);
+        }
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (myStorage.myRedoLog.size >= checkpoint) {
+            assertTrue("Log is not checkpointed", System.currentTimeMillis() < deadline);
+            Thread.yield();
+        }
+
+        assertTrue(myStorage.myRedoLog.allocated <= checkpoint + 2 * RedoLog.ALLOCATION_QUANTUM);
+
+        crash();
+        assertEquals(10 * TRANSACTIONS, count(myCopy, myLogCopy));
+    }
+
+    private Root open(final File file, final File logFile, final long checkpoint) {
+        myStorage = (StorageImpl) StorageFactory.getInstance().createStorage();
+        myStorage.setProperty("sodbox.redo.log.file", logFile.getPath());
+        myStorage.setProperty("sodbox.redo.log.checkpoint", checkpoint);
+        myStorage.open(file.getPath(), 1024 * 1024);
+
+        Root root = (Root) myStorage.getRoot();
+
+        if (root == null) {
+            root = new Root();
+            root.myIndex = myStorage.createFieldIndex(Item.class, "myKey", true);
+            myStorage.setRoot(root);
+            myStorage.commit();
+        }
+
+        return root;
+    }
+
+    private void insert(final Root root, final int start, final int count) {
+        for (int i = start; i < start + count; i++) {
+            final Item item = new Item();
+
+            item.myKey = i;
+            root.myIndex.put(item);
+            myStorage.commit();
+        }
+    }
+
+    /**
+     * Copy the database file and the log as they are at this moment. Checkpoint is performed while holding the storage
+     * lock, so it can't change the files during the copy.
+     */
+    private void crash() throws IOException {
+        synchronized (myStorage) {
+            Files.copy(myFile.toPath(), myCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(myLogFile.toPath(), myLogCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private int count(final File file, final File logFile) {
+        final StorageImpl storage = myStorage;
+
+        try {
+            return open(file, logFile, 64L * 1024 * 1024).myIndex.size();
+        } finally {
+            myStorage.close();
+            myStorage = storage;
+        }
+    }
+
+    private static File createTempFile(final String suffix) throws IOException {
+        final File file = File.createTempFile("sodbox-redo", suffix);
+
+        file.delete();
+        return file;
+    }
+
+    static class Root extends Persistent {
+
+        FieldIndex<Item> myIndex;
+    }
+
+    static class Item extends Persistent {
+
+        int myKey;
+    }
+}